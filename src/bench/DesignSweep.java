@@ -0,0 +1,315 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import simulator.Computer;
+import simulator.ConsoleDevice;
+import simulator.DeviceBus;
+import simulator.ElfFile;
+import simulator.Governor;
+import simulator.PipelineConfig;
+import simulator.ProgramAnalysis;
+import simulator.RunOutcome;
+import simulator.TimerDevice;
+
+/**
+ * DesignSweep runs one program on every combination of a grid of PipelineConfig parameters and prints
+ * the cycles and CPI of each. The program is read once and shared; every configuration runs on its own
+ * Computer, in parallel across all cores. Each list parameter takes comma-separated values, and
+ * parameters that are not given keep their default. Program output is discarded.
+ * <p>
+ * Every configuration has to end in the same architectural state; a configuration that does not is
+ * marked as a mismatch, since that is a bug in the pipeline rather than a design trade-off. Runs that
+ * went over budget have no final state and are not compared. With --delay-slots every configuration
+ * runs the program in delay-slot mode, see Computer.setDelaySlots().
+ * <p>
+ * --fetch-stages, --execute-stages and --memory-stages split IF, EX and MEM, see PipelineConfig.setDepth().
+ * Next to the cycles, every row shows how many more or fewer cycles it takes than the first one, and
+ * how many cycles ProgramAnalysis expects it to spend in hazard stalls and behind taken branches, which
+ * is where deeper pipelines lose what their shorter stages gain.
+ *
+ * Usage: java bench.DesignSweep program [--forwarding=on,off] [--early-branches=on,off]
+ *        [--fetch-stages=1,2,...] [--execute-stages=...] [--memory-stages=...]
+ *        [--branch-penalty=1,2,...] [--memory-latency=1,2,...] [--adder=...] [--logic=...]
+ *        [--branch-unit=...] [--address=...] [--delay-slots] [--threads=T] [--max-cycles=N]
+ * @author Egor Maksimenka
+ */
+public class DesignSweep {
+
+	/** The cycle budget of each configuration unless --max-cycles is given. */
+	private static final long DEFAULT_MAX_CYCLES = 100_000_000;
+
+	/**
+	 * The outcome of one configuration.
+	 */
+	private static class Result {
+		PipelineConfig config;
+		RunOutcome outcome;
+		/** The cycles ProgramAnalysis predicts, or null if the program did not end within the budget. */
+		ProgramAnalysis.Prediction prediction;
+		/** A hash of the final registers, memory, output and exit code. */
+		int state;
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		if (args.length == 0) {
+			System.err.println("Usage: java bench.DesignSweep program [--forwarding=on,off] [--early-branches=on,off] "
+					+ "[--fetch-stages=1,2,...] [--execute-stages=...] [--memory-stages=...] [--branch-penalty=1,2,...] [--memory-latency=...] [--adder=...] [--logic=...] [--branch-unit=...] "
+					+ "[--address=...] [--delay-slots] [--threads=T] [--max-cycles=N]");
+			System.exit(2);
+		}
+		boolean[] forwarding = {true};
+		boolean[] earlyBranches = {false};
+		boolean delaySlots = false;
+		int[] branchPenalties = {1};
+		int[] memoryLatencies = {1};
+		int[][] unitLatencies = new int[PipelineConfig.Unit.values().length][];
+		Arrays.fill(unitLatencies, new int[] {1});
+		int[][] depths = new int[PipelineConfig.Stage.values().length][];
+		Arrays.fill(depths, new int[] {1});
+		int threads = Runtime.getRuntime().availableProcessors();
+		long maxCycles = DEFAULT_MAX_CYCLES;
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			String value = arg.substring(arg.indexOf('=') + 1);
+			if (arg.startsWith("--forwarding=")) {
+				forwarding = parseSwitches(value, "Forwarding");
+			} else if (arg.startsWith("--early-branches=")) {
+				earlyBranches = parseSwitches(value, "Early branches");
+			} else if (arg.equals("--delay-slots")) {
+				delaySlots = true;
+			} else if (arg.startsWith("--fetch-stages=")) {
+				depths[PipelineConfig.Stage.FETCH.ordinal()] = parseList(value);
+			} else if (arg.startsWith("--execute-stages=")) {
+				depths[PipelineConfig.Stage.EXECUTE.ordinal()] = parseList(value);
+			} else if (arg.startsWith("--memory-stages=")) {
+				depths[PipelineConfig.Stage.MEMORY.ordinal()] = parseList(value);
+			} else if (arg.startsWith("--branch-penalty=")) {
+				branchPenalties = parseList(value);
+			} else if (arg.startsWith("--memory-latency=")) {
+				memoryLatencies = parseList(value);
+			} else if (arg.startsWith("--adder=")) {
+				unitLatencies[PipelineConfig.Unit.ADDER.ordinal()] = parseList(value);
+			} else if (arg.startsWith("--logic=")) {
+				unitLatencies[PipelineConfig.Unit.LOGIC.ordinal()] = parseList(value);
+			} else if (arg.startsWith("--branch-unit=")) {
+				unitLatencies[PipelineConfig.Unit.BRANCH.ordinal()] = parseList(value);
+			} else if (arg.startsWith("--address=")) {
+				unitLatencies[PipelineConfig.Unit.ADDRESS.ordinal()] = parseList(value);
+			} else if (arg.startsWith("--threads=")) {
+				threads = Integer.parseInt(value);
+			} else if (arg.startsWith("--max-cycles=")) {
+				maxCycles = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+
+		Path path = Paths.get(args[0]);
+		ElfFile executable = ElfFile.isElf(path) ? ElfFile.read(path, false) : null;
+		String[] program = executable == null ? ProfileRunner.readProgram(path) : null;
+		List<PipelineConfig> configs = grid(forwarding, earlyBranches, depths, branchPenalties, memoryLatencies,
+				unitLatencies);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Result>> futures = new ArrayList<>();
+		long start = System.nanoTime();
+		for (PipelineConfig config : configs) {
+			long budget = maxCycles;
+			boolean slots = delaySlots;
+			futures.add(pool.submit(() -> run(config, slots, executable, program, budget)));
+		}
+		List<Result> results = new ArrayList<>();
+		for (Future<Result> future : futures)
+			results.add(future.get());
+		pool.shutdown();
+		long millis = (System.nanoTime() - start) / 1_000_000;
+
+		System.out.print(report(results));
+		System.out.println(configs.size() + " configurations on " + threads + " threads in " + millis + " ms");
+	}
+
+	/**
+	 * Private helper method. Parses a comma-separated list of cycle counts.
+	 * @param value the list
+	 * @return the cycle counts
+	 */
+	private static int[] parseList(String value) {
+		return Arrays.stream(value.split(",")).mapToInt(Integer::parseInt).toArray();
+	}
+
+	/**
+	 * Private helper method. Parses a comma-separated list of on and off.
+	 * @param value the list
+	 * @param name the name of the parameter, for the error message
+	 * @return true for every on
+	 * @exception IAG if a value is neither on nor off
+	 */
+	private static boolean[] parseSwitches(String value, String name) {
+		String[] values = value.split(",");
+		boolean[] switches = new boolean[values.length];
+		for (int v = 0; v < values.length; v++) {
+			if (!values[v].equals("on") && !values[v].equals("off"))
+				throw new IllegalArgumentException(name + " is on or off: " + values[v]);
+			switches[v] = values[v].equals("on");
+		}
+		return switches;
+	}
+
+	/**
+	 * Private helper method. Builds every combination of the parameters, varying the last stage and the
+	 * last unit fastest.
+	 * @return the configurations
+	 * @exception IAG if a value is out of range, see PipelineConfig
+	 */
+	private static List<PipelineConfig> grid(boolean[] forwarding, boolean[] earlyBranches, int[][] depths,
+			int[] branchPenalties, int[] memoryLatencies, int[][] unitLatencies) {
+		PipelineConfig.Stage[] stages = PipelineConfig.Stage.values();
+		PipelineConfig.Unit[] units = PipelineConfig.Unit.values();
+		List<PipelineConfig> configs = new ArrayList<>();
+		int depthCombinations = 1;
+		for (int[] values : depths)
+			depthCombinations *= values.length;
+		int unitCombinations = 1;
+		for (int[] latencies : unitLatencies)
+			unitCombinations *= latencies.length;
+		for (boolean forward : forwarding) {
+			for (boolean early : earlyBranches) {
+				for (int shape = 0; shape < depthCombinations; shape++) {
+					for (int penalty : branchPenalties) {
+						for (int memory : memoryLatencies) {
+							for (int combination = 0; combination < unitCombinations; combination++) {
+								PipelineConfig config = new PipelineConfig();
+								config.setForwarding(forward);
+								config.setEarlyBranches(early);
+								int rest = shape;
+								for (int s = stages.length - 1; s >= 0; s--) {
+									config.setDepth(stages[s], depths[s][rest % depths[s].length]);
+									rest /= depths[s].length;
+								}
+								config.setBranchPenalty(penalty);
+								config.setMemoryLatency(memory);
+								rest = combination;
+								for (int u = units.length - 1; u >= 0; u--) {
+									config.setLatency(units[u], unitLatencies[u][rest % unitLatencies[u].length]);
+									rest /= unitLatencies[u].length;
+								}
+								configs.add(config);
+							}
+						}
+					}
+				}
+			}
+		}
+		return configs;
+	}
+
+	/**
+	 * Private helper method. Runs the program on one configuration.
+	 * @param config the configuration
+	 * @param delaySlots true to run in delay-slot mode
+	 * @param executable the program as an executable, or null if it is given as text
+	 * @param program the program as binary instruction strings, or null if it is an executable
+	 * @param maxCycles the cycle budget
+	 * @return the result
+	 */
+	private static Result run(PipelineConfig config, boolean delaySlots, ElfFile executable, String[] program,
+			long maxCycles) {
+		Computer computer = new Computer();
+		StringBuilder output = new StringBuilder();
+		DeviceBus bus = new DeviceBus();
+		bus.attach(Computer.CONSOLE_BASE, new ConsoleDevice(output));
+		bus.attach(Computer.TIMER_BASE, new TimerDevice());
+		computer.setDeviceBus(bus);
+		computer.setPipelineConfig(config);
+		computer.setDelaySlots(delaySlots);
+		computer.setStaticAnalysis(true);
+		if (executable != null)
+			computer.loadExecutable(executable);
+		else
+			computer.loadProgram(program);
+		Governor governor = new Governor();
+		governor.setMaxCycles(maxCycles);
+
+		Result result = new Result();
+		result.config = config;
+		result.prediction = computer.getAnalysis().predict(computer, maxCycles);
+		result.outcome = computer.execute(governor);
+		int[] registers = new int[Computer.MAX_REGISTERS];
+		for (int i = 0; i < registers.length; i++)
+			registers[i] = computer.getRegisterContents()[i].getValue2sComp();
+		result.state = Arrays.hashCode(new int[] {Arrays.hashCode(registers),
+				Arrays.hashCode(computer.getMemoryContents().toWords()), output.toString().hashCode(),
+				computer.getExitCode()});
+		return result;
+	}
+
+	/**
+	 * Private helper method. Formats the results as a table, one configuration per row, in grid order.
+	 * @param results the results
+	 * @return the table
+	 */
+	private static String report(List<Result> results) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%-4s %-3s %3s %3s %3s %6s %6s %6s %6s %6s %6s %12s %12s %7s %7s %10s %10s %10s  %s%n",
+				"fwd", "res", "IF", "EX", "MEM", "branch", "memory", "adder", "logic", "br.fu", "addr", "cycles",
+				"instructions", "CPI", "vs 1st", "diff", "stalls", "br.cycles", "result"));
+		Result first = results.get(0);
+		double baseCPI = cpi(first.outcome);
+		for (Result result : results) {
+			PipelineConfig config = result.config;
+			RunOutcome outcome = result.outcome;
+			String status;
+			// A run stopped over budget has no final state to compare.
+			if (isFinished(outcome) && isFinished(first.outcome)
+					&& (result.state != first.state || outcome.status != first.outcome.status))
+				status = "MISMATCH";
+			else if (outcome.status == RunOutcome.Status.BUDGET_EXCEEDED)
+				status = "over budget";
+			else if (outcome.status == RunOutcome.Status.FAULTED)
+				status = "faulted";
+			else
+				status = "ok";
+			ProgramAnalysis.Prediction prediction = result.prediction;
+			sb.append(String.format("%-4s %-3s %3d %3d %3d %6d %6d %6d %6d %6d %6d %12d %12d %7.3f %7s %+10d %10s %10s  %s%n",
+					config.isForwarding() ? "on" : "off", config.isEarlyBranches() ? "ID" : "EX",
+					config.getDepth(PipelineConfig.Stage.FETCH), config.getDepth(PipelineConfig.Stage.EXECUTE),
+					config.getDepth(PipelineConfig.Stage.MEMORY), config.getBranchPenalty(), config.getMemoryLatency(),
+					config.getLatency(PipelineConfig.Unit.ADDER), config.getLatency(PipelineConfig.Unit.LOGIC),
+					config.getLatency(PipelineConfig.Unit.BRANCH), config.getLatency(PipelineConfig.Unit.ADDRESS),
+					outcome.cycles, outcome.instructions, cpi(outcome),
+					baseCPI == 0 || cpi(outcome) == 0 ? "n/a" : String.format("%.2fx", cpi(outcome) / baseCPI),
+					outcome.cycles - first.outcome.cycles,
+					prediction == null ? "-" : Long.toString(prediction.hazardStalls),
+					prediction == null ? "-" : Long.toString(prediction.branchCycles), status));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Private helper method. Checks whether a run ended on its own and so has a final state.
+	 * @param outcome the run
+	 * @return true if the program completed or faulted
+	 */
+	private static boolean isFinished(RunOutcome outcome) {
+		return outcome.status == RunOutcome.Status.COMPLETED || outcome.status == RunOutcome.Status.FAULTED;
+	}
+
+	/**
+	 * Private helper method. Computes cycles per instruction.
+	 * @param outcome the run
+	 * @return the CPI, 0 if no instruction completed
+	 */
+	private static double cpi(RunOutcome outcome) {
+		return outcome.instructions == 0 ? 0 : (double) outcome.cycles / outcome.instructions;
+	}
+}
@@ -0,0 +1,127 @@
+package bench;
+
+import java.util.Arrays;
+
+import fuzz.ProgramGenerator;
+import simulator.BitString;
+import simulator.Computer;
+
+/**
+ * PipelineBenchmark compares host throughput of the cycle-stepped pipeline against the threaded one
+ * on a long-running loop kernel: a nested loop that repeatedly loads, adds to and stores a counter.
+ *
+ * Usage: java bench.PipelineBenchmark [outer iterations] [measured runs]
+ * @author Egor Maksimenka
+ */
+public class PipelineBenchmark {
+
+	/** Number of unmeasured runs per engine so the JIT has compiled the hot paths. */
+	private static final int WARMUP_RUNS = 3;
+	/** Iterations of the inner loop per outer iteration. */
+	private static final int INNER_ITERATIONS = 100;
+
+	public static void main(String[] args) {
+		int outer = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+		String[] program = kernel(outer);
+
+		long instructions = runThreaded(program).instructions;
+		System.out.println("Kernel: " + instructions + " instructions, " + runs + " measured runs per engine");
+
+		Result stepped = null;
+		Result threaded = null;
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			runStepped(program);
+			runThreaded(program);
+		}
+		long steppedNanos = 0;
+		long threadedNanos = 0;
+		for (int i = 0; i < runs; i++) {
+			stepped = runStepped(program);
+			steppedNanos += stepped.nanos;
+			threaded = runThreaded(program);
+			threadedNanos += threaded.nanos;
+		}
+		if (!Arrays.equals(stepped.registers, threaded.registers) || !Arrays.equals(stepped.memory, threaded.memory))
+			throw new IllegalStateException("Engines disagree on the final state");
+
+		report("single-threaded", steppedNanos / runs, instructions);
+		report("threaded", threadedNanos / runs, instructions);
+		System.out.printf("speedup: %.2fx on %d cores%n", (double) steppedNanos / threadedNanos,
+				Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * The final state and timing of one run.
+	 */
+	private static class Result {
+		long nanos;
+		long instructions;
+		int[] registers;
+		int[] memory;
+	}
+
+	private static Result runStepped(String[] program) {
+		Computer computer = new Computer();
+		computer.loadProgram(program);
+		long start = System.nanoTime();
+		computer.executeProgram();
+		return finish(computer, start, 0);
+	}
+
+	private static Result runThreaded(String[] program) {
+		Computer computer = new Computer();
+		computer.loadProgram(program);
+		long start = System.nanoTime();
+		long instructions = computer.executeProgramThreaded(Long.MAX_VALUE);
+		return finish(computer, start, instructions);
+	}
+
+	private static Result finish(Computer computer, long start, long instructions) {
+		Result result = new Result();
+		result.nanos = System.nanoTime() - start;
+		result.instructions = instructions;
+		result.registers = values(computer.getRegisterContents());
+		result.memory = computer.getMemoryContents().toWords();
+		return result;
+	}
+
+	private static int[] values(BitString[] contents) {
+		int[] values = new int[contents.length];
+		for (int i = 0; i < contents.length; i++)
+			values[i] = contents[i].getValue2sComp();
+		return values;
+	}
+
+	private static void report(String engine, long nanos, long instructions) {
+		System.out.printf("%-16s %10.3f ms  %8.1f ns/instruction  %6.2f MIPS%n", engine, nanos / 1e6,
+				(double) nanos / instructions, instructions * 1e3 / nanos);
+	}
+
+	/**
+	 * Builds the loop kernel.
+	 * @param outer the number of outer loop iterations
+	 * @return the program in the format Computer.loadProgram expects
+	 */
+	private static String[] kernel(int outer) {
+		int[] words = {
+				ProgramGenerator.iType(8, 0, 1, outer),               // 0: addi $1, $0, outer
+				ProgramGenerator.iType(8, 0, 2, INNER_ITERATIONS),    // 1: addi $2, $0, INNER_ITERATIONS
+				ProgramGenerator.iType(35, 0, 3, 0),                  // 2: lw   $3, 0($0)
+				ProgramGenerator.rType(3, 2, 3, 32),                  // 3: add  $3, $3, $2
+				ProgramGenerator.iType(43, 0, 3, 0),                  // 4: sw   $3, 0($0)
+				ProgramGenerator.iType(8, 2, 2, -1),                  // 5: addi $2, $2, -1
+				ProgramGenerator.iType(4, 2, 0, 1),                   // 6: beq  $2, $0, 8
+				ProgramGenerator.jType(2, 2),                         // 7: j    2
+				ProgramGenerator.iType(8, 1, 1, -1),                  // 8: addi $1, $1, -1
+				ProgramGenerator.iType(4, 1, 0, 1),                   // 9: beq  $1, $0, 11
+				ProgramGenerator.jType(2, 1)                          // 10: j   1
+		};
+		String[] lines = new String[words.length];
+		for (int i = 0; i < words.length; i++) {
+			String bits = Integer.toBinaryString(words[i]);
+			lines[i] = "0".repeat(32 - bits.length()) + bits;
+		}
+		return lines;
+	}
+}
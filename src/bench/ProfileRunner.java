@@ -0,0 +1,72 @@
+package bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import simulator.Computer;
+import simulator.ElfFile;
+import simulator.Profiler;
+
+/**
+ * ProfileRunner runs a program with a Profiler attached and prints the hottest instructions and loops.
+ * The program is either a MIPS ELF executable, whose symbols name the instructions in the report, or
+ * a text file with one 32-bit binary instruction per line, the same format the GUI accepts; blank
+ * lines and lines starting with '#' are skipped.
+ *
+ * Usage: java bench.ProfileRunner program [collapsed-stacks output] [top N]
+ * @author Egor Maksimenka
+ */
+public class ProfileRunner {
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: java bench.ProfileRunner program [collapsed-stacks output] [top N]");
+			System.exit(2);
+		}
+		int top = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		Computer computer = new Computer();
+		Profiler profiler = new Profiler();
+		computer.setProfiler(profiler);
+		Path program = Paths.get(args[0]);
+		if (ElfFile.isElf(program)) {
+			computer.loadExecutable(ElfFile.read(program));
+			profiler.setSymbols(computer.getSymbols());
+		} else {
+			computer.loadProgram(readProgram(program));
+		}
+		computer.executeProgram();
+		// End the program's own console output before the report starts.
+		System.out.println();
+		if (computer.getFault() != null)
+			System.out.println("Program faulted: " + computer.getFault());
+		System.out.print(profiler.report(top));
+
+		if (args.length > 1) {
+			try (Writer out = Files.newBufferedWriter(Paths.get(args[1]))) {
+				profiler.writeCollapsedStacks(out);
+			}
+		}
+	}
+
+	/**
+	 * Reads a program file.
+	 * @param path the file
+	 * @return the instructions
+	 * @throws IOException if the file cannot be read
+	 */
+	static String[] readProgram(Path path) throws IOException {
+		List<String> lines = new ArrayList<>();
+		for (String line : Files.readAllLines(path)) {
+			line = line.trim();
+			if (!line.isEmpty() && !line.startsWith("#"))
+				lines.add(line);
+		}
+		return lines.toArray(new String[0]);
+	}
+}
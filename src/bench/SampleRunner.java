@@ -0,0 +1,146 @@
+package bench;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutionException;
+
+import simulator.Computer;
+import simulator.ConsoleDevice;
+import simulator.DeviceBus;
+import simulator.ElfFile;
+import simulator.Governor;
+import simulator.PipelineConfig;
+import simulator.RunOutcome;
+import simulator.SampledSimulation;
+import simulator.TimerDevice;
+
+/**
+ * SampleRunner estimates the cycles of a program with SampledSimulation and prints the estimate and
+ * its samples. With --full the program is also simulated in full on the cycle-stepped pipeline, and
+ * the error and speedup of the estimate are printed. Parameters that are not given keep their
+ * SampledSimulation and PipelineConfig defaults. Program output is discarded.
+ *
+ * Usage: java bench.SampleRunner program [--interval=N] [--warmup=N] [--length=N] [--threads=N]
+ *        [--max-instructions=N] [--forwarding=on|off] [--early-branches=on|off] [--fetch-stages=N]
+ *        [--execute-stages=N] [--memory-stages=N] [--branch-penalty=N] [--memory-latency=N] [--adder=N]
+ *        [--logic=N] [--branch-unit=N] [--address=N] [--delay-slots] [--samples] [--full]
+ * @author Egor Maksimenka
+ */
+public class SampleRunner {
+
+	public static void main(String[] args) throws IOException, InterruptedException, ExecutionException {
+		if (args.length == 0) {
+			System.err.println("Usage: java bench.SampleRunner program [--interval=N] [--warmup=N] [--length=N] "
+					+ "[--threads=N] [--max-instructions=N] [--forwarding=on|off] [--early-branches=on|off] "
+					+ "[--fetch-stages=N] [--execute-stages=N] [--memory-stages=N] [--branch-penalty=N] "
+					+ "[--memory-latency=N] [--adder=N] [--logic=N] [--branch-unit=N] [--address=N] [--delay-slots] "
+					+ "[--samples] [--full]");
+			System.exit(2);
+		}
+		SampledSimulation sampling = new SampledSimulation();
+		PipelineConfig config = new PipelineConfig();
+		Governor governor = new Governor();
+		boolean delaySlots = false;
+		boolean samples = false;
+		boolean full = false;
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			String value = arg.substring(arg.indexOf('=') + 1);
+			if (arg.startsWith("--interval=")) {
+				sampling.setInterval(Long.parseLong(value));
+			} else if (arg.startsWith("--warmup=")) {
+				sampling.setWarmup(Long.parseLong(value));
+			} else if (arg.startsWith("--length=")) {
+				sampling.setLength(Long.parseLong(value));
+			} else if (arg.startsWith("--threads=")) {
+				sampling.setThreads(Integer.parseInt(value));
+			} else if (arg.startsWith("--max-instructions=")) {
+				governor.setMaxInstructions(Long.parseLong(value));
+			} else if (arg.startsWith("--forwarding=")) {
+				if (!value.equals("on") && !value.equals("off"))
+					throw new IllegalArgumentException("Forwarding is on or off: " + value);
+				config.setForwarding(value.equals("on"));
+			} else if (arg.startsWith("--early-branches=")) {
+				if (!value.equals("on") && !value.equals("off"))
+					throw new IllegalArgumentException("Early branches are on or off: " + value);
+				config.setEarlyBranches(value.equals("on"));
+			} else if (arg.startsWith("--fetch-stages=")) {
+				config.setDepth(PipelineConfig.Stage.FETCH, Integer.parseInt(value));
+			} else if (arg.startsWith("--execute-stages=")) {
+				config.setDepth(PipelineConfig.Stage.EXECUTE, Integer.parseInt(value));
+			} else if (arg.startsWith("--memory-stages=")) {
+				config.setDepth(PipelineConfig.Stage.MEMORY, Integer.parseInt(value));
+			} else if (arg.startsWith("--branch-penalty=")) {
+				config.setBranchPenalty(Integer.parseInt(value));
+			} else if (arg.startsWith("--memory-latency=")) {
+				config.setMemoryLatency(Integer.parseInt(value));
+			} else if (arg.startsWith("--adder=")) {
+				config.setLatency(PipelineConfig.Unit.ADDER, Integer.parseInt(value));
+			} else if (arg.startsWith("--logic=")) {
+				config.setLatency(PipelineConfig.Unit.LOGIC, Integer.parseInt(value));
+			} else if (arg.startsWith("--branch-unit=")) {
+				config.setLatency(PipelineConfig.Unit.BRANCH, Integer.parseInt(value));
+			} else if (arg.startsWith("--address=")) {
+				config.setLatency(PipelineConfig.Unit.ADDRESS, Integer.parseInt(value));
+			} else if (arg.equals("--delay-slots")) {
+				delaySlots = true;
+			} else if (arg.equals("--samples")) {
+				samples = true;
+			} else if (arg.equals("--full")) {
+				full = true;
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+
+		Path path = Paths.get(args[0]);
+		ElfFile executable = ElfFile.isElf(path) ? ElfFile.read(path, false) : null;
+		String[] program = executable == null ? ProfileRunner.readProgram(path) : null;
+		System.out.println(config + (delaySlots ? ", delay slots" : ""));
+
+		SampledSimulation.Estimate estimate = sampling.estimate(load(config, delaySlots, executable, program), governor);
+		System.out.println(estimate);
+		if (samples) {
+			for (SampledSimulation.Sample sample : estimate.samples)
+				System.out.println("  " + sample);
+		}
+		System.out.println(String.format("fast-forward %.1f ms, total %.1f ms", estimate.fastForwardNanos / 1e6,
+				estimate.elapsedNanos / 1e6));
+		if (!full)
+			return;
+
+		Governor limits = new Governor();
+		limits.setMaxInstructions(governor.getMaxInstructions());
+		RunOutcome outcome = load(config, delaySlots, executable, program).execute(limits);
+		double error = 100.0 * (estimate.cycles - outcome.cycles) / outcome.cycles;
+		System.out.println(String.format("full simulation: %d cycles for %d instructions in %.1f ms (%s)",
+				outcome.cycles, outcome.instructions, outcome.elapsedNanos / 1e6, outcome.status.toString().toLowerCase()));
+		System.out.println(String.format("error %+.3f%%, %s the confidence interval, speedup %.1fx", error,
+				estimate.contains(outcome.cycles) ? "within" : "outside", (double) outcome.elapsedNanos / estimate.elapsedNanos));
+	}
+
+	/**
+	 * Private helper method. Loads the program into a new Computer whose output is discarded.
+	 * @param config the pipeline configuration
+	 * @param delaySlots true for delay-slot mode
+	 * @param executable the executable, or null to load program
+	 * @param program the instructions if there is no executable
+	 * @return the Computer
+	 */
+	private static Computer load(PipelineConfig config, boolean delaySlots, ElfFile executable, String[] program) {
+		Computer computer = new Computer();
+		DeviceBus bus = new DeviceBus();
+		bus.attach(Computer.CONSOLE_BASE, new ConsoleDevice(Writer.nullWriter()));
+		bus.attach(Computer.TIMER_BASE, new TimerDevice());
+		computer.setDeviceBus(bus);
+		computer.setPipelineConfig(config);
+		computer.setDelaySlots(delaySlots);
+		if (executable != null)
+			computer.loadExecutable(executable);
+		else
+			computer.loadProgram(program);
+		return computer;
+	}
+}
@@ -0,0 +1,150 @@
+package bench;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import simulator.Computer;
+import simulator.ConsoleDevice;
+import simulator.DeviceBus;
+import simulator.ElfFile;
+import simulator.Governor;
+import simulator.PipelineConfig;
+import simulator.ProgramAnalysis;
+import simulator.RunOutcome;
+import simulator.TimerDevice;
+
+/**
+ * ScheduleReport prints the static analysis of a program, then loads it once as it is and once
+ * scheduled, and for both prints the cycles ProgramAnalysis predicts next to the cycles the
+ * cycle-stepped pipeline measures. Parameters that are not given keep their PipelineConfig default.
+ * With --delay-slots the program is loaded in delay-slot mode. Program output is discarded.
+ *
+ * Usage: java bench.ScheduleReport program [--forwarding=on|off] [--early-branches=on|off]
+ *        [--fetch-stages=N] [--execute-stages=N] [--memory-stages=N] [--branch-penalty=N] [--memory-latency=N]
+ *        [--adder=N] [--logic=N] [--branch-unit=N] [--address=N] [--delay-slots] [--max-cycles=N]
+ * @author Egor Maksimenka
+ */
+public class ScheduleReport {
+
+	/** The cycle budget of each run unless --max-cycles is given. */
+	private static final long DEFAULT_MAX_CYCLES = 100_000_000;
+
+	public static void main(String[] args) throws IOException {
+		if (args.length == 0) {
+			System.err.println("Usage: java bench.ScheduleReport program [--forwarding=on|off] [--early-branches=on|off] "
+					+ "[--fetch-stages=N] [--execute-stages=N] [--memory-stages=N] [--branch-penalty=N] [--memory-latency=N] "
+					+ "[--adder=N] [--logic=N] [--branch-unit=N] [--address=N] [--delay-slots] [--max-cycles=N]");
+			System.exit(2);
+		}
+		PipelineConfig config = new PipelineConfig();
+		long maxCycles = DEFAULT_MAX_CYCLES;
+		boolean delaySlots = false;
+		for (int i = 1; i < args.length; i++) {
+			String arg = args[i];
+			String value = arg.substring(arg.indexOf('=') + 1);
+			if (arg.startsWith("--forwarding=")) {
+				if (!value.equals("on") && !value.equals("off"))
+					throw new IllegalArgumentException("Forwarding is on or off: " + value);
+				config.setForwarding(value.equals("on"));
+			} else if (arg.startsWith("--early-branches=")) {
+				if (!value.equals("on") && !value.equals("off"))
+					throw new IllegalArgumentException("Early branches are on or off: " + value);
+				config.setEarlyBranches(value.equals("on"));
+			} else if (arg.startsWith("--fetch-stages=")) {
+				config.setDepth(PipelineConfig.Stage.FETCH, Integer.parseInt(value));
+			} else if (arg.startsWith("--execute-stages=")) {
+				config.setDepth(PipelineConfig.Stage.EXECUTE, Integer.parseInt(value));
+			} else if (arg.startsWith("--memory-stages=")) {
+				config.setDepth(PipelineConfig.Stage.MEMORY, Integer.parseInt(value));
+			} else if (arg.startsWith("--branch-penalty=")) {
+				config.setBranchPenalty(Integer.parseInt(value));
+			} else if (arg.startsWith("--memory-latency=")) {
+				config.setMemoryLatency(Integer.parseInt(value));
+			} else if (arg.startsWith("--adder=")) {
+				config.setLatency(PipelineConfig.Unit.ADDER, Integer.parseInt(value));
+			} else if (arg.startsWith("--logic=")) {
+				config.setLatency(PipelineConfig.Unit.LOGIC, Integer.parseInt(value));
+			} else if (arg.startsWith("--branch-unit=")) {
+				config.setLatency(PipelineConfig.Unit.BRANCH, Integer.parseInt(value));
+			} else if (arg.startsWith("--address=")) {
+				config.setLatency(PipelineConfig.Unit.ADDRESS, Integer.parseInt(value));
+			} else if (arg.equals("--delay-slots")) {
+				delaySlots = true;
+			} else if (arg.startsWith("--max-cycles=")) {
+				maxCycles = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+
+		Path path = Paths.get(args[0]);
+		ElfFile executable = ElfFile.isElf(path) ? ElfFile.read(path, false) : null;
+		String[] program = executable == null ? ProfileRunner.readProgram(path) : null;
+		System.out.println(config + (delaySlots ? ", delay slots" : ""));
+
+		Computer original = load(config, delaySlots, false, executable, program);
+		ProgramAnalysis analysis = original.getAnalysis();
+		System.out.print(analysis.report(config));
+		Computer scheduled = load(config, delaySlots, true, executable, program);
+		int moved = 0;
+		int[] before = analysis.getWords();
+		int[] after = scheduled.getAnalysis().getWords();
+		for (int i = 0; i < before.length; i++) {
+			if (before[i] != after[i])
+				moved++;
+		}
+		System.out.println("Scheduling moved " + moved + " instructions, stall cycles "
+				+ analysis.countStalls(config) + " -> " + scheduled.getAnalysis().countStalls(config));
+
+		System.out.println();
+		System.out.println(String.format("%-10s %12s %12s  %s", "program", "predicted", "measured", "prediction"));
+		compare("original", original, maxCycles);
+		if (moved > 0)
+			compare("scheduled", scheduled, maxCycles);
+	}
+
+	/**
+	 * Private helper method. Loads the program into a new Computer whose output is discarded.
+	 * @param config the pipeline configuration
+	 * @param delaySlots true for delay-slot mode
+	 * @param schedule true to schedule the program while loading it
+	 * @param executable the executable, or null to load program
+	 * @param program the instructions if there is no executable
+	 * @return the Computer, with the program analyzed
+	 */
+	private static Computer load(PipelineConfig config, boolean delaySlots, boolean schedule, ElfFile executable, String[] program) {
+		Computer computer = new Computer();
+		DeviceBus bus = new DeviceBus();
+		bus.attach(Computer.CONSOLE_BASE, new ConsoleDevice(new StringBuilder()));
+		bus.attach(Computer.TIMER_BASE, new TimerDevice());
+		computer.setDeviceBus(bus);
+		computer.setPipelineConfig(config);
+		computer.setDelaySlots(delaySlots);
+		computer.setStaticAnalysis(true);
+		computer.setScheduling(schedule);
+		if (executable != null)
+			computer.loadExecutable(executable);
+		else
+			computer.loadProgram(program);
+		return computer;
+	}
+
+	/**
+	 * Private helper method. Predicts the cycles of the loaded program, runs it, and prints both.
+	 * @param name the name of the row
+	 * @param computer the Computer with the program loaded
+	 * @param maxCycles the cycle budget
+	 */
+	private static void compare(String name, Computer computer, long maxCycles) {
+		ProgramAnalysis.Prediction prediction = computer.getAnalysis().predict(computer, maxCycles);
+		Governor governor = new Governor();
+		governor.setMaxCycles(maxCycles);
+		RunOutcome outcome = computer.execute(governor);
+		String measured = outcome.status == RunOutcome.Status.COMPLETED || outcome.status == RunOutcome.Status.FAULTED
+				? Long.toString(outcome.cycles) : outcome.status.toString().toLowerCase();
+		System.out.println(String.format("%-10s %12s %12s  %s", name,
+				prediction == null ? "-" : Long.toString(prediction.cycles), measured,
+				prediction == null ? "did not end" : prediction.toString()));
+	}
+}
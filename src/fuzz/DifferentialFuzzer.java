@@ -0,0 +1,611 @@
+package fuzz;
+
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import simulator.BitString;
+import simulator.Computer;
+import simulator.ComputerPool;
+import simulator.ConsoleDevice;
+import simulator.Device;
+import simulator.DeviceBus;
+import simulator.Governor;
+import simulator.PipelineConfig;
+import simulator.ProgramAnalysis;
+import simulator.ReferenceInterpreter;
+import simulator.RunOutcome;
+import simulator.SimulationFault;
+
+/**
+ * DifferentialFuzzer runs random programs on the pipelined Computer and on the ReferenceInterpreter
+ * and reports every program whose final architectural state differs between the two, shrunk to a
+ * minimal reproducer. Cases are spread over all available cores. With --engine=threaded the
+ * programs run through Computer.executeProgramThreaded() instead of being stepped cycle by cycle.
+ * With --handlers every fault goes to a guest exception handler at the last instruction of the
+ * program instead of stopping it. With --little-endian both sides lay out words and halfwords
+ * little-endian, so that sub-word loads and stores are checked in both byte orders. With
+ * --random-config every program runs on a random PipelineConfig derived from its contents, since
+ * no microarchitecture parameter may change what a program computes. With --schedule every program is
+ * scheduled while it is loaded, see Computer.setScheduling(), and on the stepped pipeline the cycles
+ * ProgramAnalysis predicts have to match the cycles measured. With --delay-slots both sides run in
+ * delay-slot mode and some delay slots hold a NOP. Before the threaded pipeline is fuzzed, it is checked
+ * to end a run with a time limit when one of its stages throws, and to resume a run whose instruction
+ * budget ran out on a delay slot without executing the branch again.
+ *
+ * Usage: java fuzz.DifferentialFuzzer [--cases=N] [--seed=S] [--threads=T] [--length=L] [--failures=F]
+ *        [--engine=pipeline|threaded] [--handlers] [--little-endian] [--random-config] [--schedule]
+ *        [--delay-slots]
+ * @author Egor Maksimenka
+ */
+public class DifferentialFuzzer {
+
+	/** Programs running longer than this on the reference interpreter are discarded. */
+	private static final long MAX_STEPS = 2_000;
+	/** Upper bound on the cycles the pipeline needs for MAX_STEPS instructions. */
+	private static final long MAX_CYCLES = 3 * MAX_STEPS + 10;
+	/** Reported in place of a fault when the pipeline ran past MAX_CYCLES. */
+	private static final String NO_HALT = "pipeline did not halt";
+	/** Mixed into the seed once per case so neighbouring cases get unrelated programs. */
+	private static final long CASE_SEED_STRIDE = 0x9E3779B97F4A7C15L;
+	/** The most idle Computers kept between cases. */
+	private static final int POOL_CAPACITY = 64;
+	/** The time limit in milliseconds of the run checkStageFailure() makes. */
+	private static final long STAGE_FAILURE_TIME_LIMIT = 2_000;
+
+	/** Generates the programs. */
+	private final ProgramGenerator mGenerator;
+	/** True to check the threaded pipeline, false to check the cycle-stepped one. */
+	private final boolean mThreaded;
+	/** True to register a guest exception handler for every run. */
+	private final boolean mHandlers;
+	/** The byte order of the memory on both sides. */
+	private final ByteOrder mByteOrder;
+	/** True to run the stepped pipeline on a random PipelineConfig per program. */
+	private boolean mRandomConfig;
+	/** True to schedule every program and check the predicted cycles. */
+	private boolean mSchedule;
+	/** True to run both sides in delay-slot mode. */
+	private boolean mDelaySlots;
+	/** The number of programs that halted and matched. */
+	private final AtomicLong mPassed = new AtomicLong();
+	/** The number of programs discarded because they did not halt. */
+	private final AtomicLong mDiscarded = new AtomicLong();
+	/** The shrunk reproducers of all mismatches found so far. */
+	private final ConcurrentLinkedQueue<Failure> mFailures = new ConcurrentLinkedQueue<>();
+	/**
+	 * The Computers the cases run on. Reusing them also checks that a reset leaves nothing of the
+	 * previous case behind, since a leftover would show up as a mismatch.
+	 */
+	private final ComputerPool mPool = new ComputerPool(POOL_CAPACITY);
+
+	/**
+	 * Final architectural state of a run. Faults are precise on both engines, so a faulted run is
+	 * compared on its state as well as on the cause of the fault.
+	 */
+	static class ArchState {
+		/** The PC after the program halted. */
+		final int pc;
+		/** The register contents after the program halted. */
+		final int[] registers;
+		/** The memory contents after the program halted, one word per entry. */
+		final int[] memory;
+		/** The SYSCALL output of the program. */
+		final String output;
+		/** The SYSCALL exit code of the program. */
+		final int exitCode;
+		/** The fault that stopped the program, or null if it halted normally. */
+		final SimulationFault fault;
+		/** Why the run has no state, e.g. NO_HALT, or null if it has one. */
+		final String error;
+
+		ArchState(int pc, int[] registers, int[] memory, String output, int exitCode, SimulationFault fault) {
+			this.pc = pc;
+			this.registers = registers;
+			this.memory = memory;
+			this.output = output;
+			this.exitCode = exitCode;
+			this.fault = fault;
+			this.error = null;
+		}
+
+		ArchState(String error) {
+			this.pc = 0;
+			this.registers = null;
+			this.memory = null;
+			this.output = null;
+			this.exitCode = 0;
+			this.fault = null;
+			this.error = error;
+		}
+
+		boolean matches(ArchState other) {
+			if (error != null || other.error != null)
+				return false;
+			if ((fault == null) != (other.fault == null))
+				return false;
+			if (fault != null && (fault.cause != other.fault.cause || fault.badVAddr != other.fault.badVAddr))
+				return false;
+			return pc == other.pc && Arrays.equals(registers, other.registers)
+					&& Arrays.equals(memory, other.memory) && output.equals(other.output)
+					&& exitCode == other.exitCode;
+		}
+
+		@Override
+		public String toString() {
+			if (error != null)
+				return "error: " + error;
+			StringBuilder sb = new StringBuilder();
+			if (fault != null)
+				sb.append("fault: ").append(fault).append(", ");
+			sb.append("pc=").append(pc);
+			if (!output.isEmpty())
+				sb.append(" output=\"").append(output).append('"');
+			if (exitCode != 0)
+				sb.append(" exit=").append(exitCode);
+			for (int i = 0; i < registers.length; i++) {
+				if (registers[i] != 0)
+					sb.append(" $").append(i).append('=').append(registers[i]);
+			}
+			for (int i = 0; i < memory.length; i++) {
+				if (memory[i] != 0)
+					sb.append(" M[").append(4 * i).append("]=").append(memory[i]);
+			}
+			return sb.toString();
+		}
+	}
+
+	/**
+	 * A program on which the two engines disagree.
+	 */
+	static class Failure {
+		/** The seed of the case that found the mismatch. */
+		final long seed;
+		/** The shrunk program. */
+		final int[] program;
+		/** The state the pipeline ended in. */
+		final ArchState pipeline;
+		/** The state the reference interpreter ended in. */
+		final ArchState reference;
+
+		Failure(long seed, int[] program, ArchState pipeline, ArchState reference) {
+			this.seed = seed;
+			this.program = program;
+			this.pipeline = pipeline;
+			this.reference = reference;
+		}
+	}
+
+	/**
+	 * Creates a fuzzer.
+	 * @param maxLength the maximum number of instructions per generated program
+	 * @param threaded true to check the threaded pipeline, false to check the cycle-stepped one
+	 * @param handlers true to send faults to a guest handler at the last instruction of each program
+	 * @param byteOrder the byte order of the memory
+	 */
+	public DifferentialFuzzer(int maxLength, boolean threaded, boolean handlers, ByteOrder byteOrder) {
+		mGenerator = new ProgramGenerator(maxLength);
+		mThreaded = threaded;
+		mHandlers = handlers;
+		mByteOrder = byteOrder;
+	}
+
+	/**
+	 * Runs every program on a random PipelineConfig. The config is derived from the program, so a
+	 * reproducer runs on the same config when it is checked again.
+	 * @param randomConfig true to randomize the config, false to use the default one
+	 */
+	public void setRandomConfig(boolean randomConfig) {
+		mRandomConfig = randomConfig;
+	}
+
+	/**
+	 * Schedules every program while it is loaded, and on the stepped pipeline checks that
+	 * ProgramAnalysis predicts the cycles it takes.
+	 * @param schedule true to schedule, false to run programs as generated
+	 */
+	public void setSchedule(boolean schedule) {
+		mSchedule = schedule;
+	}
+
+	/**
+	 * Runs every program in delay-slot mode on both sides, with a NOP in some of the delay slots.
+	 * @param delaySlots true for delay slots, false to run programs without them
+	 */
+	public void setDelaySlots(boolean delaySlots) {
+		mDelaySlots = delaySlots;
+		mGenerator.setSlotNops(delaySlots);
+	}
+
+	public static void main(String[] args) throws InterruptedException {
+		long cases = 100_000;
+		long seed = System.nanoTime();
+		int threads = Runtime.getRuntime().availableProcessors();
+		int length = 24;
+		int maxFailures = 10;
+		boolean threaded = false;
+		boolean handlers = false;
+		ByteOrder byteOrder = ByteOrder.BIG_ENDIAN;
+		boolean randomConfig = false;
+		boolean schedule = false;
+		boolean delaySlots = false;
+		for (String arg : args) {
+			String value = arg.substring(arg.indexOf('=') + 1);
+			if (arg.startsWith("--cases=")) {
+				cases = Long.parseLong(value);
+			} else if (arg.startsWith("--seed=")) {
+				seed = Long.parseLong(value);
+			} else if (arg.startsWith("--threads=")) {
+				threads = Integer.parseInt(value);
+			} else if (arg.startsWith("--length=")) {
+				length = Integer.parseInt(value);
+			} else if (arg.startsWith("--failures=")) {
+				maxFailures = Integer.parseInt(value);
+			} else if (arg.equals("--handlers")) {
+				handlers = true;
+			} else if (arg.equals("--little-endian")) {
+				byteOrder = ByteOrder.LITTLE_ENDIAN;
+			} else if (arg.equals("--random-config")) {
+				randomConfig = true;
+			} else if (arg.equals("--schedule")) {
+				schedule = true;
+			} else if (arg.equals("--delay-slots")) {
+				delaySlots = true;
+			} else if (arg.startsWith("--engine=")) {
+				threaded = value.equals("threaded");
+				if (!threaded && !value.equals("pipeline"))
+					throw new IllegalArgumentException("Unknown engine: " + value);
+			} else {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			}
+		}
+
+		if (threaded) {
+			String problem = checkStageFailure();
+			if (problem != null) {
+				System.out.println("stage failure check failed: " + problem);
+				return;
+			}
+			problem = checkSlotBudgetStop();
+			if (problem != null) {
+				System.out.println("delay slot budget check failed: " + problem);
+				return;
+			}
+		}
+		DifferentialFuzzer fuzzer = new DifferentialFuzzer(length, threaded, handlers, byteOrder);
+		fuzzer.setRandomConfig(randomConfig);
+		fuzzer.setSchedule(schedule);
+		fuzzer.setDelaySlots(delaySlots);
+		long start = System.nanoTime();
+		fuzzer.run(cases, seed, threads, maxFailures);
+		long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+		System.out.println("seed " + seed + ": " + fuzzer.mPassed.get() + " passed, " + fuzzer.mDiscarded.get()
+				+ " discarded (no halt), " + fuzzer.mFailures.size() + " failed in " + millis + " ms");
+		for (Failure failure : fuzzer.mFailures) {
+			System.out.println();
+			System.out.println("case seed " + failure.seed + ", shrunk to " + failure.program.length + " instructions:");
+			for (int word : failure.program)
+				System.out.println("  " + toBinary(word));
+			System.out.println("  pipeline:  " + failure.pipeline);
+			System.out.println("  reference: " + failure.reference);
+		}
+		if (!fuzzer.mFailures.isEmpty())
+			System.exit(1);
+	}
+
+	/**
+	 * Runs the given number of cases across a pool of worker threads.
+	 * @param cases the number of programs to try
+	 * @param seed the base seed, each case derives its own seed from it
+	 * @param threads the number of worker threads
+	 * @param maxFailures stop early once this many mismatches have been found
+	 * @throws InterruptedException if interrupted while waiting for the workers
+	 */
+	public void run(long cases, long seed, int threads, int maxFailures) throws InterruptedException {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		AtomicLong next = new AtomicLong();
+		for (int t = 0; t < threads; t++) {
+			pool.execute(() -> {
+				long i;
+				while ((i = next.getAndIncrement()) < cases && mFailures.size() < maxFailures) {
+					runCase(seed + i * CASE_SEED_STRIDE);
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(Long.MAX_VALUE, TimeUnit.DAYS);
+	}
+
+	/**
+	 * Checks that a stage of the threaded pipeline that throws ends the run: a load from a device that
+	 * fails has to make executeThreaded() throw the device's exception, within the time limit, instead of
+	 * leaving the other stages waiting for it forever.
+	 * @return null if the check passed, otherwise what went wrong
+	 * @throws InterruptedException if interrupted while waiting for the run
+	 */
+	static String checkStageFailure() throws InterruptedException {
+		IllegalStateException failure = new IllegalStateException("Device failed");
+		DeviceBus bus = new DeviceBus();
+		bus.attach(Computer.CONSOLE_BASE, new Device() {
+			@Override
+			public int size() {
+				return 4;
+			}
+
+			@Override
+			public int read(int offset, long cycle) {
+				throw failure;
+			}
+
+			@Override
+			public void write(int offset, int value, long cycle) {
+				throw failure;
+			}
+		});
+		Computer computer = new Computer();
+		computer.setDeviceBus(bus);
+		// addi $1, $0, CONSOLE_BASE; lw $2, 0($1)
+		computer.loadProgram(new String[] {
+				toBinary(0x20010000 | Computer.CONSOLE_BASE), toBinary(0x8C220000) });
+		Governor governor = new Governor();
+		governor.setTimeLimit(STAGE_FAILURE_TIME_LIMIT);
+		AtomicReference<RuntimeException> thrown = new AtomicReference<>();
+		Thread run = new Thread(() -> {
+			try {
+				computer.executeThreaded(governor);
+			} catch (RuntimeException e) {
+				thrown.set(e);
+			}
+		}, "stage failure check");
+		run.setDaemon(true);
+		run.start();
+		run.join(2 * STAGE_FAILURE_TIME_LIMIT);
+		if (run.isAlive())
+			return "the run did not end within " + 2 * STAGE_FAILURE_TIME_LIMIT + " ms";
+		if (thrown.get() != failure)
+			return "expected the device's exception, got " + thrown.get();
+		return null;
+	}
+
+	/**
+	 * Checks that a threaded run whose instruction budget runs out on a delay slot stops with the slot
+	 * pending: the PC is at the slot, and the next run executes the slot and follows the branch without
+	 * executing the branch a second time.
+	 * @return null if the check passed, otherwise what went wrong
+	 */
+	static String checkSlotBudgetStop() {
+		Computer computer = new Computer();
+		computer.setDelaySlots(true);
+		// addi $1, $0, 1; beq $0, $0, 2; addi $1, $1, 2 (delay slot); addi $1, $1, 8; addi $1, $1, 4
+		computer.loadProgram(new String[] { toBinary(0x20010001), toBinary(0x10000002), toBinary(0x20210002),
+				toBinary(0x20210008), toBinary(0x20210004) });
+		Governor governor = new Governor();
+		governor.setMaxInstructions(2);
+		RunOutcome first = computer.executeThreaded(governor);
+		if (first.status != RunOutcome.Status.BUDGET_EXCEEDED || first.pc != 8 || first.instructions != 2)
+			return "expected to stop at the delay slot 8 after 2 instructions, got " + first;
+		RunOutcome second = computer.executeThreaded(new Governor());
+		int result = computer.getRegisterContents()[1].getValue2sComp();
+		if (second.status != RunOutcome.Status.COMPLETED || second.instructions != 2 || result != 7)
+			return "expected 2 more instructions and $1 = 7, got " + second + " and $1 = " + result;
+		return null;
+	}
+
+	/**
+	 * Private helper method. Generates, runs and, on a mismatch, shrinks one program.
+	 * @param caseSeed the seed of this case
+	 */
+	private void runCase(long caseSeed) {
+		int[] program = mGenerator.generate(new SplittableRandom(caseSeed));
+		ArchState reference = runReference(program);
+		if (reference == null) {
+			mDiscarded.incrementAndGet();
+			return;
+		}
+		ArchState pipeline = runPipeline(program);
+		if (pipeline.matches(reference)) {
+			mPassed.incrementAndGet();
+			return;
+		}
+		int[] shrunk = shrink(program);
+		mFailures.add(new Failure(caseSeed, shrunk, runPipeline(shrunk), runReference(shrunk)));
+	}
+
+	/**
+	 * Checks whether a program halts on the reference interpreter and ends in a different state on
+	 * the pipeline.
+	 * @param program the program
+	 * @return true if the program exposes a mismatch
+	 */
+	boolean fails(int[] program) {
+		if (program.length == 0)
+			return false;
+		ArchState reference = runReference(program);
+		return reference != null && !runPipeline(program).matches(reference);
+	}
+
+	/**
+	 * Shrinks a failing program by repeatedly dropping instructions and simplifying immediates
+	 * as long as it keeps failing.
+	 * @param program a program for which fails() is true
+	 * @return a smaller program for which fails() is still true
+	 */
+	int[] shrink(int[] program) {
+		boolean progress = true;
+		while (progress) {
+			progress = false;
+			for (int i = 0; i < program.length; i++) {
+				int[] candidate = remove(program, i);
+				if (fails(candidate)) {
+					program = candidate;
+					progress = true;
+					i--;
+				}
+			}
+			for (int i = 0; i < program.length; i++) {
+				int imm = (short) program[i];
+				if (imm == 0 || program[i] >>> 26 == 0 || program[i] >>> 26 == 2)
+					continue;
+				int[] candidate = program.clone();
+				candidate[i] = (program[i] & 0xFFFF0000) | ((imm / 2) & 0xFFFF);
+				if (fails(candidate)) {
+					program = candidate;
+					progress = true;
+				}
+			}
+		}
+		return program;
+	}
+
+	/**
+	 * Private helper method. Copies a program without one of its instructions.
+	 * @param program the program
+	 * @param index the instruction to drop
+	 * @return the new program
+	 */
+	private static int[] remove(int[] program, int index) {
+		List<Integer> words = new ArrayList<>();
+		for (int i = 0; i < program.length; i++) {
+			if (i != index)
+				words.add(program[i]);
+		}
+		return words.stream().mapToInt(Integer::intValue).toArray();
+	}
+
+	/**
+	 * Runs a program on the reference interpreter.
+	 * @param program the program
+	 * @return the final state, or null if the program did not halt within MAX_STEPS
+	 */
+	ArchState runReference(int[] program) {
+		ReferenceInterpreter interpreter = new ReferenceInterpreter(program);
+		interpreter.getMemoryContents().setByteOrder(mByteOrder);
+		interpreter.setDelaySlots(mDelaySlots);
+		if (mHandlers)
+			interpreter.getCoprocessor0().setDefaultHandler(4 * (program.length - 1));
+		if (interpreter.run(MAX_STEPS) < 0)
+			return null;
+		return new ArchState(interpreter.getPC(), interpreter.getRegisterContents().clone(),
+				interpreter.getMemoryContents().toWords(), interpreter.getOutput(), interpreter.getExitCode(),
+				interpreter.getFault());
+	}
+
+	/**
+	 * Runs a program on the pipelined Computer.
+	 * @param program the program
+	 * @return the final state
+	 */
+	ArchState runPipeline(int[] program) {
+		Computer computer = mPool.acquire();
+		try {
+			return runPipeline(computer, program);
+		} finally {
+			mPool.release(computer);
+		}
+	}
+
+	/**
+	 * Private helper method. Runs a program on a reset Computer.
+	 * @param computer the Computer
+	 * @param program the program
+	 * @return the final state
+	 */
+	private ArchState runPipeline(Computer computer, int[] program) {
+		StringBuilder output = new StringBuilder();
+		DeviceBus bus = new DeviceBus();
+		bus.attach(Computer.CONSOLE_BASE, new ConsoleDevice(output));
+		computer.setDeviceBus(bus);
+		computer.getMemoryContents().setByteOrder(mByteOrder);
+		if (mHandlers)
+			computer.getCoprocessor0().setDefaultHandler(4 * (program.length - 1));
+		String[] lines = new String[program.length];
+		for (int i = 0; i < program.length; i++)
+			lines[i] = toBinary(program[i]);
+		try {
+			long maxCycles = MAX_CYCLES;
+			if (mRandomConfig && !mThreaded) {
+				PipelineConfig config = randomConfig(new SplittableRandom(Arrays.hashCode(program)));
+				computer.setPipelineConfig(config);
+				int slowest = 0;
+				for (PipelineConfig.Unit unit : PipelineConfig.Unit.values())
+					slowest = Math.max(slowest, config.getLatency(unit));
+				maxCycles *= config.getBranchPenalty() + config.getMemoryLatency() + slowest + config.getStageCount()
+						- PipelineConfig.Stage.values().length - 2;
+			}
+			computer.setScheduling(mSchedule);
+			computer.setDelaySlots(mDelaySlots);
+			computer.loadProgram(lines);
+			if (mThreaded) {
+				if (computer.executeProgramThreaded(MAX_STEPS) < 0)
+					return new ArchState(NO_HALT);
+				return new ArchState(computer.getPC().getValue(), values(computer.getRegisterContents()),
+						computer.getMemoryContents().toWords(), output.toString(), computer.getExitCode(),
+						computer.getFault());
+			}
+			ProgramAnalysis.Prediction prediction = mSchedule ? computer.getAnalysis().predict(computer, MAX_STEPS) : null;
+			Governor governor = new Governor();
+			governor.setMaxCycles(maxCycles);
+			RunOutcome outcome = computer.execute(governor);
+			if (outcome.status == RunOutcome.Status.BUDGET_EXCEEDED)
+				return new ArchState(NO_HALT);
+			if (prediction != null && prediction.cycles != outcome.cycles)
+				return new ArchState("predicted " + prediction + ", measured " + outcome.cycles + " cycles");
+		} catch (RuntimeException e) {
+			return new ArchState(e.getMessage());
+		}
+		return new ArchState(computer.getPC().getValue(), values(computer.getRegisterContents()),
+				computer.getMemoryContents().toWords(), output.toString(), computer.getExitCode(), computer.getFault());
+	}
+
+	/**
+	 * Private helper method. Picks microarchitecture parameters.
+	 * @param random the source of randomness
+	 * @return the parameters
+	 */
+	private static PipelineConfig randomConfig(SplittableRandom random) {
+		PipelineConfig config = new PipelineConfig();
+		config.setForwarding(random.nextBoolean());
+		config.setBranchPenalty(1 + random.nextInt(4));
+		config.setMemoryLatency(1 + random.nextInt(4));
+		for (PipelineConfig.Unit unit : PipelineConfig.Unit.values())
+			config.setLatency(unit, 1 + random.nextInt(3));
+		config.setEarlyBranches(random.nextBoolean());
+		for (PipelineConfig.Stage stage : PipelineConfig.Stage.values())
+			config.setDepth(stage, 1 + random.nextInt(PipelineConfig.MAX_DEPTH));
+		return config;
+	}
+
+	/**
+	 * Private helper method. Converts BitStrings to their 2s complement values.
+	 * @param contents the BitStrings
+	 * @return the values
+	 */
+	private static int[] values(BitString[] contents) {
+		int[] values = new int[contents.length];
+		for (int i = 0; i < contents.length; i++)
+			values[i] = contents[i].getValue2sComp();
+		return values;
+	}
+
+	/**
+	 * Formats an instruction word the way Computer.loadProgram expects it.
+	 * @param word the instruction word
+	 * @return a string of 32 '0' and '1' characters
+	 */
+	static String toBinary(int word) {
+		String bits = Integer.toBinaryString(word);
+		char[] padded = new char[32];
+		Arrays.fill(padded, '0');
+		bits.getChars(0, bits.length(), padded, 32 - bits.length());
+		return new String(padded);
+	}
+}
@@ -0,0 +1,224 @@
+package fuzz;
+
+import java.util.SplittableRandom;
+
+import simulator.Computer;
+import simulator.Coprocessor0;
+
+/**
+ * ProgramGenerator builds random programs out of the instructions the simulator supports.
+ * Operands are drawn from a handful of registers so that consecutive instructions depend on
+ * each other and exercise forwarding, most memory accesses and branches hit valid targets,
+ * and a small share of instructions is deliberately invalid so that faults are covered too.
+ * Loads and stores come in every width, mostly aligned to it.
+ * MFC0, MTC0 and ERET show up rarely, so that programs run with exception handlers can
+ * inspect the exception registers and return from the handler. For delay-slot mode, branches and
+ * jumps can be followed by a NOP, a word of 0 that would end the program anywhere else.
+ * @author Egor Maksimenka
+ */
+public class ProgramGenerator {
+
+	/** Registers $1 .. WORKING_REGISTERS are used as operands. */
+	private static final int WORKING_REGISTERS = 7;
+	/** Op code for MFC0, MTC0, and ERET. */
+	private static final int COP0_OP = 16;
+	/** The loads to pick from: LW, LB, LBU, LH and LHU, with LW twice as likely. */
+	private static final int[] LOAD_OPS = {35, 35, 32, 36, 33, 37};
+	/** The stores to pick from: SW, SB and SH, with SW twice as likely. */
+	private static final int[] STORE_OPS = {43, 43, 40, 41};
+	/** The number of bytes at address 0 that half of all loads and stores go to. */
+	private static final int SHARED_BYTES = 16;
+	/** The SYSCALL services to pick from: mostly prints, sometimes exits. */
+	private static final int[] SYSCALL_SERVICES = {1, 1, 11, 11, 10, 17};
+
+	/** The maximum length of a generated program. */
+	private final int mMaxLength;
+	/** True to put a NOP into some delay slots. */
+	private boolean mSlotNops;
+
+	/**
+	 * Creates a generator.
+	 * @param maxLength the maximum number of instructions per program
+	 * @exception IAG if maxLength is not positive or does not fit into the instruction space
+	 */
+	public ProgramGenerator(int maxLength) {
+		if (maxLength <= 0 || maxLength >= Computer.MAX_INSTRUCTIONS)
+			throw new IllegalArgumentException("Invalid program length");
+		mMaxLength = maxLength;
+	}
+
+	/**
+	 * Puts a NOP behind every third branch or jump, for programs run in delay-slot mode. Programs
+	 * generated without it stay the same for the same seed.
+	 * @param slotNops true to generate NOPs in delay slots
+	 */
+	public void setSlotNops(boolean slotNops) {
+		mSlotNops = slotNops;
+	}
+
+	/**
+	 * Generates a random program.
+	 * @param random the source of randomness, fully determines the program
+	 * @return the instruction words of the program
+	 */
+	public int[] generate(SplittableRandom random) {
+		int length = 1 + random.nextInt(mMaxLength);
+		int[] program = new int[length];
+		for (int i = 0; i < length; i++) {
+			if (i + 1 < length && random.nextInt(25) == 0) {
+				// A SYSCALL with a random $v0 would almost always fault, so load a valid service first.
+				program[i++] = iType(8, 0, 2, SYSCALL_SERVICES[random.nextInt(SYSCALL_SERVICES.length)]);
+				program[i] = rType(0, 0, 0, 12);
+			} else if (random.nextInt(40) == 0) {
+				program[i] = coprocessor0(random);
+			} else {
+				program[i] = generateInstruction(random, i, length);
+				int op = program[i] >>> 26;
+				boolean branch = op == 4 || op == 2 || (op == 0 && (program[i] & 0x3F) == 8);
+				if (mSlotNops && branch && i + 1 < length && random.nextInt(3) == 0)
+					program[++i] = 0;
+			}
+		}
+		return program;
+	}
+
+	/**
+	 * Private helper method. Generates one instruction.
+	 * @param random the source of randomness
+	 * @param index the index of the instruction within the program
+	 * @param length the length of the program, a branch to it ends the program
+	 * @return the instruction word
+	 */
+	private int generateInstruction(SplittableRandom random, int index, int length) {
+		int kind = random.nextInt(100);
+		if (kind < 20) {
+			return rType(register(random), register(random), target(random), 32);
+		} else if (kind < 30) {
+			return rType(register(random), register(random), target(random), 36);
+		} else if (kind < 45) {
+			return iType(8, register(random), target(random), immediate(random));
+		} else if (kind < 52) {
+			return iType(12, register(random), target(random), random.nextInt(0x10000));
+		} else if (kind < 65) {
+			int op = LOAD_OPS[random.nextInt(LOAD_OPS.length)];
+			return iType(op, base(random), target(random), offset(random, op));
+		} else if (kind < 78) {
+			int op = STORE_OPS[random.nextInt(STORE_OPS.length)];
+			return iType(op, base(random), register(random), offset(random, op));
+		} else if (kind < 90) {
+			// Mostly forward so that most programs halt; backward branches still form loops.
+			int dest = random.nextInt(4) == 0 ? random.nextInt(length + 1) : random.nextInt(index + 1, length + 1);
+			return iType(4, register(random), register(random), dest - (index + 1));
+		} else if (kind < 96) {
+			return jType(2, random.nextInt(index + 1, length + 1));
+		} else {
+			return rType(register(random), 0, 0, 8);
+		}
+	}
+
+	/**
+	 * Private helper method. Generates an MFC0, MTC0 or ERET.
+	 * @param random the source of randomness
+	 * @return the instruction word
+	 */
+	private int coprocessor0(SplittableRandom random) {
+		int kind = random.nextInt(3);
+		if (kind == 0) {
+			int[] readable = {Coprocessor0.BAD_VADDR, Coprocessor0.STATUS, Coprocessor0.CAUSE, Coprocessor0.EPC};
+			return rType(0, target(random), readable[random.nextInt(readable.length)], 0) | (COP0_OP << 26);
+		} else if (kind == 1) {
+			return rType(4, register(random), Coprocessor0.EPC, 0) | (COP0_OP << 26);
+		}
+		return rType(16, 0, 0, 24) | (COP0_OP << 26);
+	}
+
+	/**
+	 * Private helper method. Picks an operand register.
+	 * @param random the source of randomness
+	 * @return $0 .. $WORKING_REGISTERS
+	 */
+	private int register(SplittableRandom random) {
+		return random.nextInt(WORKING_REGISTERS + 1);
+	}
+
+	/**
+	 * Private helper method. Picks a destination register, rarely $zero so the trap is covered.
+	 * @param random the source of randomness
+	 * @return $0 .. $WORKING_REGISTERS
+	 */
+	private int target(SplittableRandom random) {
+		return random.nextInt(50) == 0 ? 0 : 1 + random.nextInt(WORKING_REGISTERS);
+	}
+
+	/**
+	 * Private helper method. Picks the base register of a load or store, mostly $zero so the
+	 * offset alone determines a valid address.
+	 * @param random the source of randomness
+	 * @return the base register
+	 */
+	private int base(SplittableRandom random) {
+		return random.nextInt(4) == 0 ? register(random) : 0;
+	}
+
+	/**
+	 * Private helper method. Picks a load or store offset, mostly an in-range address aligned to the
+	 * size of the access. Half of the addresses fall into the first few words, so that loads of one
+	 * width often read what stores of another width wrote.
+	 * @param random the source of randomness
+	 * @param op the op code of the load or store; its low two bits encode the size
+	 * @return the offset
+	 */
+	private int offset(SplittableRandom random, int op) {
+		if (random.nextInt(20) == 0)
+			return random.nextInt(-8, Computer.MAX_MEMORY + 8);
+		int size = (op & 3) == 3 ? 4 : (op & 3) + 1;
+		int range = random.nextBoolean() ? SHARED_BYTES : Computer.MAX_MEMORY;
+		return size * random.nextInt(range / size);
+	}
+
+	/**
+	 * Private helper method. Picks an ADDI immediate, mostly small but sometimes an extreme one
+	 * so that overflow is reachable.
+	 * @param random the source of randomness
+	 * @return the immediate, within [-32768, 32767]
+	 */
+	private int immediate(SplittableRandom random) {
+		if (random.nextInt(8) == 0)
+			return random.nextBoolean() ? Short.MAX_VALUE : Short.MIN_VALUE;
+		return random.nextInt(-64, 65);
+	}
+
+	/**
+	 * Encodes an R-type instruction.
+	 * @param rs the rs register
+	 * @param rt the rt register
+	 * @param rd the rd register
+	 * @param funct the function code
+	 * @return the instruction word
+	 */
+	public static int rType(int rs, int rt, int rd, int funct) {
+		return (rs << 21) | (rt << 16) | (rd << 11) | funct;
+	}
+
+	/**
+	 * Encodes an I-type instruction.
+	 * @param op the op code
+	 * @param rs the rs register
+	 * @param rt the rt register
+	 * @param imm the immediate, only the low 16 bits are kept
+	 * @return the instruction word
+	 */
+	public static int iType(int op, int rs, int rt, int imm) {
+		return (op << 26) | (rs << 21) | (rt << 16) | (imm & 0xFFFF);
+	}
+
+	/**
+	 * Encodes a J-type instruction.
+	 * @param op the op code
+	 * @param index the instruction index to jump to
+	 * @return the instruction word
+	 */
+	public static int jType(int op, int index) {
+		return (op << 26) | (index & 0x3FFFFFF);
+	}
+}
@@ -3,25 +3,40 @@ package gui;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 
 import javax.swing.*;
 
 import simulator.BitString;
+import simulator.CancellationToken;
 import simulator.Computer;
+import simulator.Debugger;
+import simulator.Disassembler;
+import simulator.ElfFile;
+import simulator.Governor;
+import simulator.RunOutcome;
 
 
 
 public class Driver extends JFrame  {
 	private static final long serialVersionUID = 1L;
 	/* Default columns for register and memory data tables, can be changed w/ future improvements. */
+	/** Run stops a program after this many milliseconds unless Stop ends it first. */
+	private static final long RUN_TIME_LIMIT = 10_000;
 	private static final String[] COLUMN_NAMES = {"Location", "Hex. Value", "Dec. Value"};
 	private static final int DEFAULT_WIDTH = 750;
 	private static final int DEFAULT_HEIGHT = 600;
 
 	private Computer computer;
+	private Debugger debugger;
 	private JTable regMemory;
 	private JTable dataMemory;
 	private JTextArea machineCode;
+	private JPanel programButtons;
+	private JButton stopButton;
+	/** Cancels the program Run is running in the background, null while none is. */
+	private CancellationToken runToken;
 
 	public static void main(String[] args) {
 		Driver driver = new Driver();
@@ -35,6 +50,8 @@ public class Driver extends JFrame  {
 	 */
 	public Driver() {
 		this.computer = new Computer();
+		this.debugger = new Debugger();
+		this.computer.setDebugger(debugger);
 		this.machineCode = new JTextArea();
 
 		this.setTitle("MIPS Simulator");
@@ -44,7 +61,7 @@ public class Driver extends JFrame  {
 
 		this.regMemory = new JTable(new String[Computer.MAX_REGISTERS][COLUMN_NAMES.length], COLUMN_NAMES);
 		this.regMemory.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
-		this.dataMemory = new JTable(new String[Computer.MAX_MEMORY][COLUMN_NAMES.length], COLUMN_NAMES);
+		this.dataMemory = new JTable(new String[Computer.MAX_MEMORY / 4][COLUMN_NAMES.length], COLUMN_NAMES);
 		this.regMemory.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
 		
 		for (int i = 0; i < Computer.MAX_REGISTERS; i++) {
@@ -75,8 +92,8 @@ public class Driver extends JFrame  {
 			}
 		}
 		
-		for (int i = 0; i < Computer.MAX_MEMORY; i++) {
-			dataMemory.setValueAt(Integer.toString(i), i, 0);
+		for (int i = 0; i < Computer.MAX_MEMORY / 4; i++) {
+			dataMemory.setValueAt(Integer.toString(4 * i), i, 0);
 		}
 
 		regMemory.setAutoResizeMode(JTable.AUTO_RESIZE_OFF);
@@ -149,6 +166,23 @@ public class Driver extends JFrame  {
 				}
 			}
 		});
+		JButton open = new JButton("Open ELF");
+		open.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				JFileChooser chooser = new JFileChooser();
+				if (chooser.showOpenDialog(Driver.this) != JFileChooser.APPROVE_OPTION)
+					return;
+				try {
+					computer.loadExecutable(ElfFile.read(chooser.getSelectedFile().toPath()));
+					machineCode.setText("");
+					updateMemoryTable();
+					updateRegisterTable();
+				} catch (IOException | IllegalArgumentException ex) {
+					JOptionPane.showMessageDialog(Driver.this, ex.getMessage());
+				}
+			}
+		});
 		JButton step = new JButton("Step (1 Cycle)");
 		step.addActionListener(new ActionListener() {
 			@Override
@@ -156,8 +190,10 @@ public class Driver extends JFrame  {
 				try {
 					String str = computer.incrementFiveCycles();
 					if (str == null) {
-						JOptionPane.showMessageDialog(Driver.this,
-								"Program finished execution.");
+						JOptionPane.showMessageDialog(Driver.this, computer.getFault() != null
+								? computer.getFault().toString() : "Program finished execution.");
+					} else if (computer.getLastHit() != null) {
+						JOptionPane.showMessageDialog(Driver.this, computer.getLastHit().toString());
 					}
 					updateMemoryTable();
 					updateRegisterTable();
@@ -170,15 +206,50 @@ public class Driver extends JFrame  {
 		run.addActionListener(new ActionListener() {
 			@Override
 			public void actionPerformed(ActionEvent e) {
-				try {
-					computer.executeProgram();
-					JOptionPane.showMessageDialog(Driver.this,
-								"Program finished execution.");
-					updateMemoryTable();
-					updateRegisterTable();
-				} catch (Exception ex) {
-					JOptionPane.showMessageDialog(Driver.this, ex.getMessage());
-				}
+				Governor governor = new Governor();
+				governor.setTimeLimit(RUN_TIME_LIMIT);
+				CancellationToken token = new CancellationToken();
+				governor.setCancellationToken(token);
+				setRunning(token);
+				// The program runs off the event dispatch thread, so the window stays responsive and Stop works.
+				new SwingWorker<RunOutcome, Void>() {
+					@Override
+					protected RunOutcome doInBackground() {
+						return computer.execute(governor);
+					}
+
+					@Override
+					protected void done() {
+						setRunning(null);
+						String message;
+						try {
+							RunOutcome outcome = get();
+							message = outcome.hit != null ? outcome.hit.toString() : outcome.fault != null
+									? outcome.fault.toString() : outcome.status == RunOutcome.Status.BUDGET_EXCEEDED
+									? "Program still running after " + RUN_TIME_LIMIT / 1000 + " s, stopped at "
+											+ Disassembler.hex(outcome.pc) + "."
+									: outcome.status == RunOutcome.Status.CANCELLED
+									? "Program stopped at " + Disassembler.hex(outcome.pc) + "."
+									: "Program finished execution.";
+						} catch (ExecutionException ex) {
+							message = ex.getCause().getMessage();
+						} catch (InterruptedException ex) {
+							message = ex.getMessage();
+						}
+						JOptionPane.showMessageDialog(Driver.this, message);
+						updateMemoryTable();
+						updateRegisterTable();
+					}
+				}.execute();
+			}
+		});
+		stopButton = new JButton("Stop");
+		stopButton.setEnabled(false);
+		stopButton.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (runToken != null)
+					runToken.cancel();
 			}
 		});
 		JButton reset = new JButton("Reset");
@@ -190,15 +261,70 @@ public class Driver extends JFrame  {
 				updateMemoryTable();
 			}
 		});
+		JButton breakpoint = new JButton("Breakpoint");
+		breakpoint.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				String spec = JOptionPane.showInputDialog(Driver.this,
+						"Instruction address, optionally with a condition (e.g. 0x10 if $3 == 5):");
+				addDebugPoint(spec, true);
+			}
+		});
+		JButton watchpoint = new JButton("Watchpoint");
+		watchpoint.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				String spec = JOptionPane.showInputDialog(Driver.this,
+						"Memory address, access (r, w, rw), optionally with a condition (e.g. 16 w if M[16] > 0):");
+				addDebugPoint(spec, false);
+			}
+		});
+		JButton clear = new JButton("Clear Breakpoints");
+		clear.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				debugger.clear();
+			}
+		});
 		JPanel buttons = new JPanel();
 		buttons.add(compile, BorderLayout.EAST);
+		buttons.add(open);
 		buttons.add(step, BorderLayout.CENTER);
 		buttons.add(run, BorderLayout.WEST);
+		buttons.add(stopButton);
 		buttons.add(reset, BorderLayout.SOUTH);
+		buttons.add(breakpoint);
+		buttons.add(watchpoint);
+		buttons.add(clear);
+		programButtons = buttons;
 
 		return buttons;
 	}
 
+	/*
+	 * Enables only Stop while Run has a program running in the background, since every other button
+	 * changes the computer or its debugger, and the other way round once the run ended.
+	 */
+	private void setRunning(CancellationToken token) {
+		runToken = token;
+		for (Component button : programButtons.getComponents())
+			button.setEnabled((token != null) == (button == stopButton));
+	}
+
+	private void addDebugPoint(String spec, boolean isBreakpoint) {
+		if (spec == null || spec.trim().isEmpty())
+			return;
+		try {
+			if (isBreakpoint)
+				debugger.addBreakpoint(spec);
+			else
+				debugger.addWatchpoint(spec);
+			JOptionPane.showMessageDialog(Driver.this, debugger.toString());
+		} catch (IllegalArgumentException ex) {
+			JOptionPane.showMessageDialog(Driver.this, ex.getMessage());
+		}
+	}
+
 	private void updateRegisterTable() {
 		BitString[] regContents = computer.getRegisterContents();
 		for (int i = 0; i < regContents.length; i++) {
@@ -208,10 +334,12 @@ public class Driver extends JFrame  {
 	}
 
 	private void updateMemoryTable() {
-		BitString[] memContents = computer.getMemoryContents();
-		for (int i = 0; i < memContents.length; i++) {
-			dataMemory.setValueAt(memContents[i].getHex(), i, 1);
-			dataMemory.setValueAt(Integer.toString(memContents[i].getValue2sComp()), i, 2);
+		int[] words = computer.getMemoryContents().toWords();
+		BitString word = new BitString();
+		for (int i = 0; i < words.length; i++) {
+			word.setValue2sComp(words[i]);
+			dataMemory.setValueAt(word.getHex(), i, 1);
+			dataMemory.setValueAt(Integer.toString(words[i]), i, 2);
 		}
 	}
 }
@@ -0,0 +1,89 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Protocol holds the wire format shared by SimulationDaemon and SimulationClient. Every message is a
+ * frame: a big-endian int with the payload length, then the payload, written with DataOutputStream.
+ * A connection carries any number of requests, each answered by one response in order.
+ * <p>
+ * A request starts with VERSION and a type. RUN continues with the engine, the byte order, the
+ * delay-slot mode, the cycle budget, instruction budget and time limit (-1 for none), the
+ * PipelineConfig (forwarding, early branches, branch penalty, memory latency, the latency of every
+ * unit in ordinal order and the depth of every stage in ordinal order), and the program: TEXT with
+ * a count and that many binary instruction strings, or ELF with a length and the file's bytes.
+ * SHUTDOWN has nothing more.
+ * <p>
+ * A response starts with OK or ERROR. ERROR continues with a message. OK to a RUN continues with the
+ * RunOutcome.Status ordinal, the exit code, cycles, instructions, final PC, the 32 registers, the
+ * outcome as text, whether the program's output was cut short, and the output as a length and UTF-8
+ * bytes. OK to a SHUTDOWN has nothing more.
+ * @author Egor Maksimenka
+ */
+final class Protocol {
+
+	/** The port the daemon listens on unless told otherwise. */
+	static final int DEFAULT_PORT = 7453;
+	/** The version every request starts with. */
+	static final byte VERSION = 4;
+	/** The largest frame either side accepts, to reject garbage before allocating for it. */
+	static final int MAX_FRAME = 1 << 22;
+
+	/** Request type: run a program. */
+	static final byte RUN = 1;
+	/** Request type: stop the daemon. */
+	static final byte SHUTDOWN = 2;
+
+	/** Engine: the cycle-stepped pipeline. */
+	static final byte STEPPED = 0;
+	/** Engine: the threaded pipeline. */
+	static final byte THREADED = 1;
+
+	/** Program format: binary instruction strings. */
+	static final byte TEXT = 0;
+	/** Program format: an ELF executable. */
+	static final byte ELF = 1;
+
+	/** Response: the request was carried out. */
+	static final byte OK = 0;
+	/** Response: the request was rejected, e.g. because the program is invalid. */
+	static final byte ERROR = 1;
+
+	private Protocol() {
+	}
+
+	/**
+	 * Reads one frame.
+	 * @param in the stream
+	 * @return the payload, or null if the stream ended before a new frame
+	 * @throws IOException if the stream fails, ends inside a frame, or the frame is too large
+	 */
+	static byte[] readFrame(DataInputStream in) throws IOException {
+		int first = in.read();
+		if (first < 0)
+			return null;
+		int length = first << 24 | in.readUnsignedByte() << 16 | in.readUnsignedByte() << 8 | in.readUnsignedByte();
+		if (length < 0 || length > MAX_FRAME)
+			throw new IOException("Invalid frame length " + length);
+		byte[] payload = new byte[length];
+		in.readFully(payload);
+		return payload;
+	}
+
+	/**
+	 * Writes one frame and flushes it.
+	 * @param out the stream
+	 * @param payload the payload, e.g. from a ByteArrayOutputStream
+	 * @throws IOException if the stream fails or the payload is too large
+	 */
+	static void writeFrame(DataOutputStream out, ByteArrayOutputStream payload) throws IOException {
+		if (payload.size() > MAX_FRAME)
+			throw new IOException("Frame too large: " + payload.size() + " bytes");
+		out.writeInt(payload.size());
+		payload.writeTo(out);
+		out.flush();
+	}
+}
@@ -0,0 +1,229 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import simulator.Computer;
+import simulator.ElfFile;
+import simulator.PipelineConfig;
+import simulator.RunOutcome;
+
+/**
+ * SimulationClient sends programs to a running SimulationDaemon and prints what they printed, followed
+ * by how each run ended on stderr. Programs are ELF executables or files with one binary instruction
+ * per line, and all of them go over one connection. The exit status is 0 if every program completed,
+ * 1 if one did not or was rejected, and 2 if the daemon cannot be reached.
+ *
+ * Usage: java server.SimulationClient [--port=P] [--engine=pipeline|threaded] [--max-cycles=N]
+ *        [--max-instructions=N] [--time-limit=MS] [--little-endian] [--delay-slots]
+ *        [--forwarding=on|off] [--early-branches=on|off] [--branch-penalty=N] [--memory-latency=N]
+ *        [--adder=N] [--logic=N] [--branch-unit=N] [--address=N] [--fetch-stages=N] [--execute-stages=N]
+ *        [--memory-stages=N] program...
+ *        java server.SimulationClient [--port=P] --shutdown
+ * @author Egor Maksimenka
+ */
+public class SimulationClient {
+
+	public static void main(String[] args) throws IOException {
+		int port = Protocol.DEFAULT_PORT;
+		byte engine = Protocol.STEPPED;
+		long maxCycles = -1;
+		long maxInstructions = -1;
+		long timeLimit = -1;
+		boolean littleEndian = false;
+		boolean delaySlots = false;
+		boolean shutdown = false;
+		PipelineConfig config = new PipelineConfig();
+		List<Path> programs = new ArrayList<>();
+		for (String arg : args) {
+			String value = arg.substring(arg.indexOf('=') + 1);
+			if (arg.startsWith("--port=")) {
+				port = Integer.parseInt(value);
+			} else if (arg.startsWith("--engine=")) {
+				if (!value.equals("pipeline") && !value.equals("threaded"))
+					throw new IllegalArgumentException("Engine is pipeline or threaded: " + value);
+				engine = value.equals("threaded") ? Protocol.THREADED : Protocol.STEPPED;
+			} else if (arg.startsWith("--max-cycles=")) {
+				maxCycles = Long.parseLong(value);
+			} else if (arg.startsWith("--max-instructions=")) {
+				maxInstructions = Long.parseLong(value);
+			} else if (arg.startsWith("--time-limit=")) {
+				timeLimit = Long.parseLong(value);
+			} else if (arg.equals("--little-endian")) {
+				littleEndian = true;
+			} else if (arg.equals("--delay-slots")) {
+				delaySlots = true;
+			} else if (arg.startsWith("--forwarding=")) {
+				if (!value.equals("on") && !value.equals("off"))
+					throw new IllegalArgumentException("Forwarding is on or off: " + value);
+				config.setForwarding(value.equals("on"));
+			} else if (arg.startsWith("--early-branches=")) {
+				if (!value.equals("on") && !value.equals("off"))
+					throw new IllegalArgumentException("Early branches are on or off: " + value);
+				config.setEarlyBranches(value.equals("on"));
+			} else if (arg.startsWith("--branch-penalty=")) {
+				config.setBranchPenalty(Integer.parseInt(value));
+			} else if (arg.startsWith("--memory-latency=")) {
+				config.setMemoryLatency(Integer.parseInt(value));
+			} else if (arg.startsWith("--adder=")) {
+				config.setLatency(PipelineConfig.Unit.ADDER, Integer.parseInt(value));
+			} else if (arg.startsWith("--logic=")) {
+				config.setLatency(PipelineConfig.Unit.LOGIC, Integer.parseInt(value));
+			} else if (arg.startsWith("--branch-unit=")) {
+				config.setLatency(PipelineConfig.Unit.BRANCH, Integer.parseInt(value));
+			} else if (arg.startsWith("--address=")) {
+				config.setLatency(PipelineConfig.Unit.ADDRESS, Integer.parseInt(value));
+			} else if (arg.startsWith("--fetch-stages=")) {
+				config.setDepth(PipelineConfig.Stage.FETCH, Integer.parseInt(value));
+			} else if (arg.startsWith("--execute-stages=")) {
+				config.setDepth(PipelineConfig.Stage.EXECUTE, Integer.parseInt(value));
+			} else if (arg.startsWith("--memory-stages=")) {
+				config.setDepth(PipelineConfig.Stage.MEMORY, Integer.parseInt(value));
+			} else if (arg.equals("--shutdown")) {
+				shutdown = true;
+			} else if (arg.startsWith("--")) {
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+			} else {
+				programs.add(Paths.get(arg));
+			}
+		}
+		if (programs.isEmpty() && !shutdown) {
+			System.err.println("Usage: java server.SimulationClient [--port=P] [--engine=pipeline|threaded] "
+					+ "[--max-cycles=N] [--max-instructions=N] [--time-limit=MS] [--little-endian] [--delay-slots] "
+					+ "[--forwarding=on|off] [--early-branches=on|off] [--branch-penalty=N] [--memory-latency=N] [--adder=N] [--logic=N] "
+					+ "[--branch-unit=N] [--address=N] [--fetch-stages=N] [--execute-stages=N] [--memory-stages=N] "
+					+ "program...  |  --shutdown");
+			System.exit(2);
+		}
+
+		Socket socket;
+		try {
+			socket = new Socket(InetAddress.getLoopbackAddress(), port);
+		} catch (IOException e) {
+			System.err.println("Cannot reach the daemon on port " + port + ": " + e.getMessage());
+			System.exit(2);
+			return;
+		}
+		boolean allCompleted = true;
+		try (Socket s = socket;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+			s.setTcpNoDelay(true);
+			for (Path program : programs) {
+				ByteArrayOutputStream payload = new ByteArrayOutputStream();
+				writeRun(new DataOutputStream(payload), program, engine, littleEndian, delaySlots, maxCycles,
+						maxInstructions, timeLimit, config);
+				Protocol.writeFrame(out, payload);
+				allCompleted &= readRun(in, programs.size() > 1 ? program + ": " : "");
+			}
+			if (shutdown) {
+				ByteArrayOutputStream payload = new ByteArrayOutputStream();
+				DataOutputStream request = new DataOutputStream(payload);
+				request.writeByte(Protocol.VERSION);
+				request.writeByte(Protocol.SHUTDOWN);
+				Protocol.writeFrame(out, payload);
+				Protocol.readFrame(in);
+			}
+		}
+		System.exit(allCompleted ? 0 : 1);
+	}
+
+	/**
+	 * Private helper method. Writes a RUN request for a program file.
+	 * @param request where the request goes
+	 * @param program the program file
+	 * @param engine Protocol.STEPPED or Protocol.THREADED
+	 * @param littleEndian true for little-endian memory
+	 * @param delaySlots true for delay-slot mode
+	 * @param maxCycles the cycle budget, -1 for none
+	 * @param maxInstructions the instruction budget, -1 for none
+	 * @param timeLimit the time limit in milliseconds, -1 for the daemon's own
+	 * @param config the pipeline configuration
+	 * @throws IOException if the program cannot be read
+	 */
+	private static void writeRun(DataOutputStream request, Path program, byte engine, boolean littleEndian,
+			boolean delaySlots, long maxCycles, long maxInstructions, long timeLimit, PipelineConfig config)
+			throws IOException {
+		request.writeByte(Protocol.VERSION);
+		request.writeByte(Protocol.RUN);
+		request.writeByte(engine);
+		request.writeBoolean(littleEndian);
+		request.writeBoolean(delaySlots);
+		request.writeLong(maxCycles);
+		request.writeLong(maxInstructions);
+		request.writeLong(timeLimit);
+		request.writeBoolean(config.isForwarding());
+		request.writeBoolean(config.isEarlyBranches());
+		request.writeInt(config.getBranchPenalty());
+		request.writeInt(config.getMemoryLatency());
+		for (PipelineConfig.Unit unit : PipelineConfig.Unit.values())
+			request.writeInt(config.getLatency(unit));
+		for (PipelineConfig.Stage stage : PipelineConfig.Stage.values())
+			request.writeInt(config.getDepth(stage));
+		if (ElfFile.isElf(program)) {
+			byte[] contents = Files.readAllBytes(program);
+			request.writeByte(Protocol.ELF);
+			request.writeInt(contents.length);
+			request.write(contents);
+		} else {
+			List<String> lines = new ArrayList<>();
+			for (String line : Files.readAllLines(program)) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#"))
+					lines.add(line);
+			}
+			request.writeByte(Protocol.TEXT);
+			request.writeInt(lines.size());
+			for (String line : lines)
+				request.writeUTF(line);
+		}
+	}
+
+	/**
+	 * Private helper method. Reads the response to a RUN request and prints it.
+	 * @param in the connection
+	 * @param prefix put in front of the outcome, e.g. the program's name
+	 * @return true if the program completed
+	 * @throws IOException if the daemon went away
+	 */
+	private static boolean readRun(DataInputStream in, String prefix) throws IOException {
+		byte[] frame = Protocol.readFrame(in);
+		if (frame == null)
+			throw new IOException("The daemon closed the connection");
+		DataInputStream response = new DataInputStream(new ByteArrayInputStream(frame));
+		if (response.readByte() == Protocol.ERROR) {
+			System.err.println(prefix + "rejected: " + response.readUTF());
+			return false;
+		}
+		RunOutcome.Status status = RunOutcome.Status.values()[response.readInt()];
+		response.readInt(); // exit code
+		response.readLong(); // cycles
+		response.readLong(); // instructions
+		response.readInt(); // PC
+		for (int i = 0; i < Computer.MAX_REGISTERS; i++)
+			response.readInt();
+		String summary = response.readUTF();
+		boolean truncated = response.readBoolean();
+		byte[] output = new byte[response.readInt()];
+		response.readFully(output);
+		System.out.print(new String(output, StandardCharsets.UTF_8));
+		System.out.flush();
+		if (truncated)
+			System.err.println(prefix + "output truncated by the daemon");
+		System.err.println(prefix + summary);
+		return status == RunOutcome.Status.COMPLETED;
+	}
+}
@@ -0,0 +1,318 @@
+package server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import simulator.Computer;
+import simulator.ConsoleDevice;
+import simulator.DeviceBus;
+import simulator.ElfFile;
+import simulator.Governor;
+import simulator.PipelineConfig;
+import simulator.ResultCache;
+import simulator.RunOutcome;
+import simulator.TimerDevice;
+
+/**
+ * SimulationDaemon is a long-lived simulator that runs programs sent by SimulationClient, so that a
+ * batch of short programs pays for JVM startup and JIT warm-up once instead of once per program. It
+ * listens on the loopback interface only and speaks the frames described in Protocol.
+ * <p>
+ * Every client gets its own thread, and every thread keeps one Computer that it resets between
+ * programs. Results go through a shared ResultCache, so a program that was already run from the same
+ * state is answered without simulating it. Every run is limited to --time-limit milliseconds, or less
+ * if the request asks for less. At most MAX_OUTPUT bytes of a program's output are sent back, cut at
+ * a character boundary, and the response says whether it was cut. Requests the simulator rejects or
+ * fails on are answered with ERROR. Once the daemon stops accepting clients, it waits for the runs in
+ * progress to be answered before serve() returns.
+ *
+ * Usage: java server.SimulationDaemon [--port=P] [--cache=N] [--cache-dir=DIR] [--time-limit=MS]
+ * @author Egor Maksimenka
+ */
+public class SimulationDaemon {
+
+	/** The number of results the cache keeps in memory unless --cache is given. */
+	private static final int DEFAULT_CACHE_CAPACITY = 4096;
+	/** The time limit of every run in milliseconds unless --time-limit is given. */
+	private static final long DEFAULT_TIME_LIMIT = 10_000;
+	/** The most bytes of program output sent back; the rest is dropped so the response fits a frame. */
+	private static final int MAX_OUTPUT = 1 << 20;
+	/** How long in milliseconds serve() waits for the runs in progress beyond the time limit. */
+	private static final long SHUTDOWN_GRACE = 1_000;
+
+	/**
+	 * The simulator a connection thread keeps between requests.
+	 */
+	private static class Worker {
+		final Computer computer = new Computer();
+		/** Collects the output of the current program, one character more than is ever sent back. */
+		final StringBuilder output = new StringBuilder();
+
+		Worker() {
+			DeviceBus bus = new DeviceBus();
+			bus.attach(Computer.CONSOLE_BASE, new ConsoleDevice(output, ConsoleDevice.DEFAULT_CAPACITY, MAX_OUTPUT + 1));
+			bus.attach(Computer.TIMER_BASE, new TimerDevice());
+			computer.setDeviceBus(bus);
+		}
+	}
+
+	/** The socket clients connect to. */
+	private final ServerSocket mSocket;
+	/** The results of earlier runs, shared by all connections. */
+	private final ResultCache mCache;
+	/** The time limit of every run in milliseconds. */
+	private final long mTimeLimit;
+	/** The simulator of each connection thread, kept warm across connections. */
+	private final ThreadLocal<Worker> mWorkers = ThreadLocal.withInitial(Worker::new);
+
+	/**
+	 * Creates a daemon listening on a loopback port.
+	 * @param port the port, 0 for any free one
+	 * @param cache the results of earlier runs
+	 * @param timeLimit the time limit of every run in milliseconds
+	 * @throws IOException if the port cannot be opened
+	 */
+	public SimulationDaemon(int port, ResultCache cache, long timeLimit) throws IOException {
+		mSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		mCache = cache;
+		mTimeLimit = timeLimit;
+	}
+
+	public static void main(String[] args) throws IOException {
+		int port = Protocol.DEFAULT_PORT;
+		int capacity = DEFAULT_CACHE_CAPACITY;
+		String directory = null;
+		long timeLimit = DEFAULT_TIME_LIMIT;
+		for (String arg : args) {
+			String value = arg.substring(arg.indexOf('=') + 1);
+			if (arg.startsWith("--port="))
+				port = Integer.parseInt(value);
+			else if (arg.startsWith("--cache="))
+				capacity = Integer.parseInt(value);
+			else if (arg.startsWith("--cache-dir="))
+				directory = value;
+			else if (arg.startsWith("--time-limit="))
+				timeLimit = Long.parseLong(value);
+			else
+				throw new IllegalArgumentException("Unknown argument: " + arg);
+		}
+		ResultCache cache = new ResultCache(capacity, directory == null ? null : Paths.get(directory));
+		SimulationDaemon daemon = new SimulationDaemon(port, cache, timeLimit);
+		System.out.println("Listening on " + daemon.mSocket.getLocalSocketAddress());
+		daemon.serve();
+	}
+
+	public int getPort() {
+		return mSocket.getLocalPort();
+	}
+
+	/**
+	 * Accepts clients until a client sends SHUTDOWN or close() is called, then waits up to the time limit
+	 * for the requests being run to be answered.
+	 * @throws IOException if accepting fails for another reason
+	 */
+	public void serve() throws IOException {
+		ExecutorService connections = Executors.newCachedThreadPool(runnable -> {
+			Thread thread = new Thread(runnable, "simulation-connection");
+			thread.setDaemon(true);
+			return thread;
+		});
+		try {
+			while (true) {
+				Socket client;
+				try {
+					client = mSocket.accept();
+				} catch (SocketException e) {
+					// close() was called.
+					if (mSocket.isClosed())
+						return;
+					throw e;
+				}
+				connections.execute(() -> handle(client));
+			}
+		} finally {
+			connections.shutdown();
+			// The connection threads are daemons, so a run still in progress would end with the JVM.
+			try {
+				connections.awaitTermination(Math.min(mTimeLimit, Long.MAX_VALUE - SHUTDOWN_GRACE) + SHUTDOWN_GRACE,
+						TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Stops accepting clients. Requests already being run are finished.
+	 * @throws IOException if the socket cannot be closed
+	 */
+	public void close() throws IOException {
+		mSocket.close();
+	}
+
+	/**
+	 * Private helper method. Answers the requests of one client until it disconnects. A request that
+	 * cannot be parsed ends the connection, since the frames after it cannot be trusted either.
+	 * @param client the client's socket
+	 */
+	private void handle(Socket client) {
+		try (Socket socket = client;
+				DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			socket.setTcpNoDelay(true);
+			byte[] frame;
+			while ((frame = Protocol.readFrame(in)) != null) {
+				DataInputStream request = new DataInputStream(new ByteArrayInputStream(frame));
+				ByteArrayOutputStream payload = new ByteArrayOutputStream();
+				DataOutputStream response = new DataOutputStream(payload);
+				boolean shutdown = false;
+				if (request.readByte() != Protocol.VERSION) {
+					response.writeByte(Protocol.ERROR);
+					response.writeUTF("Unsupported protocol version");
+				} else {
+					byte type = request.readByte();
+					if (type == Protocol.RUN) {
+						run(request, response);
+					} else if (type == Protocol.SHUTDOWN) {
+						response.writeByte(Protocol.OK);
+						shutdown = true;
+					} else {
+						response.writeByte(Protocol.ERROR);
+						response.writeUTF("Unknown request type " + type);
+					}
+				}
+				Protocol.writeFrame(out, payload);
+				if (shutdown) {
+					close();
+					return;
+				}
+			}
+		} catch (IOException e) {
+			// The client went away or sent garbage; nothing to answer.
+		}
+	}
+
+	/**
+	 * Private helper method. Runs one program and writes the response. Programs and configurations the
+	 * simulator rejects, and runs that fail on the host, are answered with ERROR.
+	 * @param request the request after its type
+	 * @param response where the response goes
+	 * @throws IOException if the request is truncated or a count in it exceeds the rest of the frame
+	 */
+	private void run(DataInputStream request, DataOutputStream response) throws IOException {
+		byte engine = request.readByte();
+		boolean littleEndian = request.readBoolean();
+		boolean delaySlots = request.readBoolean();
+		long maxCycles = request.readLong();
+		long maxInstructions = request.readLong();
+		long timeLimit = request.readLong();
+		boolean forwarding = request.readBoolean();
+		boolean earlyBranches = request.readBoolean();
+		int branchPenalty = request.readInt();
+		int memoryLatency = request.readInt();
+		int[] latencies = new int[PipelineConfig.Unit.values().length];
+		for (int i = 0; i < latencies.length; i++)
+			latencies[i] = request.readInt();
+		int[] depths = new int[PipelineConfig.Stage.values().length];
+		for (int i = 0; i < depths.length; i++)
+			depths[i] = request.readInt();
+		byte format = request.readByte();
+		String[] program = null;
+		byte[] executable = null;
+		if (format == Protocol.TEXT) {
+			int count = request.readInt();
+			// Every string takes at least its two-byte length.
+			if (count < 0 || count > request.available() / 2)
+				throw new IOException("Invalid instruction count " + count);
+			program = new String[count];
+			for (int i = 0; i < program.length; i++)
+				program[i] = request.readUTF();
+		} else if (format == Protocol.ELF) {
+			int length = request.readInt();
+			if (length < 0 || length > request.available())
+				throw new IOException("Invalid executable length " + length);
+			executable = new byte[length];
+			request.readFully(executable);
+		} else {
+			throw new IOException("Unknown program format " + format);
+		}
+
+		Worker worker = mWorkers.get();
+		Computer computer = worker.computer;
+		RunOutcome outcome;
+		try {
+			PipelineConfig config = new PipelineConfig();
+			config.setForwarding(forwarding);
+			config.setEarlyBranches(earlyBranches);
+			config.setBranchPenalty(branchPenalty);
+			config.setMemoryLatency(memoryLatency);
+			for (PipelineConfig.Unit unit : PipelineConfig.Unit.values())
+				config.setLatency(unit, latencies[unit.ordinal()]);
+			for (PipelineConfig.Stage stage : PipelineConfig.Stage.values())
+				config.setDepth(stage, depths[stage.ordinal()]);
+			Governor governor = new Governor();
+			if (maxCycles >= 0)
+				governor.setMaxCycles(maxCycles);
+			if (maxInstructions >= 0)
+				governor.setMaxInstructions(maxInstructions);
+			governor.setTimeLimit(timeLimit >= 0 ? Math.min(timeLimit, mTimeLimit) : mTimeLimit);
+
+			worker.output.setLength(0);
+			computer.resetProgram();
+			computer.setPipelineConfig(config);
+			computer.setDelaySlots(delaySlots);
+			computer.getMemoryContents().setByteOrder(littleEndian ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+			if (executable != null)
+				computer.loadExecutable(ElfFile.read(executable, false));
+			else
+				computer.loadProgram(program);
+			outcome = engine == Protocol.THREADED ? mCache.executeThreaded(computer, governor)
+					: mCache.execute(computer, governor);
+		} catch (IllegalArgumentException e) {
+			response.writeByte(Protocol.ERROR);
+			response.writeUTF(String.valueOf(e.getMessage()));
+			return;
+		} catch (RuntimeException e) {
+			// The simulator or the cache failed on the host, e.g. a device or the cache directory.
+			response.writeByte(Protocol.ERROR);
+			response.writeUTF(e.toString());
+			return;
+		}
+
+		response.writeByte(Protocol.OK);
+		response.writeInt(outcome.status.ordinal());
+		response.writeInt(computer.getExitCode());
+		response.writeLong(outcome.cycles);
+		response.writeLong(outcome.instructions);
+		response.writeInt(outcome.pc);
+		for (int i = 0; i < Computer.MAX_REGISTERS; i++)
+			response.writeInt(computer.getRegisterContents()[i].getValue2sComp());
+		response.writeUTF(outcome.toString());
+		byte[] output = worker.output.toString().getBytes(StandardCharsets.UTF_8);
+		int length = output.length;
+		if (length > MAX_OUTPUT) {
+			// Cut in front of the character the limit falls in, not inside it.
+			length = MAX_OUTPUT;
+			while (length > 0 && (output[length] & 0xC0) == 0x80)
+				length--;
+		}
+		response.writeBoolean(length < output.length);
+		response.writeInt(length);
+		response.write(output, 0, length);
+	}
+}
@@ -88,7 +88,8 @@ public class BitString {
 					+ MAX_BITS + " bits.");
 		}
 		
-		mBits = new char[MAX_BITS];
+		if (mBits.length != MAX_BITS)
+			mBits = new char[MAX_BITS];
 		mLength = MAX_BITS;
 		for (int i = mLength - 1; i >= 0; i--) {
 			mBits[i] = (n % 2 == 0) ? '0' : '1';
@@ -105,14 +106,15 @@ public class BitString {
 			throw new IllegalArgumentException("Cannot represent in "
 					+ MAX_BITS + " bits.");
 		}
-		boolean isNegative = n < 0;
-		if (n < 0) {
-			n *= -1;
-		}
-		setValue(n);
-		if (isNegative) {
-			invert();
-			addOne();
+		// Shift the bits out directly so MIN_VALUE, which has no positive
+		// counterpart to negate, is representable as well. The bits are overwritten in place; no other
+		// BitString shares them, since copy(), setBits(), getBits() and substring() all copy.
+		if (mBits.length != MAX_BITS)
+			mBits = new char[MAX_BITS];
+		mLength = MAX_BITS;
+		for (int i = mLength - 1; i >= 0; i--) {
+			mBits[i] = (n & 1) == 0 ? '0' : '1';
+			n >>>= 1;
 		}
 	}
 
@@ -279,10 +281,10 @@ public class BitString {
 	
 	/**
 	 * Returns an array of the bits stored in the BitString
-	 * @return character array of bits
+	 * @return a copy of the character array of bits
 	 */
 	public char[] getBits() {
-		return mBits;
+		return Arrays.copyOf(mBits, mLength);
 	}
 
 	/**
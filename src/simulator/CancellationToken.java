@@ -0,0 +1,23 @@
+package simulator;
+
+/**
+ * CancellationToken lets another thread stop a run. Pass it to a Governor and call cancel() from
+ * anywhere; the run notices at the end of its current basic block and returns a CANCELLED outcome.
+ * @author Egor Maksimenka
+ */
+public class CancellationToken {
+
+	/** Set once cancel() was called. */
+	private volatile boolean mCancelled;
+
+	/**
+	 * Requests the run to stop. Safe to call from any thread, any number of times.
+	 */
+	public void cancel() {
+		mCancelled = true;
+	}
+
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+}
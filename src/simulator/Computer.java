@@ -1,6 +1,10 @@
 package simulator;
 
-import java.util.Stack;
+import static simulator.InstructionSet.*;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
 
 /**
  * Computer class comprises of memory, registers, and
@@ -11,34 +15,19 @@ public class Computer {
 	
 	/** The strict length for an instruction. */
 	private final static int INSTRUCTION_LENGTH = 32;
-	/** The size of the memory, no. of available cells. */
+	/** The size of the memory in bytes. */
 	public final static int MAX_MEMORY = 500;
 	/** Number of available registers. */
 	public final static int MAX_REGISTERS = 32;
 	/** Maximum number of instructions allowed. */
 	public final static int MAX_INSTRUCTIONS = 200;
+	/** The address of the console device on the default device bus. */
+	public final static int CONSOLE_BASE = 0x7F00;
+	/** The address of the timer device on the default device bus. */
+	public final static int TIMER_BASE = 0x7F10;
+	/** The most instructions a scheduled program is run for to check it against the original. */
+	public final static long SCHEDULE_CHECK_STEPS = 1_000_000;
 	
-	/** Op code for ADD, AND, and JR. */
-	private final static int ADD_AND_JR_OP = 0;
-	/** Function code for ADD. */
-	private final static int ADD_FUNC = 32;
-	/** Function code for AND. */
-	private final static int AND_FUNC = 36;
-	/** Function code for JR. */
-	private final static int JR_FUNC = 8;
-	/** Op code for ADDI. */
-	private final static int ADDI_OP = 8;
-	/** Op code for ANDI. */
-	private final static int ANDI_OP = 12;
-	/** Op code for LW. */
-	private final static int LW_OP = 35;
-	/** Op code for SW. */
-	private final static int SW_OP = 43;
-	/** Op code for BEQ. */
-	private final static int BEQ_OP =  4;
-	/** Op code for J. */
-	private final static int J_OP = 2;
-
 	/** Stores the address of the op_code in a pipeline. */
     private static final int OP_CODE = 0;
     /** Stores the address of the target register in a pipeline. */
@@ -49,6 +38,19 @@ public class Computer {
     private static final int WRITE_VAL = 3;
     /** Stores the address of IR in a pipeline. */
     private static final int M_IR = 4;
+    /**
+     * Stores the address of the instruction's PC + 4 in a pipeline. A bubble stores PC + 4 of the
+     * instruction that caused it instead, or 0 if it was not caused by a stall or a squashed fetch.
+     */
+    private static final int NEXT_PC = 5;
+    /** Stores the address of the instruction's flags in a pipeline, see DELAY_SLOT_FLAG and RESOLVED_FLAG. */
+    private static final int FLAGS = 6;
+    /** The number of slots in each pipeline register. */
+    private static final int PIPELINE_WIDTH = 7;
+    /** Flag of an instruction in the delay slot of the branch ahead of it. */
+    private static final int DELAY_SLOT_FLAG = 1;
+    /** Flag of a branch or jump ID has already resolved; EX only passes it on. */
+    private static final int RESOLVED_FLAG = 2;
     /** The id for the IF stage within the pipeline stack. */
     private static final int IF = 1;
     /** The id for the ID stage within the pipeline stack. */
@@ -59,11 +61,16 @@ public class Computer {
     private static final int MEM = 4;
     /** The id for the WB stage within the pipeline stack. */
     private static final int WB = 5;
+    /**
+     * The order the stages are evaluated in within one cycle. Older instructions go first so that
+     * every stage reads the pipeline register its predecessor filled on the previous cycle.
+     */
+    private static final int[] PIPELINE_ORDER = {WB, MEM, EX, ID, IF};
 
 	/** The registers used by the computer. */
 	private BitString mRegisters[];
 	/** The simulated memory used by the computer. */
-	private BitString mMemory[];
+	private final Memory mMemory = new Memory(MAX_MEMORY);
 	/** The instructions for the input program. */
 	private BitString mInstructions[];
 	/** The PC, or the current instruction addr. */
@@ -88,27 +95,128 @@ public class Computer {
      *  the corresponding register (-1 if no write necessary).
      */
 	private BitString[] memWbPipeline;
+	/**
+	 * The pipeline registers inside IF, EX and MEM when the PipelineConfig splits them, indexed by stage
+	 * ordinal and then by position, the register behind the first stage of the split stage first.
+	 * IF/ID, EX/MEM and MEM/WB stay the registers between the five stages.
+	 */
+	private final BitString[][][] mSplitLatches = new BitString[PipelineConfig.Stage.values().length][][];
+	/** The stages IF is split into this cycle. */
+	private int mFetchDepth = 1;
+	/** The stages EX is split into this cycle. */
+	private int mExecuteDepth = 1;
+	/** The stages MEM is split into this cycle. */
+	private int mMemoryDepth = 1;
+	/** The pipeline register the first stage of EX writes: EX/MEM unless EX is split. */
+	private BitString[] mExecuteOut;
+	/** The pipeline register the last stage of MEM reads: EX/MEM unless MEM is split. */
+	private BitString[] mMemoryIn;
     /**
-     * The stack used to stimulate overlaying stages between multiple instructions.
+     * Set by EX when the instruction it holds needs a value that a load ahead of it has not
+     * produced yet. IF and ID hold their pipeline registers for the cycle.
      */
-	private Stack<Integer> pipelineOrder;
+	private boolean mStall;
+	/** Collects per-instruction statistics while running, null when profiling is off. */
+	private Profiler mProfiler;
+	/** Holds the breakpoints and watchpoints, null when debugging is off. */
+	private Debugger mDebugger;
+	/** Set while IF waits for older instructions to leave the pipeline before stopping at a breakpoint. */
+	private boolean mBreakPending;
+	/** The breakpoint address IF may fetch from once without stopping again, -1 if none. */
+	private int mResumePC;
+	/** Why the last cycle stopped the program, null if it did not. */
+	private Debugger.Hit mLastHit;
+	/** The memory-mapped devices. */
+	private DeviceBus mBus;
+	/** The number of cycles executed since the last reset. */
+	private long mCycle;
+	/** Set once the program ended itself through SYSCALL; IF fetches nothing more. */
+	private boolean mExited;
+	/** The exit code passed to SYSCALL, 0 if the program did not set one. */
+	private int mExitCode;
+	/** The exception registers and guest handlers. */
+	private Coprocessor0 mCP0;
+	/** The fault that stopped the program, null if none did. IF fetches nothing more once it is set. */
+	private SimulationFault mFault;
+	/** Set by trap() so that EX does not pass the faulting instruction on. */
+	private boolean mTrapped;
+	/** The symbols of the loaded executable, null if it has none. */
+	private SymbolTable mSymbols;
+	/** The number of instructions completed since the last reset. */
+	private long mRetired;
+	/** Set whenever the PC is redirected, so that execute() checks its Governor once per basic block. */
+	private boolean mBlockEnded;
+	/** The microarchitecture parameters: forwarding, branch penalty and latencies. */
+	private PipelineConfig mConfig = new PipelineConfig();
+	/** Set by MEM while a load or store has cycles of latency left; EX, ID and IF hold their registers. */
+	private boolean mMemStall;
+	/** The cycles MEM has spent on the load or store it holds. */
+	private int mMemWait;
+	/** The cycles EX has spent on the instruction it holds. */
+	private int mExWait;
+	/** The fetches IF skips after a taken branch beyond the squashed one. */
+	private int mFetchDelay;
+	/** PC + 4 of the branch the skipped fetches are charged to. */
+	private int mFetchDelayCause;
+	/** The engine of the last run, null before the first one. Reported to JFR when it changes. */
+	private String mEngine;
+	/** The instruction slots that may hold a word other than 0. */
+	private final BitSet mDirtyInstructions = new BitSet(MAX_INSTRUCTIONS);
+	/** True if loading a program analyzes it. */
+	private boolean mAnalyzing;
+	/** True if loading a program schedules it for the PipelineConfig. */
+	private boolean mScheduling;
+	/** The analysis of the loaded program, null if it was not analyzed. */
+	private ProgramAnalysis mAnalysis;
+	/** True if BEQ, J and JR have a delay slot. */
+	private boolean mDelaySlots;
+	/** Set by IF when it fetched a branch with a delay slot, so that the next fetch is its delay slot. */
+	private boolean mNextIsSlot;
+	/** The target of a taken branch IF continues at once it fetched the delay slot, -1 if none. */
+	private int mSlotTarget;
+	/** The fetches IF skips after fetching the delay slot before it fetches from mSlotTarget. */
+	private int mSlotDelay;
 
 
 	/**
-	 * Default constructor for Computer. Initializes all values to 0.
+	 * Default constructor for Computer. Initializes all values to 0 and attaches a console printing to
+	 * stdout at CONSOLE_BASE and a timer at TIMER_BASE.
 	 */
 	public Computer() {
-		ifIdPipeline = new BitString[5];
-		idExPipeline = new BitString[5];
-		exMemPipeline = new BitString[5];
-		memWbPipeline = new BitString[5];
-		for (int i = 0; i < 5; i++) {
+		mBus = new DeviceBus();
+		mBus.attach(CONSOLE_BASE, new ConsoleDevice(System.out));
+		mBus.attach(TIMER_BASE, new TimerDevice());
+		mCP0 = new Coprocessor0();
+		mPC = new BitString();
+		mRegisters = new BitString[MAX_REGISTERS];
+		for (int i = 0; i < MAX_REGISTERS; i++) {
+			mRegisters[i] = new BitString();
+			mRegisters[i].setValue(0);
+		}
+		mInstructions = new BitString[MAX_INSTRUCTIONS];
+		for (int i = 0; i < MAX_INSTRUCTIONS; i++) {
+			mInstructions[i] = new BitString();
+			mInstructions[i].setValue(0);
+		}
+		ifIdPipeline = new BitString[PIPELINE_WIDTH];
+		idExPipeline = new BitString[PIPELINE_WIDTH];
+		exMemPipeline = new BitString[PIPELINE_WIDTH];
+		memWbPipeline = new BitString[PIPELINE_WIDTH];
+		for (int i = 0; i < PIPELINE_WIDTH; i++) {
 			ifIdPipeline[i] = new BitString();
 			idExPipeline[i] = new BitString();
 			exMemPipeline[i] = new BitString();
 			memWbPipeline[i] = new BitString();
 		}
-		this.pipelineOrder = new Stack<>();
+		for (int stage = 0; stage < mSplitLatches.length; stage++) {
+			mSplitLatches[stage] = new BitString[PipelineConfig.MAX_DEPTH - 1][PIPELINE_WIDTH];
+			for (BitString[] latch : mSplitLatches[stage]) {
+				for (int i = 0; i < PIPELINE_WIDTH; i++)
+					latch[i] = new BitString();
+			}
+		}
+		mExecuteOut = exMemPipeline;
+		mMemoryIn = exMemPipeline;
 		resetProgram();
 	}
 	 
@@ -128,122 +236,763 @@ public class Computer {
 			String str = instructions[i];
 			if (str.length() != INSTRUCTION_LENGTH)
 				throw new IllegalArgumentException("Invalid program.");
-			BitString inst = new BitString();
-			inst.setBits(str.toCharArray());
-			mInstructions[i] = inst;
+			mInstructions[i].setBits(str.toCharArray());
+			mDirtyInstructions.set(i);
 		}
+		Telemetry.codeFlush("program", instructions.length);
+		analyzeProgram();
+	}
+
+	/**
+	 * Loads an executable read with ElfFile. Resets the computer, copies the executable segments into the
+	 * instruction space and the others into memory at their addresses, and sets the PC to the entry point.
+	 * @param executable the executable
+	 * @exception IAG if a segment does not fit into its space or the entry point is not an instruction address
+	 */
+	public void loadExecutable(ElfFile executable) {
+		int entry = executable.getEntry();
+		if (entry % 4 != 0 || entry < 0 || entry / 4 >= MAX_INSTRUCTIONS)
+			throw new IllegalArgumentException("Invalid entry point " + Disassembler.hex(entry));
+		for (ElfFile.Segment segment : executable.getSegments()) {
+			long last = segment.address + 4L * (segment.words.length - 1);
+			if (segment.executable && (segment.address < 0 || last / 4 >= MAX_INSTRUCTIONS))
+				throw new IllegalArgumentException("Segment at " + Disassembler.hex(segment.address)
+						+ " does not fit into the instruction space");
+			if (!segment.executable && (segment.address < 0 || last + 4 > MAX_MEMORY))
+				throw new IllegalArgumentException("Segment at " + Disassembler.hex(segment.address)
+						+ " does not fit into memory");
+		}
+		resetProgram();
+		int words = 0;
+		for (ElfFile.Segment segment : executable.getSegments()) {
+			if (segment.executable) {
+				words += segment.words.length;
+				for (int i = 0; i < segment.words.length; i++) {
+					mInstructions[segment.address / 4 + i].setValue2sComp(segment.words[i]);
+					mDirtyInstructions.set(segment.address / 4 + i);
+				}
+			} else {
+				// The file is big-endian; copy its bytes as they are, whatever the memory's byte order.
+				ByteBuffer bytes = ByteBuffer.allocate(4 * segment.words.length);
+				bytes.asIntBuffer().put(segment.words);
+				mMemory.storeBytes(segment.address, bytes.array());
+			}
+		}
+		mPC.setValue(entry);
+		mSymbols = executable.getSymbols();
+		Telemetry.codeFlush("executable", words);
+		analyzeProgram();
+	}
+
+	/**
+	 * Private helper method. Analyzes the program just loaded if analysis or scheduling is on, and puts
+	 * the scheduled program in its place if it ends the same way as the original, see setScheduling().
+	 */
+	private void analyzeProgram() {
+		if (!mAnalyzing && !mScheduling)
+			return;
+		mAnalysis = ProgramAnalysis.analyze(this);
+		if (!mScheduling)
+			return;
+		int[] original = mAnalysis.getWords();
+		int[] scheduled = mAnalysis.schedule(mConfig);
+		if (Arrays.equals(original, scheduled)
+				|| !ProgramAnalysis.isEquivalent(this, original, scheduled, SCHEDULE_CHECK_STEPS))
+			return;
+		for (int i = 0; i < MAX_INSTRUCTIONS; i++) {
+			if (scheduled[i] != original[i])
+				mInstructions[i].setValue2sComp(scheduled[i]);
+		}
+		Telemetry.codeFlush("schedule", MAX_INSTRUCTIONS);
+		mAnalysis = ProgramAnalysis.analyze(this);
 	}
 
     /**
-     * Sets all entries in the PC, instructions, registers, and memory to 0.
+     * Sets all entries in the PC, instructions, registers, and memory to 0, empties the pipeline and
+     * resets the devices and the exception registers. Exception handlers and the byte order stay.
+     * Every register is cleared, since getRegisterContents() lets callers write them directly; only the
+     * instructions and memory pages written since the last reset are cleared. Nothing is allocated, so a
+     * Computer can be reset and reused for many programs, see ComputerPool.
      */
 	public void resetProgram() {
         int i;
-        mPC = new BitString();
         mPC.setValue(0);
-        mRegisters = new BitString[MAX_REGISTERS];
-        for (i = 0; i < MAX_REGISTERS; i++) {
-            mRegisters[i] = new BitString();
+        for (i = 0; i < MAX_REGISTERS; i++)
             mRegisters[i].setValue(0);
-        }
-
-        mInstructions = new BitString[MAX_INSTRUCTIONS];
-        for (i = 0; i < mInstructions.length; i++) {
-            mInstructions[i] = new BitString();
+        for (i = mDirtyInstructions.nextSetBit(0); i >= 0; i = mDirtyInstructions.nextSetBit(i + 1))
             mInstructions[i].setValue(0);
-        }
+        mDirtyInstructions.clear();
+
+        mMemory.clear();
 
-        mMemory = new BitString[MAX_MEMORY];
-        for (i = 0; i < MAX_MEMORY; i++) {
-            mMemory[i] = new BitString();
-            mMemory[i].setValue(0);
+        for (i = 0; i < PIPELINE_WIDTH; i++) {
+            ifIdPipeline[i].setValue(0);
+            idExPipeline[i].setValue(0);
+            exMemPipeline[i].setValue(0);
+            memWbPipeline[i].setValue(0);
         }
+        insertBubble(ifIdPipeline);
+        insertBubble(idExPipeline);
+        insertBubble(exMemPipeline);
+        insertBubble(memWbPipeline);
+        for (BitString[][] latches : mSplitLatches) {
+            for (BitString[] latch : latches) {
+                for (i = 0; i < PIPELINE_WIDTH; i++)
+                    latch[i].setValue(0);
+                insertBubble(latch);
+            }
+        }
+        mStall = false;
+        mBreakPending = false;
+        mResumePC = -1;
+        mLastHit = null;
+        mCycle = 0;
+        mExited = false;
+        mExitCode = 0;
+        mFault = null;
+        mTrapped = false;
+        mSymbols = null;
+        mAnalysis = null;
+        mRetired = 0;
+        mBlockEnded = false;
+        mMemStall = false;
+        mMemWait = 0;
+        mExWait = 0;
+        mFetchDelay = 0;
+        mNextIsSlot = false;
+        mSlotTarget = -1;
+        mCP0.reset();
+        mBus.reset();
+        Telemetry.codeFlush("reset", 0);
     }
 	
 	/**
 	 * Executes the provided instructions, starting at 0 and runs until all instructions 
-	 * are executed.
+	 * are executed or a breakpoint or watchpoint is hit. Calling it again after a hit resumes the program.
+	 * A fault without a guest handler also finishes the program, see getFault(). There is no limit on how
+	 * long this runs; use execute() for untrusted programs.
+	 * @return the breakpoint or watchpoint hit, or null if the program finished
+	 */
+	public Debugger.Hit executeProgram() {
+		return execute(new Governor()).hit;
+	}
+
+	/**
+	 * Executes the provided instructions under the limits of a governor. Runs until the program finishes,
+	 * faults, hits a breakpoint or watchpoint, exceeds a budget or is cancelled. The limits are checked
+	 * once per basic block, see Governor. Calling it again continues the program where it stopped.
+	 * @param governor the limits of this run; budgets count from the start of this call
+	 * @return how the run ended
 	 */
-	public void executeProgram() {
-		while (incrementFiveCycles() != null) { }
+	public RunOutcome execute(Governor governor) {
+		Telemetry.RunEvent event = Telemetry.beginRun();
+		selectEngine(Telemetry.STEPPED);
+		long start = System.nanoTime();
+		long deadline = governor.deadline(start);
+		Telemetry.Sampler sampler = Telemetry.sampler(Telemetry.STEPPED, start);
+		long startCycle = mCycle;
+		long startRetired = mRetired;
+		RunOutcome.Status status = null;
+		RunOutcome.Limit limit = null;
+		while (status == null) {
+			if (incrementCycle() == null) {
+				status = mFault != null ? RunOutcome.Status.FAULTED : RunOutcome.Status.COMPLETED;
+			} else if (mLastHit != null) {
+				status = RunOutcome.Status.STOPPED;
+			} else if (mBlockEnded) {
+				mBlockEnded = false;
+				limit = governor.exceeded(mCycle - startCycle, mRetired - startRetired, deadline);
+				if (governor.isCancelled())
+					status = RunOutcome.Status.CANCELLED;
+				else if (limit != null)
+					status = RunOutcome.Status.BUDGET_EXCEEDED;
+				if (sampler != null)
+					sampler.sample(mRetired - startRetired, mCycle - startCycle);
+			}
+		}
+		RunOutcome outcome = new RunOutcome(status, status == RunOutcome.Status.BUDGET_EXCEEDED ? limit : null,
+				status == RunOutcome.Status.FAULTED ? mFault : null, mLastHit, mPC.getValue(), mCycle - startCycle,
+				mRetired - startRetired, System.nanoTime() - start);
+		Telemetry.endRun(event, Telemetry.STEPPED, outcome);
+		return outcome;
 	}
 	
+	/**
+	 * Executes the provided instructions like executeProgram(), but with every pipeline stage running on its
+	 * own thread. The final registers, memory, PC and fault are the same; the stages are not kept in lock-step.
+	 * @param maxInstructions the maximum number of instructions to execute
+	 * @return the number of instructions executed, or -1 if the program was still running after maxInstructions
+	 * @throws IAG if instructions are still in flight from stepping through the program
+	 */
+	public long executeProgramThreaded(long maxInstructions) {
+		Governor governor = new Governor();
+		governor.setMaxInstructions(maxInstructions);
+		RunOutcome outcome = executeThreaded(governor);
+		return outcome.status == RunOutcome.Status.BUDGET_EXCEEDED ? -1 : outcome.instructions;
+	}
+
+	/**
+	 * Executes the provided instructions like execute(), but with every pipeline stage running on its own
+	 * thread. The instruction budget is exact, and a run that ends early always ends with an empty pipeline
+	 * and the PC at the first instruction not executed. If that is a delay slot, the branch ahead of it
+	 * stays pending as it does in execute(), and either engine continues with the slot. The threaded
+	 * stages keep no cycle count, so the governor cannot have a cycle budget.
+	 * @param governor the limits of this run; budgets count from the start of this call
+	 * @return how the run ended, with a cycle count of 0
+	 * @throws IAG if instructions are still in flight from stepping through the program, or if the
+	 * governor has a cycle budget
+	 */
+	public RunOutcome executeThreaded(Governor governor) {
+		if (!isPipelineEmpty())
+			throw new IllegalArgumentException("Pipeline is not empty");
+		if (governor.getMaxCycles() != Long.MAX_VALUE)
+			throw new IllegalArgumentException("The threaded pipeline has no cycle budget");
+		Telemetry.RunEvent event = Telemetry.beginRun();
+		selectEngine(Telemetry.THREADED);
+		long start = System.nanoTime();
+		int[] instructions = toValues(mInstructions);
+		int[] registers = toValues(mRegisters);
+		ThreadedPipeline pipeline = new ThreadedPipeline(instructions, registers, mMemory, mBus, mCP0,
+				mPC.getValue(), mDelaySlots, mNextIsSlot, mSlotTarget, governor, governor.deadline(start),
+				Telemetry.sampler(Telemetry.THREADED, start));
+		long retired;
+		try {
+			retired = pipeline.run();
+			mExitCode = pipeline.getExitCode();
+			mExited = pipeline.hasExited();
+			mFault = pipeline.getFault();
+			mRetired += retired;
+		} finally {
+			mBus.flush();
+			setRegisters(registers);
+			mPC.setValue(pipeline.getFinalPC());
+			mNextIsSlot = pipeline.isSlotPending();
+			mSlotTarget = pipeline.getSlotTarget();
+			mSlotDelay = 0;
+		}
+		RunOutcome.Status status = pipeline.getStopStatus();
+		if (status == null)
+			status = mFault != null ? RunOutcome.Status.FAULTED : RunOutcome.Status.COMPLETED;
+		RunOutcome outcome = new RunOutcome(status, pipeline.getLimit(), mFault, null, mPC.getValue(), 0, retired,
+				System.nanoTime() - start);
+		Telemetry.endRun(event, Telemetry.THREADED, outcome);
+		return outcome;
+	}
+
+	/**
+	 * Private helper method. Records the engine of a run and reports a switch from another one.
+	 * @param engine Telemetry.STEPPED or Telemetry.THREADED
+	 */
+	private void selectEngine(String engine) {
+		if (mEngine != null && !mEngine.equals(engine))
+			Telemetry.engineTransition(mEngine, engine, mRetired);
+		mEngine = engine;
+	}
+
+	/**
+	 * Private helper method. Sets every register.
+	 * @param values the register values
+	 */
+	private void setRegisters(int[] values) {
+		for (int i = 0; i < MAX_REGISTERS; i++)
+			mRegisters[i].setValue2sComp(values[i]);
+	}
+
+	/**
+	 * Private helper method. Converts BitStrings to their 2s complement values.
+	 * @param contents the BitStrings
+	 * @return the values
+	 */
+	private static int[] toValues(BitString[] contents) {
+		int[] values = new int[contents.length];
+		for (int i = 0; i < contents.length; i++)
+			values[i] = contents[i].getValue2sComp();
+		return values;
+	}
+
+	/**
+	 * Checks whether nothing has run since the program was loaded, so that a run depends on nothing but
+	 * the instructions, registers, memory and configuration.
+	 * @return true if no cycle has run and no instruction is in flight
+	 */
+	boolean isAtStart() {
+		return mCycle == 0 && mRetired == 0 && !mExited && mFault == null && isPipelineEmpty();
+	}
+
+	/**
+	 * Returns the instruction space as words.
+	 * @return the instruction at address 4 * i at index i
+	 */
+	int[] getInstructionWords() {
+		return toValues(mInstructions);
+	}
+
+	/**
+	 * Checks whether the program ended itself with an exit SYSCALL.
+	 * @return true if it did
+	 */
+	boolean hasExited() {
+		return mExited;
+	}
+
+	/**
+	 * Puts the computer into the state a finished run left it in, without running it, e.g. from a
+	 * ResultCache. The pipeline has to be empty, as it is at the end of a run.
+	 * @param pc the final PC
+	 * @param cycles the cycles since the last reset
+	 * @param retired the instructions completed since the last reset
+	 * @param registers the final registers
+	 * @param memory the final memory, as words in the current byte order
+	 * @param exited true if the program ended with an exit SYSCALL
+	 * @param exitCode the exit code
+	 * @param fault the fault that ended the program, or null
+	 */
+	void restore(int pc, long cycles, long retired, int[] registers, int[] memory, boolean exited, int exitCode,
+			SimulationFault fault) {
+		mPC.setValue(pc);
+		mCycle = cycles;
+		mRetired = retired;
+		setRegisters(registers);
+		// Only store what differs, so that pages the run left at 0 stay clean.
+		for (int i = 0; i < memory.length; i++) {
+			if (mMemory.loadWord(4 * i) != memory[i])
+				mMemory.storeWord(4 * i, memory[i]);
+		}
+		mExited = exited;
+		mExitCode = exitCode;
+		mFault = fault;
+	}
+
+	/**
+	 * Puts the computer into an architectural checkpoint taken between two instructions, e.g. by
+	 * SampledSimulation, with an empty pipeline and the cycles and instructions counted from 0. The
+	 * PipelineConfig, delay-slot mode, byte order and exception handlers are not part of it.
+	 * @param words the instruction space, the instruction at address 4 * i at index i
+	 * @param pc the address of the next instruction, not in a delay slot
+	 * @param registers the registers
+	 * @param memory the memory, as words in the current byte order
+	 * @param status the Status register
+	 * @param cause the Cause register
+	 * @param epc the EPC register
+	 * @param badVAddr the BadVAddr register
+	 */
+	void restoreCheckpoint(int[] words, int pc, int[] registers, int[] memory, int status, int cause, int epc,
+			int badVAddr) {
+		resetProgram();
+		for (int i = 0; i < MAX_INSTRUCTIONS; i++) {
+			if (words[i] != 0) {
+				mInstructions[i].setValue2sComp(words[i]);
+				mDirtyInstructions.set(i);
+			}
+		}
+		Telemetry.codeFlush("checkpoint", mDirtyInstructions.cardinality());
+		restore(pc, 0, 0, registers, memory, false, 0, null);
+		mCP0.restore(status, cause, epc, badVAddr);
+	}
+
 	/**
 	 * Another method of executing the program. Manually called from client as 
 	 * opposed to automatically running through the instructions.
+	 * Stops early at a breakpoint or watchpoint, see getLastHit().
 	 * @return null when all instructions are executed, otherwise a generic placeholder string
 	 */
 	public String incrementFiveCycles() {
+		selectEngine(Telemetry.STEPPED);
 		for (int i = 0; i < 5; i++) {
 			if (incrementCycle() == null)
 				return null;
+			if (mLastHit != null)
+				return "stopped";
 		}
 		return "running";
 	}
 	
+	/**
+	 * Advances the pipeline by one clock cycle.
+	 * @return null once the last instruction has left the pipeline, otherwise a generic placeholder string
+	 */
 	private String incrementCycle() {
-		if (pipelineOrder.isEmpty() && mPC.getValue() == 0)
-			pipelineOrder.push(1);
-		int largest = pipelineOrder.peek();
-		int smallest = pipelineOrder.peek();
-		while (!pipelineOrder.isEmpty()) {
-			int currentOp = pipelineOrder.pop();
-			smallest = Math.min(smallest, currentOp);
-			if (currentOp == IF) {
+		mLastHit = null;
+		mCycle++;
+		selectDepths();
+		for (int stage : PIPELINE_ORDER) {
+			if (stage == IF) {
 				instructionFetch();
-			} else if (currentOp == ID) {
+			} else if (stage == ID) {
 				instructionDecode();
-			} else if (currentOp == EX) {
-			    execute();
-			} else if (currentOp == MEM) {
+			} else if (stage == EX) {
+				execute();
+			} else if (stage == MEM) {
 				memoryOp();
-			} else if (currentOp == WB) {
+				if (!mMemStall)
+					advance(mSplitLatches[PipelineConfig.Stage.MEMORY.ordinal()], mMemoryDepth, exMemPipeline, null);
+			} else if (stage == WB) {
 				writeBack();
 			}
 		}
-		if (mInstructions[mPC.getValue() / 4].getValue() != 0) {
-			smallest = IF;
-		} else
-			smallest++;
-
-		if (largest < WB)
-			largest++;
+		mStall = false;
+		mMemStall = false;
 
-		for (int j = smallest; j <= largest; j++) {
-			pipelineOrder.add(j);
+		if (mBreakPending && isPipelineEmpty()) {
+			// Everything before the breakpoint has retired; stop if the condition holds, and let IF
+			// fetch the instruction on the next cycle either way.
+			mBreakPending = false;
+			int pc = mPC.getValue();
+			mResumePC = pc;
+			if (mDebugger.isBreakpoint(pc) && mDebugger.breakpointHolds(pc, this))
+				mLastHit = new Debugger.Hit(true, pc, 0, false, 0);
 		}
 
-		if (pipelineOrder.isEmpty())
+		if (isDrained()) {
+			mBus.flush();
 			return null;
-		else 
-			return "running";
+		}
+		if (mLastHit != null)
+			mBus.flush();
+		return "running";
+	}
+
+	/**
+	 * Checks whether the program has finished: every pipeline register holds a bubble and there is
+	 * no instruction left to fetch at the PC.
+	 * @return true if nothing is left to execute
+	 */
+	private boolean isDrained() {
+		return isPipelineEmpty() && !canFetch();
+	}
+
+	/**
+	 * Private helper method. Checks if every pipeline register holds a bubble.
+	 * @return true if no instruction is in flight
+	 */
+	private boolean isPipelineEmpty() {
+		if (!isBubble(ifIdPipeline) || !isBubble(idExPipeline) || !isBubble(exMemPipeline)
+				|| !isBubble(memWbPipeline))
+			return false;
+		for (PipelineConfig.Stage stage : PipelineConfig.Stage.values()) {
+			for (int i = 0; i < mConfig.getDepth(stage) - 1; i++) {
+				if (!isBubble(mSplitLatches[stage.ordinal()][i]))
+					return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Private helper method. Reads how many stages IF, EX and MEM are split into this cycle and which
+	 * pipeline registers the first stage of EX and the last stage of MEM use.
+	 */
+	private void selectDepths() {
+		mFetchDepth = mConfig.getDepth(PipelineConfig.Stage.FETCH);
+		mExecuteDepth = mConfig.getDepth(PipelineConfig.Stage.EXECUTE);
+		mMemoryDepth = mConfig.getDepth(PipelineConfig.Stage.MEMORY);
+		mExecuteOut = mExecuteDepth > 1 ? mSplitLatches[PipelineConfig.Stage.EXECUTE.ordinal()][0] : exMemPipeline;
+		mMemoryIn = mMemoryDepth > 1 ? mSplitLatches[PipelineConfig.Stage.MEMORY.ordinal()][mMemoryDepth - 2]
+				: exMemPipeline;
+	}
+
+	/**
+	 * Private helper method. Moves the instructions inside a split stage on by one stage. Every stage but
+	 * the one doing the work of the split stage only passes its instruction on.
+	 * @param latches the pipeline registers inside the stage, the one behind its first stage first
+	 * @param depth the stages it is split into
+	 * @param in the pipeline register its first stage reads, or null if that stage writes latches[0] itself
+	 * @param out the pipeline register its last stage writes, or null if that stage consumes
+	 * latches[depth - 2] itself
+	 */
+	private void advance(BitString[][] latches, int depth, BitString[] in, BitString[] out) {
+		if (depth < 2)
+			return;
+		if (out != null)
+			copyLatch(latches[depth - 2], out);
+		for (int i = depth - 2; i > 0; i--)
+			copyLatch(latches[i - 1], latches[i]);
+		if (in != null)
+			copyLatch(in, latches[0]);
+	}
+
+	/**
+	 * Private helper method. Copies a pipeline register.
+	 * @param from the pipeline register to copy
+	 * @param to the pipeline register to overwrite
+	 */
+	private void copyLatch(BitString[] from, BitString[] to) {
+		for (int i = 0; i < PIPELINE_WIDTH; i++)
+			to[i].setValue2sComp(from[i].getValue2sComp());
+	}
+
+	/**
+	 * Private helper method. Squashes what IF fetched into the pipeline registers inside a split IF.
+	 * @param causeNextPC PC + 4 of the instruction the lost cycles are charged to, 0 if none
+	 * @param keepSlot true to keep the delay slot of that instruction
+	 */
+	private void squashFetchLatches(int causeNextPC, boolean keepSlot) {
+		BitString[][] latches = mSplitLatches[PipelineConfig.Stage.FETCH.ordinal()];
+		for (int i = 0; i < mFetchDepth - 1; i++) {
+			if (!keepSlot || (latches[i][FLAGS].getValue() & DELAY_SLOT_FLAG) == 0
+					|| latches[i][NEXT_PC].getValue() != causeNextPC + 4)
+				insertBubble(latches[i], causeNextPC);
+		}
+	}
+
+	/**
+	 * Checks whether the PC points at a loaded instruction. A word of all zeros marks the end of the
+	 * program, as do an exit SYSCALL and an unhandled fault. A delay slot is always fetched, since a word
+	 * of all zeros there is a NOP.
+	 * @return true if IF has an instruction to fetch
+	 */
+	private boolean canFetch() {
+		if (mExited || mFault != null)
+			return false;
+		int index = mPC.getValue() / 4;
+		return mNextIsSlot || (index < MAX_INSTRUCTIONS && mInstructions[index].getValue() != 0);
+	}
+
+	/**
+	 * Private helper method. A pipeline register whose IR is 0 carries no instruction.
+	 * @param pipeline the pipeline register to check
+	 * @return true if the pipeline register holds a bubble
+	 */
+	private boolean isBubble(BitString[] pipeline) {
+		return pipeline[M_IR].getValue() == 0;
+	}
+
+	/**
+	 * Private helper method. Empties a pipeline register so the next stage treats it as a no-op.
+	 * @param pipeline the pipeline register to clear
+	 */
+	private void insertBubble(BitString[] pipeline) {
+		insertBubble(pipeline, 0);
+	}
+
+	/**
+	 * Private helper method. Empties a pipeline register so the next stage treats it as a no-op and
+	 * records which instruction the lost cycle is charged to.
+	 * @param pipeline the pipeline register to clear
+	 * @param causeNextPC PC + 4 of the instruction that caused the bubble, 0 if none
+	 */
+	private void insertBubble(BitString[] pipeline, int causeNextPC) {
+		pipeline[M_IR].setValue(0);
+		pipeline[REGISTER_TARGET].setValue2sComp(-1);
+		pipeline[NEXT_PC].setValue(causeNextPC);
+		pipeline[FLAGS].setValue(0);
 	}
 
     /**
      *  Implementation of the IF stage. Retrieves the current instruction iterates PC to PC + 4.
-     *  Sends the IR to the IF/ID pipeline.
+     *  Sends the IR and PC + 4 to the IF/ID pipeline. Inserts a bubble once the end of the program is
+     *  reached or while waiting to stop at a breakpoint, and holds the IF/ID pipeline during a stall.
+     *  A NOP in a delay slot goes down the pipeline as a bubble, and a branch taken before its delay
+     *  slot was fetched redirects the PC right after the delay slot. If IF is split, the first stage
+     *  fetches and the others pass the instruction on to IF/ID.
      */
 	private void instructionFetch() {
-		ifIdPipeline[M_IR].setValue(mInstructions[mPC.getValue() / 4].getValue());
-		mPC.setValue(mPC.getValue() + 4);
+		if (mStall)
+			return;
+		BitString[][] latches = mSplitLatches[PipelineConfig.Stage.FETCH.ordinal()];
+		advance(latches, mFetchDepth, null, ifIdPipeline);
+		BitString[] out = mFetchDepth > 1 ? latches[0] : ifIdPipeline;
+		if (mFetchDelay > 0) {
+			mFetchDelay--;
+			insertBubble(out, mFetchDelayCause);
+			return;
+		}
+		if (!canFetch()) {
+			insertBubble(out);
+			return;
+		}
+		int pc = mPC.getValue();
+		if (mDebugger != null && pc != mResumePC && mDebugger.isBreakpoint(pc)) {
+			mBreakPending = true;
+			insertBubble(out);
+			return;
+		}
+		mBreakPending = false;
+		mResumePC = -1;
+		boolean slot = mNextIsSlot;
+		int word = pc / 4 < MAX_INSTRUCTIONS ? mInstructions[pc / 4].getValue2sComp() : 0;
+		mNextIsSlot = mDelaySlots && !slot && isDelayedBranch(word);
+		out[M_IR].setValue2sComp(word);
+		mPC.setValue(pc + 4);
+		out[NEXT_PC].setValue(mPC.getValue());
+		out[FLAGS].setValue(slot ? DELAY_SLOT_FLAG : 0);
+		if (slot && mSlotTarget >= 0) {
+			mPC.setValue(mSlotTarget);
+			mFetchDelay = mSlotDelay;
+			mSlotTarget = -1;
+		}
 	}
 
     /**
      * Implementation of the ID stage. Retrieves the op code of the current instruction.
-     * Sends the op code and the IR to the ID/EX pipeline.
+     * Sends the op code, the IR and PC + 4 to the ID/EX pipeline. Holds the ID/EX pipeline during a stall.
+     * Resolves BEQ, J and JR if the PipelineConfig says so, see resolveBranch().
      */
 	private void instructionDecode() {
+		if (mStall)
+			return;
 		BitString opCodeStr = ifIdPipeline[M_IR].getOpCode();
-		idExPipeline[OP_CODE] = opCodeStr;
-		idExPipeline[M_IR].setValue(ifIdPipeline[M_IR].getValue());
+		idExPipeline[OP_CODE].setValue(opCodeStr.getValue());
+		idExPipeline[M_IR].setValue2sComp(ifIdPipeline[M_IR].getValue2sComp());
+		idExPipeline[NEXT_PC].setValue(ifIdPipeline[NEXT_PC].getValue());
+		idExPipeline[FLAGS].setValue(ifIdPipeline[FLAGS].getValue());
+		if (mConfig.isEarlyBranches() && idExPipeline[FLAGS].getValue() == 0
+				&& isDelayedBranch(idExPipeline[M_IR].getValue2sComp()))
+			resolveBranch();
+	}
+
+	/**
+	 * Private helper method. Resolves the branch or jump ID just decoded with the comparator of ID. Operands
+	 * come from the register file or are forwarded from MEM/WB; an operand EX or MEM produced this cycle
+	 * is not there yet, and ID sends a bubble on and holds the branch. A taken branch redirects IF right
+	 * away, or after its delay slot, squashing what a split IF fetched behind it. A branch whose target
+	 * faults is left for EX, which traps on it.
+	 */
+	private void resolveBranch() {
+		int op = idExPipeline[OP_CODE].getValue();
+		BitString ir = idExPipeline[M_IR];
+		int branchNextPC = idExPipeline[NEXT_PC].getValue();
+		if ((op != J_OP && isDecodeHazard(ir.getRs().getValue()))
+				|| (op == BEQ_OP && isDecodeHazard(ir.getRt().getValue()))) {
+			insertBubble(idExPipeline, branchNextPC);
+			mStall = true;
+			return;
+		}
+		boolean taken = op != BEQ_OP
+				|| readDecodeRegister(ir.getRs().getValue()) == readDecodeRegister(ir.getRt().getValue());
+		int newAddr;
+		if (op == BEQ_OP)
+			newAddr = branchNextPC + 4 * ir.getCnst().getValue2sComp();
+		else if (op == J_OP)
+			newAddr = (branchNextPC & 0xF0000000) | (ir.getPseudoAddr().getValue() << 2);
+		else
+			newAddr = readDecodeRegister(ir.getRs().getValue());
+		if (taken && (newAddr % 4 != 0 || newAddr < 0 || newAddr / 4 >= MAX_INSTRUCTIONS))
+			return;
+		idExPipeline[FLAGS].setValue(RESOLVED_FLAG);
+		if (!taken)
+			return;
+		if (mProfiler != null && op != ADD_AND_JR_OP)
+			mProfiler.recordBranch(branchNextPC - 4, newAddr);
+		mBlockEnded = true;
+		mFetchDelayCause = branchNextPC;
+		if (mDelaySlots && mPC.getValue() == branchNextPC) {
+			mSlotTarget = newAddr;
+			mSlotDelay = Math.max(0, mConfig.getBranchPenalty() - 2);
+		} else {
+			squashFetchLatches(branchNextPC, mDelaySlots);
+			mNextIsSlot = false;
+			mPC.setValue(newAddr);
+			mFetchDelay = mConfig.getBranchPenalty() - 1;
+		}
+	}
+
+	/**
+	 * Private helper method. Checks if a branch in ID reads a register whose value has not reached ID yet:
+	 * a result still inside EX, including the one EX produced this cycle, a loaded value that is not
+	 * written back, or without forwarding any result that is not written back.
+	 * @param register the register the branch reads
+	 * @return true if ID has to stall for a cycle
+	 */
+	private boolean isDecodeHazard(int register) {
+		int position = findProducer(register, 0);
+		return position >= 0 && !isForwardable(position);
+	}
+
+	/**
+	 * Private helper method. Reads a register in ID, forwarding the youngest result past EX that targets
+	 * the same register.
+	 * @param register the number of the register to read
+	 * @return the 2s complement value of the register
+	 */
+	private int readDecodeRegister(int register) {
+		int position = findProducer(register, 0);
+		if (position >= 0)
+			return resultLatch(position)[WRITE_VAL].getValue2sComp();
+		return mRegisters[register].getValue2sComp();
+	}
+
+	/**
+	 * Private helper method. Returns the pipeline register at a position behind the first stage of EX:
+	 * the registers inside a split EX, EX/MEM, the registers inside a split MEM and MEM/WB, in that order.
+	 * @param position the position, 0 for the register the first stage of EX writes
+	 * @return the pipeline register
+	 */
+	private BitString[] resultLatch(int position) {
+		if (position < mExecuteDepth - 1)
+			return mSplitLatches[PipelineConfig.Stage.EXECUTE.ordinal()][position];
+		if (position == mExecuteDepth - 1)
+			return exMemPipeline;
+		if (position < mExecuteDepth + mMemoryDepth - 1)
+			return mSplitLatches[PipelineConfig.Stage.MEMORY.ordinal()][position - mExecuteDepth];
+		return memWbPipeline;
+	}
+
+	/**
+	 * Private helper method. Finds the youngest instruction past EX that is not written back and targets a
+	 * register. After MEM and EX have moved on, the register at position 0 still holds a copy of the one at
+	 * position 1, so EX starts looking at 1 and ID, which runs after EX, at 0.
+	 * @param register the number of the register
+	 * @param first the first position to look at, see resultLatch()
+	 * @return the position of the instruction, or -1 if there is none
+	 */
+	private int findProducer(int register, int first) {
+		for (int position = first; position < mExecuteDepth + mMemoryDepth; position++) {
+			BitString[] latch = resultLatch(position);
+			if (!isBubble(latch) && latch[REGISTER_TARGET].getValue() == register)
+				return position;
+		}
+		return -1;
+	}
+
+	/**
+	 * Private helper method. Checks if the result at a position can be forwarded: it has left the last
+	 * stage of EX, is no load and forwarding is on. Other results are not available before writeback.
+	 * @param position the position of the instruction, see resultLatch()
+	 * @return true if its result can be forwarded
+	 */
+	private boolean isForwardable(int position) {
+		return mConfig.isForwarding() && position >= mExecuteDepth
+				&& !isLoad(resultLatch(position)[M_IR].getOpCode().getValue());
 	}
 
     /**
      * Implementation of the EX stage. Executes the function corresponding to the opcode. Sends the value to be
-     * stored, calculated memory address, or target register to the EX/MEM pipeline.
+     * stored, calculated memory address, or target register to the EX/MEM pipeline. Stalls while the instruction
+     * needs a result that cannot be forwarded yet, and for as long as its functional unit or MEM is busy. Every
+     * fault is detected here, see trap(), including a branch or ERET in a delay slot. If EX is split, the first
+     * stage executes and the others pass the result on to EX/MEM.
      */
 	private void execute() {
-		if (idExPipeline[OP_CODE].getValue() == ADD_AND_JR_OP) {
+		if (mMemStall) {
+			mStall = true;
+			return;
+		}
+		advance(mSplitLatches[PipelineConfig.Stage.EXECUTE.ordinal()], mExecuteDepth, null, exMemPipeline);
+		if (isBubble(idExPipeline)) {
+			insertBubble(mExecuteOut, idExPipeline[NEXT_PC].getValue());
+			return;
+		}
+		int hazardNextPC = findExecuteHazard();
+		if (hazardNextPC != 0) {
+			mStall = true;
+			insertBubble(mExecuteOut, hazardNextPC);
+			return;
+		}
+		if (++mExWait < executeLatency()) {
+			mStall = true;
+			insertBubble(mExecuteOut, idExPipeline[NEXT_PC].getValue());
+			return;
+		}
+		mExWait = 0;
+		int flags = idExPipeline[FLAGS].getValue();
+		if ((flags & RESOLVED_FLAG) != 0) {
+			mExecuteOut[REGISTER_TARGET].setValue2sComp(-1);
+		} else if ((flags & DELAY_SLOT_FLAG) != 0 && (isDelayedBranch(idExPipeline[M_IR].getValue2sComp())
+				|| (idExPipeline[OP_CODE].getValue() == COP0_OP && idExPipeline[M_IR].getRs().getValue() == CO_FORMAT
+				&& idExPipeline[M_IR].getFunct().getValue() == ERET_FUNC))) {
+			trap(SimulationFault.RESERVED_INSTRUCTION, 0, "Branch in delay slot");
+		} else if (idExPipeline[OP_CODE].getValue() == ADD_AND_JR_OP) {
 			int func = idExPipeline[M_IR].getFunct().getValue();
 			if (func == ADD_FUNC) {
 				executeAdd(false);
@@ -251,56 +1000,237 @@ public class Computer {
 				executeAnd(false);
 			} else if (func == JR_FUNC) {
 				executeRegJump(idExPipeline[M_IR].getRs());
+			} else if (func == SYSCALL_FUNC) {
+				executeSyscall();
 			} else {
-				idExPipeline[M_IR].display(true);
-				throw new IllegalArgumentException("Undefined function");
-
+				trap(SimulationFault.RESERVED_INSTRUCTION, 0, "Undefined function");
 			}
 		} else if (idExPipeline[OP_CODE].getValue() == ADDI_OP) {
 			executeAdd(true);
 		} else if (idExPipeline[OP_CODE].getValue() == ANDI_OP) {
 			executeAnd(true);
-		} else if (idExPipeline[OP_CODE].getValue() == LW_OP) {
-			executeLoadWord(idExPipeline[M_IR].getRs(), idExPipeline[M_IR].getRt(), idExPipeline[M_IR].getCnst());
-		} else if (idExPipeline[OP_CODE].getValue() == SW_OP) {
-			executeStoreWord(idExPipeline[M_IR].getRs(), idExPipeline[M_IR].getRt(), idExPipeline[M_IR].getCnst());
+		} else if (isLoad(idExPipeline[OP_CODE].getValue())) {
+			executeLoad(idExPipeline[M_IR].getRs(), idExPipeline[M_IR].getRt(), idExPipeline[M_IR].getCnst());
+		} else if (isStore(idExPipeline[OP_CODE].getValue())) {
+			executeStore(idExPipeline[M_IR].getRs(), idExPipeline[M_IR].getRt(), idExPipeline[M_IR].getCnst());
 		} else if (idExPipeline[OP_CODE].getValue() == J_OP) {
 			executeJump(idExPipeline[M_IR].getPseudoAddr());
 		} else if (idExPipeline[OP_CODE].getValue() == BEQ_OP) {
 			executeBeq(idExPipeline[M_IR].getRs(), idExPipeline[M_IR].getRt(), idExPipeline[M_IR].getCnst());
+		} else if (idExPipeline[OP_CODE].getValue() == COP0_OP) {
+			executeCoprocessor0();
 		} else {
-			idExPipeline[M_IR].display(true);
-			throw new IllegalArgumentException("Undefined opcode");
+			trap(SimulationFault.RESERVED_INSTRUCTION, 0, "Undefined opcode");
+		}
+		if (mTrapped) {
+			mTrapped = false;
+			return;
 		}
-		exMemPipeline[M_IR].setValue(idExPipeline[M_IR].getValue());
+		mExecuteOut[OP_CODE].setValue(idExPipeline[OP_CODE].getValue());
+		mExecuteOut[M_IR].setValue2sComp(idExPipeline[M_IR].getValue2sComp());
+		mExecuteOut[NEXT_PC].setValue(idExPipeline[NEXT_PC].getValue());
+	}
+
+	/**
+	 * Private helper method. Returns how many cycles the functional unit of the instruction in EX takes.
+	 * @return the latency from the PipelineConfig, 1 for instructions without a unit of their own and for
+	 * branches ID resolved
+	 */
+	private int executeLatency() {
+		if ((idExPipeline[FLAGS].getValue() & RESOLVED_FLAG) != 0)
+			return 1;
+		int op = idExPipeline[OP_CODE].getValue();
+		PipelineConfig.Unit unit = null;
+		if (op == ADD_AND_JR_OP) {
+			int func = idExPipeline[M_IR].getFunct().getValue();
+			if (func == ADD_FUNC)
+				unit = PipelineConfig.Unit.ADDER;
+			else if (func == AND_FUNC)
+				unit = PipelineConfig.Unit.LOGIC;
+			else if (func == JR_FUNC)
+				unit = PipelineConfig.Unit.BRANCH;
+		} else if (op == ADDI_OP) {
+			unit = PipelineConfig.Unit.ADDER;
+		} else if (op == ANDI_OP) {
+			unit = PipelineConfig.Unit.LOGIC;
+		} else if (isLoad(op) || isStore(op)) {
+			unit = PipelineConfig.Unit.ADDRESS;
+		} else if (op == J_OP || op == BEQ_OP
+				|| (op == COP0_OP && idExPipeline[M_IR].getRs().getValue() == CO_FORMAT)) {
+			unit = PipelineConfig.Unit.BRANCH;
+		}
+		return unit == null ? 1 : mConfig.getLatency(unit);
+	}
+
+	/**
+	 * Private helper method. Checks if the instruction in EX reads a register whose value cannot be
+	 * forwarded yet, see isForwardable(). With one EX stage and forwarding on, that is the value a load
+	 * directly ahead of it loads.
+	 * @return PC + 4 of the instruction whose result EX waits for, the instruction the bubble is charged
+	 * to, or 0 if EX can go ahead
+	 */
+	private int findExecuteHazard() {
+		if ((idExPipeline[FLAGS].getValue() & RESOLVED_FLAG) != 0)
+			return 0;
+		for (int position = 1; position < mExecuteDepth + mMemoryDepth; position++) {
+			BitString[] latch = resultLatch(position);
+			int register = latch[REGISTER_TARGET].getValue2sComp();
+			if (isBubble(latch) || register < 0 || isForwardable(position))
+				continue;
+			if (readsRegister(register) && findProducer(register, 1) == position)
+				return latch[NEXT_PC].getValue();
+		}
+		return 0;
+	}
+
+	/**
+	 * Private helper method. Checks if the instruction in EX reads a register.
+	 * @param register the number of the register
+	 * @return true if EX reads it
+	 */
+	private boolean readsRegister(int register) {
+		int op = idExPipeline[OP_CODE].getValue();
+		if (op == J_OP)
+			return false;
+		if (op == COP0_OP) {
+			return idExPipeline[M_IR].getRs().getValue() == MTC0_FORMAT
+					&& idExPipeline[M_IR].getRt().getValue() == register;
+		}
+		if (op == ADD_AND_JR_OP && idExPipeline[M_IR].getFunct().getValue() == SYSCALL_FUNC)
+			return register == SYSCALL_SERVICE_REG || register == SYSCALL_ARG_REG;
+		if (idExPipeline[M_IR].getRs().getValue() == register)
+			return true;
+		boolean readsRt = op == ADD_AND_JR_OP || isStore(op) || op == BEQ_OP;
+		return readsRt && idExPipeline[M_IR].getRt().getValue() == register;
+	}
+
+	/**
+	 * Private helper method. Reads a register in EX, forwarding the youngest result ahead of it that
+	 * targets the same register.
+	 * @param register the register to read
+	 * @return the 2s complement value of the register
+	 */
+	private int readRegister(BitString register) {
+		return readRegister(register.getValue());
+	}
+
+	/**
+	 * Private helper method. Reads a register in EX, forwarding the youngest result ahead of it that
+	 * targets the same register.
+	 * @param register the number of the register to read
+	 * @return the 2s complement value of the register
+	 */
+	private int readRegister(int register) {
+		int position = findProducer(register, 1);
+		if (position >= 0)
+			return resultLatch(position)[WRITE_VAL].getValue2sComp();
+		return mRegisters[register].getValue2sComp();
+	}
+
+	/**
+	 * Private helper method. Redirects the PC after a taken branch or jump and squashes the instructions
+	 * that were fetched behind it. In delay-slot mode the first of them is the delay slot of a branch or
+	 * jump and is kept; if IF has not fetched it yet, the PC is redirected once it has. If EX is split, the
+	 * branch takes effect once it leaves the last stage of EX, which IF sees as more cycles of delay.
+	 * @param newAddr the address to continue fetching from
+	 */
+	private void redirect(int newAddr) {
+		int branchNextPC = idExPipeline[NEXT_PC].getValue();
+		int op = idExPipeline[OP_CODE].getValue();
+		if (mProfiler != null && (op == BEQ_OP || op == J_OP))
+			mProfiler.recordBranch(branchNextPC - 4, newAddr);
+		mBlockEnded = true;
+		mFetchDelayCause = branchNextPC;
+		int delay = mConfig.getBranchPenalty() - 1 + mExecuteDepth - 1;
+		if (mDelaySlots && op != COP0_OP && mPC.getValue() == branchNextPC) {
+			mSlotTarget = newAddr;
+			mSlotDelay = delay;
+			return;
+		}
+		mPC.setValue(newAddr);
+		boolean keepSlot = mDelaySlots && op != COP0_OP;
+		if (!keepSlot)
+			insertBubble(ifIdPipeline, branchNextPC);
+		squashFetchLatches(branchNextPC, keepSlot);
+		mNextIsSlot = false;
+		mFetchDelay = delay;
 	}
 
     /**
      * Implementation of the MEM operation. Retrieves from or writes to memory. Sends the value to be written as
-     * well as the target register to the MEM/WB pipeline.
+     * well as the target register to the MEM/WB pipeline. A load or store holds MEM for the memory latency of
+     * the PipelineConfig and is performed in its last cycle.
      */
 	private void memoryOp() {
-		if (OP_CODE == LW_OP) {
-			memWbPipeline[WRITE_VAL].setValue2sComp(mMemory[exMemPipeline[MEMORY_TARGET].getValue()].getValue2sComp());
-			memWbPipeline[REGISTER_TARGET].setValue(exMemPipeline[REGISTER_TARGET].getValue());
-		} else if (OP_CODE == SW_OP) {
-			mMemory[exMemPipeline[MEMORY_TARGET].getValue()].setValue2sComp(exMemPipeline[WRITE_VAL].getValue2sComp());
+		if (isBubble(mMemoryIn)) {
+			insertBubble(memWbPipeline, mMemoryIn[NEXT_PC].getValue());
+			return;
+		}
+		int opCode = mMemoryIn[OP_CODE].getValue();
+		if ((isLoad(opCode) || isStore(opCode)) && ++mMemWait < mConfig.getMemoryLatency()) {
+			mMemStall = true;
+			insertBubble(memWbPipeline, mMemoryIn[NEXT_PC].getValue());
+			return;
+		}
+		mMemWait = 0;
+		if (isLoad(opCode)) {
+			int addr = mMemoryIn[MEMORY_TARGET].getValue();
+			int size = accessSize(opCode);
+			boolean signed = opCode != LBU_OP && opCode != LHU_OP;
+			if (addr >= MAX_MEMORY)
+				memWbPipeline[WRITE_VAL].setValue2sComp(mBus.read(addr, mCycle));
+			else
+				memWbPipeline[WRITE_VAL].setValue2sComp(mMemory.load(addr, size, signed));
+			memWbPipeline[REGISTER_TARGET].setValue(mMemoryIn[REGISTER_TARGET].getValue());
+			if (mDebugger != null)
+				checkWatchpoint(addr, size, false, memWbPipeline[WRITE_VAL].getValue2sComp());
+		} else if (isStore(opCode)) {
+			int addr = mMemoryIn[MEMORY_TARGET].getValue();
+			int size = accessSize(opCode);
+			if (addr >= MAX_MEMORY)
+				mBus.write(addr, mMemoryIn[WRITE_VAL].getValue2sComp(), mCycle);
+			else
+				mMemory.store(addr, size, mMemoryIn[WRITE_VAL].getValue2sComp());
+			memWbPipeline[REGISTER_TARGET].setValue2sComp(-1);
+			if (mDebugger != null)
+				checkWatchpoint(addr, size, true, mMemoryIn[WRITE_VAL].getValue2sComp());
 		} else {
-			memWbPipeline[WRITE_VAL].setValue2sComp(exMemPipeline[WRITE_VAL].getValue2sComp());
-			memWbPipeline[REGISTER_TARGET].setValue2sComp(exMemPipeline[REGISTER_TARGET].getValue2sComp());
+			memWbPipeline[WRITE_VAL].setValue2sComp(mMemoryIn[WRITE_VAL].getValue2sComp());
+			memWbPipeline[REGISTER_TARGET].setValue2sComp(mMemoryIn[REGISTER_TARGET].getValue2sComp());
 		}
-		memWbPipeline[M_IR].setValue(exMemPipeline[M_IR].getValue());
+		memWbPipeline[M_IR].setValue2sComp(mMemoryIn[M_IR].getValue2sComp());
+		memWbPipeline[NEXT_PC].setValue(mMemoryIn[NEXT_PC].getValue());
+	}
+
+	/**
+	 * Private helper method. Stops the program at the end of the cycle if a watchpoint covers the access
+	 * MEM just performed.
+	 * @param addr the address accessed
+	 * @param size the number of bytes accessed
+	 * @param write true for a store, false for a load
+	 * @param value the value loaded or stored
+	 */
+	private void checkWatchpoint(int addr, int size, boolean write, int value) {
+		if (mDebugger.watchpointHolds(addr, size, write, this))
+			mLastHit = new Debugger.Hit(false, mMemoryIn[NEXT_PC].getValue() - 4, addr, write, value);
 	}
 
     /**
      * Implementation of the WB operation. If necessary (target reg > -1), stores the calculated value in the
-     * register.
+     * register. Charges the cycle to the profiler, if one is attached.
      */
 	private void writeBack() {
-		if (memWbPipeline[REGISTER_TARGET].getValue() >= 0) {
-			mRegisters[memWbPipeline[REGISTER_TARGET].getValue()]
-					.setValue2sComp(memWbPipeline[WRITE_VAL].getValue2sComp());
-			ifIdPipeline[REGISTER_TARGET].setValue2sComp(-1);
+		if (mProfiler != null) {
+			if (isBubble(memWbPipeline))
+				mProfiler.recordBubble(memWbPipeline[NEXT_PC].getValue() - 4);
+			else
+				mProfiler.recordRetire(memWbPipeline[NEXT_PC].getValue() - 4, memWbPipeline[M_IR].getValue2sComp());
+		}
+		if (!isBubble(memWbPipeline))
+			mRetired++;
+		if (!isBubble(memWbPipeline) && memWbPipeline[REGISTER_TARGET].getValue() >= 0) {
+			int target = memWbPipeline[REGISTER_TARGET].getValue();
+			mRegisters[target].setValue2sComp(memWbPipeline[WRITE_VAL].getValue2sComp());
 		}
 	}
 	
@@ -308,246 +1238,483 @@ public class Computer {
 	 * Executes the ADD/ADDI instructions. Distinguishes between the two and performs 
 	 * the respective operations
 	 * @param imm if true, executes ADDI, otherwise executes ADD
-	 * @throws IAG if an overflow exception occurs or the target register is $zero
+	 * Traps on overflow or if the target register is $zero.
 	 */
 	private void executeAdd(boolean imm) {
-		BitString rS = idExPipeline[M_IR].getRs();
-		int val;
-		if (rS.equals(exMemPipeline[REGISTER_TARGET]))
-			val = exMemPipeline[WRITE_VAL].getValue2sComp();
-		else
-			val = mRegisters[rS.getValue()].getValue2sComp();
+		int val = readRegister(idExPipeline[M_IR].getRs());
 
 		BitString target;
 		int ans;
 		if (imm) {
 			target = idExPipeline[M_IR].getRt();
 			int cnst = idExPipeline[M_IR].getCnst().getValue2sComp();
-			if (checkOverflow(cnst, val)) {
-				System.out.println("Overflow exception: ");
-				idExPipeline[M_IR].display(true);
-				throw new IllegalArgumentException("Overflow exception");
+			if (overflows(cnst, val)) {
+				trap(SimulationFault.OVERFLOW, 0, "Overflow exception");
+				return;
 			}
 			ans = val + cnst;
 		} else {
-			int rtVal;
-			if (exMemPipeline[REGISTER_TARGET].equals(idExPipeline[M_IR].getRt()))
-				rtVal = exMemPipeline[WRITE_VAL].getValue2sComp();
-			else
-				rtVal = mRegisters[idExPipeline[M_IR].getRt().getValue()].getValue2sComp();
+			int rtVal = readRegister(idExPipeline[M_IR].getRt());
 			target = idExPipeline[M_IR].getRd();
-			if (checkOverflow(val, rtVal)) {
-				idExPipeline[M_IR].display(true);
-				throw new IllegalArgumentException("Overflow exception");
+			if (overflows(val, rtVal)) {
+				trap(SimulationFault.OVERFLOW, 0, "Overflow exception");
+				return;
 			}
 			ans = val + rtVal;
 		}
 		int tVal = target.getValue();
 		if (tVal == 0) { 
-			idExPipeline[M_IR].display(true);
-			throw new IllegalArgumentException("Invalid register ($zero)");
+			trap(SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+			return;
 		}
-		exMemPipeline[WRITE_VAL].setValue2sComp(ans);
-		exMemPipeline[REGISTER_TARGET].setValue(tVal);
+		mExecuteOut[WRITE_VAL].setValue2sComp(ans);
+		mExecuteOut[REGISTER_TARGET].setValue(tVal);
 	}
 	
 	/**
 	 * Executes the AND/ANDI instructions. Distinguishes between the two and performs 
 	 * the respective operations
 	 * @param imm if true, executes ANDI, otherwise executes AND
-	 * @throws IAG if the target register is $zero
+	 * Traps if the target register is $zero.
 	 */
 	private void executeAnd(boolean imm) {
-		BitString rS = idExPipeline[M_IR].getRs();
-		int val;
-		if (rS.equals(exMemPipeline[REGISTER_TARGET]))
-			val = exMemPipeline[WRITE_VAL].getValue2sComp();
-		else
-			val = mRegisters[rS.getValue()].getValue2sComp();
+		int val = readRegister(idExPipeline[M_IR].getRs());
 
 		BitString target;
 		int ans;
 		if (imm) {
 			target = idExPipeline[M_IR].getRt();
-			int cnst = idExPipeline[M_IR].getCnst().getValue2sComp();
+			// ANDI zero-extends its immediate, unlike ADDI.
+			int cnst = idExPipeline[M_IR].getCnst().getValue();
 			ans = val & cnst;
 		} else {
-			int rtVal;
-			if (exMemPipeline[REGISTER_TARGET].equals(idExPipeline[M_IR].getRt()))
-				rtVal = exMemPipeline[WRITE_VAL].getValue2sComp();
-			else
-				rtVal = mRegisters[idExPipeline[M_IR].getRt().getValue()].getValue2sComp();
+			int rtVal = readRegister(idExPipeline[M_IR].getRt());
 			target = idExPipeline[M_IR].getRd();
 			ans = val & rtVal;
 		}
 		int tVal = target.getValue();
 		if (tVal <= 0) { 
-			idExPipeline[M_IR].display(true);
-			throw new IllegalArgumentException("Invalid register ($zero)");
+			trap(SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+			return;
 		}
-		exMemPipeline[WRITE_VAL].setValue2sComp(ans);
-		exMemPipeline[REGISTER_TARGET].setValue(tVal);
+		mExecuteOut[WRITE_VAL].setValue2sComp(ans);
+		mExecuteOut[REGISTER_TARGET].setValue(tVal);
 	}
 	
 	/**
 	 * Executes the jump instruction. Appends all necessary values to create the new location
 	 * and updates PC.
 	 * @param pseudoAddr the pseudo-address that's appended to the PC[31:28] value
-	 * @throws IAG when the target address is greater than the amount of instruction space available.
+	 * Traps when the target address is greater than the amount of instruction space available.
 	 */
 	private void executeJump(BitString pseudoAddr) { 
-		BitString newPC = mPC.substring(0, 4);
+		BitString newPC = idExPipeline[NEXT_PC].substring(0, 4);
 		newPC = newPC.append(pseudoAddr);
 		char zeros[] = {'0', '0'};
 		BitString z = new BitString();
 		z.setBits(zeros);
 		newPC = newPC.append(z);
-		if (newPC.getValue() >= MAX_INSTRUCTIONS) { 
-			idExPipeline[M_IR].display(true);
-			throw new IllegalArgumentException("Out of bounds jump target at instruction");
+		if (newPC.getValue() / 4 >= MAX_INSTRUCTIONS) { 
+			trap(SimulationFault.ADDRESS_LOAD, newPC.getValue(), "Out of bounds jump target at instruction");
+			return;
 		}
-		mPC.setValue(newPC.getValue());
+		mExecuteOut[REGISTER_TARGET].setValue2sComp(-1);
+		redirect(newPC.getValue());
 	}
 	
 	/**
 	 * Executes the JR instruction. Updates the PC to the stored address in the register.
 	 * @param register
-	 * @throws IAG when the stored address is not a multiple of 4.
+	 * Traps when the stored address is not a multiple of 4 or lies outside of the instruction space.
 	 */
 	private void executeRegJump(BitString register) {
-		BitString newAddr = new BitString();
-		if (exMemPipeline[REGISTER_TARGET].equals(register.getValue()))
-			newAddr.setValue(exMemPipeline[WRITE_VAL].getValue());
-		else
-			newAddr.setValue(register.getValue());
-		if (newAddr.getValue2sComp() % 4 != 0) {
-			idExPipeline[M_IR].display(true);
-			throw new IllegalArgumentException("Address error exception, not aligned.");
+		int newAddr = readRegister(register);
+		if (newAddr % 4 != 0) {
+			trap(SimulationFault.ADDRESS_LOAD, newAddr, "Address error exception, not aligned.");
+			return;
 		}
-		mPC.setValue(newAddr.getValue());
+		if (newAddr < 0 || newAddr / 4 >= MAX_INSTRUCTIONS) {
+			trap(SimulationFault.ADDRESS_LOAD, newAddr, "Out of bounds jump target at instruction");
+			return;
+		}
+		mExecuteOut[REGISTER_TARGET].setValue2sComp(-1);
+		redirect(newAddr);
 	}
 	
 	/**
-	 * Private helper method. Checks to see if the two specified values cause an overflow 
-	 * when added.
-	 * @param val1 first value
-	 * @param val2 second value
-	 * @return true if there is an overflow, false otherwise.
+	 * Private helper method. Checks that an address can be loaded from or stored to: it has to be aligned
+	 * to the size of the access and lie either in memory or in the range of a device. Devices only take
+	 * words. Traps if it does not.
+	 * @param addrIndex the address
+	 * @param size the number of bytes accessed
+	 * @param store true for a store, false for a load
+	 * @return true if the address is valid
 	 */
-	private boolean checkOverflow(int val1, int val2) { 
-		boolean overflow = false;
-		if (val1 > 0 && val2 > 0) {
-			if (val1 + val2 < 0)
-				overflow = true;
-		} else if (val1 < 0 && val2 < 0) {
-			if (val1 + val2 > 0)
-				overflow = true;
-		}
-		return overflow;
-	}
-
-	private void validateMemory(int addrIndex) {
-        if (addrIndex % 4 != 0) {
-            throw new IllegalArgumentException("Address error exception, not aligned.");
+	private boolean validateMemory(int addrIndex, int size, boolean store) {
+        int cause = store ? SimulationFault.ADDRESS_STORE : SimulationFault.ADDRESS_LOAD;
+        if (addrIndex % size != 0) {
+            trap(cause, addrIndex, "Address error exception, not aligned.");
+            return false;
+        }
+        if (addrIndex <= MAX_MEMORY - size && addrIndex >= 0)
+            return true;
+        if (!mBus.claims(addrIndex)) {
+            trap(cause, addrIndex, "Memory address exceeds limit.");
+            return false;
         }
-        if (addrIndex >= MAX_MEMORY || addrIndex < 0) {
-            throw new IllegalArgumentException("Memory address exceeds limit.");
+        if (size != 4) {
+            trap(cause, addrIndex, "Devices only take word accesses.");
+            return false;
         }
+        return true;
     }
 	
 	/**
-	 * Executes the LW instruction. Access the appropriate memory address and stores the data in 
-	 * the specified register.
+	 * Executes the LB, LBU, LH, LHU and LW instructions. Access the appropriate memory address and stores the
+	 * data in the specified register. LB and LH sign-extend, LBU and LHU zero-extend.
 	 * @param rS
 	 * @param rT
 	 * @param offset
-	 * @throws IAG when trying to write to $zero, an overflow happens, the address is not a multiple of 4, or the memory address 
-	 * is less than 0 or greater than the amount of memory available
+	 * Traps when trying to write to $zero, an overflow happens, the address is not aligned to the size of the
+	 * access, or the memory address is less than 0 or greater than the amount of memory available
 	 */
-	private void executeLoadWord(BitString rS, BitString rT, BitString offset) {
+	private void executeLoad(BitString rS, BitString rT, BitString offset) {
 		if (rT.getValue() == 0) { 
-			System.out.println("Attempting to write to $zero at instruction: ");
-			idExPipeline[M_IR].display(true);
-			throw new IllegalArgumentException("Cannot write to 0 register @LW");
+			trap(SimulationFault.RESERVED_INSTRUCTION, 0, "Cannot write to 0 register @load");
+			return;
 		}
-		BitString addr1 = new BitString();
-		if (rS.equals(exMemPipeline[REGISTER_TARGET]))
-			addr1.setValue(exMemPipeline[WRITE_VAL].getValue());
-		else
-			addr1 = mRegisters[rS.getValue()];
-
 		BitString combined = new BitString();
 		int off = offset.getValue2sComp();
-		int addr = addr1.getValue2sComp();
-		if (checkOverflow(off, addr)) { 
-			idExPipeline[M_IR].display(true);
-			throw new IllegalArgumentException("Overflow exception");
+		int addr = readRegister(rS);
+		if (overflows(off, addr)) { 
+			trap(SimulationFault.OVERFLOW, 0, "Overflow exception");
+			return;
 		}
 		int sum = off + addr;
 		combined.setValue2sComp(sum);
 		int addrIndex = combined.getValue();
-		validateMemory(addrIndex);
+		if (!validateMemory(addrIndex, accessSize(idExPipeline[OP_CODE].getValue()), false))
+			return;
 
 		int register = rT.getValue();
-		exMemPipeline[REGISTER_TARGET].setValue(register);
-		exMemPipeline[MEMORY_TARGET].setValue(addrIndex);
+		mExecuteOut[REGISTER_TARGET].setValue(register);
+		mExecuteOut[MEMORY_TARGET].setValue(addrIndex);
 	}
 	
 	/**
-	 * Executes the SW instruction. Stores the data in a specified register at a calculated address in memory
+	 * Executes the SB, SH and SW instructions. Stores the data in a specified register at a calculated address
+	 * in memory; SB and SH store its low byte or halfword.
 	 * @param rS used for calculating the mem address
 	 * @param rT the register containing the data.
 	 * @param offset the offset value used to calculate the memory address
-	 * @throws IAG when an overflow occurs, the address is not a multiple of 4, or if the desired address < 0 or
-	 * larger than the amount of memory available
+	 * Traps when an overflow occurs, the address is not aligned to the size of the access, or if the desired
+	 * address < 0 or larger than the amount of memory available
 	 */
-	private void executeStoreWord(BitString rS, BitString rT, BitString offset) {
-		int regVal;
-		if (rS.equals(exMemPipeline[REGISTER_TARGET]))
-			regVal = exMemPipeline[WRITE_VAL].getValue2sComp();
-		else
-			regVal = mRegisters[rS.getValue()].getValue2sComp();
+	private void executeStore(BitString rS, BitString rT, BitString offset) {
+		int regVal = readRegister(rS);
 
 		int off = offset.getValue2sComp();
-		if (checkOverflow(off, regVal)) { 
-			idExPipeline[M_IR].display(true);
-			throw new IllegalArgumentException("Overflow Exception");
+		if (overflows(off, regVal)) { 
+			trap(SimulationFault.OVERFLOW, 0, "Overflow exception");
+			return;
 		}
 		int addr = regVal + off;
-		validateMemory(addr);
+		if (!validateMemory(addr, accessSize(idExPipeline[OP_CODE].getValue()), true))
+			return;
 
-		exMemPipeline[WRITE_VAL].setValue2sComp(mRegisters[rT.getValue()].getValue2sComp());
-		exMemPipeline[MEMORY_TARGET].setValue(addr);
+		mExecuteOut[WRITE_VAL].setValue2sComp(readRegister(rT));
+		mExecuteOut[MEMORY_TARGET].setValue(addr);
+		mExecuteOut[REGISTER_TARGET].setValue2sComp(-1);
 	}
 	
+	/**
+	 * Executes the SYSCALL instruction. The service number is read from $v0 and the argument from $a0:
+	 * 1 prints the argument as a number, 11 prints it as a character, 10 ends the program, and 17 ends
+	 * the program with the argument as exit code. Output goes to the device bus's console.
+	 * Traps if the service number is not supported.
+	 */
+	private void executeSyscall() {
+		int service = readRegister(SYSCALL_SERVICE_REG);
+		int arg = readRegister(SYSCALL_ARG_REG);
+		ConsoleDevice console = mBus.getConsole();
+		mExecuteOut[REGISTER_TARGET].setValue2sComp(-1);
+		if (service == PRINT_INT_SERVICE) {
+			if (console != null)
+				console.print(Integer.toString(arg));
+		} else if (service == PRINT_CHAR_SERVICE) {
+			if (console != null)
+				console.print((char) (arg & 0xFF));
+		} else if (service == EXIT_SERVICE || service == EXIT2_SERVICE) {
+			mExitCode = service == EXIT2_SERVICE ? arg : 0;
+			mExited = true;
+			mPC.setValue(idExPipeline[NEXT_PC].getValue());
+			insertBubble(ifIdPipeline);
+			squashFetchLatches(0, false);
+		} else {
+			trap(SimulationFault.SYSCALL, 0, "Undefined syscall");
+		}
+	}
+
+	/**
+	 * Executes the MFC0, MTC0 and ERET instructions. MFC0 and MTC0 copy between a general register and a
+	 * Coprocessor0 register, and ERET returns from an exception handler to EPC.
+	 * Traps if MFC0 targets $zero, ERET returns outside of the instruction space, or the encoding is undefined.
+	 */
+	private void executeCoprocessor0() {
+		int format = idExPipeline[M_IR].getRs().getValue();
+		int rt = idExPipeline[M_IR].getRt().getValue();
+		int rd = idExPipeline[M_IR].getRd().getValue();
+		if (format == MFC0_FORMAT) {
+			if (rt == 0) {
+				trap(SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+				return;
+			}
+			mExecuteOut[WRITE_VAL].setValue2sComp(mCP0.read(rd));
+			mExecuteOut[REGISTER_TARGET].setValue(rt);
+		} else if (format == MTC0_FORMAT) {
+			mCP0.write(rd, readRegister(rt));
+			mExecuteOut[REGISTER_TARGET].setValue2sComp(-1);
+		} else if (format == CO_FORMAT && idExPipeline[M_IR].getFunct().getValue() == ERET_FUNC) {
+			int epc = mCP0.read(Coprocessor0.EPC);
+			if (epc % 4 != 0 || epc < 0 || epc / 4 >= MAX_INSTRUCTIONS) {
+				trap(SimulationFault.ADDRESS_LOAD, epc, "Out of bounds jump target at instruction");
+				return;
+			}
+			mExecuteOut[REGISTER_TARGET].setValue2sComp(-1);
+			redirect(mCP0.eret());
+		} else {
+			trap(SimulationFault.RESERVED_INSTRUCTION, 0, "Undefined function");
+		}
+	}
+
+	/**
+	 * Private helper method. Takes an exception for the instruction in EX. Older instructions are already
+	 * past EX and complete normally; the faulting instruction turns into a bubble and the instructions
+	 * fetched behind it are squashed, as is the branch a faulting delay slot belongs to. The program
+	 * continues at the guest handler for the cause, or, if there is none, stops at the faulting
+	 * instruction with a SimulationFault.
+	 * @param cause the cause code, see SimulationFault
+	 * @param badVAddr the faulting address, 0 if the cause has none
+	 * @param message the description of the fault
+	 */
+	private void trap(int cause, int badVAddr, String message) {
+		int nextPC = idExPipeline[NEXT_PC].getValue();
+		int pc = nextPC - 4;
+		mTrapped = true;
+		insertBubble(mExecuteOut, nextPC);
+		insertBubble(ifIdPipeline, nextPC);
+		squashFetchLatches(nextPC, false);
+		mNextIsSlot = false;
+		mSlotTarget = -1;
+		mFetchDelay = 0;
+		int handler = mCP0.raise(cause, pc, badVAddr, (idExPipeline[FLAGS].getValue() & DELAY_SLOT_FLAG) != 0);
+		if (handler >= 0) {
+			mPC.setValue(handler);
+			mBlockEnded = true;
+		} else {
+			mFault = new SimulationFault(cause, pc, badVAddr, idExPipeline[M_IR].getValue2sComp(), message);
+			mPC.setValue(pc);
+			mBreakPending = false;
+		}
+	}
+
 	/**
 	 * Executes the BEQ instruction if the equality between the Rs and Rt 
-	 * registers is met.
+	 * registers is met. The target is relative to the address after the BEQ.
 	 * @param rS the rS register
 	 * @param rT the rT register
 	 * @param imm the immediate value used to calculate the address to jump to.
-	 * @throws an IAG if the address is less than 0 or beyond the number of 
+	 * Traps if the address is less than 0 or beyond the number of 
 	 * available instructions.
 	 */
 	private void executeBeq(BitString rS, BitString rT, BitString imm) { 
 		int val = imm.getValue2sComp();
-		int rsVal = mRegisters[rS.getValue()].getValue2sComp();
-		int rtVal = mRegisters[rT.getValue()].getValue2sComp();
+		int rsVal = readRegister(rS);
+		int rtVal = readRegister(rT);
+		mExecuteOut[REGISTER_TARGET].setValue2sComp(-1);
 		if (rtVal == rsVal) { 
-			int newAddr = mPC.getValue() + 4 * val;
-			if (newAddr >= MAX_INSTRUCTIONS || newAddr <= 0) { 
-				idExPipeline[M_IR].display(true);
-				throw new IllegalArgumentException("Out of bounds register");
+			int newAddr = idExPipeline[NEXT_PC].getValue() + 4 * val;
+			if (newAddr / 4 >= MAX_INSTRUCTIONS || newAddr < 0) { 
+				trap(SimulationFault.ADDRESS_LOAD, newAddr, "Out of bounds jump target at instruction");
+				return;
 			}
-			mPC.setValue(newAddr);
+			redirect(newAddr);
 		}
 	}
 
+	/**
+	 * Sets the microarchitecture parameters of the cycle-stepped pipeline. Takes effect on the next cycle;
+	 * set it before running a program to get consistent cycle counts. The threaded mode ignores it.
+	 * @param config the parameters
+	 */
+	public void setPipelineConfig(PipelineConfig config) {
+		mConfig = config;
+	}
+
+	public PipelineConfig getPipelineConfig() {
+		return mConfig;
+	}
+
+	/**
+	 * Turns delay-slot mode on or off. Unlike the PipelineConfig, this changes what programs compute: the
+	 * instruction after a BEQ, J or JR always executes before the branch takes effect, as on MIPS, so code
+	 * compiled for delay slots runs unchanged. A word of 0 in a delay slot is a NOP, a branch or ERET in a
+	 * delay slot traps as a reserved instruction, and an exception in a delay slot sets EPC to the branch
+	 * and the BD bit of Cause. ERET has no delay slot. Both engines support it; set it before loading.
+	 * @param delaySlots true to give branches and jumps a delay slot, false by default
+	 */
+	public void setDelaySlots(boolean delaySlots) {
+		mDelaySlots = delaySlots;
+	}
+
+	public boolean isDelaySlots() {
+		return mDelaySlots;
+	}
+
+	/**
+	 * Turns the static analysis of loaded programs on or off, see getAnalysis(). Set the registers,
+	 * memory and exception handlers before loading, since handlers are where analysis starts besides the PC.
+	 * @param analyze true to analyze every program loaded from now on
+	 */
+	public void setStaticAnalysis(boolean analyze) {
+		mAnalyzing = analyze;
+	}
+
+	public boolean isStaticAnalysis() {
+		return mAnalyzing;
+	}
+
+	/**
+	 * Turns scheduling of loaded programs on or off. Every program loaded from now on is analyzed and its
+	 * basic blocks reordered for the PipelineConfig to hide load-use stalls, see ProgramAnalysis.schedule().
+	 * The reordered program is only used if it ends the same way as the original when both are run on a
+	 * ReferenceInterpreter from the state at load time for up to SCHEDULE_CHECK_STEPS instructions, so set
+	 * the registers, memory, exception handlers and PipelineConfig before loading.
+	 * @param schedule true to schedule every program loaded from now on
+	 */
+	public void setScheduling(boolean schedule) {
+		mScheduling = schedule;
+	}
+
+	public boolean isScheduling() {
+		return mScheduling;
+	}
+
+	/**
+	 * Returns the analysis of the loaded program, of the scheduled program if it was scheduled.
+	 * @return the analysis, or null if neither analysis nor scheduling was on when it was loaded
+	 */
+	public ProgramAnalysis getAnalysis() {
+		return mAnalysis;
+	}
+
+	/**
+	 * Attaches a profiler that is charged every cycle from now on. The threaded mode does not report to it.
+	 * @param profiler the profiler, or null to turn profiling off
+	 */
+	public void setProfiler(Profiler profiler) {
+		mProfiler = profiler;
+	}
+
+	public Profiler getProfiler() {
+		return mProfiler;
+	}
+
+	/**
+	 * Attaches the breakpoints and watchpoints to stop at. With none attached, IF and MEM skip the checks.
+	 * The threaded mode ignores them.
+	 * @param debugger the breakpoints and watchpoints, or null to turn debugging off
+	 */
+	public void setDebugger(Debugger debugger) {
+		mDebugger = debugger;
+		mBreakPending = false;
+	}
+
+	public Debugger getDebugger() {
+		return mDebugger;
+	}
+
+	/**
+	 * Returns why the last call to executeProgram() or incrementFiveCycles() stopped early.
+	 * @return the breakpoint or watchpoint hit, or null if the last cycle did not hit one
+	 */
+	public Debugger.Hit getLastHit() {
+		return mLastHit;
+	}
+
+	/**
+	 * Replaces the memory-mapped devices.
+	 * @param bus the devices; a bus without devices turns memory-mapped I/O off
+	 */
+	public void setDeviceBus(DeviceBus bus) {
+		mBus = bus;
+	}
+
+	public DeviceBus getDeviceBus() {
+		return mBus;
+	}
+
+	/**
+	 * Returns the number of cycles executed since the last reset.
+	 * @return the cycle count
+	 */
+	public long getCycleCount() {
+		return mCycle;
+	}
+
+	/**
+	 * Returns the fault that stopped the program.
+	 * @return the fault, or null if the program is running, finished normally, or every fault was handled
+	 */
+	public SimulationFault getFault() {
+		return mFault;
+	}
+
+	/**
+	 * Returns the symbols of the loaded executable, for reports and traces.
+	 * @return the symbols, or null if the program was not loaded from an executable with symbols
+	 */
+	public SymbolTable getSymbols() {
+		return mSymbols;
+	}
+
+	/**
+	 * Returns the exception registers, also used to register guest exception handlers.
+	 * @return the coprocessor
+	 */
+	public Coprocessor0 getCoprocessor0() {
+		return mCP0;
+	}
+
+	/**
+	 * Returns the number of instructions completed since the last reset.
+	 * @return the instruction count
+	 */
+	public long getInstructionCount() {
+		return mRetired;
+	}
+
+	/**
+	 * Returns the exit code the program passed to SYSCALL.
+	 * @return the exit code, 0 if the program did not set one
+	 */
+	public int getExitCode() {
+		return mExitCode;
+	}
+
+	public BitString getPC() {
+		return mPC;
+	}
+
 	public BitString[] getRegisterContents() {
 		return mRegisters;
 	}
 
-	public BitString[] getMemoryContents() {
+	/**
+	 * Returns the data memory, also used to select its byte order.
+	 * @return the memory
+	 */
+	public Memory getMemoryContents() {
 		return mMemory;
 	}
 }
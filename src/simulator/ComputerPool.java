@@ -0,0 +1,100 @@
+package simulator;
+
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.function.Supplier;
+
+/**
+ * ComputerPool keeps reset Computers for batch runners that run many programs, so that a run costs a
+ * reset of what the previous program touched instead of a new Computer. One pool may be shared by
+ * any number of threads.
+ * <p>
+ * release() resets the program and returns the Computer to its defaults: no Debugger, Profiler,
+ * analysis, scheduling, delay slots or exception handlers, the default PipelineConfig and big-endian
+ * memory. Released Computers share one default PipelineConfig, which is safe since nothing changes it;
+ * set a new PipelineConfig instead of changing the one a pooled Computer has. The DeviceBus stays
+ * attached and is reset, so Computers from a factory can have their devices set up once; attach a new
+ * bus per run if the output of runs has to be kept apart.
+ * @author Egor Maksimenka
+ */
+public class ComputerPool {
+
+	/** The number of cause codes whose handlers release() removes. */
+	private static final int CAUSES = 32;
+	/** The PipelineConfig of every released Computer. Never changed, so that it can be shared. */
+	private static final PipelineConfig DEFAULT_CONFIG = new PipelineConfig();
+
+	/** Creates a Computer when the pool is empty. */
+	private final Supplier<Computer> mFactory;
+	/** The most Computers kept; released Computers beyond it are dropped. */
+	private final int mCapacity;
+	/** The idle Computers, most recently released last. Guarded by itself. */
+	private final ArrayDeque<Computer> mIdle = new ArrayDeque<>();
+
+	/**
+	 * Creates a pool of Computers with the default devices.
+	 * @param capacity the most idle Computers kept
+	 * @exception IAG if capacity is less than 1
+	 */
+	public ComputerPool(int capacity) {
+		this(capacity, Computer::new);
+	}
+
+	/**
+	 * Creates a pool.
+	 * @param capacity the most idle Computers kept
+	 * @param factory creates a Computer when the pool is empty, e.g. with its own devices
+	 * @exception IAG if capacity is less than 1
+	 */
+	public ComputerPool(int capacity, Supplier<Computer> factory) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		mCapacity = capacity;
+		mFactory = factory;
+	}
+
+	/**
+	 * Takes a reset Computer from the pool, or creates one if the pool is empty.
+	 * @return the Computer, with nothing loaded
+	 */
+	public Computer acquire() {
+		Computer computer;
+		synchronized (mIdle) {
+			computer = mIdle.pollLast();
+		}
+		return computer != null ? computer : mFactory.get();
+	}
+
+	/**
+	 * Resets a Computer and returns it to the pool. The caller must not use it afterwards.
+	 * @param computer a Computer from acquire()
+	 */
+	public void release(Computer computer) {
+		computer.resetProgram();
+		computer.setDebugger(null);
+		computer.setProfiler(null);
+		computer.setStaticAnalysis(false);
+		computer.setScheduling(false);
+		computer.setDelaySlots(false);
+		computer.setPipelineConfig(DEFAULT_CONFIG);
+		computer.getMemoryContents().setByteOrder(ByteOrder.BIG_ENDIAN);
+		Coprocessor0 cp0 = computer.getCoprocessor0();
+		cp0.setDefaultHandler(-1);
+		for (int cause = 0; cause < CAUSES; cause++)
+			cp0.setHandler(cause, -1);
+		synchronized (mIdle) {
+			if (mIdle.size() < mCapacity)
+				mIdle.addLast(computer);
+		}
+	}
+
+	/**
+	 * Returns the number of idle Computers.
+	 * @return the number of Computers acquire() can hand out without creating one
+	 */
+	public int size() {
+		synchronized (mIdle) {
+			return mIdle.size();
+		}
+	}
+}
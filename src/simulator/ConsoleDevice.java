@@ -0,0 +1,143 @@
+package simulator;
+
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * ConsoleDevice is a memory-mapped console. Output is collected in a buffer and handed to the host in
+ * batches: when the buffer fills up, when the program writes to FLUSH, and when the program finishes
+ * or stops. SYSCALL print services write to the same buffer.
+ * <ul>
+ *   <li>DATA (offset 0): a store prints the low byte as a character.</li>
+ *   <li>INT (offset 4): a store prints the value as a signed decimal number.</li>
+ *   <li>FLUSH (offset 8): a store hands the buffer to the host.</li>
+ * </ul>
+ * Loads from the console return the number of characters buffered.
+ * @author Egor Maksimenka
+ */
+public class ConsoleDevice implements Device {
+
+	/** Offset of the character output register. */
+	public static final int DATA = 0;
+	/** Offset of the decimal output register. */
+	public static final int INT = 4;
+	/** Offset of the flush register. */
+	public static final int FLUSH = 8;
+	/** The number of bytes the console claims. */
+	private static final int SIZE = 16;
+	/** The default number of characters buffered before they are handed to the host. */
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	/** Where the output goes. */
+	private final Appendable mOut;
+	/** The output not yet handed to the host. */
+	private final StringBuilder mBuffer;
+	/** The buffer size at which output is handed to the host. */
+	private final int mCapacity;
+	/** The most characters printed between two resets; the rest is dropped. */
+	private final long mLimit;
+	/** The number of characters printed since the last reset, at most mLimit. */
+	private long mPrinted;
+
+	/**
+	 * Creates a console with the default buffer size.
+	 * @param out where the output goes
+	 */
+	public ConsoleDevice(Appendable out) {
+		this(out, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Creates a console.
+	 * @param out where the output goes
+	 * @param capacity the number of characters buffered before they are handed to the host
+	 */
+	public ConsoleDevice(Appendable out, int capacity) {
+		this(out, capacity, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Creates a console that drops output past a limit, so that a program printing without end cannot
+	 * exhaust the host's memory.
+	 * @param out where the output goes
+	 * @param capacity the number of characters buffered before they are handed to the host
+	 * @param limit the most characters printed between two resets
+	 * @exception IAG if limit is negative
+	 */
+	public ConsoleDevice(Appendable out, int capacity, long limit) {
+		if (limit < 0)
+			throw new IllegalArgumentException("Limit must not be negative");
+		mOut = out;
+		mCapacity = capacity;
+		mLimit = limit;
+		mBuffer = new StringBuilder(capacity);
+	}
+
+	@Override
+	public int size() {
+		return SIZE;
+	}
+
+	@Override
+	public int read(int offset, long cycle) {
+		return mBuffer.length();
+	}
+
+	@Override
+	public void write(int offset, int value, long cycle) {
+		if (offset == DATA) {
+			print((char) (value & 0xFF));
+		} else if (offset == INT) {
+			print(Integer.toString(value));
+		} else if (offset == FLUSH) {
+			flush();
+		}
+	}
+
+	/**
+	 * Appends a character to the output, unless the limit has been reached.
+	 * @param c the character
+	 */
+	public void print(char c) {
+		if (mPrinted == mLimit)
+			return;
+		mPrinted++;
+		mBuffer.append(c);
+		if (mBuffer.length() >= mCapacity)
+			flush();
+	}
+
+	/**
+	 * Appends text to the output, as much of it as fits the limit.
+	 * @param text the text
+	 */
+	public void print(String text) {
+		if (text.length() > mLimit - mPrinted)
+			text = text.substring(0, (int) (mLimit - mPrinted));
+		mPrinted += text.length();
+		mBuffer.append(text);
+		if (mBuffer.length() >= mCapacity)
+			flush();
+	}
+
+	@Override
+	public void flush() {
+		if (mBuffer.length() == 0)
+			return;
+		try {
+			mOut.append(mBuffer);
+			if (mOut instanceof Flushable)
+				((Flushable) mOut).flush();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		mBuffer.setLength(0);
+	}
+
+	@Override
+	public void reset() {
+		mBuffer.setLength(0);
+		mPrinted = 0;
+	}
+}
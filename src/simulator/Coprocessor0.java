@@ -0,0 +1,169 @@
+package simulator;
+
+import java.util.Arrays;
+
+/**
+ * Coprocessor0 holds the exception state of a Computer, modeled on the MIPS system control
+ * coprocessor. When an instruction faults, its address goes to EPC, the cause code to Cause, and
+ * the faulting address to BadVAddr. An instruction in a branch delay slot puts the address of its
+ * branch into EPC instead and sets the BD bit of Cause, so that ERET runs the branch again. If a
+ * guest handler is registered for the cause, the program continues at the handler with the EXL bit
+ * of Status set; the handler reads the registers with MFC0, may adjust EPC with MTC0, and returns
+ * with ERET. Without a handler, or on a fault inside a handler, the run stops with a
+ * SimulationFault.
+ * @author Egor Maksimenka
+ */
+public class Coprocessor0 {
+
+	/** Register number of BadVAddr. */
+	public static final int BAD_VADDR = 8;
+	/** Register number of Status. */
+	public static final int STATUS = 12;
+	/** Register number of Cause. */
+	public static final int CAUSE = 13;
+	/** Register number of EPC. */
+	public static final int EPC = 14;
+	/** The Status bit that is set while an exception handler runs. */
+	public static final int EXL = 0x2;
+	/** The Cause bit that is set when the faulting instruction was in a branch delay slot. */
+	public static final int BD = 0x80000000;
+
+	/** The number of cause codes the Cause register can hold. */
+	private static final int CAUSES = 32;
+
+	/** The handler address per cause code, -1 if none. */
+	private final int[] mHandlers = new int[CAUSES];
+	/** The handler for causes without their own, -1 if none. */
+	private int mDefaultHandler = -1;
+	private int mStatus;
+	private int mCause;
+	private int mEPC;
+	private int mBadVAddr;
+
+	public Coprocessor0() {
+		Arrays.fill(mHandlers, -1);
+	}
+
+	/**
+	 * Registers the guest handler for one cause.
+	 * @param cause the cause code, see SimulationFault
+	 * @param pc the address of the handler, or -1 to remove it
+	 * @exception IAG if the cause code is invalid or the address is not an instruction address
+	 */
+	public void setHandler(int cause, int pc) {
+		if (cause < 0 || cause >= CAUSES)
+			throw new IllegalArgumentException("Invalid cause code");
+		mHandlers[cause] = checkHandler(pc);
+	}
+
+	/**
+	 * Registers the guest handler for every cause without a handler of its own.
+	 * @param pc the address of the handler, or -1 to remove it
+	 * @exception IAG if the address is not an instruction address
+	 */
+	public void setDefaultHandler(int pc) {
+		mDefaultHandler = checkHandler(pc);
+	}
+
+	/**
+	 * Returns the handler a fault with the given cause goes to.
+	 * @param cause the cause code
+	 * @return the handler address, or -1 if the fault stops the run
+	 */
+	public int getHandler(int cause) {
+		return mHandlers[cause] >= 0 ? mHandlers[cause] : mDefaultHandler;
+	}
+
+	/**
+	 * Takes an exception.
+	 * @param cause the cause code
+	 * @param pc the address of the faulting instruction
+	 * @param badVAddr the faulting address, 0 if the cause has none
+	 * @param delaySlot true if the faulting instruction is in the delay slot of the branch at pc - 4
+	 * @return the handler to continue at, or -1 if the run has to stop
+	 */
+	int raise(int cause, int pc, int badVAddr, boolean delaySlot) {
+		// A fault inside a handler would overwrite the state the handler is working with.
+		if ((mStatus & EXL) != 0)
+			return -1;
+		mCause = delaySlot ? cause << 2 | BD : cause << 2;
+		mEPC = delaySlot ? pc - 4 : pc;
+		mBadVAddr = badVAddr;
+		int handler = getHandler(cause);
+		if (handler >= 0)
+			mStatus |= EXL;
+		return handler;
+	}
+
+	/**
+	 * Returns from an exception handler.
+	 * @return the address to continue at
+	 */
+	int eret() {
+		mStatus &= ~EXL;
+		return mEPC;
+	}
+
+	/**
+	 * Reads a register for MFC0.
+	 * @param register the register number
+	 * @return the value, 0 for registers that are not implemented
+	 */
+	public int read(int register) {
+		switch (register) {
+			case BAD_VADDR: return mBadVAddr;
+			case STATUS: return mStatus;
+			case CAUSE: return mCause;
+			case EPC: return mEPC;
+			default: return 0;
+		}
+	}
+
+	/**
+	 * Writes a register for MTC0. Only Status and EPC are writable; writes to other registers are ignored.
+	 * @param register the register number
+	 * @param value the value
+	 */
+	public void write(int register, int value) {
+		if (register == STATUS)
+			mStatus = value;
+		else if (register == EPC)
+			mEPC = value;
+	}
+
+	/**
+	 * Sets every register at once, e.g. to the state a cached run ended in.
+	 * @param status Status
+	 * @param cause Cause
+	 * @param epc EPC
+	 * @param badVAddr BadVAddr
+	 */
+	void restore(int status, int cause, int epc, int badVAddr) {
+		mStatus = status;
+		mCause = cause;
+		mEPC = epc;
+		mBadVAddr = badVAddr;
+	}
+
+	/**
+	 * Clears the registers. The handlers stay registered.
+	 */
+	public void reset() {
+		mStatus = 0;
+		mCause = 0;
+		mEPC = 0;
+		mBadVAddr = 0;
+	}
+
+	/**
+	 * Private helper method. Validates a handler address.
+	 * @param pc the address
+	 * @return the address
+	 * @exception IAG if the address is neither -1 nor an instruction address
+	 */
+	private static int checkHandler(int pc) {
+		if (pc != -1 && (pc % 4 != 0 || pc < 0 || pc / 4 >= Computer.MAX_INSTRUCTIONS))
+			throw new IllegalArgumentException("Invalid instruction address");
+		return pc;
+	}
+}
@@ -0,0 +1,359 @@
+package simulator;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Debugger holds the PC breakpoints and memory watchpoints of a Computer. Attach it with
+ * Computer.setDebugger(). IF looks up the PC in a bitset before fetching, MEM looks up the page of
+ * every access in a bitmap, and only on a match is the exact breakpoint or watchpoint and its
+ * condition consulted.
+ * <ul>
+ *   <li>A breakpoint stops the program before the instruction at its PC executes: fetching pauses,
+ *   older instructions leave the pipeline, and the registers and memory reflect exactly the
+ *   instructions before it.</li>
+ *   <li>A watchpoint stops the program at the end of the cycle in which a load or store touched its
+ *   address. The access itself has happened; the loaded value is reported in the Hit.</li>
+ * </ul>
+ * @author Egor Maksimenka
+ */
+public class Debugger {
+
+	/** The number of bytes covered by one bit of the watch bitmap. */
+	private static final int PAGE_SIZE = 64;
+
+	/**
+	 * A condition on a register or memory value that has to hold for a breakpoint or watchpoint to stop.
+	 */
+	public static class Condition {
+		/** Comparison operators, in the order parse() recognizes them. */
+		private static final String[] OPERATORS = {"==", "!=", "<=", ">=", "<", ">"};
+
+		/** True to compare a register, false to compare a memory word. */
+		private final boolean mRegister;
+		/** The register number or word-aligned memory address. */
+		private final int mLocation;
+		/** One of OPERATORS. */
+		private final String mOperator;
+		/** The value to compare against. */
+		private final int mValue;
+
+		private Condition(boolean register, int location, String operator, int value) {
+			mRegister = register;
+			mLocation = location;
+			mOperator = operator;
+			mValue = value;
+		}
+
+		/**
+		 * Parses a condition such as "$3 == 5" or "M[16] > -1".
+		 * @param text the condition
+		 * @return the condition
+		 * @exception IAG if the text is not a valid condition
+		 */
+		public static Condition parse(String text) {
+			for (String operator : OPERATORS) {
+				int at = text.indexOf(operator);
+				if (at < 0)
+					continue;
+				String location = text.substring(0, at).trim();
+				int value = parseNumber(text.substring(at + operator.length()).trim());
+				if (location.startsWith("$")) {
+					int register = parseNumber(location.substring(1));
+					if (register < 0 || register >= Computer.MAX_REGISTERS)
+						throw new IllegalArgumentException("Invalid register: " + location);
+					return new Condition(true, register, operator, value);
+				}
+				if (location.startsWith("M[") && location.endsWith("]")) {
+					int addr = parseNumber(location.substring(2, location.length() - 1).trim());
+					if (addr < 0 || addr > Computer.MAX_MEMORY - 4 || addr % 4 != 0)
+						throw new IllegalArgumentException("Invalid memory address: " + location);
+					return new Condition(false, addr, operator, value);
+				}
+				throw new IllegalArgumentException("Invalid condition: " + text);
+			}
+			throw new IllegalArgumentException("Invalid condition: " + text);
+		}
+
+		/**
+		 * Evaluates the condition.
+		 * @param computer the computer whose state is checked
+		 * @return true if the condition holds
+		 */
+		boolean holds(Computer computer) {
+			int actual = mRegister ? computer.getRegisterContents()[mLocation].getValue2sComp()
+					: computer.getMemoryContents().loadWord(mLocation);
+			switch (mOperator) {
+				case "==": return actual == mValue;
+				case "!=": return actual != mValue;
+				case "<=": return actual <= mValue;
+				case ">=": return actual >= mValue;
+				case "<": return actual < mValue;
+				default: return actual > mValue;
+			}
+		}
+
+		@Override
+		public String toString() {
+			return (mRegister ? "$" + mLocation : "M[" + mLocation + "]") + " " + mOperator + " " + mValue;
+		}
+	}
+
+	/**
+	 * A watchpoint on one memory byte.
+	 */
+	private static class Watchpoint {
+		final boolean read;
+		final boolean write;
+		final Condition condition;
+
+		Watchpoint(boolean read, boolean write, Condition condition) {
+			this.read = read;
+			this.write = write;
+			this.condition = condition;
+		}
+	}
+
+	/**
+	 * Describes why the program stopped.
+	 */
+	public static class Hit {
+		/** True for a breakpoint, false for a watchpoint. */
+		public final boolean breakpoint;
+		/** The address of the instruction that hit. */
+		public final int pc;
+		/** The memory address accessed, for a watchpoint. */
+		public final int address;
+		/** True if the access was a store, for a watchpoint. */
+		public final boolean write;
+		/** The value loaded or stored, for a watchpoint. */
+		public final int value;
+
+		Hit(boolean breakpoint, int pc, int address, boolean write, int value) {
+			this.breakpoint = breakpoint;
+			this.pc = pc;
+			this.address = address;
+			this.write = write;
+			this.value = value;
+		}
+
+		@Override
+		public String toString() {
+			if (breakpoint)
+				return "Breakpoint at " + Disassembler.hex(pc);
+			return "Watchpoint: " + (write ? "store of " : "load of ") + value + " at address " + address
+					+ " by instruction at " + Disassembler.hex(pc);
+		}
+	}
+
+	/** The instruction indices with a breakpoint. */
+	private final BitSet mBreakpoints = new BitSet(Computer.MAX_INSTRUCTIONS);
+	/** The conditions of conditional breakpoints, by instruction index. */
+	private final Map<Integer, Condition> mBreakpointConditions = new HashMap<>();
+	/** The memory pages with at least one watchpoint. */
+	private final BitSet mWatchedPages = new BitSet();
+	/** The watchpoints, by address. */
+	private final Map<Integer, Watchpoint> mWatchpoints = new HashMap<>();
+
+	/**
+	 * Sets a breakpoint.
+	 * @param pc the address of the instruction to stop before
+	 * @param condition a condition that has to hold to stop, or null to always stop
+	 * @exception IAG if the address is not an instruction address
+	 */
+	public void addBreakpoint(int pc, Condition condition) {
+		checkInstructionAddress(pc);
+		mBreakpoints.set(pc / 4);
+		if (condition != null)
+			mBreakpointConditions.put(pc / 4, condition);
+		else
+			mBreakpointConditions.remove(pc / 4);
+	}
+
+	/**
+	 * Sets a breakpoint from text such as "0x10" or "16 if $3 == 5".
+	 * @param spec the instruction address, optionally followed by "if" and a condition
+	 * @exception IAG if the text is not a valid breakpoint
+	 */
+	public void addBreakpoint(String spec) {
+		String[] parts = splitCondition(spec);
+		addBreakpoint(parseNumber(parts[0]), parts[1] == null ? null : Condition.parse(parts[1]));
+	}
+
+	/**
+	 * Removes a breakpoint, if there is one.
+	 * @param pc the address of the instruction
+	 * @exception IAG if the address is not an instruction address
+	 */
+	public void removeBreakpoint(int pc) {
+		checkInstructionAddress(pc);
+		mBreakpoints.clear(pc / 4);
+		mBreakpointConditions.remove(pc / 4);
+	}
+
+	/**
+	 * Sets a watchpoint.
+	 * @param addr the memory address to watch
+	 * @param read true to stop on loads
+	 * @param write true to stop on stores
+	 * @param condition a condition that has to hold after the access to stop, or null to always stop
+	 * @exception IAG if the address is outside of memory or neither loads nor stores are watched
+	 */
+	public void addWatchpoint(int addr, boolean read, boolean write, Condition condition) {
+		if (addr < 0 || addr >= Computer.MAX_MEMORY)
+			throw new IllegalArgumentException("Memory address exceeds limit.");
+		if (!read && !write)
+			throw new IllegalArgumentException("Watchpoint has to watch loads, stores, or both");
+		mWatchpoints.put(addr, new Watchpoint(read, write, condition));
+		mWatchedPages.set(addr / PAGE_SIZE);
+	}
+
+	/**
+	 * Sets a watchpoint from text such as "16", "16 w" or "0x20 rw if M[32] == 0". Without an access
+	 * type, both loads and stores are watched.
+	 * @param spec the memory address, optionally followed by r, w or rw, then optionally "if" and a condition
+	 * @exception IAG if the text is not a valid watchpoint
+	 */
+	public void addWatchpoint(String spec) {
+		String[] parts = splitCondition(spec);
+		String[] target = parts[0].split("\\s+");
+		if (target.length > 2)
+			throw new IllegalArgumentException("Invalid watchpoint: " + spec);
+		String access = target.length == 2 ? target[1] : "rw";
+		if (!access.equals("r") && !access.equals("w") && !access.equals("rw"))
+			throw new IllegalArgumentException("Invalid access type: " + access);
+		addWatchpoint(parseNumber(target[0]), access.contains("r"), access.contains("w"),
+				parts[1] == null ? null : Condition.parse(parts[1]));
+	}
+
+	public void removeWatchpoint(int addr) {
+		mWatchpoints.remove(addr);
+		rebuildWatchedPages();
+	}
+
+	/**
+	 * Removes every breakpoint and watchpoint.
+	 */
+	public void clear() {
+		mBreakpoints.clear();
+		mBreakpointConditions.clear();
+		mWatchpoints.clear();
+		mWatchedPages.clear();
+	}
+
+	/**
+	 * Checks if there is a breakpoint at an address, regardless of its condition.
+	 * @param pc the instruction address
+	 * @return true if IF has to pause before fetching from it
+	 */
+	boolean isBreakpoint(int pc) {
+		return mBreakpoints.get(pc / 4);
+	}
+
+	/**
+	 * Checks the condition of the breakpoint at an address.
+	 * @param pc the instruction address
+	 * @param computer the computer whose state is checked
+	 * @return true if the program has to stop
+	 */
+	boolean breakpointHolds(int pc, Computer computer) {
+		Condition condition = mBreakpointConditions.get(pc / 4);
+		return condition == null || condition.holds(computer);
+	}
+
+	/**
+	 * Checks a memory access against the watchpoints. An access touches every byte from addr to
+	 * addr + size - 1, so a word store hits a watchpoint on any of its four bytes.
+	 * @param addr the address accessed
+	 * @param size the number of bytes accessed
+	 * @param write true for a store, false for a load
+	 * @param computer the computer whose state is checked
+	 * @return true if the program has to stop
+	 */
+	boolean watchpointHolds(int addr, int size, boolean write, Computer computer) {
+		// Accesses are aligned, so they never cross a page.
+		if (!mWatchedPages.get(addr / PAGE_SIZE))
+			return false;
+		for (int i = 0; i < size; i++) {
+			Watchpoint watchpoint = mWatchpoints.get(addr + i);
+			if (watchpoint != null && (write ? watchpoint.write : watchpoint.read)
+					&& (watchpoint.condition == null || watchpoint.condition.holds(computer)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Describes every breakpoint and watchpoint, one per line.
+	 * @return the description
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		for (int i = mBreakpoints.nextSetBit(0); i >= 0; i = mBreakpoints.nextSetBit(i + 1)) {
+			sb.append("break ").append(Disassembler.hex(4 * i));
+			if (mBreakpointConditions.containsKey(i))
+				sb.append(" if ").append(mBreakpointConditions.get(i));
+			sb.append('\n');
+		}
+		for (Map.Entry<Integer, Watchpoint> entry : mWatchpoints.entrySet()) {
+			Watchpoint watchpoint = entry.getValue();
+			sb.append("watch ").append(entry.getKey()).append(' ')
+					.append(watchpoint.read ? "r" : "").append(watchpoint.write ? "w" : "");
+			if (watchpoint.condition != null)
+				sb.append(" if ").append(watchpoint.condition);
+			sb.append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Parses a decimal or 0x-prefixed hexadecimal number.
+	 * @param text the number
+	 * @return the value
+	 * @exception IAG if the text is not a number
+	 */
+	static int parseNumber(String text) {
+		try {
+			boolean negative = text.startsWith("-");
+			String digits = negative ? text.substring(1) : text;
+			int value = digits.startsWith("0x") ? (int) Long.parseLong(digits.substring(2), 16)
+					: Integer.parseInt(digits);
+			return negative ? -value : value;
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid number: " + text);
+		}
+	}
+
+	/**
+	 * Private helper method. Checks that an address can hold a breakpoint.
+	 * @param pc the address
+	 * @exception IAG if the address is not an instruction address
+	 */
+	private static void checkInstructionAddress(int pc) {
+		if (pc % 4 != 0 || pc < 0 || pc / 4 >= Computer.MAX_INSTRUCTIONS)
+			throw new IllegalArgumentException("Invalid instruction address");
+	}
+
+	/**
+	 * Private helper method. Splits a breakpoint or watchpoint into its target and its condition.
+	 * @param spec the text
+	 * @return the target and the condition, or null if there is none
+	 */
+	private static String[] splitCondition(String spec) {
+		int at = spec.indexOf(" if ");
+		if (at < 0)
+			return new String[] {spec.trim(), null};
+		return new String[] {spec.substring(0, at).trim(), spec.substring(at + 4).trim()};
+	}
+
+	/**
+	 * Private helper method. Recomputes the watch bitmap after a watchpoint was removed.
+	 */
+	private void rebuildWatchedPages() {
+		mWatchedPages.clear();
+		for (int addr : mWatchpoints.keySet())
+			mWatchedPages.set(addr / PAGE_SIZE);
+	}
+}
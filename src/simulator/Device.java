@@ -0,0 +1,41 @@
+package simulator;
+
+/**
+ * A memory-mapped device. The DeviceBus routes every load and store inside the device's address
+ * range to it, with the offset relative to the start of that range.
+ * @author Egor Maksimenka
+ */
+public interface Device {
+
+	/**
+	 * Returns the number of bytes of address space the device claims.
+	 * @return the size of the device's range, a multiple of 4
+	 */
+	int size();
+
+	/**
+	 * Handles a load from the device.
+	 * @param offset the word-aligned offset into the device's range
+	 * @param cycle the current cycle of the computer
+	 * @return the loaded value
+	 */
+	int read(int offset, long cycle);
+
+	/**
+	 * Handles a store to the device.
+	 * @param offset the word-aligned offset into the device's range
+	 * @param value the stored value
+	 * @param cycle the current cycle of the computer
+	 */
+	void write(int offset, int value, long cycle);
+
+	/**
+	 * Hands any buffered output to the host. Called when the program finishes or stops.
+	 */
+	default void flush() { }
+
+	/**
+	 * Returns the device to its power-on state.
+	 */
+	default void reset() { }
+}
@@ -0,0 +1,129 @@
+package simulator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * DeviceBus maps address ranges outside of RAM to memory-mapped devices. LW and SW to an address a
+ * device claims go to that device instead of mMemory.
+ * @author Egor Maksimenka
+ */
+public class DeviceBus {
+
+	/** The start address of each attached device, parallel to mDevices. */
+	private final List<Integer> mBases = new ArrayList<>();
+	/** The attached devices. */
+	private final List<Device> mDevices = new ArrayList<>();
+	/** The console SYSCALL prints to, null if none is attached. */
+	private ConsoleDevice mConsole;
+	/** The lowest address any device claims, to reject RAM accesses with one comparison. */
+	private int mLowest = Integer.MAX_VALUE;
+
+	/**
+	 * Attaches a device.
+	 * @param base the first address the device claims
+	 * @param device the device
+	 * @exception IAG if the range is not word-aligned, overlaps RAM, or overlaps another device
+	 */
+	public void attach(int base, Device device) {
+		int size = device.size();
+		if (base % 4 != 0 || size <= 0 || size % 4 != 0)
+			throw new IllegalArgumentException("Device range must be word-aligned");
+		if (base < Computer.MAX_MEMORY || base + size < base)
+			throw new IllegalArgumentException("Device range overlaps memory");
+		for (int i = 0; i < mDevices.size(); i++) {
+			int otherBase = mBases.get(i);
+			if (base < otherBase + mDevices.get(i).size() && otherBase < base + size)
+				throw new IllegalArgumentException("Device range overlaps another device");
+		}
+		mBases.add(base);
+		mDevices.add(device);
+		mLowest = Math.min(mLowest, base);
+		if (device instanceof ConsoleDevice && mConsole == null)
+			mConsole = (ConsoleDevice) device;
+	}
+
+	/**
+	 * Checks if a device claims an address.
+	 * @param addr the address
+	 * @return true if a load or store to addr goes to a device
+	 */
+	public boolean claims(int addr) {
+		return indexOf(addr) >= 0;
+	}
+
+	/**
+	 * Loads from a device.
+	 * @param addr an address claimed by a device
+	 * @param cycle the current cycle
+	 * @return the value the device returns
+	 */
+	int read(int addr, long cycle) {
+		int i = indexOf(addr);
+		return mDevices.get(i).read(addr - mBases.get(i), cycle);
+	}
+
+	/**
+	 * Stores to a device.
+	 * @param addr an address claimed by a device
+	 * @param value the value
+	 * @param cycle the current cycle
+	 */
+	void write(int addr, int value, long cycle) {
+		int i = indexOf(addr);
+		mDevices.get(i).write(addr - mBases.get(i), value, cycle);
+	}
+
+	/**
+	 * Returns the console SYSCALL prints to: the first ConsoleDevice attached.
+	 * @return the console, or null if none is attached
+	 */
+	public ConsoleDevice getConsole() {
+		return mConsole;
+	}
+
+	/**
+	 * Checks whether the bus holds exactly the devices of a new Computer: a ConsoleDevice at CONSOLE_BASE
+	 * and a TimerDevice at TIMER_BASE, and nothing else.
+	 * @return true for the default device layout
+	 */
+	boolean isDefaultLayout() {
+		if (mDevices.size() != 2)
+			return false;
+		int console = mDevices.get(0).getClass() == ConsoleDevice.class ? 0 : 1;
+		return mDevices.get(console).getClass() == ConsoleDevice.class && mBases.get(console) == Computer.CONSOLE_BASE
+				&& mDevices.get(1 - console).getClass() == TimerDevice.class && mBases.get(1 - console) == Computer.TIMER_BASE;
+	}
+
+	/**
+	 * Flushes the buffered output of every device to the host.
+	 */
+	public void flush() {
+		for (Device device : mDevices)
+			device.flush();
+	}
+
+	/**
+	 * Resets every device.
+	 */
+	public void reset() {
+		for (Device device : mDevices)
+			device.reset();
+	}
+
+	/**
+	 * Private helper method. Finds the device claiming an address.
+	 * @param addr the address
+	 * @return the index of the device, or -1 if none claims it
+	 */
+	private int indexOf(int addr) {
+		if (addr < mLowest)
+			return -1;
+		for (int i = 0; i < mDevices.size(); i++) {
+			int offset = addr - mBases.get(i);
+			if (offset >= 0 && offset < mDevices.get(i).size())
+				return i;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,66 @@
+package simulator;
+
+/**
+ * Disassembler turns instruction words back into assembly text for reports and traces.
+ * @author Egor Maksimenka
+ */
+public class Disassembler {
+
+	/** The mnemonics of the loads and stores, indexed by op code - 32. */
+	private static final String[] MEMORY_MNEMONICS =
+			{"lb", "lh", null, "lw", "lbu", "lhu", null, null, "sb", "sh", null, "sw"};
+
+	private Disassembler() { }
+
+	/**
+	 * Disassembles one instruction.
+	 * @param word the instruction word
+	 * @return the assembly text, e.g. "addi $1, $0, 5", or ".word 0x..." for unsupported encodings
+	 */
+	public static String disassemble(int word) {
+		int op = word >>> 26;
+		int rs = (word >>> 21) & 0x1F;
+		int rt = (word >>> 16) & 0x1F;
+		int rd = (word >>> 11) & 0x1F;
+		int imm = (short) word;
+		if (op == 0) {
+			int funct = word & 0x3F;
+			if (funct == 32)
+				return "add $" + rd + ", $" + rs + ", $" + rt;
+			if (funct == 36)
+				return "and $" + rd + ", $" + rs + ", $" + rt;
+			if (funct == 8)
+				return "jr $" + rs;
+			if (funct == 12)
+				return "syscall";
+		} else if (op == 8) {
+			return "addi $" + rt + ", $" + rs + ", " + imm;
+		} else if (op == 12) {
+			return "andi $" + rt + ", $" + rs + ", " + (word & 0xFFFF);
+		} else if (op >= 32 && op < 32 + MEMORY_MNEMONICS.length && MEMORY_MNEMONICS[op - 32] != null) {
+			return MEMORY_MNEMONICS[op - 32] + " $" + rt + ", " + imm + "($" + rs + ")";
+		} else if (op == 4) {
+			return "beq $" + rs + ", $" + rt + ", " + imm;
+		} else if (op == 2) {
+			return "j " + hex((word & 0x3FFFFFF) << 2);
+		} else if (op == 16) {
+			if (rs == 0)
+				return "mfc0 $" + rt + ", $" + rd;
+			if (rs == 4)
+				return "mtc0 $" + rt + ", $" + rd;
+			if (rs == 16 && (word & 0x3F) == 24)
+				return "eret";
+		}
+		return ".word " + hex(word);
+	}
+
+	/**
+	 * Formats an address the way reports print it.
+	 * @param addr the address
+	 * @return the address as 0x followed by at least four hex digits
+	 */
+	public static String hex(int addr) {
+		String digits = Integer.toHexString(addr);
+		return "0x" + "0000".substring(Math.min(4, digits.length())) + digits;
+	}
+}
@@ -0,0 +1,252 @@
+package simulator;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ElfFile reads a 32-bit big-endian MIPS executable, the format a mips-linux-gnu or mips-elf
+ * toolchain produces. The file is memory-mapped and its PT_LOAD segments and, optionally, the
+ * symbols of its code are copied out; load the result with Computer.loadExecutable().
+ * <p>
+ * Instructions and data live in separate spaces in the simulator, so executable segments go to
+ * the instruction space and all other segments to memory, each at its virtual address. Both spaces
+ * start at 0 and are small, so link accordingly, e.g. with -Ttext=0 -Tdata=0x100. A word of 0 ends
+ * the program, which means the text must not contain NOPs; assemble with .set noreorder.
+ * @author Egor Maksimenka
+ */
+public class ElfFile {
+
+	/** The bytes every ELF file starts with. */
+	private static final int ELF_MAGIC = 0x7F454C46;
+	/** e_ident[EI_CLASS] for 32-bit files. */
+	private static final int ELFCLASS32 = 1;
+	/** e_ident[EI_DATA] for big-endian files. */
+	private static final int ELFDATA2MSB = 2;
+	/** e_type of an executable. */
+	private static final int ET_EXEC = 2;
+	/** e_machine of MIPS. */
+	private static final int EM_MIPS = 8;
+	/** p_type of a loadable segment. */
+	private static final int PT_LOAD = 1;
+	/** p_flags bit of an executable segment. */
+	private static final int PF_X = 1;
+	/** sh_type of a symbol table. */
+	private static final int SHT_SYMTAB = 2;
+	/** The size of one symbol table entry. */
+	private static final int SYMBOL_SIZE = 16;
+	/** sh_flags bit of a section holding code. */
+	private static final int SHF_EXECINSTR = 4;
+	/** st_info types kept in the symbol table: NOTYPE (labels), OBJECT and FUNC. */
+	private static final int MAX_SYMBOL_TYPE = 2;
+	/** Segments larger than this cannot fit into the simulator and are rejected before they are copied. */
+	private static final int MAX_SEGMENT_SIZE = 1 << 20;
+
+	/**
+	 * A loadable segment.
+	 */
+	public static class Segment {
+		/** The address the segment is loaded at. */
+		public final int address;
+		/** The contents as big-endian words, zero-filled up to the segment's size in memory. */
+		public final int[] words;
+		/** True if the segment holds code and goes to the instruction space. */
+		public final boolean executable;
+
+		Segment(int address, int[] words, boolean executable) {
+			this.address = address;
+			this.words = words;
+			this.executable = executable;
+		}
+	}
+
+	/** The address execution starts at. */
+	private final int mEntry;
+	/** The loadable segments, in file order. */
+	private final List<Segment> mSegments;
+	/** The symbols, null if they were not loaded or the file is stripped. */
+	private final SymbolTable mSymbols;
+
+	private ElfFile(int entry, List<Segment> segments, SymbolTable symbols) {
+		mEntry = entry;
+		mSegments = Collections.unmodifiableList(segments);
+		mSymbols = symbols;
+	}
+
+	/**
+	 * Reads an executable with its symbols.
+	 * @param path the file
+	 * @return the executable
+	 * @throws IOException if the file cannot be read
+	 * @exception IAG if the file is not a 32-bit big-endian MIPS executable
+	 */
+	public static ElfFile read(Path path) throws IOException {
+		return read(path, true);
+	}
+
+	/**
+	 * Reads an executable.
+	 * @param path the file
+	 * @param loadSymbols true to read the symbol table, false to skip it
+	 * @return the executable
+	 * @throws IOException if the file cannot be read
+	 * @exception IAG if the file is not a 32-bit big-endian MIPS executable
+	 */
+	public static ElfFile read(Path path, boolean loadSymbols) throws IOException {
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			return parse(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), loadSymbols);
+		}
+	}
+
+	/**
+	 * Reads an executable from the contents of a file, e.g. one sent over a socket.
+	 * @param contents the contents of the file
+	 * @param loadSymbols true to read the symbol table, false to skip it
+	 * @return the executable
+	 * @exception IAG if the contents are not a 32-bit big-endian MIPS executable
+	 */
+	public static ElfFile read(byte[] contents, boolean loadSymbols) {
+		return parse(ByteBuffer.wrap(contents), loadSymbols);
+	}
+
+	/**
+	 * Checks whether a file starts like an ELF file, to tell executables from binary-string programs.
+	 * @param path the file
+	 * @return true if the file starts with the ELF magic number
+	 * @throws IOException if the file cannot be read
+	 */
+	public static boolean isElf(Path path) throws IOException {
+		try (InputStream in = Files.newInputStream(path)) {
+			byte[] header = in.readNBytes(4);
+			return header.length == 4 && ByteBuffer.wrap(header).getInt() == ELF_MAGIC;
+		}
+	}
+
+	/**
+	 * Parses an executable.
+	 * @param file the contents of the file
+	 * @param loadSymbols true to read the symbol table, false to skip it
+	 * @return the executable
+	 * @exception IAG if the file is not a 32-bit big-endian MIPS executable or is truncated
+	 */
+	static ElfFile parse(ByteBuffer file, boolean loadSymbols) {
+		file.order(ByteOrder.BIG_ENDIAN);
+		try {
+			if (file.limit() < 52 || file.getInt(0) != ELF_MAGIC)
+				throw new IllegalArgumentException("Not an ELF file");
+			if (file.get(4) != ELFCLASS32 || file.get(5) != ELFDATA2MSB)
+				throw new IllegalArgumentException("Not a 32-bit big-endian ELF file");
+			if (file.getShort(16) != ET_EXEC || file.getShort(18) != EM_MIPS)
+				throw new IllegalArgumentException("Not a MIPS executable");
+			int entry = file.getInt(24);
+			int phoff = file.getInt(28);
+			int shoff = file.getInt(32);
+			int phentsize = file.getShort(42) & 0xFFFF;
+			int phnum = file.getShort(44) & 0xFFFF;
+			int shentsize = file.getShort(46) & 0xFFFF;
+			int shnum = file.getShort(48) & 0xFFFF;
+
+			List<Segment> segments = new ArrayList<>();
+			for (int i = 0; i < phnum; i++) {
+				int ph = phoff + i * phentsize;
+				if (file.getInt(ph) != PT_LOAD)
+					continue;
+				int offset = file.getInt(ph + 4);
+				int vaddr = file.getInt(ph + 8);
+				int filesz = file.getInt(ph + 16);
+				int memsz = file.getInt(ph + 20);
+				int flags = file.getInt(ph + 24);
+				if (vaddr % 4 != 0 || filesz < 0 || memsz < filesz || memsz > MAX_SEGMENT_SIZE)
+					throw new IllegalArgumentException("Invalid segment at " + Disassembler.hex(vaddr));
+				int[] words = new int[(memsz + 3) / 4];
+				for (int b = 0; b < filesz; b++)
+					words[b / 4] |= (file.get(offset + b) & 0xFF) << (24 - 8 * (b % 4));
+				segments.add(new Segment(vaddr, words, (flags & PF_X) != 0));
+			}
+
+			SymbolTable symbols = null;
+			for (int i = 0; loadSymbols && i < shnum; i++) {
+				int sh = shoff + i * shentsize;
+				if (file.getInt(sh + 4) == SHT_SYMTAB) {
+					int strtab = shoff + file.getInt(sh + 24) * shentsize;
+					symbols = readSymbols(file, sh, strtab, shoff, shentsize, shnum);
+					break;
+				}
+			}
+			return new ElfFile(entry, segments, symbols);
+		} catch (IndexOutOfBoundsException e) {
+			throw new IllegalArgumentException("Truncated ELF file");
+		}
+	}
+
+	/**
+	 * Private helper method. Reads the functions and labels defined in code sections. Data symbols are
+	 * skipped since data lives in a separate address space.
+	 * @param file the contents of the file
+	 * @param symtab the file offset of the symbol table's section header
+	 * @param strtab the file offset of the string table's section header
+	 * @param shoff the file offset of the section headers
+	 * @param shentsize the size of a section header
+	 * @param shnum the number of section headers
+	 * @return the symbols
+	 */
+	private static SymbolTable readSymbols(ByteBuffer file, int symtab, int strtab, int shoff, int shentsize,
+			int shnum) {
+		int offset = file.getInt(symtab + 16);
+		int size = file.getInt(symtab + 20);
+		int strings = file.getInt(strtab + 16);
+		List<String> names = new ArrayList<>();
+		List<Integer> addresses = new ArrayList<>();
+		for (int sym = offset; sym + SYMBOL_SIZE <= offset + size; sym += SYMBOL_SIZE) {
+			int type = file.get(sym + 12) & 0xF;
+			int section = file.getShort(sym + 14) & 0xFFFF;
+			if (type > MAX_SYMBOL_TYPE || section == 0 || section >= shnum)
+				continue;
+			if ((file.getInt(shoff + section * shentsize + 8) & SHF_EXECINSTR) == 0)
+				continue;
+			String name = readString(file, strings + file.getInt(sym));
+			if (name.isEmpty())
+				continue;
+			names.add(name);
+			addresses.add(file.getInt(sym + 4));
+		}
+		return new SymbolTable(names.toArray(new String[0]), addresses.stream().mapToInt(Integer::intValue).toArray());
+	}
+
+	/**
+	 * Private helper method. Reads a NUL-terminated ASCII string.
+	 * @param file the contents of the file
+	 * @param at the file offset of the string
+	 * @return the string
+	 */
+	private static String readString(ByteBuffer file, int at) {
+		StringBuilder sb = new StringBuilder();
+		for (byte b = file.get(at); b != 0; b = file.get(++at))
+			sb.append((char) b);
+		return sb.toString();
+	}
+
+	public int getEntry() {
+		return mEntry;
+	}
+
+	public List<Segment> getSegments() {
+		return mSegments;
+	}
+
+	/**
+	 * Returns the symbols of the executable.
+	 * @return the symbols, or null if they were not loaded or the file has none
+	 */
+	public SymbolTable getSymbols() {
+		return mSymbols;
+	}
+}
@@ -0,0 +1,107 @@
+package simulator;
+
+/**
+ * Governor holds the limits of one run: a cycle budget, an instruction budget, a wall-clock limit and
+ * a CancellationToken. Pass it to Computer.execute() or Computer.executeThreaded(). Every limit is off
+ * until it is set.
+ * <p>
+ * The limits are checked at the end of every basic block, i.e. whenever a taken branch, jump or trap
+ * redirects the PC, and not on every cycle. A program cannot run without ending blocks for longer than
+ * its straight-line length, so a limit is overshot by at most one block.
+ * @author Egor Maksimenka
+ */
+public class Governor {
+
+	/** The maximum number of cycles, Long.MAX_VALUE for no limit. */
+	private long mMaxCycles = Long.MAX_VALUE;
+	/** The maximum number of instructions, Long.MAX_VALUE for no limit. */
+	private long mMaxInstructions = Long.MAX_VALUE;
+	/** The maximum wall-clock time in nanoseconds, Long.MAX_VALUE for no limit. */
+	private long mMaxNanos = Long.MAX_VALUE;
+	/** The token that cancels the run, null if it cannot be cancelled. */
+	private CancellationToken mToken;
+
+	/**
+	 * Limits the number of cycles. The threaded mode does not count cycles and rejects this budget.
+	 * @param maxCycles the maximum number of cycles
+	 * @exception IAG if maxCycles is negative
+	 */
+	public void setMaxCycles(long maxCycles) {
+		if (maxCycles < 0)
+			throw new IllegalArgumentException("Budget cannot be negative");
+		mMaxCycles = maxCycles;
+	}
+
+	/**
+	 * Limits the number of instructions. The threaded mode checks this one exactly.
+	 * @param maxInstructions the maximum number of instructions
+	 * @exception IAG if maxInstructions is negative
+	 */
+	public void setMaxInstructions(long maxInstructions) {
+		if (maxInstructions < 0)
+			throw new IllegalArgumentException("Budget cannot be negative");
+		mMaxInstructions = maxInstructions;
+	}
+
+	/**
+	 * Limits the wall-clock time of the run.
+	 * @param millis the maximum number of milliseconds
+	 * @exception IAG if millis is negative
+	 */
+	public void setTimeLimit(long millis) {
+		if (millis < 0)
+			throw new IllegalArgumentException("Budget cannot be negative");
+		mMaxNanos = millis >= Long.MAX_VALUE / 1_000_000 ? Long.MAX_VALUE : millis * 1_000_000;
+	}
+
+	public void setCancellationToken(CancellationToken token) {
+		mToken = token;
+	}
+
+	public long getMaxCycles() {
+		return mMaxCycles;
+	}
+
+	public long getMaxInstructions() {
+		return mMaxInstructions;
+	}
+
+	public CancellationToken getCancellationToken() {
+		return mToken;
+	}
+
+	/**
+	 * Computes when a run started now has to stop.
+	 * @param startNanos the System.nanoTime() the run started at
+	 * @return the System.nanoTime() deadline, Long.MAX_VALUE if there is no time limit
+	 */
+	long deadline(long startNanos) {
+		return mMaxNanos == Long.MAX_VALUE || startNanos + mMaxNanos < startNanos ? Long.MAX_VALUE
+				: startNanos + mMaxNanos;
+	}
+
+	/**
+	 * Checks the cancellation token.
+	 * @return true if the run has to stop because it was cancelled
+	 */
+	boolean isCancelled() {
+		return mToken != null && mToken.isCancelled();
+	}
+
+	/**
+	 * Checks the budgets at the end of a basic block.
+	 * @param cycles the cycles executed in this run so far
+	 * @param instructions the instructions executed in this run so far
+	 * @param deadline the deadline from deadline()
+	 * @return the budget that was exceeded, or null if the run may continue
+	 */
+	RunOutcome.Limit exceeded(long cycles, long instructions, long deadline) {
+		if (cycles > mMaxCycles)
+			return RunOutcome.Limit.CYCLES;
+		if (instructions > mMaxInstructions)
+			return RunOutcome.Limit.INSTRUCTIONS;
+		if (deadline != Long.MAX_VALUE && System.nanoTime() - deadline > 0)
+			return RunOutcome.Limit.WALL_CLOCK;
+		return null;
+	}
+}
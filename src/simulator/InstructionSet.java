@@ -0,0 +1,122 @@
+package simulator;
+
+/**
+ * InstructionSet holds the encodings of the supported instructions and the decode and ALU helpers
+ * Computer, ThreadedPipeline, ReferenceInterpreter and ProgramAnalysis share, so that all of them
+ * agree on what an instruction word means.
+ * @author Egor Maksimenka
+ */
+final class InstructionSet {
+
+	/** Op code for ADD, AND, JR and SYSCALL. */
+	static final int ADD_AND_JR_OP = 0;
+	/** Function code for ADD. */
+	static final int ADD_FUNC = 32;
+	/** Function code for AND. */
+	static final int AND_FUNC = 36;
+	/** Function code for JR. */
+	static final int JR_FUNC = 8;
+	/** Function code for SYSCALL. */
+	static final int SYSCALL_FUNC = 12;
+	/** Op code for ADDI. */
+	static final int ADDI_OP = 8;
+	/** Op code for ANDI. */
+	static final int ANDI_OP = 12;
+	/** Op code for LB. */
+	static final int LB_OP = 32;
+	/** Op code for LH. */
+	static final int LH_OP = 33;
+	/** Op code for LW. */
+	static final int LW_OP = 35;
+	/** Op code for LBU. */
+	static final int LBU_OP = 36;
+	/** Op code for LHU. */
+	static final int LHU_OP = 37;
+	/** Op code for SB. */
+	static final int SB_OP = 40;
+	/** Op code for SH. */
+	static final int SH_OP = 41;
+	/** Op code for SW. */
+	static final int SW_OP = 43;
+	/** Op code for BEQ. */
+	static final int BEQ_OP = 4;
+	/** Op code for J. */
+	static final int J_OP = 2;
+	/** Op code for MFC0, MTC0, and ERET. */
+	static final int COP0_OP = 16;
+	/** The rs field of MFC0. */
+	static final int MFC0_FORMAT = 0;
+	/** The rs field of MTC0. */
+	static final int MTC0_FORMAT = 4;
+	/** The rs field of ERET. */
+	static final int CO_FORMAT = 16;
+	/** Function code for ERET. */
+	static final int ERET_FUNC = 24;
+
+	/** The register holding the SYSCALL service number, $v0. */
+	static final int SYSCALL_SERVICE_REG = 2;
+	/** The register holding the SYSCALL argument, $a0. */
+	static final int SYSCALL_ARG_REG = 4;
+	/** SYSCALL service printing $a0 as a decimal number. */
+	static final int PRINT_INT_SERVICE = 1;
+	/** SYSCALL service ending the program with exit code 0. */
+	static final int EXIT_SERVICE = 10;
+	/** SYSCALL service printing the low byte of $a0 as a character. */
+	static final int PRINT_CHAR_SERVICE = 11;
+	/** SYSCALL service ending the program with exit code $a0. */
+	static final int EXIT2_SERVICE = 17;
+
+	private InstructionSet() {
+	}
+
+	/**
+	 * Checks if an instruction is BEQ, J or JR, the instructions with a delay slot in delay-slot mode
+	 * and that ID may resolve.
+	 * @param word the instruction word
+	 * @return true for a branch or jump other than ERET
+	 */
+	static boolean isDelayedBranch(int word) {
+		int op = word >>> 26;
+		return op == BEQ_OP || op == J_OP || (op == ADD_AND_JR_OP && (word & 0x3F) == JR_FUNC);
+	}
+
+	/**
+	 * Checks if an op code is LB, LH, LW, LBU or LHU.
+	 * @param op the op code
+	 * @return true for a load
+	 */
+	static boolean isLoad(int op) {
+		return op == LW_OP || op == LB_OP || op == LBU_OP || op == LH_OP || op == LHU_OP;
+	}
+
+	/**
+	 * Checks if an op code is SB, SH or SW.
+	 * @param op the op code
+	 * @return true for a store
+	 */
+	static boolean isStore(int op) {
+		return op == SW_OP || op == SB_OP || op == SH_OP;
+	}
+
+	/**
+	 * Returns the number of bytes a load or store accesses. The low two bits of the op code encode it:
+	 * 0 for a byte, 1 for a halfword, 3 for a word.
+	 * @param op the op code of a load or store
+	 * @return 1, 2 or 4
+	 */
+	static int accessSize(int op) {
+		int width = op & 3;
+		return width == 3 ? 4 : width + 1;
+	}
+
+	/**
+	 * Checks for signed overflow of an addition.
+	 * @param val1 first value
+	 * @param val2 second value
+	 * @return true if val1 + val2 overflows
+	 */
+	static boolean overflows(int val1, int val2) {
+		int sum = val1 + val2;
+		return ((val1 ^ sum) & (val2 ^ sum)) < 0;
+	}
+}
@@ -0,0 +1,111 @@
+package simulator;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LatchRingBuffer is a lock-free single-producer/single-consumer queue of pipeline latches, used
+ * to hand instructions from one stage thread to the next. The slots are allocated once and reused:
+ * the producer fills the slot returned by claim() and hands it over with publish(), the consumer
+ * reads the slot returned by peek() and gives it back with release().
+ * @author Egor Maksimenka
+ */
+class LatchRingBuffer {
+
+	/** Number of busy-wait iterations before a waiting stage starts yielding its core. */
+	static final int SPINS_BEFORE_YIELD = 128;
+
+	/** The preallocated slots, a power of two in length. */
+	private final ThreadedPipeline.Latch[] mSlots;
+	/** mSlots.length - 1, used to map a sequence number to a slot. */
+	private final int mMask;
+	/** Sequence number of the next slot the consumer reads. Written by the consumer only. */
+	private final AtomicLong mHead = new AtomicLong();
+	/** Sequence number of the next slot the producer fills. Written by the producer only. */
+	private final AtomicLong mTail = new AtomicLong();
+	/** The producer's cached copy of mHead, refreshed only when the buffer looks full. */
+	private long mCachedHead;
+	/** The consumer's cached copy of mTail, refreshed only when the buffer looks empty. */
+	private long mCachedTail;
+	/** The pipeline this buffer belongs to, checked while waiting so a stopped or stuck run never hangs. */
+	private final ThreadedPipeline mPipeline;
+
+	/**
+	 * Creates a buffer.
+	 * @param capacity the number of slots, must be a power of two
+	 * @param pipeline the pipeline that decides when waiting is over
+	 * @exception IAG if capacity is not a positive power of two
+	 */
+	LatchRingBuffer(int capacity, ThreadedPipeline pipeline) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1)
+			throw new IllegalArgumentException("Capacity must be a power of two");
+		mSlots = new ThreadedPipeline.Latch[capacity];
+		for (int i = 0; i < capacity; i++)
+			mSlots[i] = new ThreadedPipeline.Latch();
+		mMask = capacity - 1;
+		mPipeline = pipeline;
+	}
+
+	/**
+	 * Waits for a free slot. Producer side only.
+	 * @return the slot to fill, or null if the pipeline stopped while waiting
+	 */
+	ThreadedPipeline.Latch claim() {
+		long tail = mTail.get();
+		int spins = 0;
+		while (tail - mCachedHead == mSlots.length) {
+			mCachedHead = mHead.get();
+			if (tail - mCachedHead < mSlots.length)
+				break;
+			if (mPipeline.isWaitOver(spins))
+				return null;
+			spins = backOff(spins);
+		}
+		return mSlots[(int) tail & mMask];
+	}
+
+	/**
+	 * Hands the slot returned by the last claim() over to the consumer. Producer side only.
+	 */
+	void publish() {
+		mTail.lazySet(mTail.get() + 1);
+	}
+
+	/**
+	 * Waits for a filled slot. Consumer side only.
+	 * @return the oldest filled slot, or null if the pipeline stopped while waiting
+	 */
+	ThreadedPipeline.Latch peek() {
+		long head = mHead.get();
+		int spins = 0;
+		while (head == mCachedTail) {
+			mCachedTail = mTail.get();
+			if (head < mCachedTail)
+				break;
+			if (mPipeline.isWaitOver(spins))
+				return null;
+			spins = backOff(spins);
+		}
+		return mSlots[(int) head & mMask];
+	}
+
+	/**
+	 * Gives the slot returned by the last peek() back to the producer. Consumer side only.
+	 */
+	void release() {
+		mHead.lazySet(mHead.get() + 1);
+	}
+
+	/**
+	 * Waits briefly before polling again: busy-spins at first, then yields so that the pipeline
+	 * still makes progress on hosts with fewer cores than stages.
+	 * @param spins the number of times the caller has waited so far
+	 * @return the updated number of waits
+	 */
+	static int backOff(int spins) {
+		if (spins < SPINS_BEFORE_YIELD)
+			Thread.onSpinWait();
+		else
+			Thread.yield();
+		return spins + 1;
+	}
+}
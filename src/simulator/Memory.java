@@ -0,0 +1,153 @@
+package simulator;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Memory is the byte-addressed data memory of a Computer, backed by a heap ByteBuffer. Words,
+ * halfwords and bytes are read and written in place, so every address is usable and a word costs four
+ * bytes. The byte order is big-endian like MIPS executables by default and can be switched to
+ * little-endian; it decides how the bytes of a word or halfword are laid out, not how words are read.
+ * <p>
+ * Callers check alignment and bounds before they access memory, see Computer's address error traps;
+ * an access outside of memory is a host error here.
+ * <p>
+ * Every store marks its PAGE_SIZE page dirty, so that clear() only has to zero the pages written
+ * since the last clear and costs nothing for the memory a program never touched.
+ * @author Egor Maksimenka
+ */
+public class Memory {
+
+	/** The granularity of dirty tracking in bytes. A multiple of 4, so that no aligned access spans two pages. */
+	public static final int PAGE_SIZE = 64;
+
+	/** The contents. */
+	private final ByteBuffer mBytes;
+	/** One bit per page that may hold a byte other than 0. */
+	private final long[] mDirtyPages;
+
+	/**
+	 * Creates a big-endian memory with every byte set to 0.
+	 * @param size the number of bytes
+	 * @exception IAG if size is not a positive multiple of 4
+	 */
+	public Memory(int size) {
+		if (size <= 0 || size % 4 != 0)
+			throw new IllegalArgumentException("Memory size must be a positive multiple of 4");
+		mBytes = ByteBuffer.allocate(size);
+		mDirtyPages = new long[((size + PAGE_SIZE - 1) / PAGE_SIZE + 63) / 64];
+	}
+
+	public int size() {
+		return mBytes.capacity();
+	}
+
+	public ByteOrder getByteOrder() {
+		return mBytes.order();
+	}
+
+	/**
+	 * Selects how words and halfwords are laid out in bytes. The bytes in memory stay as they are.
+	 * @param order ByteOrder.BIG_ENDIAN or ByteOrder.LITTLE_ENDIAN
+	 */
+	public void setByteOrder(ByteOrder order) {
+		mBytes.order(order);
+	}
+
+	/**
+	 * Loads a word.
+	 * @param addr a word-aligned address
+	 * @return the word
+	 */
+	public int loadWord(int addr) {
+		return mBytes.getInt(addr);
+	}
+
+	/**
+	 * Stores a word.
+	 * @param addr a word-aligned address
+	 * @param value the word
+	 */
+	public void storeWord(int addr, int value) {
+		markDirty(addr);
+		mBytes.putInt(addr, value);
+	}
+
+	/**
+	 * Loads a word, halfword or byte.
+	 * @param addr an address aligned to size
+	 * @param size 4, 2 or 1
+	 * @param signed true to sign-extend a halfword or byte, false to zero-extend it
+	 * @return the value, extended to 32 bits
+	 */
+	public int load(int addr, int size, boolean signed) {
+		if (size == 4)
+			return mBytes.getInt(addr);
+		if (size == 2)
+			return signed ? mBytes.getShort(addr) : mBytes.getShort(addr) & 0xFFFF;
+		return signed ? mBytes.get(addr) : mBytes.get(addr) & 0xFF;
+	}
+
+	/**
+	 * Stores a word, halfword or byte.
+	 * @param addr an address aligned to size
+	 * @param size 4, 2 or 1
+	 * @param value the value; a halfword or byte store keeps its low bits
+	 */
+	public void store(int addr, int size, int value) {
+		markDirty(addr);
+		if (size == 4)
+			mBytes.putInt(addr, value);
+		else if (size == 2)
+			mBytes.putShort(addr, (short) value);
+		else
+			mBytes.put(addr, (byte) value);
+	}
+
+	/**
+	 * Copies bytes into memory as they are, regardless of the byte order.
+	 * @param addr the address of the first byte
+	 * @param bytes the bytes
+	 */
+	public void storeBytes(int addr, byte[] bytes) {
+		for (int i = 0; i < bytes.length; i++) {
+			markDirty(addr + i);
+			mBytes.put(addr + i, bytes[i]);
+		}
+	}
+
+	/**
+	 * Sets every byte to 0 by zeroing the dirty pages. The byte order stays.
+	 */
+	public void clear() {
+		byte[] bytes = mBytes.array();
+		for (int w = 0; w < mDirtyPages.length; w++) {
+			for (long bits = mDirtyPages[w]; bits != 0; bits &= bits - 1) {
+				int start = (64 * w + Long.numberOfTrailingZeros(bits)) * PAGE_SIZE;
+				Arrays.fill(bytes, start, Math.min(start + PAGE_SIZE, bytes.length), (byte) 0);
+			}
+			mDirtyPages[w] = 0;
+		}
+	}
+
+	/**
+	 * Private helper method. Marks the page of an address dirty.
+	 * @param addr the address
+	 */
+	private void markDirty(int addr) {
+		int page = addr / PAGE_SIZE;
+		mDirtyPages[page >>> 6] |= 1L << page;
+	}
+
+	/**
+	 * Reads the whole memory as words in the current byte order, e.g. to compare two memories.
+	 * @return the word at address 4 * i at index i
+	 */
+	public int[] toWords() {
+		int[] words = new int[size() / 4];
+		for (int i = 0; i < words.length; i++)
+			words[i] = mBytes.getInt(4 * i);
+		return words;
+	}
+}
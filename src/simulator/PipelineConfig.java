@@ -0,0 +1,192 @@
+package simulator;
+
+/**
+ * PipelineConfig holds the microarchitecture parameters of the cycle-stepped pipeline: whether EX
+ * forwards results, which stage resolves branches, how many cycles a taken branch costs, how long MEM
+ * takes for a load or store, how long EX takes per functional unit, and how many pipeline stages IF, EX
+ * and MEM are split into. Attach it with Computer.setPipelineConfig(). The defaults describe the classic
+ * five-stage pipeline Computer has always modeled, and none of the parameters change what a program
+ * computes, only how many cycles it takes.
+ * <p>
+ * A configuration is only read while a program runs, so one instance may be shared by Computers on
+ * different threads as long as nobody changes it meanwhile. The threaded mode ignores it.
+ * @author Egor Maksimenka
+ */
+public class PipelineConfig {
+
+	/**
+	 * The functional units of EX, each with its own latency.
+	 */
+	public enum Unit {
+		/** ADD and ADDI. */
+		ADDER,
+		/** AND and ANDI. */
+		LOGIC,
+		/** BEQ, J, JR and ERET. */
+		BRANCH,
+		/** The address calculation of loads and stores. */
+		ADDRESS
+	}
+
+	/**
+	 * The stages that can be split into a pipeline of their own. Unlike a latency, which holds the
+	 * stage and the stages behind it, a split stage takes a new instruction every cycle.
+	 */
+	public enum Stage {
+		/** IF: the instruction memory. Every stage of it adds a cycle to every taken branch and exception. */
+		FETCH,
+		/**
+		 * EX: the functional units. Every stage of it adds a cycle before a result can be forwarded, and to
+		 * every taken branch EX resolves.
+		 */
+		EXECUTE,
+		/** MEM: the data memory. Every stage of it adds a cycle before a loaded value can be used. */
+		MEMORY
+	}
+
+	/** The most pipeline stages IF, EX or MEM can be split into. */
+	public static final int MAX_DEPTH = 4;
+
+	/** True if EX forwards the result of the instruction directly ahead. */
+	private boolean mForwarding = true;
+	/** True if BEQ, J and JR are resolved in ID instead of EX. */
+	private boolean mEarlyBranches;
+	/** The cycles a taken branch or jump costs, including the squashed fetch. */
+	private int mBranchPenalty = 1;
+	/** The cycles MEM takes for a load or store. */
+	private int mMemoryLatency = 1;
+	/** The cycles EX takes per unit, indexed by ordinal. */
+	private final int[] mLatencies = {1, 1, 1, 1};
+	/** The pipeline stages per split stage, indexed by ordinal. */
+	private final int[] mDepths = {1, 1, 1};
+
+	/**
+	 * Turns forwarding on or off. Without it, an instruction that reads the result of the instruction
+	 * directly ahead waits in EX until that result is written back, the same way it always waits for a load.
+	 * @param forwarding true to forward, the default
+	 */
+	public void setForwarding(boolean forwarding) {
+		mForwarding = forwarding;
+	}
+
+	/**
+	 * Moves the resolution of BEQ, J and JR from EX to ID, which gets a comparator of its own and
+	 * forwarding from MEM. A taken branch then costs one cycle less than the branch penalty, but a branch
+	 * that reads the result of the instruction directly ahead waits one cycle for it in ID, two if that
+	 * instruction is a load, and one if a load two ahead loads it. Without forwarding, it waits until the
+	 * result is written back. ERET and branches whose target faults are still resolved in EX.
+	 * @param early true to resolve in ID, false for EX, the default
+	 */
+	public void setEarlyBranches(boolean early) {
+		mEarlyBranches = early;
+	}
+
+	/**
+	 * Sets the cost of a taken branch, jump or ERET: the fetch squashed behind it plus the cycles IF waits
+	 * before fetching from the target.
+	 * @param cycles the number of cycles lost, 1 by default
+	 * @exception IAG if cycles is less than 1
+	 */
+	public void setBranchPenalty(int cycles) {
+		if (cycles < 1)
+			throw new IllegalArgumentException("Branch penalty must be at least 1 cycle");
+		mBranchPenalty = cycles;
+	}
+
+	/**
+	 * Sets how many cycles MEM takes for a load or store. The stages behind MEM stall meanwhile.
+	 * @param cycles the latency, 1 by default
+	 * @exception IAG if cycles is less than 1
+	 */
+	public void setMemoryLatency(int cycles) {
+		if (cycles < 1)
+			throw new IllegalArgumentException("Latency must be at least 1 cycle");
+		mMemoryLatency = cycles;
+	}
+
+	/**
+	 * Sets how many cycles EX takes for the instructions of one functional unit. IF and ID stall meanwhile.
+	 * @param unit the functional unit
+	 * @param cycles the latency, 1 by default
+	 * @exception IAG if cycles is less than 1
+	 */
+	public void setLatency(Unit unit, int cycles) {
+		if (cycles < 1)
+			throw new IllegalArgumentException("Latency must be at least 1 cycle");
+		mLatencies[unit.ordinal()] = cycles;
+	}
+
+	/**
+	 * Splits IF, EX or MEM into several pipeline stages. Only the first stage of IF reads the instruction
+	 * memory and only the first of EX computes, while only the last stage of MEM accesses the data memory;
+	 * the others pass the instruction on. A result can be forwarded once it has left the last stage of EX,
+	 * a loaded value only once it has been written back, and a taken branch resolved in EX redirects IF at
+	 * the end of the last stage of EX, so that what IF fetched meanwhile is squashed. Exceptions are taken
+	 * in the first stage of EX. The latencies of MEM and of the functional units apply to the stage doing
+	 * the work, on top of the split.
+	 * @param stage the stage
+	 * @param stages the number of pipeline stages, 1 by default
+	 * @exception IAG if stages is less than 1 or more than MAX_DEPTH
+	 */
+	public void setDepth(Stage stage, int stages) {
+		if (stages < 1 || stages > MAX_DEPTH)
+			throw new IllegalArgumentException("A stage is split into 1 to " + MAX_DEPTH + " stages");
+		mDepths[stage.ordinal()] = stages;
+	}
+
+	public boolean isForwarding() {
+		return mForwarding;
+	}
+
+	public boolean isEarlyBranches() {
+		return mEarlyBranches;
+	}
+
+	public int getBranchPenalty() {
+		return mBranchPenalty;
+	}
+
+	public int getMemoryLatency() {
+		return mMemoryLatency;
+	}
+
+	public int getLatency(Unit unit) {
+		return mLatencies[unit.ordinal()];
+	}
+
+	public int getDepth(Stage stage) {
+		return mDepths[stage.ordinal()];
+	}
+
+	/**
+	 * Counts the pipeline stages from the first stage of IF to WB.
+	 * @return 5 unless a stage is split
+	 */
+	public int getStageCount() {
+		return mDepths[0] + mDepths[1] + mDepths[2] + 2;
+	}
+
+	/**
+	 * Describes the configuration on one line.
+	 * @return e.g. "forwarding on, branch 1, memory 1, adder 1, logic 1, branch unit 1, address 1", with
+	 * e.g. ", 2 execute stages" for every split stage and ", branches in ID" at the end if they are
+	 * resolved early
+	 */
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("forwarding ").append(mForwarding ? "on" : "off")
+				.append(", branch ").append(mBranchPenalty).append(", memory ").append(mMemoryLatency);
+		for (Unit unit : Unit.values()) {
+			sb.append(", ").append(unit == Unit.BRANCH ? "branch unit" : unit.name().toLowerCase())
+					.append(' ').append(getLatency(unit));
+		}
+		for (Stage stage : Stage.values()) {
+			if (getDepth(stage) > 1)
+				sb.append(", ").append(getDepth(stage)).append(' ').append(stage.name().toLowerCase())
+						.append(" stages");
+		}
+		if (mEarlyBranches)
+			sb.append(", branches in ID");
+		return sb.toString();
+	}
+}
@@ -0,0 +1,263 @@
+package simulator;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Profiler collects where a guest program spends its cycles. Attach it with Computer.setProfiler()
+ * before running the program. Every cycle is charged to exactly one instruction:
+ * <ul>
+ *   <li>a cycle in which an instruction retires is charged to that instruction,</li>
+ *   <li>a cycle lost to a load-use stall is charged to the load,</li>
+ *   <li>a cycle lost to a squashed fetch is charged to the taken branch or jump,</li>
+ *   <li>cycles spent filling and draining the pipeline are charged to no instruction.</li>
+ * </ul>
+ * Taken BEQs and Js that go backwards are recorded as loop back edges; the loop spans the
+ * instructions from the branch target to the branch. With a SymbolTable attached, reports name
+ * the function each instruction belongs to.
+ * @author Egor Maksimenka
+ */
+public class Profiler {
+
+	/** Executions per instruction index. */
+	private final long[] mExecutions = new long[Computer.MAX_INSTRUCTIONS];
+	/** Cycles charged per instruction index, stall cycles included. */
+	private final long[] mCycles = new long[Computer.MAX_INSTRUCTIONS];
+	/** Stall and flush cycles charged per instruction index. */
+	private final long[] mStallCycles = new long[Computer.MAX_INSTRUCTIONS];
+	/** The last instruction word seen retiring per instruction index, for disassembly. */
+	private final int[] mWords = new int[Computer.MAX_INSTRUCTIONS];
+	/** For each backward branch, indexed by the branch, the index of its target. -1 if none. */
+	private final int[] mLoopHeader = new int[Computer.MAX_INSTRUCTIONS];
+	/** For each backward branch, the number of times it was taken. */
+	private final long[] mLoopIterations = new long[Computer.MAX_INSTRUCTIONS];
+	/** Cycles not charged to any instruction. */
+	private long mIdleCycles;
+	/** Names the instructions in reports, null to report plain addresses. */
+	private SymbolTable mSymbols;
+
+	/**
+	 * A loop, identified by its back edge.
+	 */
+	public static class Loop {
+		/** The address of the first instruction of the loop, the back edge's target. */
+		public final int header;
+		/** The address of the branch closing the loop. */
+		public final int latch;
+		/** The number of times the back edge was taken. */
+		public final long iterations;
+		/** The cycles charged to instructions between header and latch. */
+		public final long cycles;
+
+		Loop(int header, int latch, long iterations, long cycles) {
+			this.header = header;
+			this.latch = latch;
+			this.iterations = iterations;
+			this.cycles = cycles;
+		}
+
+		boolean contains(int pc) {
+			return pc >= header && pc <= latch;
+		}
+
+		@Override
+		public String toString() {
+			return "loop " + Disassembler.hex(header) + "-" + Disassembler.hex(latch);
+		}
+	}
+
+	public Profiler() {
+		reset();
+	}
+
+	/**
+	 * Discards everything collected so far.
+	 */
+	public void reset() {
+		Arrays.fill(mExecutions, 0);
+		Arrays.fill(mCycles, 0);
+		Arrays.fill(mStallCycles, 0);
+		Arrays.fill(mWords, 0);
+		Arrays.fill(mLoopHeader, -1);
+		Arrays.fill(mLoopIterations, 0);
+		mIdleCycles = 0;
+	}
+
+	/**
+	 * Charges a cycle to an instruction retiring in WB.
+	 * @param pc the address of the instruction
+	 * @param word the instruction word
+	 */
+	void recordRetire(int pc, int word) {
+		int index = pc / 4;
+		mExecutions[index]++;
+		mCycles[index]++;
+		mWords[index] = word;
+	}
+
+	/**
+	 * Charges a cycle in which WB received a bubble.
+	 * @param causePC the address of the instruction that caused the bubble, or -1 for pipeline fill and drain
+	 */
+	void recordBubble(int causePC) {
+		if (causePC < 0) {
+			mIdleCycles++;
+			return;
+		}
+		int index = causePC / 4;
+		mCycles[index]++;
+		mStallCycles[index]++;
+	}
+
+	/**
+	 * Records a taken branch or jump. Only backward edges are kept.
+	 * @param fromPC the address of the branch or jump
+	 * @param toPC the target address
+	 */
+	void recordBranch(int fromPC, int toPC) {
+		if (toPC > fromPC)
+			return;
+		int index = fromPC / 4;
+		mLoopHeader[index] = toPC / 4;
+		mLoopIterations[index]++;
+	}
+
+	/**
+	 * Attaches symbols to name the instructions in reports, e.g. Computer.getSymbols().
+	 * @param symbols the symbols, or null to report plain addresses
+	 */
+	public void setSymbols(SymbolTable symbols) {
+		mSymbols = symbols;
+	}
+
+	public long getExecutions(int pc) {
+		return mExecutions[pc / 4];
+	}
+
+	public long getCycles(int pc) {
+		return mCycles[pc / 4];
+	}
+
+	public long getStallCycles(int pc) {
+		return mStallCycles[pc / 4];
+	}
+
+	/**
+	 * Returns the total number of cycles profiled.
+	 * @return every cycle, charged or not
+	 */
+	public long getTotalCycles() {
+		long total = mIdleCycles;
+		for (long cycles : mCycles)
+			total += cycles;
+		return total;
+	}
+
+	/**
+	 * Returns the total number of instructions retired.
+	 * @return the number of instructions
+	 */
+	public long getTotalInstructions() {
+		long total = 0;
+		for (long executions : mExecutions)
+			total += executions;
+		return total;
+	}
+
+	/**
+	 * Returns the loops found so far, hottest first.
+	 * @return the loops
+	 */
+	public List<Loop> getLoops() {
+		List<Loop> loops = new ArrayList<>();
+		for (int latch = 0; latch < mLoopHeader.length; latch++) {
+			int header = mLoopHeader[latch];
+			if (header < 0)
+				continue;
+			long cycles = 0;
+			for (int i = header; i <= latch; i++)
+				cycles += mCycles[i];
+			loops.add(new Loop(4 * header, 4 * latch, mLoopIterations[latch], cycles));
+		}
+		loops.sort(Comparator.comparingLong((Loop loop) -> loop.cycles).reversed());
+		return loops;
+	}
+
+	/**
+	 * Builds a human-readable report of the hottest instructions and loops.
+	 * @param top the maximum number of instructions and loops to list
+	 * @return the report
+	 */
+	public String report(int top) {
+		long total = getTotalCycles();
+		long instructions = getTotalInstructions();
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%d cycles, %d instructions, CPI %.3f, %d fill/drain cycles%n", total, instructions,
+				instructions == 0 ? 0.0 : (double) total / instructions, mIdleCycles));
+
+		sb.append(String.format("%nHottest instructions:%n%-24s %-24s %10s %10s %10s %7s%n", "pc", "instruction",
+				"executed", "cycles", "stalls", "%"));
+		Integer[] order = new Integer[mCycles.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, Comparator.comparingLong((Integer i) -> mCycles[i]).reversed());
+		for (int n = 0; n < Math.min(top, order.length) && mCycles[order[n]] > 0; n++) {
+			int i = order[n];
+			sb.append(String.format("%-24s %-24s %10d %10d %10d %6.2f%%%n", describe(4 * i),
+					Disassembler.disassemble(mWords[i]), mExecutions[i], mCycles[i], mStallCycles[i],
+					100.0 * mCycles[i] / total));
+		}
+
+		List<Loop> loops = getLoops();
+		sb.append(String.format("%nHottest loops:%n%-40s %10s %10s %7s%n", "loop", "iterations", "cycles", "%"));
+		for (int n = 0; n < Math.min(top, loops.size()); n++) {
+			Loop loop = loops.get(n);
+			sb.append(String.format("%-40s %10d %10d %6.2f%%%n", describe(loop.header) + "-" + describe(loop.latch),
+					loop.iterations, loop.cycles, 100.0 * loop.cycles / total));
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Private helper method. Formats an instruction address for reports.
+	 * @param pc the address
+	 * @return the address, followed by its symbol if symbols are attached
+	 */
+	private String describe(int pc) {
+		if (mSymbols == null || mSymbols.lookup(pc) == null)
+			return Disassembler.hex(pc);
+		return Disassembler.hex(pc) + " <" + mSymbols.format(pc) + ">";
+	}
+
+	/**
+	 * Writes the profile in the collapsed-stack format flame graph tools read: one line per instruction
+	 * with its function, if symbols are attached, and the loops enclosing it as its callers, outermost
+	 * first, followed by its cycle count.
+	 * @param out where to write the stacks
+	 * @throws IOException if writing fails
+	 */
+	public void writeCollapsedStacks(Appendable out) throws IOException {
+		List<Loop> loops = getLoops();
+		// Widest loops first, so enclosing loops come before the loops nested in them.
+		loops.sort(Comparator.comparingInt((Loop loop) -> loop.latch - loop.header).reversed());
+		if (mIdleCycles > 0)
+			out.append("program;[pipeline fill/drain] ").append(Long.toString(mIdleCycles)).append('\n');
+		for (int i = 0; i < mCycles.length; i++) {
+			if (mCycles[i] == 0)
+				continue;
+			int pc = 4 * i;
+			out.append("program");
+			if (mSymbols != null && mSymbols.lookup(pc) != null)
+				out.append(';').append(mSymbols.lookup(pc));
+			for (Loop loop : loops) {
+				if (loop.contains(pc))
+					out.append(';').append(loop.toString());
+			}
+			out.append(';').append(Disassembler.hex(pc)).append(' ').append(Disassembler.disassemble(mWords[i]))
+					.append(' ').append(Long.toString(mCycles[i])).append('\n');
+		}
+	}
+}
@@ -0,0 +1,1065 @@
+package simulator;
+
+import static simulator.InstructionSet.*;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ProgramAnalysis is a static analysis of a loaded program for the five-stage pipeline. It splits the
+ * instruction space into basic blocks linked into a control flow graph, finds the registers every block
+ * needs on entry and leaves live on exit, the load-use hazards the pipeline stalls on, and the blocks
+ * that cannot be reached. Computer runs it whenever a program is loaded if setStaticAnalysis() or
+ * setScheduling() is on, see Computer.getAnalysis().
+ * <p>
+ * The control flow graph follows BEQ, J and falling through. JR and ERET jump to addresses only known
+ * at run time, so every register is live after them, and no block is reported unreachable once one of
+ * them can be reached. Exceptions are not edges; the guest handlers are roots like the entry point.
+ * Nothing is live once the program ends. In delay-slot mode a block ends after the delay slot of its
+ * branch, see Computer.setDelaySlots(); the mode has to be set before the program is loaded.
+ * <p>
+ * schedule() reorders instructions within basic blocks so that fewer of them wait for a load, and
+ * predict() counts the cycles the cycle-stepped pipeline will take for the program, whether branches
+ * are resolved in EX or in ID, see PipelineConfig.setEarlyBranches().
+ * @author Egor Maksimenka
+ */
+public class ProgramAnalysis {
+
+	/** Every register but $zero, which is never written and so never carries a dependence. */
+	private static final int ALL_REGISTERS = ~1;
+	/** The number of cause codes whose handlers are roots. */
+	private static final int CAUSES = 32;
+	/** The most instructions between a producer and a consumer that a hazard may span. */
+	private static final int MAX_DISTANCE = 2 * PipelineConfig.MAX_DEPTH;
+
+	/**
+	 * A basic block: a run of instructions that is only entered at its first instruction and only
+	 * left after its last one, unless an instruction faults.
+	 */
+	public static class Block {
+		/** The address of the first instruction. */
+		public final int start;
+		/** The address after the last instruction. */
+		public final int end;
+		/** The first addresses of the blocks control continues at, not counting JR and ERET targets. */
+		public final int[] successors;
+		/** True if the block ends with JR or ERET, or with the delay slot of a JR. */
+		public final boolean indirect;
+		/** True if a path leads here from the entry point or a handler. */
+		public final boolean reachable;
+		/** The registers live on entry, bit i for register i. */
+		public final int liveIn;
+		/** The registers live on exit, bit i for register i. */
+		public final int liveOut;
+
+		Block(int start, int end, int[] successors, boolean indirect, boolean reachable, int liveIn, int liveOut) {
+			this.start = start;
+			this.end = end;
+			this.successors = successors;
+			this.indirect = indirect;
+			this.reachable = reachable;
+			this.liveIn = liveIn;
+			this.liveOut = liveOut;
+		}
+	}
+
+	/**
+	 * An instruction reading the register written by an instruction ahead of it, with no other write to
+	 * the register in between. A result can be forwarded once it has left the last stage of EX, a loaded
+	 * value, or any result when forwarding is off, only once it has been written back. A branch resolved
+	 * in ID needs its operands a cycle earlier. With the default five stages, the pipeline stalls a cycle
+	 * in EX on the instruction directly ahead if it is a load, or for any producer when forwarding is off;
+	 * a branch resolved in ID stalls behind any producer directly ahead, for two cycles behind a load or
+	 * without forwarding, and a cycle behind a load two ahead.
+	 */
+	public static class Hazard {
+		/** The address of the instruction writing the register. */
+		public final int producer;
+		/** The address of the instruction reading it, producer + 4 * distance. */
+		public final int consumer;
+		/** The register. */
+		public final int register;
+		/** True if the producer is a load, whose result cannot be forwarded. */
+		public final boolean load;
+		/** 1 if the producer is directly ahead of the consumer, 2 if an instruction separates them, and so on. */
+		public final int distance;
+		/** True if the consumer is a BEQ or JR outside a delay slot, which may be resolved in ID. */
+		public final boolean branch;
+
+		Hazard(int producer, int consumer, int register, boolean load, int distance, boolean branch) {
+			this.producer = producer;
+			this.consumer = consumer;
+			this.register = register;
+			this.load = load;
+			this.distance = distance;
+			this.branch = branch;
+		}
+
+		/**
+		 * Counts the cycles the pipeline stalls on the hazard when the instructions between producer and
+		 * consumer take a cycle each.
+		 * @param config the pipeline configuration
+		 * @return the cycles it costs every time the producer falls through to the consumer
+		 */
+		public int stallCycles(PipelineConfig config) {
+			int cycles = resultDelay(load, config) - distance;
+			if (branch && config.isEarlyBranches())
+				cycles++;
+			return Math.max(0, cycles);
+		}
+
+		/**
+		 * Checks whether the hazard matters with a pipeline configuration: whether the producer is still in
+		 * the pipeline when the consumer needs the register, if nothing stalls in between.
+		 * @param config the pipeline configuration
+		 * @return true if the consumer could read the register before it is written back
+		 */
+		public boolean isInWindow(PipelineConfig config) {
+			return distance <= resultDelay(true, config) - (branch ? 0 : 1);
+		}
+
+		/**
+		 * Checks whether the pipeline stalls on the hazard.
+		 * @param config the pipeline configuration
+		 * @return true if it costs a cycle every time the producer falls through to the consumer
+		 */
+		public boolean stalls(PipelineConfig config) {
+			return stallCycles(config) > 0;
+		}
+	}
+
+	/**
+	 * The cycles predict() expects the cycle-stepped pipeline to take, split up by where they go.
+	 */
+	public static class Prediction {
+		/** The instructions that enter EX, including a faulting one. */
+		public final long instructions;
+		/** The cycles spent waiting for the result of an instruction ahead, in EX or in ID. */
+		public final long hazardStalls;
+		/** The cycles lost behind taken branches, jumps, ERETs and exceptions, and to NOPs in delay slots. */
+		public final long branchCycles;
+		/** The cycles functional units and MEM take beyond one. */
+		public final long latencyCycles;
+		/** The predicted total. */
+		public final long cycles;
+
+		Prediction(long instructions, long hazardStalls, long branchCycles, long latencyCycles, long cycles) {
+			this.instructions = instructions;
+			this.hazardStalls = hazardStalls;
+			this.branchCycles = branchCycles;
+			this.latencyCycles = latencyCycles;
+			this.cycles = cycles;
+		}
+
+		/**
+		 * Describes the prediction on one line.
+		 * @return e.g. "61 cycles: 47 instructions, 2 hazard stalls, 8 branch cycles, 0 latency cycles"
+		 */
+		@Override
+		public String toString() {
+			return cycles + " cycles: " + instructions + " instructions, " + hazardStalls + " hazard stalls, "
+					+ branchCycles + " branch cycles, " + latencyCycles + " latency cycles";
+		}
+	}
+
+	/** The analyzed instruction space, the instruction at address 4 * i at index i. */
+	private final int[] mWords;
+	/** The basic blocks in address order. */
+	private final List<Block> mBlocks;
+	/** The load-use and read-after-write hazards in address order. */
+	private final List<Hazard> mHazards;
+	/** True if a reachable block ends with JR or ERET, so that reachability is unknown. */
+	private final boolean mIndirect;
+	/** True if the program was analyzed for delay-slot mode. */
+	private final boolean mDelaySlots;
+
+	/**
+	 * Private constructor, see analyze().
+	 */
+	private ProgramAnalysis(int[] words, List<Block> blocks, List<Hazard> hazards, boolean indirect,
+			boolean delaySlots) {
+		mWords = words;
+		mBlocks = Collections.unmodifiableList(blocks);
+		mHazards = Collections.unmodifiableList(hazards);
+		mIndirect = indirect;
+		mDelaySlots = delaySlots;
+	}
+
+	/**
+	 * Analyzes the program loaded into a Computer, starting at its PC and its guest handlers, in the
+	 * Computer's delay-slot mode.
+	 * @param computer the computer, before the program runs
+	 * @return the analysis
+	 */
+	public static ProgramAnalysis analyze(Computer computer) {
+		List<Integer> roots = new ArrayList<>();
+		roots.add(computer.getPC().getValue());
+		for (int cause = 0; cause < CAUSES; cause++) {
+			int handler = computer.getCoprocessor0().getHandler(cause);
+			if (handler >= 0)
+				roots.add(handler);
+		}
+		int[] entries = new int[roots.size()];
+		for (int i = 0; i < entries.length; i++)
+			entries[i] = roots.get(i);
+		return analyze(computer.getInstructionWords(), entries, computer.isDelaySlots());
+	}
+
+	/**
+	 * Analyzes a program.
+	 * @param words the instruction at address 4 * i at index i, a word of 0 marks the end of the program
+	 * @param roots the addresses control may start at: the entry point and the guest handlers
+	 * @return the analysis
+	 * @exception IAG if the program does not fit into the instruction space or a root is not an
+	 * instruction address
+	 */
+	public static ProgramAnalysis analyze(int[] words, int[] roots) {
+		return analyze(words, roots, false);
+	}
+
+	/**
+	 * Analyzes a program.
+	 * @param words the instruction at address 4 * i at index i, a word of 0 marks the end of the program
+	 * @param roots the addresses control may start at: the entry point and the guest handlers
+	 * @param delaySlots true if BEQ, J and JR have a delay slot
+	 * @return the analysis
+	 * @exception IAG if the program does not fit into the instruction space or a root is not an
+	 * instruction address
+	 */
+	public static ProgramAnalysis analyze(int[] words, int[] roots, boolean delaySlots) {
+		int n = Computer.MAX_INSTRUCTIONS;
+		if (words.length > n)
+			throw new IllegalArgumentException("Invalid no. of instructions");
+		for (int root : roots) {
+			if (root % 4 != 0 || root < 0 || root / 4 >= n)
+				throw new IllegalArgumentException("Invalid root " + Disassembler.hex(root));
+		}
+		int[] program = Arrays.copyOf(words, n);
+
+		boolean[] leader = new boolean[n];
+		for (int root : roots)
+			leader[root / 4] = true;
+		for (int i = 0; i < n; i++) {
+			if (program[i] == 0)
+				continue;
+			if (i == 0 || program[i - 1] == 0)
+				leader[i] = true;
+			if (endsBlock(program, i, delaySlots) && i + 1 < n)
+				leader[i + 1] = true;
+			int target = target(program[i], 4 * i);
+			if (target >= 0 && target / 4 < n)
+				leader[target / 4] = true;
+		}
+
+		// Split into blocks; blockOf maps an instruction to its block.
+		int[] blockOf = new int[n];
+		Arrays.fill(blockOf, -1);
+		List<int[]> bounds = new ArrayList<>();
+		for (int i = 0; i < n; ) {
+			if (program[i] == 0) {
+				i++;
+				continue;
+			}
+			int j = i + 1;
+			while (j < n && program[j] != 0 && !leader[j] && !endsBlock(program, j - 1, delaySlots))
+				j++;
+			for (int k = i; k < j; k++)
+				blockOf[k] = bounds.size();
+			bounds.add(new int[] {i, j});
+			i = j;
+		}
+
+		int count = bounds.size();
+		int[][] successors = new int[count][];
+		boolean[] indirect = new boolean[count];
+		for (int b = 0; b < count; b++) {
+			int last = bounds.get(b)[1] - 1;
+			// The instruction that decides where control goes: in delay-slot mode the branch ahead of the slot.
+			int branch = delaySlots && last > bounds.get(b)[0] && isDelayedBranch(program[last - 1]) ? last - 1 : last;
+			int word = program[branch];
+			boolean slot = delaySlots && isDelayedBranch(word);
+			List<Integer> next = new ArrayList<>();
+			// A delay slot that starts a block of its own runs before the branch takes effect.
+			if (slot && branch == last && last + 1 < n && program[last + 1] != 0)
+				next.add(last + 1);
+			int target = target(word, 4 * branch);
+			if (target >= 0 && target / 4 < n && program[target / 4] != 0 && !next.contains(target / 4))
+				next.add(target / 4);
+			int fall = slot ? branch + 2 : branch + 1;
+			if (fallsThrough(word) && fall < n && program[fall] != 0 && !next.contains(fall))
+				next.add(fall);
+			indirect[b] = isIndirect(word);
+			successors[b] = new int[next.size()];
+			for (int s = 0; s < next.size(); s++)
+				successors[b][s] = blockOf[next.get(s)];
+		}
+
+		boolean[] reachable = new boolean[count];
+		ArrayDeque<Integer> work = new ArrayDeque<>();
+		for (int root : roots) {
+			int b = blockOf[root / 4];
+			if (b >= 0 && !reachable[b]) {
+				reachable[b] = true;
+				work.add(b);
+			}
+		}
+		boolean reachesIndirect = false;
+		while (!work.isEmpty()) {
+			int b = work.poll();
+			reachesIndirect |= indirect[b];
+			for (int s : successors[b]) {
+				if (!reachable[s]) {
+					reachable[s] = true;
+					work.add(s);
+				}
+			}
+		}
+
+		// Liveness, iterated backwards until nothing changes.
+		int[] use = new int[count];
+		int[] def = new int[count];
+		for (int b = 0; b < count; b++) {
+			for (int k = bounds.get(b)[0]; k < bounds.get(b)[1]; k++) {
+				use[b] |= uses(program[k]) & ~def[b];
+				def[b] |= defs(program[k]);
+			}
+		}
+		int[] liveIn = new int[count];
+		int[] liveOut = new int[count];
+		boolean changed = true;
+		while (changed) {
+			changed = false;
+			for (int b = count - 1; b >= 0; b--) {
+				int out = indirect[b] ? ALL_REGISTERS : 0;
+				for (int s : successors[b])
+					out |= liveIn[s];
+				int in = use[b] | (out & ~def[b]);
+				if (in != liveIn[b] || out != liveOut[b]) {
+					liveIn[b] = in;
+					liveOut[b] = out;
+					changed = true;
+				}
+			}
+		}
+
+		List<Block> blocks = new ArrayList<>(count);
+		for (int b = 0; b < count; b++) {
+			int[] next = new int[successors[b].length];
+			for (int s = 0; s < next.length; s++)
+				next[s] = 4 * bounds.get(successors[b][s])[0];
+			blocks.add(new Block(4 * bounds.get(b)[0], 4 * bounds.get(b)[1], next, indirect[b], reachable[b],
+					liveIn[b], liveOut[b]));
+		}
+
+		List<Hazard> hazards = new ArrayList<>();
+		for (int i = 0; i + 1 < n; i++) {
+			boolean load = isLoad(program[i] >>> 26);
+			int written = defs(program[i]);
+			for (int j = i + 1; j < n && j - i <= MAX_DISTANCE && written != 0; j++) {
+				if (program[j] == 0 || !continues(program[j - 1], delaySlots))
+					break;
+				int register = written & uses(program[j]);
+				// A branch resolved in ID waits a cycle longer, so it may see one more instruction ahead.
+				boolean branch = isEarlyBranch(program, j, delaySlots);
+				if (register != 0 && (branch || j - i < MAX_DISTANCE)) {
+					hazards.add(new Hazard(4 * i, 4 * j, Integer.numberOfTrailingZeros(register), load, j - i,
+							branch));
+				}
+				written &= ~defs(program[j]);
+			}
+		}
+		return new ProgramAnalysis(program, blocks, hazards, reachesIndirect, delaySlots);
+	}
+
+	/**
+	 * Returns the analyzed instruction space.
+	 * @return a copy, the instruction at address 4 * i at index i
+	 */
+	public int[] getWords() {
+		return mWords.clone();
+	}
+
+	public List<Block> getBlocks() {
+		return mBlocks;
+	}
+
+	public List<Hazard> getHazards() {
+		return mHazards;
+	}
+
+	/**
+	 * Returns the blocks no path reaches from the entry point or a handler.
+	 * @return the unreachable blocks, or null if the program can jump through JR or ERET, which may
+	 * reach any of them
+	 */
+	public List<Block> getUnreachable() {
+		if (mIndirect)
+			return null;
+		List<Block> unreachable = new ArrayList<>();
+		for (Block block : mBlocks) {
+			if (!block.reachable)
+				unreachable.add(block);
+		}
+		return unreachable;
+	}
+
+	/**
+	 * Counts the cycles the pipeline stalls on hazards, each hazard counted once however often it runs.
+	 * A branch waiting for two instructions at once stalls for the longer of the two waits.
+	 * @param config the pipeline configuration
+	 * @return the number of stall cycles
+	 */
+	public int countStalls(PipelineConfig config) {
+		int[] cycles = new int[mWords.length];
+		for (Hazard hazard : mHazards) {
+			int index = hazard.consumer / 4;
+			cycles[index] = Math.max(cycles[index], hazard.stallCycles(config));
+		}
+		int stalls = 0;
+		for (int stall : cycles)
+			stalls += stall;
+		return stalls;
+	}
+
+	/**
+	 * Predicts how many cycles the cycle-stepped pipeline takes for the analyzed program. The program is
+	 * run on a ReferenceInterpreter from the state of a Computer, so as to follow every instruction that
+	 * runs, the bubbles ahead of it and the stalls it causes, priced with the Computer's PipelineConfig.
+	 * The run gets a console and a timer of its own; other devices the Computer has are missing.
+	 * @param computer the computer with the registers, memory, handlers, PC, delay-slot mode and
+	 * configuration to start from
+	 * @param maxSteps the most instructions to run
+	 * @return the prediction, or null if the program did not end within maxSteps instructions
+	 */
+	public Prediction predict(Computer computer, long maxSteps) {
+		PipelineConfig config = computer.getPipelineConfig();
+		ReferenceInterpreter reference = ReferenceInterpreter.copyOf(computer, mWords);
+		long steps = 0;
+		long instructions = 0;
+		long stalls = 0;
+		long branches = 0;
+		long latency = 0;
+		// The bubbles ahead of the next instruction, and those a taken branch adds after its delay slot.
+		int pending = 0;
+		int deferred = 0;
+		// The cycle the instruction ahead left the first stage of EX, not counting the cycles MEM held
+		// everything, the cycle from which each register can be read, and the cycle the last instruction
+		// that did not trap left the first stage of EX, -1 if there is none.
+		long last = config.getDepth(PipelineConfig.Stage.FETCH) + 1;
+		long[] ready = new long[32];
+		long written = -1;
+		boolean faulted = false;
+		// True if the last instruction trapped.
+		boolean trapped = false;
+		while (true) {
+			int pc = reference.getPC();
+			int index = pc / 4;
+			int word = pc >= 0 && index < mWords.length ? mWords[index] : 0;
+			boolean taken = isTaken(word, reference.getRegisterContents());
+			boolean slot = reference.isInDelaySlot();
+			long traps = reference.getTrapCount();
+			boolean executed = reference.step();
+			faulted = !executed && reference.getFault() != null;
+			if (!executed && !faulted)
+				break;
+			if (++steps > maxSteps)
+				return null;
+			int penalty = slot ? deferred : 0;
+			deferred = 0;
+			if (word == 0) {
+				// A NOP in a delay slot goes down the pipeline as a bubble.
+				pending += 1 + penalty;
+				continue;
+			}
+			instructions++;
+			trapped = faulted || reference.getTrapCount() != traps;
+			long arrival = last + 1 + pending;
+			int stall = stallCycles(ready, arrival, word, slot, config);
+			int exLatency = resolvesInDecode(word, slot, config) && !trapped ? 1 : executeLatency(word, config);
+			last = arrival + stall + exLatency - 1;
+			branches += pending;
+			stalls += stall;
+			latency += exLatency - 1;
+			if (!trapped && isMemory(word))
+				latency += config.getMemoryLatency() - 1;
+			if (faulted)
+				break;
+			if (!trapped) {
+				issue(ready, last, word, config);
+				written = last;
+			}
+			pending = 0;
+			if (trapped)
+				pending = config.getDepth(PipelineConfig.Stage.FETCH);
+			else if (slot)
+				pending = penalty;
+			else if (taken && computer.isDelaySlots() && isDelayedBranch(word))
+				deferred = branchPenalty(word, true, config);
+			else if (taken)
+				pending = branchPenalty(word, false, config);
+		}
+		// A faulting instruction leaves the pipeline in the first stage of EX, so the run ends as soon as
+		// the instructions ahead of it have retired, up to the stages behind EX early. So does a trap
+		// into a handler without instructions.
+		int behind = resultDelay(true, config);
+		long drain = !trapped ? 0 : written < 0 ? behind : Math.min(behind, last - written);
+		long cycles = instructions == 0 ? 1
+				: instructions + config.getStageCount() - 1 + stalls + branches + latency - drain;
+		return new Prediction(instructions, stalls, branches, latency, cycles);
+	}
+
+	/**
+	 * Private helper method. Returns the bubbles a taken branch, jump or ERET sends down the pipeline:
+	 * the instructions fetched behind it that are squashed, and the cycles IF waits for the target
+	 * after it, which grow with every stage of EX the branch has to leave first.
+	 * @param word the instruction
+	 * @param delaySlots true if BEQ, J and JR have a delay slot, after which the bubbles follow
+	 * @param config the pipeline configuration
+	 * @return the bubbles between the instruction, or its delay slot, and the target
+	 */
+	private static int branchPenalty(int word, boolean delaySlots, PipelineConfig config) {
+		int wait = config.getBranchPenalty() - 1;
+		int fetch = config.getDepth(PipelineConfig.Stage.FETCH);
+		int execute = config.getDepth(PipelineConfig.Stage.EXECUTE);
+		if (!isDelayedBranch(word))
+			return fetch + wait + execute - 1;
+		if (config.isEarlyBranches()) {
+			// With a single IF stage the delay slot is fetched after ID resolved the branch.
+			if (delaySlots)
+				return fetch == 1 ? Math.max(0, wait - 1) : fetch - 2 + wait;
+			return fetch - 1 + wait;
+		}
+		return (delaySlots ? fetch - 1 : fetch) + wait + execute - 1;
+	}
+
+	/**
+	 * Reorders the instructions within every basic block so that fewer of them read the result of a load,
+	 * or without forwarding of any instruction, directly ahead of them, and so that a branch resolved in
+	 * ID waits less for its operands. A block keeps its place and its size, and the branch, jump or
+	 * SYSCALL ending it stays last, together with its delay slot in delay-slot mode, so every branch
+	 * target stays valid. Instructions are only moved past each other if neither writes a register the
+	 * other reads or writes, neither is a MFC0 or MTC0, and not both access memory. A block is only
+	 * changed if that removes a stall.
+	 * <p>
+	 * Moving an instruction past one that faults changes the registers a handler or the final state sees,
+	 * and a JR into the middle of a block lands on a different instruction. Computer only uses the
+	 * schedule after checking that the program still ends the same way, see isEquivalent().
+	 * @param config the pipeline configuration to schedule for
+	 * @return the reordered instruction space, the instruction at address 4 * i at index i
+	 */
+	public int[] schedule(PipelineConfig config) {
+		int[] words = mWords.clone();
+		for (Block block : mBlocks)
+			scheduleBlock(words, block.start / 4, block.end / 4, config, mDelaySlots);
+		return words;
+	}
+
+	/**
+	 * Private helper method. List-schedules one block in place: every step picks, of the instructions
+	 * whose dependences are scheduled, one that stalls least behind the instructions picked before it,
+	 * preferring the longest path to the end of the block, then the original order. The instruction
+	 * ending the block and its delay slot keep their places.
+	 * @param words the instruction space, already scheduled up to start
+	 * @param start the index of the first instruction
+	 * @param end the index after the last instruction
+	 * @param config the pipeline configuration
+	 * @param delaySlots true if BEQ, J and JR have a delay slot
+	 */
+	private static void scheduleBlock(int[] words, int start, int end, PipelineConfig config, boolean delaySlots) {
+		int[] original = Arrays.copyOfRange(words, start, end);
+		int fixed = 0;
+		if (original.length > 1 && delaySlots && isDelayedBranch(original[original.length - 2]))
+			fixed = 2;
+		else if (endsBlock(original[original.length - 1]))
+			fixed = 1;
+		int m = original.length - fixed;
+		if (m < 2)
+			return;
+		boolean[][] edge = new boolean[m][m];
+		int[] predecessors = new int[m];
+		for (int j = 0; j < m; j++) {
+			for (int i = 0; i < j; i++) {
+				if (dependsOn(original[i], original[j])) {
+					edge[i][j] = true;
+					predecessors[j]++;
+				}
+			}
+		}
+		// The longest path to the end of the block, counting a stall cycle as a cycle of its own.
+		int[] height = new int[m];
+		for (int i = m - 1; i >= 0; i--) {
+			height[i] = 1;
+			for (int j = i + 1; j < m; j++) {
+				if (edge[i][j])
+					height[i] = Math.max(height[i], height[j] + 1 + stallCycles(original[i], original[j], config));
+			}
+		}
+
+		int[] context = fallingInto(words, start, config, delaySlots);
+		int[] scheduled = Arrays.copyOf(original, original.length);
+		boolean[] done = new boolean[m];
+		long[] ready = new long[32];
+		long last = warmUp(ready, context, config);
+		for (int step = 0; step < m; step++) {
+			int best = -1;
+			int bestStall = 0;
+			for (int k = 0; k < m; k++) {
+				if (done[k] || predecessors[k] != 0)
+					continue;
+				int stall = stallCycles(ready, last + 1, original[k], false, config);
+				if (best < 0 || stall < bestStall || (stall == bestStall && height[k] > height[best])) {
+					best = k;
+					bestStall = stall;
+				}
+			}
+			done[best] = true;
+			scheduled[step] = original[best];
+			last += bestStall + executeLatency(original[best], config);
+			issue(ready, last, original[best], config);
+			for (int j = best + 1; j < m; j++) {
+				if (edge[best][j])
+					predecessors[j]--;
+			}
+		}
+		if (countStalls(context, scheduled, config, delaySlots) < countStalls(context, original, config, delaySlots))
+			System.arraycopy(scheduled, 0, words, start, m);
+	}
+
+	/**
+	 * Private helper method. Returns the instructions falling through into a block, as many as may still
+	 * be in the pipeline when its first instruction reaches EX.
+	 * @param words the instruction space
+	 * @param start the index of the first instruction of the block
+	 * @param config the pipeline configuration
+	 * @param delaySlots true if BEQ, J and JR have a delay slot
+	 * @return the instructions, the one furthest ahead first
+	 */
+	private static int[] fallingInto(int[] words, int start, PipelineConfig config, boolean delaySlots) {
+		int count = 0;
+		while (count < resultDelay(true, config) && start - count > 0
+				&& continues(words[start - count - 1], delaySlots))
+			count++;
+		return Arrays.copyOfRange(words, start - count, start);
+	}
+
+	/**
+	 * Private helper method. Counts the stall cycles of a run of instructions.
+	 * @param context the instructions falling through into the first one, see fallingInto()
+	 * @param block the instructions
+	 * @param config the pipeline configuration
+	 * @param delaySlots true if BEQ, J and JR have a delay slot
+	 * @return the cycles the instructions stall behind the ones ahead
+	 */
+	private static int countStalls(int[] context, int[] block, PipelineConfig config, boolean delaySlots) {
+		int stalls = 0;
+		long[] ready = new long[32];
+		long last = warmUp(ready, context, config);
+		int ahead = context.length == 0 ? 0 : context[context.length - 1];
+		for (int word : block) {
+			boolean slot = delaySlots && isDelayedBranch(ahead);
+			int stall = stallCycles(ready, last + 1, word, slot, config);
+			stalls += stall;
+			last += stall + (resolvesInDecode(word, slot, config) ? 1 : executeLatency(word, config));
+			issue(ready, last, word, config);
+			ahead = word;
+		}
+		return stalls;
+	}
+
+	/**
+	 * Private helper method. Sends instructions through EX a cycle apart, without stalls.
+	 * @param ready the cycle from which each register can be read, updated
+	 * @param context the instructions
+	 * @param config the pipeline configuration
+	 * @return the cycle the last of them left the first stage of EX, 0 if there is none
+	 */
+	private static long warmUp(long[] ready, int[] context, PipelineConfig config) {
+		for (int i = 0; i < context.length; i++)
+			issue(ready, i + 1, context[i], config);
+		return context.length;
+	}
+
+	/**
+	 * Private helper method. Checks whether an instruction has to stay behind an earlier one.
+	 * @param first the earlier instruction
+	 * @param second the later instruction
+	 * @return true if their order matters
+	 */
+	private static boolean dependsOn(int first, int second) {
+		if ((defs(first) & (uses(second) | defs(second))) != 0 || (uses(first) & defs(second)) != 0)
+			return true;
+		if (isBarrier(first) || isBarrier(second))
+			return true;
+		return isMemory(first) && isMemory(second);
+	}
+
+	/**
+	 * Private helper method. Counts the cycles an instruction stalls in EX behind one directly ahead of it.
+	 * @param producer the instruction ahead, 0 if none
+	 * @param consumer the instruction
+	 * @param config the pipeline configuration
+	 * @return the cycles the consumer waits
+	 */
+	private static int stallCycles(int producer, int consumer, PipelineConfig config) {
+		if ((defs(producer) & uses(consumer)) == 0)
+			return 0;
+		return resultDelay(isLoad(producer >>> 26), config) - 1;
+	}
+
+	/**
+	 * Private helper method. Counts the cycles an instruction stalls waiting for registers written by the
+	 * instructions ahead of it. In EX it waits until each result can be forwarded, see resultDelay(). A
+	 * branch resolved in ID needs its operands in the cycle before it reaches EX.
+	 * @param ready the cycle from which each register can be read in EX
+	 * @param arrival the first cycle the instruction can be in EX
+	 * @param word the instruction
+	 * @param slot true if the instruction is in a delay slot
+	 * @param config the pipeline configuration
+	 * @return the stall cycles
+	 */
+	private static int stallCycles(long[] ready, long arrival, int word, boolean slot, PipelineConfig config) {
+		long need = resolvesInDecode(word, slot, config) ? arrival - 1 : arrival;
+		long stall = 0;
+		for (int bits = uses(word); bits != 0; bits &= bits - 1)
+			stall = Math.max(stall, ready[Integer.numberOfTrailingZeros(bits)] - need);
+		return (int) stall;
+	}
+
+	/**
+	 * Private helper method. Records when the result of an instruction can be read.
+	 * @param ready the cycle from which each register can be read in EX, updated
+	 * @param cycle the cycle the instruction left the first stage of EX
+	 * @param word the instruction
+	 * @param config the pipeline configuration
+	 */
+	private static void issue(long[] ready, long cycle, int word, PipelineConfig config) {
+		int target = defs(word);
+		if (target != 0)
+			ready[Integer.numberOfTrailingZeros(target)] = cycle + resultDelay(isLoad(word >>> 26), config);
+	}
+
+	/**
+	 * Private helper method. Returns how many cycles after an instruction left the first stage of EX its
+	 * result can be read there: once it has left the last stage of EX, or for a load, or without
+	 * forwarding, once it has been written back.
+	 * @param load true if the instruction is a load
+	 * @param config the pipeline configuration
+	 * @return the cycles
+	 */
+	private static int resultDelay(boolean load, PipelineConfig config) {
+		int delay = config.getDepth(PipelineConfig.Stage.EXECUTE);
+		if (load || !config.isForwarding())
+			delay += config.getDepth(PipelineConfig.Stage.MEMORY);
+		return delay;
+	}
+
+	/**
+	 * Checks whether a scheduled program ends the same way as the original when both are run on a
+	 * ReferenceInterpreter from the state of a Computer: with the same PC, registers, memory, exception
+	 * registers, output, exit code and fault.
+	 * @param computer the computer with the state to start from
+	 * @param original the original instruction space
+	 * @param scheduled the scheduled instruction space
+	 * @param maxSteps the most instructions to run either program
+	 * @return true if both end the same way within maxSteps instructions
+	 */
+	static boolean isEquivalent(Computer computer, int[] original, int[] scheduled, long maxSteps) {
+		ReferenceInterpreter first = ReferenceInterpreter.copyOf(computer, original);
+		ReferenceInterpreter second = ReferenceInterpreter.copyOf(computer, scheduled);
+		if (first.run(maxSteps) < 0 || second.run(maxSteps) < 0)
+			return false;
+		if (first.getPC() != second.getPC() || first.getExitCode() != second.getExitCode()
+				|| !first.getOutput().equals(second.getOutput())
+				|| !Arrays.equals(first.getRegisterContents(), second.getRegisterContents())
+				|| !Arrays.equals(first.getMemoryContents().toWords(), second.getMemoryContents().toWords()))
+			return false;
+		int[] registers = {Coprocessor0.STATUS, Coprocessor0.CAUSE, Coprocessor0.EPC, Coprocessor0.BAD_VADDR};
+		for (int register : registers) {
+			if (first.getCoprocessor0().read(register) != second.getCoprocessor0().read(register))
+				return false;
+		}
+		SimulationFault a = first.getFault();
+		SimulationFault b = second.getFault();
+		if (a == null || b == null)
+			return a == b;
+		return a.cause == b.cause && a.pc == b.pc && a.badVAddr == b.badVAddr && a.instruction == b.instruction;
+	}
+
+	/**
+	 * Describes the blocks with their successors and live registers, the hazards, and the unreachable blocks.
+	 * @param config the pipeline configuration the hazards are priced with; hazards spanning more instructions
+	 * than its pipeline holds are left out
+	 * @return the report, one line per block and per hazard
+	 */
+	public String report(PipelineConfig config) {
+		StringBuilder sb = new StringBuilder();
+		sb.append(mBlocks.size()).append(" basic blocks\n");
+		for (Block block : mBlocks) {
+			sb.append(String.format("  %s-%s", Disassembler.hex(block.start), Disassembler.hex(block.end - 4)));
+			sb.append(block.reachable ? "" : " (unreachable)").append(" ->");
+			for (int successor : block.successors)
+				sb.append(' ').append(Disassembler.hex(successor));
+			if (block.indirect)
+				sb.append(" ?");
+			if (block.successors.length == 0 && !block.indirect)
+				sb.append(" end");
+			sb.append("  in ").append(registers(block.liveIn)).append("  out ").append(registers(block.liveOut))
+					.append('\n');
+		}
+		List<Hazard> hazards = new ArrayList<>();
+		for (Hazard hazard : mHazards) {
+			if (hazard.isInWindow(config))
+				hazards.add(hazard);
+		}
+		sb.append(hazards.size()).append(" hazards, ").append(countStalls(config)).append(" stall cycles\n");
+		for (Hazard hazard : hazards) {
+			int cycles = hazard.stallCycles(config);
+			sb.append(String.format("  %s %-22s -> %s %-22s $%d%s%n", Disassembler.hex(hazard.producer),
+					Disassembler.disassemble(mWords[hazard.producer / 4]), Disassembler.hex(hazard.consumer),
+					Disassembler.disassemble(mWords[hazard.consumer / 4]), hazard.register,
+					cycles == 0 ? "" : cycles == 1 ? "  stall" : "  stall " + cycles));
+		}
+		List<Block> unreachable = getUnreachable();
+		if (unreachable == null) {
+			sb.append("Unreachable code unknown: the program jumps through JR or ERET\n");
+		} else {
+			int words = 0;
+			for (Block block : unreachable)
+				words += (block.end - block.start) / 4;
+			sb.append(words).append(" unreachable instructions\n");
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Private helper method. Lists the registers of a set.
+	 * @param set bit i for register i
+	 * @return e.g. "{$2 $4}"
+	 */
+	private static String registers(int set) {
+		if (set == ALL_REGISTERS)
+			return "{all}";
+		StringBuilder sb = new StringBuilder("{");
+		for (int bits = set; bits != 0; bits &= bits - 1) {
+			if (sb.length() > 1)
+				sb.append(' ');
+			sb.append('$').append(Integer.numberOfTrailingZeros(bits));
+		}
+		return sb.append('}').toString();
+	}
+
+	/**
+	 * Private helper method. Returns the registers an instruction writes.
+	 * @param word the instruction
+	 * @return bit i for register i, without $zero
+	 */
+	private static int defs(int word) {
+		int op = word >>> 26;
+		int rt = (word >>> 16) & 0x1F;
+		int target = -1;
+		if (word == 0) {
+			return 0;
+		} else if (op == ADD_AND_JR_OP) {
+			int func = word & 0x3F;
+			if (func == ADD_FUNC || func == AND_FUNC)
+				target = (word >>> 11) & 0x1F;
+		} else if (op == ADDI_OP || op == ANDI_OP || isLoad(op)) {
+			target = rt;
+		} else if (op == COP0_OP && ((word >>> 21) & 0x1F) == MFC0_FORMAT) {
+			target = rt;
+		}
+		return target < 0 ? 0 : (1 << target) & ALL_REGISTERS;
+	}
+
+	/**
+	 * Private helper method. Returns the registers an instruction reads, the same ones the pipeline checks
+	 * for a load-use hazard.
+	 * @param word the instruction
+	 * @return bit i for register i, without $zero
+	 */
+	private static int uses(int word) {
+		int op = word >>> 26;
+		int rs = (word >>> 21) & 0x1F;
+		int rt = (word >>> 16) & 0x1F;
+		int set;
+		if (word == 0 || op == J_OP) {
+			return 0;
+		} else if (op == COP0_OP) {
+			set = rs == MTC0_FORMAT ? 1 << rt : 0;
+		} else if (op == ADD_AND_JR_OP && (word & 0x3F) == SYSCALL_FUNC) {
+			set = 1 << SYSCALL_SERVICE_REG | 1 << SYSCALL_ARG_REG;
+		} else {
+			set = 1 << rs;
+			if (op == ADD_AND_JR_OP || isStore(op) || op == BEQ_OP)
+				set |= 1 << rt;
+		}
+		return set & ALL_REGISTERS;
+	}
+
+	/**
+	 * Private helper method. Computes the target of a BEQ or J.
+	 * @param word the instruction
+	 * @param pc its address
+	 * @return the target address, or -1 if the instruction is neither
+	 */
+	private static int target(int word, int pc) {
+		int op = word >>> 26;
+		if (op == BEQ_OP)
+			return pc + 4 + 4 * (short) word;
+		if (op == J_OP)
+			return ((pc + 4) & 0xF0000000) | ((word & 0x3FFFFFF) << 2);
+		return -1;
+	}
+
+	/**
+	 * Private helper method. Checks whether a BEQ, J, JR or ERET redirects the PC with the given registers.
+	 * @param word the instruction
+	 * @param registers the register values before it runs
+	 * @return true if it is taken
+	 */
+	private static boolean isTaken(int word, int[] registers) {
+		int op = word >>> 26;
+		if (op == BEQ_OP)
+			return registers[(word >>> 21) & 0x1F] == registers[(word >>> 16) & 0x1F];
+		return op == J_OP || isIndirect(word);
+	}
+
+	/**
+	 * Private helper method. Checks for JR and ERET.
+	 * @param word the instruction
+	 * @return true if the target is only known at run time
+	 */
+	private static boolean isIndirect(int word) {
+		int op = word >>> 26;
+		if (op == ADD_AND_JR_OP)
+			return (word & 0x3F) == JR_FUNC;
+		return op == COP0_OP && ((word >>> 21) & 0x1F) == CO_FORMAT && (word & 0x3F) == ERET_FUNC;
+	}
+
+	/**
+	 * Private helper method. Checks for the instructions that end a basic block: BEQ, J, JR, ERET and SYSCALL.
+	 * @param word the instruction
+	 * @return true if the next instruction starts a new block
+	 */
+	private static boolean endsBlock(int word) {
+		int op = word >>> 26;
+		return op == BEQ_OP || op == J_OP || isIndirect(word)
+				|| (op == ADD_AND_JR_OP && (word & 0x3F) == SYSCALL_FUNC);
+	}
+
+	/**
+	 * Private helper method. Checks whether a basic block ends after an instruction. In delay-slot mode
+	 * that is the delay slot rather than the branch, unless the delay slot is a NOP.
+	 * @param program the instruction space
+	 * @param i the index of the instruction
+	 * @param delaySlots true if BEQ, J and JR have a delay slot
+	 * @return true if the next instruction starts a new block
+	 */
+	private static boolean endsBlock(int[] program, int i, boolean delaySlots) {
+		if (!delaySlots)
+			return endsBlock(program[i]);
+		if (i > 0 && isDelayedBranch(program[i - 1]))
+			return true;
+		if (isDelayedBranch(program[i]))
+			return i + 1 >= program.length || program[i + 1] == 0;
+		return endsBlock(program[i]);
+	}
+
+	/**
+	 * Private helper method. Checks whether ID may resolve an instruction, see PipelineConfig.setEarlyBranches().
+	 * @param program the instruction space
+	 * @param i the index of the instruction
+	 * @param delaySlots true if BEQ, J and JR have a delay slot
+	 * @return true for a BEQ, J or JR that is not in the delay slot of the instruction ahead
+	 */
+	private static boolean isEarlyBranch(int[] program, int i, boolean delaySlots) {
+		return isDelayedBranch(program[i]) && !(delaySlots && i > 0 && isDelayedBranch(program[i - 1]));
+	}
+
+	/**
+	 * Private helper method. Checks whether ID resolves an instruction with the given configuration, the
+	 * same way Computer does. A branch whose target faults is left for EX even so, but still waits in ID.
+	 * @param word the instruction
+	 * @param slot true if the instruction is in a delay slot
+	 * @param config the pipeline configuration
+	 * @return true for a BEQ, J or JR outside a delay slot if branches are resolved in ID
+	 */
+	private static boolean resolvesInDecode(int word, boolean slot, PipelineConfig config) {
+		return config.isEarlyBranches() && !slot && isDelayedBranch(word);
+	}
+
+	/**
+	 * Private helper method. Checks whether control can reach the next address after an instruction.
+	 * @param word the instruction
+	 * @param delaySlots true if BEQ, J and JR have a delay slot
+	 * @return false for a word of 0, and for J, JR and ERET unless they have a delay slot
+	 */
+	private static boolean continues(int word, boolean delaySlots) {
+		return fallsThrough(word) || (delaySlots && isDelayedBranch(word));
+	}
+
+	/**
+	 * Private helper method. Checks whether control can continue at the next address after an instruction.
+	 * @param word the instruction
+	 * @return false for J, JR and ERET
+	 */
+	private static boolean fallsThrough(int word) {
+		return word != 0 && word >>> 26 != J_OP && !isIndirect(word);
+	}
+
+	/**
+	 * Private helper method. Checks for the instructions nothing may move past: the control instructions,
+	 * MFC0, MTC0, and encodings that are not defined.
+	 * @param word the instruction
+	 * @return true if the instruction keeps its place among its neighbours
+	 */
+	private static boolean isBarrier(int word) {
+		int op = word >>> 26;
+		if (endsBlock(word) || op == COP0_OP)
+			return true;
+		if (op == ADD_AND_JR_OP)
+			return (word & 0x3F) != ADD_FUNC && (word & 0x3F) != AND_FUNC;
+		return op != ADDI_OP && op != ANDI_OP && !isMemory(word);
+	}
+
+	/**
+	 * Private helper method. Checks for loads and stores.
+	 * @param word the instruction
+	 * @return true if the instruction accesses memory or a device
+	 */
+	private static boolean isMemory(int word) {
+		return isLoad(word >>> 26) || isStore(word >>> 26);
+	}
+
+	/**
+	 * Private helper method. Returns how many cycles EX takes for an instruction, the same way Computer does.
+	 * @param word the instruction
+	 * @param config the pipeline configuration
+	 * @return the latency of its functional unit, 1 for instructions without one
+	 */
+	private static int executeLatency(int word, PipelineConfig config) {
+		int op = word >>> 26;
+		PipelineConfig.Unit unit = null;
+		if (op == ADD_AND_JR_OP) {
+			int func = word & 0x3F;
+			if (func == ADD_FUNC)
+				unit = PipelineConfig.Unit.ADDER;
+			else if (func == AND_FUNC)
+				unit = PipelineConfig.Unit.LOGIC;
+			else if (func == JR_FUNC)
+				unit = PipelineConfig.Unit.BRANCH;
+		} else if (op == ADDI_OP) {
+			unit = PipelineConfig.Unit.ADDER;
+		} else if (op == ANDI_OP) {
+			unit = PipelineConfig.Unit.LOGIC;
+		} else if (isMemory(word)) {
+			unit = PipelineConfig.Unit.ADDRESS;
+		} else if (op == J_OP || op == BEQ_OP || (op == COP0_OP && ((word >>> 21) & 0x1F) == CO_FORMAT)) {
+			unit = PipelineConfig.Unit.BRANCH;
+		}
+		return unit == null ? 1 : config.getLatency(unit);
+	}
+}
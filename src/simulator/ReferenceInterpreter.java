@@ -0,0 +1,412 @@
+package simulator;
+
+import static simulator.InstructionSet.*;
+
+import java.io.Writer;
+
+/**
+ * ReferenceInterpreter executes a program one instruction at a time with plain int arithmetic.
+ * It has no pipeline and serves as the architectural definition Computer is checked against:
+ * after a program halts or faults, both must agree on the PC, the registers, the memory and the
+ * fault. SYSCALL output is collected in a string instead of going through a console device.
+ * <p>
+ * In delay-slot mode, the instruction after a BEQ, J or JR always executes before the branch takes
+ * effect, the way MIPS defines it. A word of 0 in a delay slot is a NOP instead of the end of the
+ * program, a branch or ERET in a delay slot is a reserved instruction, and an exit SYSCALL in a delay
+ * slot ends the program before its branch is taken. ERET has no delay slot.
+ * @author Egor Maksimenka
+ */
+public class ReferenceInterpreter {
+
+	/** The number of cause codes whose handlers copyOf() copies. */
+	static final int CAUSES = 32;
+
+	/** The instructions for the input program. */
+	private final int[] mInstructions;
+	/** The registers used by the interpreter. */
+	private final int[] mRegisters;
+	/** The simulated memory, laid out the same way as Computer's. */
+	private final Memory mMemory = new Memory(Computer.MAX_MEMORY);
+	/** The PC, or the current instruction addr. */
+	private int mPC;
+	/** Everything the program printed with SYSCALL. */
+	private final StringBuilder mOutput = new StringBuilder();
+	/** True once the program called an exit SYSCALL. */
+	private boolean mExited;
+	/** The exit code passed to SYSCALL. */
+	private int mExitCode;
+	/** The exception registers and handlers. */
+	private final Coprocessor0 mCP0 = new Coprocessor0();
+	/** The fault that stopped the program, null if none did. */
+	private SimulationFault mFault;
+	/** The devices loads and stores outside of memory go to, null if there are none. */
+	private DeviceBus mBus;
+	/** The number of instructions executed, passed to the devices as the cycle. */
+	private long mSteps;
+	/** The number of exceptions a guest handler took. */
+	private long mTraps;
+	/** True if branches and jumps have a delay slot. */
+	private boolean mDelaySlots;
+	/** True if the next instruction is in the delay slot of the branch executed last. */
+	private boolean mSlotPending;
+	/** The target of that branch, -1 if it is not taken. */
+	private int mSlotTarget;
+	/** True while the instruction being executed is in a delay slot. */
+	private boolean mInSlot;
+
+	/**
+	 * Creates an interpreter with the given program loaded and all registers and memory set to 0.
+	 * @param program the instruction words, a word of 0 marks the end of the program
+	 * @exception IAG if the program does not fit into the instruction space
+	 */
+	public ReferenceInterpreter(int[] program) {
+		if (program.length >= Computer.MAX_INSTRUCTIONS)
+			throw new IllegalArgumentException("Invalid no. of instructions");
+		mInstructions = new int[Computer.MAX_INSTRUCTIONS];
+		System.arraycopy(program, 0, mInstructions, 0, program.length);
+		mRegisters = new int[Computer.MAX_REGISTERS];
+	}
+
+	/**
+	 * Runs the program until it halts, faults or the step limit is reached.
+	 * @param maxSteps the maximum number of instructions to execute
+	 * @return the number of instructions executed, or -1 if the program was still running after maxSteps
+	 */
+	public long run(long maxSteps) {
+		long steps = 0;
+		while (step()) {
+			steps++;
+			if (steps > maxSteps)
+				return -1;
+		}
+		return steps;
+	}
+
+	/**
+	 * Executes the instruction at the PC. A fault goes to the guest handler registered with the
+	 * Coprocessor0, or stops the program with the PC at the faulting instruction, see getFault().
+	 * @return false if the PC points at the end of the program, the program exited, or it stopped on a
+	 * fault, true if an instruction was executed
+	 */
+	public boolean step() {
+		int index = mPC / 4;
+		boolean slot = mSlotPending;
+		if (mExited || mFault != null)
+			return false;
+		boolean nop = index >= Computer.MAX_INSTRUCTIONS || mInstructions[index] == 0;
+		if (nop && !slot)
+			return false;
+		int target = mSlotTarget;
+		long traps = mTraps;
+		mSlotPending = false;
+		mInSlot = slot;
+		if (nop) {
+			mSteps++;
+			mPC += 4;
+		} else if (!execute(mInstructions[index])) {
+			return false;
+		}
+		if (slot && target >= 0 && !mExited && mTraps == traps)
+			mPC = target;
+		return true;
+	}
+
+	/**
+	 * Private helper method. Executes the instruction at the PC.
+	 * @param inst the instruction word
+	 * @return false if the program stopped on a fault, true otherwise
+	 */
+	private boolean execute(int inst) {
+		int pc = mPC;
+		int nextPC = mPC + 4;
+		int op = inst >>> 26;
+		int rs = (inst >>> 21) & 0x1F;
+		int rt = (inst >>> 16) & 0x1F;
+		int rd = (inst >>> 11) & 0x1F;
+		int imm = (short) inst;
+
+		mSteps++;
+		mPC = nextPC;
+		if (mInSlot && (isDelayedBranch(inst) || (op == COP0_OP && rs == CO_FORMAT && (inst & 0x3F) == ERET_FUNC)))
+			return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Branch in delay slot");
+		if (op == ADD_AND_JR_OP) {
+			int func = inst & 0x3F;
+			if (func == ADD_FUNC) {
+				if (overflows(mRegisters[rs], mRegisters[rt]))
+					return trap(pc, inst, SimulationFault.OVERFLOW, 0, "Overflow exception");
+				if (rd == 0)
+					return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+				mRegisters[rd] = mRegisters[rs] + mRegisters[rt];
+			} else if (func == AND_FUNC) {
+				if (rd == 0)
+					return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+				mRegisters[rd] = mRegisters[rs] & mRegisters[rt];
+			} else if (func == JR_FUNC) {
+				int target = mRegisters[rs];
+				if (target % 4 != 0)
+					return trap(pc, inst, SimulationFault.ADDRESS_LOAD, target, "Address error exception, not aligned.");
+				if (!isInstructionAddress(target))
+					return trap(pc, inst, SimulationFault.ADDRESS_LOAD, target, "Out of bounds jump target at instruction");
+				branch(target);
+			} else if (func == SYSCALL_FUNC) {
+				if (!syscall(mRegisters[SYSCALL_SERVICE_REG], mRegisters[SYSCALL_ARG_REG]))
+					return trap(pc, inst, SimulationFault.SYSCALL, 0, "Undefined syscall");
+			} else {
+				return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Undefined function");
+			}
+		} else if (op == ADDI_OP) {
+			if (overflows(mRegisters[rs], imm))
+				return trap(pc, inst, SimulationFault.OVERFLOW, 0, "Overflow exception");
+			if (rt == 0)
+				return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+			mRegisters[rt] = mRegisters[rs] + imm;
+		} else if (op == ANDI_OP) {
+			if (rt == 0)
+				return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+			mRegisters[rt] = mRegisters[rs] & (inst & 0xFFFF);
+		} else if (isLoad(op) || isStore(op)) {
+			if (isLoad(op) && rt == 0)
+				return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Cannot write to 0 register @load");
+			if (overflows(mRegisters[rs], imm))
+				return trap(pc, inst, SimulationFault.OVERFLOW, 0, "Overflow exception");
+			int addr = mRegisters[rs] + imm;
+			int size = (op & 3) == 3 ? 4 : (op & 3) + 1;
+			int cause = isLoad(op) ? SimulationFault.ADDRESS_LOAD : SimulationFault.ADDRESS_STORE;
+			if (addr % size != 0)
+				return trap(pc, inst, cause, addr, "Address error exception, not aligned.");
+			if (mBus != null && addr >= Computer.MAX_MEMORY && mBus.claims(addr)) {
+				if (size != 4)
+					return trap(pc, inst, cause, addr, "Devices only take word accesses.");
+				if (isLoad(op))
+					mRegisters[rt] = mBus.read(addr, mSteps);
+				else
+					mBus.write(addr, mRegisters[rt], mSteps);
+				return true;
+			}
+			if (addr > Computer.MAX_MEMORY - size || addr < 0)
+				return trap(pc, inst, cause, addr, "Memory address exceeds limit.");
+			if (isLoad(op))
+				mRegisters[rt] = mMemory.load(addr, size, op != LBU_OP && op != LHU_OP);
+			else
+				mMemory.store(addr, size, mRegisters[rt]);
+		} else if (op == J_OP) {
+			int target = (nextPC & 0xF0000000) | ((inst & 0x3FFFFFF) << 2);
+			if (!isInstructionAddress(target))
+				return trap(pc, inst, SimulationFault.ADDRESS_LOAD, target, "Out of bounds jump target at instruction");
+			branch(target);
+		} else if (op == BEQ_OP) {
+			int target = -1;
+			if (mRegisters[rs] == mRegisters[rt]) {
+				target = nextPC + 4 * imm;
+				if (!isInstructionAddress(target))
+					return trap(pc, inst, SimulationFault.ADDRESS_LOAD, target, "Out of bounds jump target at instruction");
+			}
+			branch(target);
+		} else if (op == COP0_OP) {
+			if (rs == MFC0_FORMAT) {
+				if (rt == 0)
+					return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+				mRegisters[rt] = mCP0.read(rd);
+			} else if (rs == MTC0_FORMAT) {
+				mCP0.write(rd, mRegisters[rt]);
+			} else if (rs == CO_FORMAT && (inst & 0x3F) == ERET_FUNC) {
+				int target = mCP0.read(Coprocessor0.EPC);
+				if (target % 4 != 0 || !isInstructionAddress(target))
+					return trap(pc, inst, SimulationFault.ADDRESS_LOAD, target, "Out of bounds jump target at instruction");
+				mPC = mCP0.eret();
+			} else {
+				return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Undefined function");
+			}
+		} else {
+			return trap(pc, inst, SimulationFault.RESERVED_INSTRUCTION, 0, "Undefined opcode");
+		}
+		return true;
+	}
+
+	/**
+	 * Private helper method. Takes a branch or jump, or in delay-slot mode leaves it for after the next
+	 * instruction.
+	 * @param target the address to continue at, -1 for a branch that is not taken
+	 */
+	private void branch(int target) {
+		if (mDelaySlots) {
+			mSlotPending = true;
+			mSlotTarget = target;
+		} else if (target >= 0) {
+			mPC = target;
+		}
+	}
+
+	/**
+	 * Private helper method. Performs a SYSCALL.
+	 * @param service the service number from $v0
+	 * @param arg the argument from $a0
+	 * @return false if the service is not supported
+	 */
+	private boolean syscall(int service, int arg) {
+		if (service == PRINT_INT_SERVICE) {
+			mOutput.append(arg);
+		} else if (service == PRINT_CHAR_SERVICE) {
+			mOutput.append((char) (arg & 0xFF));
+		} else if (service == EXIT_SERVICE || service == EXIT2_SERVICE) {
+			mExitCode = service == EXIT2_SERVICE ? arg : 0;
+			mExited = true;
+		} else {
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Private helper method. Takes an exception: continues at the guest handler, or stops the program at
+	 * the faulting instruction.
+	 * @param pc the address of the faulting instruction
+	 * @param inst the faulting instruction word
+	 * @param cause the cause code, see SimulationFault
+	 * @param badVAddr the faulting address, 0 if the cause has none
+	 * @param message the description of the fault
+	 * @return true if a handler took the exception
+	 */
+	private boolean trap(int pc, int inst, int cause, int badVAddr, String message) {
+		int handler = mCP0.raise(cause, pc, badVAddr, mInSlot);
+		if (handler >= 0) {
+			mPC = handler;
+			mTraps++;
+			return true;
+		}
+		mFault = new SimulationFault(cause, pc, badVAddr, inst, message);
+		mPC = pc;
+		return false;
+	}
+
+	/**
+	 * Private helper method. Checks that a branch or jump target lies within the instruction space.
+	 * @param target the target address
+	 * @return true if the target is valid
+	 */
+	private static boolean isInstructionAddress(int target) {
+		return target >= 0 && target / 4 < Computer.MAX_INSTRUCTIONS;
+	}
+
+	public int getPC() {
+		return mPC;
+	}
+
+	/**
+	 * Sets the address of the next instruction, e.g. the entry point of an executable.
+	 * @param pc the address
+	 */
+	void setPC(int pc) {
+		mPC = pc;
+	}
+
+	/**
+	 * Turns delay-slot mode on or off, see the class description. Set it before the first step.
+	 * @param delaySlots true to give BEQ, J and JR a delay slot
+	 */
+	public void setDelaySlots(boolean delaySlots) {
+		mDelaySlots = delaySlots;
+	}
+
+	public boolean isDelaySlots() {
+		return mDelaySlots;
+	}
+
+	/**
+	 * Checks if the next step executes the delay slot of a branch.
+	 * @return true if it does
+	 */
+	boolean isInDelaySlot() {
+		return mSlotPending;
+	}
+
+	/**
+	 * Replaces the whole instruction space, e.g. with one that does not end in a word of 0.
+	 * @param words the instruction at address 4 * i at index i, Computer.MAX_INSTRUCTIONS of them
+	 */
+	void setInstructions(int[] words) {
+		System.arraycopy(words, 0, mInstructions, 0, Computer.MAX_INSTRUCTIONS);
+	}
+
+	/**
+	 * Creates an interpreter with the state and delay-slot mode of a Computer, a console and a timer, e.g.
+	 * to run a program ahead of the pipeline. The devices are new, and what is stored to the console is
+	 * discarded; SYSCALL output is collected as usual, see getOutput().
+	 * @param computer the computer, between two instructions
+	 * @param words the instruction space to load instead of the computer's
+	 * @return the interpreter
+	 */
+	static ReferenceInterpreter copyOf(Computer computer, int[] words) {
+		ReferenceInterpreter reference = new ReferenceInterpreter(new int[0]);
+		reference.setInstructions(words);
+		reference.setDelaySlots(computer.isDelaySlots());
+		reference.setPC(computer.getPC().getValue());
+		BitString[] registers = computer.getRegisterContents();
+		for (int i = 0; i < Computer.MAX_REGISTERS; i++)
+			reference.mRegisters[i] = registers[i].getValue2sComp();
+		reference.mMemory.setByteOrder(computer.getMemoryContents().getByteOrder());
+		int[] data = computer.getMemoryContents().toWords();
+		for (int i = 0; i < data.length; i++) {
+			if (data[i] != 0)
+				reference.mMemory.storeWord(4 * i, data[i]);
+		}
+		Coprocessor0 source = computer.getCoprocessor0();
+		for (int cause = 0; cause < CAUSES; cause++)
+			reference.mCP0.setHandler(cause, source.getHandler(cause));
+		reference.mCP0.restore(source.read(Coprocessor0.STATUS), source.read(Coprocessor0.CAUSE),
+				source.read(Coprocessor0.EPC), source.read(Coprocessor0.BAD_VADDR));
+		DeviceBus bus = new DeviceBus();
+		bus.attach(Computer.CONSOLE_BASE, new ConsoleDevice(Writer.nullWriter()));
+		bus.attach(Computer.TIMER_BASE, new TimerDevice());
+		reference.setDeviceBus(bus);
+		return reference;
+	}
+
+	/**
+	 * Attaches devices. Without them, as by default, every access outside of memory faults.
+	 * @param bus the devices, or null for none
+	 */
+	public void setDeviceBus(DeviceBus bus) {
+		mBus = bus;
+	}
+
+	/**
+	 * Returns how many exceptions went to a guest handler.
+	 * @return the number of exceptions taken
+	 */
+	long getTrapCount() {
+		return mTraps;
+	}
+
+	public int[] getRegisterContents() {
+		return mRegisters;
+	}
+
+	/**
+	 * Returns the data memory, also used to select its byte order.
+	 * @return the memory
+	 */
+	public Memory getMemoryContents() {
+		return mMemory;
+	}
+
+	public String getOutput() {
+		return mOutput.toString();
+	}
+
+	public int getExitCode() {
+		return mExitCode;
+	}
+
+	/**
+	 * Returns the exception registers, also used to register guest exception handlers.
+	 * @return the coprocessor
+	 */
+	public Coprocessor0 getCoprocessor0() {
+		return mCP0;
+	}
+
+	public SimulationFault getFault() {
+		return mFault;
+	}
+}
@@ -0,0 +1,526 @@
+package simulator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ResultCache remembers the outcome of programs that ran to their end, so that running the same
+ * program from the same state again costs a lookup instead of a simulation. Results are keyed by a
+ * SHA-256 hash of everything a run depends on: the instruction words, registers, memory and its byte
+ * order, PC, exception handlers, delay-slot mode, engine and PipelineConfig. A hit restores the final
+ * registers, memory, PC, exit code, fault and counters into the Computer, and prints the program's
+ * output to its console.
+ * <p>
+ * Recently used results are kept in memory, up to a fixed number; with a directory, every result is
+ * also written there as one file per key and read back after it has dropped out of memory or from
+ * another process. Writing the directory is best effort: a result that cannot be written is reported
+ * on System.err and only kept in memory. One cache may be shared by any number of threads and processes. Two threads
+ * missing on the same key at once both simulate it, and the second result replaces the first.
+ * <p>
+ * Only completed and faulted runs are stored, since they depend on nothing but their key, and only if
+ * they printed at most MAX_OUTPUT characters. A run is
+ * passed through uncached if the computer has already started running, has a Debugger or Profiler
+ * attached, or has a DeviceBus with other devices than the console at CONSOLE_BASE and the timer at
+ * TIMER_BASE a new Computer has. Cached runs see a fresh console and timer in place of the computer's
+ * DeviceBus; its console gets the output afterwards.
+ * @author Egor Maksimenka
+ */
+public class ResultCache {
+
+	/** The first word of every cache file, "MSRC". */
+	private static final int FILE_MAGIC = 0x4D535243;
+	/** The version of the key and file format. Bump it whenever what a run depends on changes. */
+	private static final int FORMAT_VERSION = 1;
+	/** The most characters of output a stored run may have printed, so that entries stay small. */
+	private static final int MAX_OUTPUT = 1 << 20;
+
+	/**
+	 * The final state and statistics of one run.
+	 */
+	private static class Entry {
+		RunOutcome.Status status;
+		int pc;
+		long cycles;
+		long instructions;
+		int[] registers;
+		int[] memory;
+		boolean exited;
+		int exitCode;
+		/** Status, Cause, EPC and BadVAddr. */
+		int[] cp0;
+		/** The fault for FAULTED, null otherwise. */
+		SimulationFault fault;
+		String output;
+	}
+
+	/**
+	 * The console output of a run being simulated: handed on to the computer's own console as it is
+	 * printed, and recorded for the entry up to MAX_OUTPUT characters.
+	 */
+	private static class Capture implements Appendable {
+		/** The computer's console, null if it has none. */
+		private final ConsoleDevice mConsole;
+		/** The output so far, emptied once it outgrows MAX_OUTPUT. */
+		private final StringBuilder mOutput = new StringBuilder();
+		/** Set once the output outgrew MAX_OUTPUT. */
+		private boolean mOverflowed;
+
+		Capture(ConsoleDevice console) {
+			mConsole = console;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq) {
+			if (mConsole != null)
+				mConsole.print(csq.toString());
+			if (mOverflowed) {
+				return this;
+			} else if (mOutput.length() + csq.length() > MAX_OUTPUT) {
+				mOverflowed = true;
+				mOutput.setLength(0);
+			} else {
+				mOutput.append(csq);
+			}
+			return this;
+		}
+
+		@Override
+		public Appendable append(CharSequence csq, int start, int end) {
+			return append(csq.subSequence(start, end));
+		}
+
+		@Override
+		public Appendable append(char c) {
+			return append(String.valueOf(c));
+		}
+	}
+
+	/** The results in memory, least recently used first. Guarded by itself. */
+	private final LinkedHashMap<String, Entry> mEntries;
+	/** The directory results are written to, null if the cache is in memory only. */
+	private final Path mDirectory;
+	private final AtomicLong mHits = new AtomicLong();
+	private final AtomicLong mDiskHits = new AtomicLong();
+	private final AtomicLong mMisses = new AtomicLong();
+
+	/**
+	 * Creates a cache in memory only.
+	 * @param capacity the maximum number of results kept in memory
+	 * @exception IAG if capacity is less than 1
+	 */
+	public ResultCache(int capacity) {
+		this(capacity, null);
+	}
+
+	/**
+	 * Creates a cache in memory and in a directory. The directory is created if it does not exist and
+	 * may be shared with other caches, also in other processes.
+	 * @param capacity the maximum number of results kept in memory
+	 * @param directory the directory, or null for a cache in memory only
+	 * @exception IAG if capacity is less than 1
+	 * @throws UncheckedIOException if the directory cannot be created
+	 */
+	public ResultCache(int capacity, Path directory) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("Capacity must be at least 1");
+		mEntries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+				return size() > capacity;
+			}
+		};
+		mDirectory = directory;
+		if (directory != null) {
+			try {
+				Files.createDirectories(directory);
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Runs a program like Computer.execute(), or restores its result if the same run is cached. A cached
+	 * result is only used if it fits the governor's cycle and instruction budgets.
+	 * @param computer the computer, with the program loaded
+	 * @param governor the limits of the run
+	 * @return how the run ended
+	 */
+	public RunOutcome execute(Computer computer, Governor governor) {
+		return run(computer, governor, false);
+	}
+
+	/**
+	 * Runs a program like Computer.executeThreaded(), or restores its result if the same run is cached.
+	 * Threaded and cycle-stepped results are cached separately, since only the latter count cycles.
+	 * @param computer the computer, with the program loaded
+	 * @param governor the limits of the run, without a cycle budget
+	 * @return how the run ended
+	 * @exception IAG if the governor has a cycle budget
+	 */
+	public RunOutcome executeThreaded(Computer computer, Governor governor) {
+		return run(computer, governor, true);
+	}
+
+	/**
+	 * Returns the number of runs restored from the cache, from memory or from the directory.
+	 * @return the number of hits
+	 */
+	public long getHits() {
+		return mHits.get();
+	}
+
+	/**
+	 * Returns the number of hits that had to read the directory.
+	 * @return the number of hits from the directory
+	 */
+	public long getDiskHits() {
+		return mDiskHits.get();
+	}
+
+	/**
+	 * Returns the number of runs that were simulated, including those passed through uncached.
+	 * @return the number of misses
+	 */
+	public long getMisses() {
+		return mMisses.get();
+	}
+
+	/**
+	 * Returns the number of results in memory.
+	 * @return the number of results, at most the capacity
+	 */
+	public int size() {
+		synchronized (mEntries) {
+			return mEntries.size();
+		}
+	}
+
+	/**
+	 * Private helper method. Looks a run up and simulates it on a miss.
+	 * @param computer the computer
+	 * @param governor the limits
+	 * @param threaded true for the threaded engine
+	 * @return how the run ended
+	 */
+	private RunOutcome run(Computer computer, Governor governor, boolean threaded) {
+		if (!computer.isAtStart() || computer.getDebugger() != null || computer.getProfiler() != null
+				|| !computer.getDeviceBus().isDefaultLayout()) {
+			mMisses.incrementAndGet();
+			return threaded ? computer.executeThreaded(governor) : computer.execute(governor);
+		}
+		if (threaded && governor.getMaxCycles() != Long.MAX_VALUE)
+			throw new IllegalArgumentException("The threaded pipeline has no cycle budget");
+		long start = System.nanoTime();
+		String key = key(computer, threaded);
+		Entry entry = lookup(key);
+		if (entry != null && entry.cycles <= governor.getMaxCycles()
+				&& entry.instructions <= governor.getMaxInstructions()) {
+			mHits.incrementAndGet();
+			restore(computer, entry);
+			return new RunOutcome(entry.status, null, entry.fault, null, entry.pc, entry.cycles, entry.instructions,
+					System.nanoTime() - start);
+		}
+		mMisses.incrementAndGet();
+
+		DeviceBus bus = computer.getDeviceBus();
+		Capture output = new Capture(bus.getConsole());
+		DeviceBus capture = new DeviceBus();
+		capture.attach(Computer.CONSOLE_BASE, new ConsoleDevice(output));
+		capture.attach(Computer.TIMER_BASE, new TimerDevice());
+		computer.setDeviceBus(capture);
+		RunOutcome outcome;
+		try {
+			outcome = threaded ? computer.executeThreaded(governor) : computer.execute(governor);
+		} finally {
+			computer.setDeviceBus(bus);
+			if (bus.getConsole() != null)
+				bus.getConsole().flush();
+		}
+		if ((outcome.status == RunOutcome.Status.COMPLETED || outcome.status == RunOutcome.Status.FAULTED)
+				&& !output.mOverflowed)
+			store(key, capture(computer, outcome, output.mOutput.toString()));
+		return outcome;
+	}
+
+	/**
+	 * Private helper method. Hashes everything a run depends on.
+	 * @param computer the computer, before the run
+	 * @param threaded true for the threaded engine
+	 * @return the key as 64 hex digits
+	 */
+	private static String key(Computer computer, boolean threaded) {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bytes)) {
+			out.writeInt(FORMAT_VERSION);
+			out.writeBoolean(threaded);
+			writeInts(out, computer.getInstructionWords());
+			for (BitString register : computer.getRegisterContents())
+				out.writeInt(register.getValue2sComp());
+			Memory memory = computer.getMemoryContents();
+			out.writeBoolean(memory.getByteOrder() == ByteOrder.BIG_ENDIAN);
+			writeInts(out, memory.toWords());
+			out.writeInt(computer.getPC().getValue());
+			Coprocessor0 cp0 = computer.getCoprocessor0();
+			for (int cause = 0; cause < 32; cause++)
+				out.writeInt(cp0.getHandler(cause));
+			writeInts(out, readCP0(cp0));
+			out.writeBoolean(computer.isDelaySlots());
+			// The threaded engine ignores the configuration, so it does not split its results.
+			if (!threaded) {
+				PipelineConfig config = computer.getPipelineConfig();
+				out.writeBoolean(config.isForwarding());
+				out.writeBoolean(config.isEarlyBranches());
+				out.writeInt(config.getBranchPenalty());
+				out.writeInt(config.getMemoryLatency());
+				for (PipelineConfig.Unit unit : PipelineConfig.Unit.values())
+					out.writeInt(config.getLatency(unit));
+				for (PipelineConfig.Stage stage : PipelineConfig.Stage.values())
+					out.writeInt(config.getDepth(stage));
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(bytes.toByteArray());
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest)
+				sb.append(String.format("%02x", b));
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Private helper method. Reads the exception registers.
+	 * @param cp0 the coprocessor
+	 * @return Status, Cause, EPC and BadVAddr
+	 */
+	private static int[] readCP0(Coprocessor0 cp0) {
+		return new int[] {cp0.read(Coprocessor0.STATUS), cp0.read(Coprocessor0.CAUSE), cp0.read(Coprocessor0.EPC),
+				cp0.read(Coprocessor0.BAD_VADDR)};
+	}
+
+	/**
+	 * Private helper method. Records the state a run ended in.
+	 * @param computer the computer, after the run
+	 * @param outcome how the run ended
+	 * @param output what the program printed
+	 * @return the entry
+	 */
+	private static Entry capture(Computer computer, RunOutcome outcome, String output) {
+		Entry entry = new Entry();
+		entry.status = outcome.status;
+		entry.pc = outcome.pc;
+		entry.cycles = outcome.cycles;
+		entry.instructions = outcome.instructions;
+		BitString[] registers = computer.getRegisterContents();
+		entry.registers = new int[registers.length];
+		for (int i = 0; i < registers.length; i++)
+			entry.registers[i] = registers[i].getValue2sComp();
+		entry.memory = computer.getMemoryContents().toWords();
+		entry.exited = computer.hasExited();
+		entry.exitCode = computer.getExitCode();
+		entry.cp0 = readCP0(computer.getCoprocessor0());
+		entry.fault = outcome.fault;
+		entry.output = output;
+		return entry;
+	}
+
+	/**
+	 * Private helper method. Puts a computer into the state a cached run ended in.
+	 * @param computer the computer
+	 * @param entry the cached run
+	 */
+	private static void restore(Computer computer, Entry entry) {
+		computer.restore(entry.pc, entry.cycles, entry.instructions, entry.registers, entry.memory, entry.exited,
+				entry.exitCode, entry.fault);
+		computer.getCoprocessor0().restore(entry.cp0[0], entry.cp0[1], entry.cp0[2], entry.cp0[3]);
+		print(computer.getDeviceBus(), entry.output);
+	}
+
+	/**
+	 * Private helper method. Hands a program's output to the console of a bus.
+	 * @param bus the bus
+	 * @param output the output
+	 */
+	private static void print(DeviceBus bus, String output) {
+		ConsoleDevice console = bus.getConsole();
+		if (console != null && !output.isEmpty()) {
+			console.print(output);
+			console.flush();
+		}
+	}
+
+	/**
+	 * Private helper method. Finds a result in memory or, failing that, in the directory.
+	 * @param key the key
+	 * @return the result, or null if it is not cached
+	 */
+	private Entry lookup(String key) {
+		synchronized (mEntries) {
+			Entry entry = mEntries.get(key);
+			if (entry != null)
+				return entry;
+		}
+		if (mDirectory == null)
+			return null;
+		Entry entry = readFile(key);
+		if (entry != null) {
+			mDiskHits.incrementAndGet();
+			synchronized (mEntries) {
+				mEntries.put(key, entry);
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Private helper method. Adds a result to memory and the directory.
+	 * @param key the key
+	 * @param entry the result
+	 */
+	private void store(String key, Entry entry) {
+		synchronized (mEntries) {
+			mEntries.put(key, entry);
+		}
+		if (mDirectory != null)
+			writeFile(key, entry);
+	}
+
+	/**
+	 * Private helper method. Reads a result file. A file that is missing, truncated or written by another
+	 * format version counts as a miss, and is replaced once the run has been simulated again.
+	 * @param key the key
+	 * @return the result, or null if there is no valid file for the key
+	 */
+	private Entry readFile(String key) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+				Files.newInputStream(mDirectory.resolve(key))))) {
+			if (in.readInt() != FILE_MAGIC || in.readInt() != FORMAT_VERSION || !in.readUTF().equals(key))
+				return null;
+			Entry entry = new Entry();
+			entry.status = RunOutcome.Status.values()[in.readInt()];
+			entry.pc = in.readInt();
+			entry.cycles = in.readLong();
+			entry.instructions = in.readLong();
+			entry.registers = readInts(in);
+			entry.memory = readInts(in);
+			entry.exited = in.readBoolean();
+			entry.exitCode = in.readInt();
+			entry.cp0 = readInts(in);
+			if (entry.registers.length != Computer.MAX_REGISTERS || entry.memory.length != Computer.MAX_MEMORY / 4
+					|| entry.cp0.length != 4)
+				return null;
+			if (in.readBoolean())
+				entry.fault = new SimulationFault(in.readInt(), in.readInt(), in.readInt(), in.readInt(), in.readUTF());
+			int length = in.readInt();
+			// UTF-8 takes at most three bytes per character.
+			if (length < 0 || length > 3 * MAX_OUTPUT)
+				return null;
+			byte[] output = new byte[length];
+			in.readFully(output);
+			entry.output = new String(output, StandardCharsets.UTF_8);
+			return entry;
+		} catch (IOException | RuntimeException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Private helper method. Writes a result file. The file is written under a temporary name and then
+	 * renamed, so that readers in other threads and processes see either the whole file or none. A file
+	 * that cannot be written is reported and left out; the temporary file never stays behind.
+	 * @param key the key
+	 * @param entry the result
+	 */
+	private void writeFile(String key, Entry entry) {
+		Path temp = null;
+		try {
+			temp = Files.createTempFile(mDirectory, key, ".tmp");
+			try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+				out.writeInt(FILE_MAGIC);
+				out.writeInt(FORMAT_VERSION);
+				out.writeUTF(key);
+				out.writeInt(entry.status.ordinal());
+				out.writeInt(entry.pc);
+				out.writeLong(entry.cycles);
+				out.writeLong(entry.instructions);
+				writeInts(out, entry.registers);
+				writeInts(out, entry.memory);
+				out.writeBoolean(entry.exited);
+				out.writeInt(entry.exitCode);
+				writeInts(out, entry.cp0);
+				out.writeBoolean(entry.fault != null);
+				if (entry.fault != null) {
+					out.writeInt(entry.fault.cause);
+					out.writeInt(entry.fault.pc);
+					out.writeInt(entry.fault.badVAddr);
+					out.writeInt(entry.fault.instruction);
+					out.writeUTF(entry.fault.message);
+				}
+				byte[] output = entry.output.getBytes(StandardCharsets.UTF_8);
+				out.writeInt(output.length);
+				out.write(output);
+			}
+			Files.move(temp, mDirectory.resolve(key), StandardCopyOption.ATOMIC_MOVE,
+					StandardCopyOption.REPLACE_EXISTING);
+			temp = null;
+		} catch (IOException | UncheckedIOException e) {
+			System.err.println("Cannot write cached result " + mDirectory.resolve(key) + ": " + e.getMessage());
+		} finally {
+			if (temp != null) {
+				try {
+					Files.deleteIfExists(temp);
+				} catch (IOException e) {
+					System.err.println("Cannot delete " + temp + ": " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Private helper method. Writes an array with its length.
+	 * @param out the stream
+	 * @param values the array
+	 * @throws IOException if the stream fails
+	 */
+	private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+		out.writeInt(values.length);
+		for (int value : values)
+			out.writeInt(value);
+	}
+
+	/**
+	 * Private helper method. Reads an array written by writeInts().
+	 * @param in the stream
+	 * @return the array
+	 * @throws IOException if the stream fails or ends early
+	 */
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0 || length > Computer.MAX_INSTRUCTIONS + Computer.MAX_MEMORY)
+			throw new IOException("Invalid array length");
+		int[] values = new int[length];
+		for (int i = 0; i < length; i++)
+			values[i] = in.readInt();
+		return values;
+	}
+}
@@ -0,0 +1,78 @@
+package simulator;
+
+/**
+ * RunOutcome describes how a run under a Governor ended. The state the run stopped in stays in the
+ * Computer; a run that exceeded a budget, was cancelled or stopped at a breakpoint can be continued
+ * with another call.
+ * @author Egor Maksimenka
+ */
+public class RunOutcome {
+
+	/**
+	 * How a run ended.
+	 */
+	public enum Status {
+		/** The program ran to its end or exited through SYSCALL. */
+		COMPLETED,
+		/** A breakpoint or watchpoint was hit, see hit. */
+		STOPPED,
+		/** A budget of the Governor ran out, see limit. */
+		BUDGET_EXCEEDED,
+		/** The CancellationToken was cancelled. */
+		CANCELLED,
+		/** The program faulted without a guest handler, see fault. */
+		FAULTED
+	}
+
+	/**
+	 * The budgets a Governor enforces.
+	 */
+	public enum Limit {
+		CYCLES,
+		INSTRUCTIONS,
+		WALL_CLOCK
+	}
+
+	/** How the run ended. */
+	public final Status status;
+	/** The budget that ran out for BUDGET_EXCEEDED, null otherwise. */
+	public final Limit limit;
+	/** The fault for FAULTED, null otherwise. */
+	public final SimulationFault fault;
+	/** The breakpoint or watchpoint for STOPPED, null otherwise. */
+	public final Debugger.Hit hit;
+	/** The PC when the run ended. */
+	public final int pc;
+	/** The cycles executed by this run, 0 in the threaded mode. */
+	public final long cycles;
+	/** The instructions completed by this run. */
+	public final long instructions;
+	/** The wall-clock time of this run in nanoseconds. */
+	public final long elapsedNanos;
+
+	RunOutcome(Status status, Limit limit, SimulationFault fault, Debugger.Hit hit, int pc, long cycles,
+			long instructions, long elapsedNanos) {
+		this.status = status;
+		this.limit = limit;
+		this.fault = fault;
+		this.hit = hit;
+		this.pc = pc;
+		this.cycles = cycles;
+		this.instructions = instructions;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder(status.toString());
+		if (limit != null)
+			sb.append(" (").append(limit.toString().toLowerCase().replace('_', '-')).append(')');
+		if (fault != null)
+			sb.append(": ").append(fault);
+		if (hit != null)
+			sb.append(": ").append(hit);
+		sb.append(String.format(" at pc %s after %d cycles, %d instructions, %.3f ms", Disassembler.hex(pc), cycles,
+				instructions, elapsedNanos / 1e6));
+		return sb.toString();
+	}
+}
@@ -0,0 +1,422 @@
+package simulator;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * SampledSimulation estimates the cycles of programs too long to run on the cycle-stepped pipeline in
+ * full. The program runs on a ReferenceInterpreter, which is far faster than the pipeline, and every N
+ * instructions an architectural checkpoint is taken: the PC, the registers, the memory and the
+ * exception registers. From each checkpoint a Computer runs a warm-up interval, whose cycles are
+ * discarded, and then measures the cycles of the next interval. The intervals run on a thread pool
+ * while the fast-forward goes on, each on a Computer from a ComputerPool.
+ * <p>
+ * The CPI of the measured intervals is scaled to the whole program. Its bounds are those of a ratio
+ * estimate at 95% confidence, as if the intervals were a random sample of the program; a program whose
+ * behaviour repeats with the period of the checkpoints can fool them. The pipeline has no caches or
+ * branch predictors, so warm-up only has to fill the pipeline and let the stalls of the instructions
+ * ahead of the interval play out; a few hundred instructions are plenty.
+ * <p>
+ * Devices are not part of a checkpoint. Every interval gets a new console, whose output is discarded,
+ * and a new timer, so a program whose path depends on the timer may take another path in an interval
+ * than in the fast-forward. A program that ends before its first interval is measured is simulated in
+ * full instead.
+ * @author Egor Maksimenka
+ */
+public class SampledSimulation {
+
+	/** The instructions between checkpoints unless setInterval() is called. */
+	public static final long DEFAULT_INTERVAL = 100_000;
+	/** The warm-up instructions of an interval unless setWarmup() is called. */
+	public static final long DEFAULT_WARMUP = 1_000;
+	/** The measured instructions of an interval unless setLength() is called. */
+	public static final long DEFAULT_LENGTH = 1_000;
+	/** The normal quantile of a two-sided 95% confidence interval. */
+	private static final double Z_95 = 1.96;
+	/** One less than the number of fast-forward steps between checks of the time limit. */
+	private static final int CHECK_MASK = 4095;
+
+	/** The instructions between checkpoints. */
+	private long mInterval = DEFAULT_INTERVAL;
+	/** The warm-up instructions of an interval. */
+	private long mWarmup = DEFAULT_WARMUP;
+	/** The measured instructions of an interval. */
+	private long mLength = DEFAULT_LENGTH;
+	/** The threads the intervals run on. */
+	private int mThreads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * One measured interval.
+	 */
+	public static class Sample {
+		/** The instructions the program had completed at the checkpoint the interval started from. */
+		public final long checkpoint;
+		/** The instructions completed while measuring. */
+		public final long instructions;
+		/** The cycles they took. */
+		public final long cycles;
+
+		Sample(long checkpoint, long instructions, long cycles) {
+			this.checkpoint = checkpoint;
+			this.instructions = instructions;
+			this.cycles = cycles;
+		}
+
+		/**
+		 * Returns the cycles per instruction of the interval.
+		 * @return cycles / instructions
+		 */
+		public double cpi() {
+			return (double) cycles / instructions;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("@%d: %d instructions, %d cycles, CPI %.4f", checkpoint, instructions, cycles, cpi());
+		}
+	}
+
+	/**
+	 * The estimate for a whole program.
+	 */
+	public static class Estimate {
+		/** How the fast-forward ended: COMPLETED, FAULTED, BUDGET_EXCEEDED or CANCELLED. */
+		public final RunOutcome.Status status;
+		/** The instructions completed by the end of the program, or by the point the fast-forward stopped. */
+		public final long instructions;
+		/** The measured intervals in program order, empty if the program was simulated in full. */
+		public final List<Sample> samples;
+		/** True if the program was simulated in full, so that cycles is exact. */
+		public final boolean full;
+		/** The cycles per instruction. */
+		public final double cpi;
+		/** The half-width of the 95% confidence interval of cpi, 0 if full, NaN with fewer than two samples. */
+		public final double cpiError;
+		/** The cycles. */
+		public final long cycles;
+		/** The half-width of the 95% confidence interval of cycles, in the way of cpiError. */
+		public final double cyclesError;
+		/** The wall-clock time of the fast-forward in nanoseconds. */
+		public final long fastForwardNanos;
+		/** The wall-clock time of the whole estimate in nanoseconds. */
+		public final long elapsedNanos;
+
+		Estimate(RunOutcome.Status status, long instructions, List<Sample> samples, boolean full, double cpi,
+				double cpiError, long cycles, long fastForwardNanos, long elapsedNanos) {
+			this.status = status;
+			this.instructions = instructions;
+			this.samples = Collections.unmodifiableList(samples);
+			this.full = full;
+			this.cpi = cpi;
+			this.cpiError = cpiError;
+			this.cycles = cycles;
+			this.cyclesError = cpiError * instructions;
+			this.fastForwardNanos = fastForwardNanos;
+			this.elapsedNanos = elapsedNanos;
+		}
+
+		/**
+		 * Checks whether a number of cycles lies within the confidence interval.
+		 * @param actual the cycles, e.g. of a full simulation
+		 * @return true if it does; false if it does not or there are no bounds
+		 */
+		public boolean contains(long actual) {
+			return Math.abs(actual - cycles) <= cyclesError;
+		}
+
+		@Override
+		public String toString() {
+			String prefix = status == RunOutcome.Status.COMPLETED ? "" : status.toString().toLowerCase() + ": ";
+			if (full)
+				return String.format("%s%d cycles (CPI %.4f) for %d instructions, simulated in full", prefix, cycles,
+						cpi, instructions);
+			return String.format("%sestimated %d cycles +- %.0f (CPI %.4f +- %.4f) for %d instructions from %d samples",
+					prefix, cycles, cyclesError, cpi, cpiError, instructions, samples.size());
+		}
+	}
+
+	/**
+	 * An architectural checkpoint, taken between two instructions and not in a delay slot.
+	 */
+	private static class Checkpoint {
+		/** The instructions completed before it. */
+		final long instruction;
+		final int pc;
+		final int[] registers;
+		/** The memory as words in its byte order. */
+		final int[] memory;
+		final int status;
+		final int cause;
+		final int epc;
+		final int badVAddr;
+
+		Checkpoint(long instruction, ReferenceInterpreter reference) {
+			this.instruction = instruction;
+			pc = reference.getPC();
+			registers = reference.getRegisterContents().clone();
+			memory = reference.getMemoryContents().toWords();
+			Coprocessor0 cp0 = reference.getCoprocessor0();
+			status = cp0.read(Coprocessor0.STATUS);
+			cause = cp0.read(Coprocessor0.CAUSE);
+			epc = cp0.read(Coprocessor0.EPC);
+			badVAddr = cp0.read(Coprocessor0.BAD_VADDR);
+		}
+	}
+
+	/**
+	 * Sets the distance between checkpoints. Every checkpoint starts one interval.
+	 * @param interval the instructions between checkpoints
+	 * @exception IAG if interval is less than 1
+	 */
+	public void setInterval(long interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException("Interval must be at least 1");
+		mInterval = interval;
+	}
+
+	/**
+	 * Sets how many instructions an interval runs before it is measured.
+	 * @param warmup the warm-up instructions, 0 for none
+	 * @exception IAG if warmup is negative
+	 */
+	public void setWarmup(long warmup) {
+		if (warmup < 0)
+			throw new IllegalArgumentException("Warm-up cannot be negative");
+		mWarmup = warmup;
+	}
+
+	/**
+	 * Sets how many instructions an interval measures. A measurement ends with a basic block, so it may
+	 * measure a few more.
+	 * @param length the measured instructions
+	 * @exception IAG if length is less than 1
+	 */
+	public void setLength(long length) {
+		if (length < 1)
+			throw new IllegalArgumentException("Length must be at least 1");
+		mLength = length;
+	}
+
+	/**
+	 * Sets how many intervals are simulated at once.
+	 * @param threads the number of threads
+	 * @exception IAG if threads is less than 1
+	 */
+	public void setThreads(int threads) {
+		if (threads < 1)
+			throw new IllegalArgumentException("Threads must be at least 1");
+		mThreads = threads;
+	}
+
+	/**
+	 * Estimates the cycles of the program loaded into a Computer. The Computer itself does not run; its
+	 * instructions, registers, memory, exception handlers, PipelineConfig, delay-slot mode and byte order
+	 * are what every interval starts from.
+	 * @param computer the computer, with a program loaded and not yet started
+	 * @param governor the limits of the fast-forward, i.e. its instruction budget, time limit and
+	 * CancellationToken; the token cancels the intervals as well, and the cycle budget is ignored
+	 * @return the estimate
+	 * @exception IAG if the computer has already started
+	 * @throws InterruptedException if the thread is interrupted while waiting for the intervals
+	 * @throws ExecutionException if an interval threw
+	 */
+	public Estimate estimate(Computer computer, Governor governor) throws InterruptedException, ExecutionException {
+		if (!computer.isAtStart())
+			throw new IllegalArgumentException("The computer has already started");
+		long start = System.nanoTime();
+		long deadline = governor.deadline(start);
+		int[] words = computer.getInstructionWords();
+		ReferenceInterpreter reference = ReferenceInterpreter.copyOf(computer, words);
+		ComputerPool pool = new ComputerPool(mThreads, SampledSimulation::newComputer);
+		ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+		List<Future<Sample>> futures = new ArrayList<>();
+		Checkpoint first = null;
+		RunOutcome.Status status = null;
+		long instructions = 0;
+		long next = 0;
+		long fastForward;
+		try {
+			for (long steps = 1; status == null; steps++) {
+				if (instructions >= next && !reference.isInDelaySlot()) {
+					Checkpoint checkpoint = new Checkpoint(instructions, reference);
+					if (first == null)
+						first = checkpoint;
+					futures.add(executor.submit(() -> measure(computer, words, checkpoint, pool,
+							governor.getCancellationToken())));
+					next = (instructions / mInterval + 1) * mInterval;
+				}
+				int index = reference.getPC() / 4;
+				boolean nop = reference.isInDelaySlot()
+						&& (index >= Computer.MAX_INSTRUCTIONS || words[index] == 0);
+				long traps = reference.getTrapCount();
+				if (!reference.step()) {
+					status = reference.getFault() != null ? RunOutcome.Status.FAULTED : RunOutcome.Status.COMPLETED;
+				} else {
+					if (!nop && reference.getTrapCount() == traps)
+						instructions++;
+					if (governor.isCancelled())
+						status = RunOutcome.Status.CANCELLED;
+					else if (instructions > governor.getMaxInstructions()
+							|| (steps & CHECK_MASK) == 0 && governor.exceeded(0, 0, deadline) != null)
+						status = RunOutcome.Status.BUDGET_EXCEEDED;
+				}
+			}
+			fastForward = System.nanoTime() - start;
+			List<Sample> samples = new ArrayList<>();
+			for (Future<Sample> future : futures) {
+				Sample sample = future.get();
+				if (sample != null)
+					samples.add(sample);
+			}
+			if (samples.isEmpty() && status != RunOutcome.Status.CANCELLED)
+				return simulate(computer, words, first, pool, governor, status, instructions, fastForward, start);
+			return estimate(computer.getPipelineConfig(), status, instructions, samples, fastForward, start);
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Private helper method. Scales the CPI of the samples to the program.
+	 * @param config the pipeline configuration, for the cycles before the first instruction retires
+	 * @param status how the fast-forward ended
+	 * @param instructions the instructions of the program
+	 * @param samples the measured intervals
+	 * @param fastForward the wall-clock time of the fast-forward
+	 * @param start the System.nanoTime() the estimate started at
+	 * @return the estimate
+	 */
+	private static Estimate estimate(PipelineConfig config, RunOutcome.Status status, long instructions,
+			List<Sample> samples, long fastForward, long start) {
+		double cycles = 0;
+		double measured = 0;
+		for (Sample sample : samples) {
+			cycles += sample.cycles;
+			measured += sample.instructions;
+		}
+		double cpi = samples.isEmpty() ? Double.NaN : cycles / measured;
+		double error = Double.NaN;
+		int m = samples.size();
+		if (m > 1) {
+			double squares = 0;
+			for (Sample sample : samples) {
+				double residual = sample.cycles - cpi * sample.instructions;
+				squares += residual * residual;
+			}
+			double unmeasured = instructions == 0 ? 0 : Math.max(0, 1 - measured / instructions);
+			error = Z_95 * Math.sqrt(squares / (m - 1) / m * unmeasured) / (measured / m);
+		}
+		long total = samples.isEmpty() ? 0 : Math.round(cpi * instructions) + config.getStageCount() - 1;
+		return new Estimate(status, instructions, samples, false, cpi, error, total, fastForward,
+				System.nanoTime() - start);
+	}
+
+	/**
+	 * Private helper method. Simulates a program too short to be sampled in full.
+	 * @param template the computer the estimate is for
+	 * @param words its instructions
+	 * @param first the checkpoint at the start of the program
+	 * @param pool the Computers
+	 * @param governor the limits of the estimate
+	 * @param status how the fast-forward ended
+	 * @param instructions the instructions the fast-forward completed
+	 * @param fastForward the wall-clock time of the fast-forward
+	 * @param start the System.nanoTime() the estimate started at
+	 * @return the estimate, exact if the run ended the way the fast-forward did
+	 */
+	private static Estimate simulate(Computer template, int[] words, Checkpoint first, ComputerPool pool,
+			Governor governor, RunOutcome.Status status, long instructions, long fastForward, long start) {
+		Computer computer = pool.acquire();
+		try {
+			setUp(computer, template, words, first);
+			Governor limits = new Governor();
+			limits.setMaxInstructions(governor.getMaxInstructions());
+			limits.setCancellationToken(governor.getCancellationToken());
+			RunOutcome outcome = computer.execute(limits);
+			boolean exact = outcome.status == status;
+			double cpi = outcome.instructions == 0 ? Double.NaN : (double) outcome.cycles / outcome.instructions;
+			return new Estimate(outcome.status, outcome.instructions, new ArrayList<>(), true, cpi,
+					exact ? 0 : Double.NaN, outcome.cycles, fastForward, System.nanoTime() - start);
+		} finally {
+			pool.release(computer);
+		}
+	}
+
+	/**
+	 * Private helper method. Warms up and measures one interval.
+	 * @param template the computer the estimate is for
+	 * @param words its instructions
+	 * @param checkpoint where the interval starts
+	 * @param pool the Computers
+	 * @param token cancels the interval, or null
+	 * @return the sample, or null if the program ended or the estimate was cancelled before it was measured
+	 */
+	private Sample measure(Computer template, int[] words, Checkpoint checkpoint, ComputerPool pool,
+			CancellationToken token) {
+		Computer computer = pool.acquire();
+		try {
+			setUp(computer, template, words, checkpoint);
+			if (mWarmup > 0 && computer.execute(limits(mWarmup, token)).status != RunOutcome.Status.BUDGET_EXCEEDED)
+				return null;
+			RunOutcome outcome = computer.execute(limits(mLength, token));
+			if (outcome.status == RunOutcome.Status.CANCELLED || outcome.status == RunOutcome.Status.STOPPED
+					|| outcome.instructions == 0)
+				return null;
+			return new Sample(checkpoint.instruction, outcome.instructions, outcome.cycles);
+		} finally {
+			pool.release(computer);
+		}
+	}
+
+	/**
+	 * Private helper method. Creates the limits of a run of at least the given instructions.
+	 * @param instructions the instructions
+	 * @param token cancels the run, or null
+	 * @return the Governor
+	 */
+	private static Governor limits(long instructions, CancellationToken token) {
+		Governor governor = new Governor();
+		governor.setMaxInstructions(instructions - 1);
+		governor.setCancellationToken(token);
+		return governor;
+	}
+
+	/**
+	 * Private helper method. Configures a Computer like the template and puts it into a checkpoint.
+	 * @param computer the Computer, reset
+	 * @param template the computer the estimate is for
+	 * @param words its instructions
+	 * @param checkpoint the checkpoint
+	 */
+	private static void setUp(Computer computer, Computer template, int[] words, Checkpoint checkpoint) {
+		computer.setPipelineConfig(template.getPipelineConfig());
+		computer.setDelaySlots(template.isDelaySlots());
+		computer.getMemoryContents().setByteOrder(template.getMemoryContents().getByteOrder());
+		Coprocessor0 source = template.getCoprocessor0();
+		Coprocessor0 cp0 = computer.getCoprocessor0();
+		for (int cause = 0; cause < ReferenceInterpreter.CAUSES; cause++)
+			cp0.setHandler(cause, source.getHandler(cause));
+		computer.restoreCheckpoint(words, checkpoint.pc, checkpoint.registers, checkpoint.memory,
+				checkpoint.status, checkpoint.cause, checkpoint.epc, checkpoint.badVAddr);
+	}
+
+	/**
+	 * Private helper method. Creates a Computer for the pool with a console that discards its output
+	 * and a timer.
+	 * @return the Computer
+	 */
+	private static Computer newComputer() {
+		Computer computer = new Computer();
+		DeviceBus bus = new DeviceBus();
+		bus.attach(Computer.CONSOLE_BASE, new ConsoleDevice(Writer.nullWriter()));
+		bus.attach(Computer.TIMER_BASE, new TimerDevice());
+		computer.setDeviceBus(bus);
+		return computer;
+	}
+}
@@ -0,0 +1,66 @@
+package simulator;
+
+/**
+ * Describes a guest fault that no exception handler took care of. The run stops precisely at the
+ * faulting instruction: every older instruction has completed, the faulting one and every younger one
+ * have not, and the PC points at the faulting instruction. Faults are reported through this result
+ * instead of a host exception, so bad programs cost no more than good ones.
+ * @author Egor Maksimenka
+ */
+public class SimulationFault {
+
+	/** Cause code for a misaligned or out-of-range load or instruction address (AdEL). */
+	public static final int ADDRESS_LOAD = 4;
+	/** Cause code for a misaligned or out-of-range store address (AdES). */
+	public static final int ADDRESS_STORE = 5;
+	/** Cause code for a SYSCALL with an unsupported service number (Sys). */
+	public static final int SYSCALL = 8;
+	/** Cause code for an undefined instruction or a write to $zero (RI). */
+	public static final int RESERVED_INSTRUCTION = 10;
+	/** Cause code for signed overflow (Ov). */
+	public static final int OVERFLOW = 12;
+
+	/** One of the cause codes above. */
+	public final int cause;
+	/** The address of the faulting instruction. */
+	public final int pc;
+	/** The faulting data or instruction address for ADDRESS_LOAD and ADDRESS_STORE, 0 otherwise. */
+	public final int badVAddr;
+	/** The faulting instruction word. */
+	public final int instruction;
+	/** What went wrong, e.g. "Overflow exception". */
+	public final String message;
+
+	SimulationFault(int cause, int pc, int badVAddr, int instruction, String message) {
+		this.cause = cause;
+		this.pc = pc;
+		this.badVAddr = badVAddr;
+		this.instruction = instruction;
+		this.message = message;
+	}
+
+	/**
+	 * Returns the MIPS mnemonic of a cause code.
+	 * @param cause the cause code
+	 * @return the mnemonic, e.g. "Ov"
+	 */
+	public static String causeName(int cause) {
+		switch (cause) {
+			case ADDRESS_LOAD: return "AdEL";
+			case ADDRESS_STORE: return "AdES";
+			case SYSCALL: return "Sys";
+			case RESERVED_INSTRUCTION: return "RI";
+			case OVERFLOW: return "Ov";
+			default: return "Exc" + cause;
+		}
+	}
+
+	@Override
+	public String toString() {
+		String text = message + " [" + causeName(cause) + "] at " + Disassembler.hex(pc) + ": "
+				+ Disassembler.disassemble(instruction);
+		if (cause == ADDRESS_LOAD || cause == ADDRESS_STORE)
+			text += ", address " + Disassembler.hex(badVAddr);
+		return text;
+	}
+}
@@ -0,0 +1,92 @@
+package simulator;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * SymbolTable maps addresses to the names of the functions and labels they belong to, for reports
+ * and traces of programs loaded from an ElfFile.
+ * @author Egor Maksimenka
+ */
+public class SymbolTable {
+
+	/** The symbol addresses, ascending. */
+	private final int[] mAddresses;
+	/** The symbol names, parallel to mAddresses. */
+	private final String[] mNames;
+	/** The address of every symbol, by name. */
+	private final Map<String, Integer> mByName = new HashMap<>();
+
+	/**
+	 * Creates a symbol table. When several symbols share an address, the first one is used for lookups.
+	 * @param names the symbol names
+	 * @param addresses the symbol addresses, parallel to names
+	 * @exception IAG if the arrays differ in length
+	 */
+	public SymbolTable(String[] names, int[] addresses) {
+		if (names.length != addresses.length)
+			throw new IllegalArgumentException("Every symbol needs an address");
+		Integer[] order = new Integer[names.length];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> Integer.compare(addresses[a], addresses[b]));
+		mAddresses = new int[names.length];
+		mNames = new String[names.length];
+		for (int i = 0; i < order.length; i++) {
+			mAddresses[i] = addresses[order[i]];
+			mNames[i] = names[order[i]];
+			mByName.putIfAbsent(names[order[i]], addresses[order[i]]);
+		}
+	}
+
+	/**
+	 * Finds the symbol an address belongs to: the closest symbol at or below it.
+	 * @param addr the address
+	 * @return the symbol name, or null if no symbol lies at or below addr
+	 */
+	public String lookup(int addr) {
+		int i = indexAtOrBelow(addr);
+		return i < 0 ? null : mNames[i];
+	}
+
+	/**
+	 * Formats an address relative to its symbol.
+	 * @param addr the address
+	 * @return e.g. "main" or "main+0x8", or the plain address if no symbol lies at or below it
+	 */
+	public String format(int addr) {
+		int i = indexAtOrBelow(addr);
+		if (i < 0)
+			return Disassembler.hex(addr);
+		int offset = addr - mAddresses[i];
+		return offset == 0 ? mNames[i] : mNames[i] + "+0x" + Integer.toHexString(offset);
+	}
+
+	/**
+	 * Returns the address of a symbol.
+	 * @param name the symbol name
+	 * @return the address, or null if there is no such symbol
+	 */
+	public Integer addressOf(String name) {
+		return mByName.get(name);
+	}
+
+	public int size() {
+		return mNames.length;
+	}
+
+	/**
+	 * Private helper method. Binary searches for the last symbol at or below an address.
+	 * @param addr the address
+	 * @return the index into mAddresses, or -1 if there is none
+	 */
+	private int indexAtOrBelow(int addr) {
+		int i = Arrays.binarySearch(mAddresses, addr);
+		if (i < 0)
+			return -i - 2;
+		while (i > 0 && mAddresses[i - 1] == addr)
+			i--;
+		return i;
+	}
+}
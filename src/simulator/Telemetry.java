@@ -0,0 +1,207 @@
+package simulator;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Timespan;
+
+/**
+ * Telemetry defines the Java Flight Recorder events of the simulator, so that a slow run can be lined
+ * up with GC, allocation and thread events of the host in one recording. Enable them like any other
+ * event, e.g. with -XX:StartFlightRecording, and view them with "jfr print --categories Simulator".
+ * <p>
+ * Nothing here is called per cycle or per instruction. Runs are reported at their start and end,
+ * throughput is sampled at basic block ends at most every SAMPLE_INTERVAL nanoseconds, and the other
+ * events are rare. While no recording has an event enabled, emitting it comes down to one flag check.
+ * @author Egor Maksimenka
+ */
+final class Telemetry {
+
+	/** The name of the cycle-stepped engine in events. */
+	static final String STEPPED = "stepped";
+	/** The name of the threaded engine in events. */
+	static final String THREADED = "threaded";
+	/** The minimum time between two throughput samples of a run, in nanoseconds. */
+	static final long SAMPLE_INTERVAL = 20_000_000;
+
+	/**
+	 * One run of Computer.execute() or Computer.executeThreaded(), from start to end.
+	 */
+	@Name("simulator.Run")
+	@Label("Simulation Run")
+	@Category("Simulator")
+	static class RunEvent extends Event {
+		@Label("Engine")
+		String engine;
+		@Label("Status")
+		String status;
+		@Label("Guest Instructions")
+		long instructions;
+		@Label("Guest Cycles")
+		@Description("0 for the threaded engine, which keeps no cycle count")
+		long cycles;
+		@Label("Final PC")
+		int pc;
+	}
+
+	/**
+	 * The host time spent per guest instruction since the previous sample of the same run.
+	 */
+	@Name("simulator.Throughput")
+	@Label("Simulation Throughput")
+	@Category("Simulator")
+	static class ThroughputEvent extends Event {
+		@Label("Engine")
+		String engine;
+		@Label("Guest Instructions")
+		long instructions;
+		@Label("Guest Cycles")
+		long cycles;
+		@Label("Host Time")
+		@Timespan(Timespan.NANOSECONDS)
+		long hostNanos;
+		@Label("Host ns per Guest Instruction")
+		double nanosPerInstruction;
+	}
+
+	/**
+	 * A Computer ran under a different engine than on its previous run.
+	 */
+	@Name("simulator.EngineTransition")
+	@Label("Engine Transition")
+	@Category("Simulator")
+	static class EngineTransitionEvent extends Event {
+		@Label("From")
+		String from;
+		@Label("To")
+		String to;
+		@Label("Guest Instructions")
+		@Description("The instructions completed since the last reset, when the switch happened")
+		long instructions;
+	}
+
+	/**
+	 * The instruction store of a Computer was cleared or overwritten, which discards the decoded program.
+	 */
+	@Name("simulator.CodeFlush")
+	@Label("Code Flush")
+	@Category("Simulator")
+	static class CodeFlushEvent extends Event {
+		@Label("Reason")
+		String reason;
+		@Label("Instruction Words")
+		@Description("The number of instruction words loaded, 0 for a reset")
+		int words;
+	}
+
+	/**
+	 * Samples the throughput of one run. Call sample() at the end of every basic block; it emits an event
+	 * once SAMPLE_INTERVAL has passed since the previous one.
+	 */
+	static final class Sampler {
+		private final String mEngine;
+		private long mLastNanos;
+		private long mLastInstructions;
+		private long mLastCycles;
+
+		private Sampler(String engine, long startNanos) {
+			mEngine = engine;
+			mLastNanos = startNanos;
+		}
+
+		/**
+		 * Emits a sample if it is time to.
+		 * @param instructions the instructions completed by the run so far
+		 * @param cycles the cycles executed by the run so far
+		 */
+		void sample(long instructions, long cycles) {
+			long now = System.nanoTime();
+			if (now - mLastNanos < SAMPLE_INTERVAL)
+				return;
+			ThroughputEvent event = new ThroughputEvent();
+			event.engine = mEngine;
+			event.instructions = instructions - mLastInstructions;
+			event.cycles = cycles - mLastCycles;
+			event.hostNanos = now - mLastNanos;
+			event.nanosPerInstruction = event.instructions == 0 ? 0 : (double) event.hostNanos / event.instructions;
+			event.commit();
+			mLastNanos = now;
+			mLastInstructions = instructions;
+			mLastCycles = cycles;
+		}
+	}
+
+	private Telemetry() {
+	}
+
+	/**
+	 * Starts timing a run.
+	 * @return the event to pass to endRun()
+	 */
+	static RunEvent beginRun() {
+		RunEvent event = new RunEvent();
+		event.begin();
+		return event;
+	}
+
+	/**
+	 * Ends a run and emits its event.
+	 * @param event the event from beginRun()
+	 * @param engine STEPPED or THREADED
+	 * @param outcome how the run ended
+	 */
+	static void endRun(RunEvent event, String engine, RunOutcome outcome) {
+		event.end();
+		if (event.shouldCommit()) {
+			event.engine = engine;
+			event.status = outcome.status.name();
+			event.instructions = outcome.instructions;
+			event.cycles = outcome.cycles;
+			event.pc = outcome.pc;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Creates a throughput sampler for a run. Whether throughput is recorded is decided once per run, so
+	 * a recording started during a long run samples from the next run on.
+	 * @param engine STEPPED or THREADED
+	 * @param startNanos the System.nanoTime() the run started at
+	 * @return the sampler, or null if no recording has the event enabled
+	 */
+	static Sampler sampler(String engine, long startNanos) {
+		return new ThroughputEvent().isEnabled() ? new Sampler(engine, startNanos) : null;
+	}
+
+	/**
+	 * Reports a switch between engines.
+	 * @param from the engine of the previous run
+	 * @param to the engine of this run
+	 * @param instructions the instructions completed since the last reset
+	 */
+	static void engineTransition(String from, String to, long instructions) {
+		EngineTransitionEvent event = new EngineTransitionEvent();
+		if (event.isEnabled()) {
+			event.from = from;
+			event.to = to;
+			event.instructions = instructions;
+			event.commit();
+		}
+	}
+
+	/**
+	 * Reports that the instruction store was cleared or overwritten.
+	 * @param reason e.g. "reset" or "program"
+	 * @param words the number of instruction words loaded, 0 for a reset
+	 */
+	static void codeFlush(String reason, int words) {
+		CodeFlushEvent event = new CodeFlushEvent();
+		if (event.isEnabled()) {
+			event.reason = reason;
+			event.words = words;
+			event.commit();
+		}
+	}
+}
@@ -0,0 +1,719 @@
+package simulator;
+
+import static simulator.InstructionSet.*;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ThreadedPipeline executes a program with IF, ID, EX, MEM and WB each running on their own thread.
+ * Instructions move between the stages through LatchRingBuffers instead of the shared pipeline
+ * registers Computer uses, and the stages signal each other through two feedback paths:
+ * <ul>
+ *   <li>EX publishes taken branches and jumps as a redirect that IF picks up. Every redirect starts
+ *   a new epoch, and EX drops whatever IF fetched in an older epoch.</li>
+ *   <li>MEM publishes every completed load, and EX waits for a pending load before reading its
+ *   target register.</li>
+ * </ul>
+ * In delay-slot mode, IF keeps fetching sequentially past a branch, so its delay slot arrives in the
+ * same epoch, and EX publishes the redirect only once it has executed the delay slot.
+ * The architectural result is the same as Computer's, but the stages are not kept in lock-step so
+ * there is no cycle count; devices are passed the number of instructions MEM has seen instead.
+ * This mode is meant for host throughput on long-running programs.
+ * <p>
+ * If a stage throws, for example because a device fails, the run stops and run() rethrows the exception
+ * once every stage has returned. The state is then not precise, the same as when a device throws on the
+ * cycle-stepped pipeline.
+ * @author Egor Maksimenka
+ */
+class ThreadedPipeline {
+
+	/** Op code the latch carries for a SYSCALL print, so that MEM prints in program order. */
+	private final static int PRINT_OP = -1;
+
+	/** Number of slots in each ring buffer between two stages. */
+	private static final int RING_CAPACITY = 1024;
+	/**
+	 * How long past the deadline a waiting stage leaves EX to stop the run precisely at a redirect before
+	 * it gives up on the run.
+	 */
+	private static final long ABANDON_GRACE_NANOS = 100_000_000L;
+
+	/**
+	 * The contents of one pipeline latch. Each stage fills in the fields it is responsible for and
+	 * copies the rest from its input.
+	 */
+	static class Latch {
+		/** True for the end-of-program marker IF sends when it reaches a word of 0. */
+		boolean halt;
+		/** The instruction word. */
+		int word;
+		/** PC + 4 of the instruction, or the PC of the end of the program for a halt marker. */
+		int nextPC;
+		/** The redirect epoch the instruction was fetched in. */
+		int epoch;
+		/** True if the instruction is in the delay slot of the branch ahead of it. */
+		boolean slot;
+		/** The decoded op code. */
+		int op;
+		/** The decoded rs register. */
+		int rs;
+		/** The decoded rt register. */
+		int rt;
+		/** The decoded rd register. */
+		int rd;
+		/** The decoded function code. */
+		int funct;
+		/** The decoded, sign-extended immediate. */
+		int imm;
+		/** The register to write back, -1 if none. */
+		int target;
+		/** The value to write back or store. */
+		int value;
+		/** The memory address of a load or store. */
+		int address;
+		/** The sequence number of a load, used to tell EX when its value is available. */
+		long loadSeq;
+	}
+
+	/** The instructions for the input program. */
+	private final int[] mInstructions;
+	/** The architectural registers, written by WB. */
+	private final int[] mRegisters;
+	/** The simulated memory, accessed by MEM only. */
+	private final Memory mMemory;
+	/** The memory-mapped devices, accessed by MEM only. */
+	private final DeviceBus mBus;
+	/** The PC to start fetching from. */
+	private final int mStartPC;
+	/** True if BEQ, J and JR have a delay slot. */
+	private final boolean mDelaySlots;
+	/** True if the instruction at mStartPC is the delay slot of a branch that already executed. */
+	private final boolean mStartInSlot;
+	/** The limits of the run. EX checks the instruction budget exactly and the others at every redirect. */
+	private final Governor mGovernor;
+	/** The System.nanoTime() the run has to stop at, Long.MAX_VALUE if none. */
+	private final long mDeadline;
+	/** Samples the throughput for JFR at every redirect, null if it is not recorded. Used by EX only. */
+	private final Telemetry.Sampler mSampler;
+
+	/** Queue from IF to ID. */
+	private final LatchRingBuffer mIfId;
+	/** Queue from ID to EX. */
+	private final LatchRingBuffer mIdEx;
+	/** Queue from EX to MEM. */
+	private final LatchRingBuffer mExMem;
+	/** Queue from MEM to WB. */
+	private final LatchRingBuffer mMemWb;
+
+	/** The latest redirect published by EX: the epoch in the high half, the target in the low half. */
+	private final AtomicLong mRedirect = new AtomicLong();
+	/** Sequence number of the last load MEM has completed. */
+	private final AtomicLong mCompletedLoads = new AtomicLong();
+	/** The value of the last completed load into each register, published through mCompletedLoads. */
+	private final int[] mLoadedValues = new int[Computer.MAX_REGISTERS];
+
+	/** Set once the program has halted or faulted; every stage returns when it sees it. */
+	private volatile boolean mStopped;
+	/** The first exception a stage threw, null if none did. */
+	private final AtomicReference<Throwable> mFailure = new AtomicReference<>();
+	/** The unhandled fault that ended the program, written by EX. */
+	private volatile SimulationFault mFault;
+	/** Why EX stopped the run early, null if it did not. */
+	private volatile RunOutcome.Status mStopStatus;
+	/** The budget that ran out, null if none did. */
+	private volatile RunOutcome.Limit mLimit;
+	/** The PC the program halted at, written by WB. */
+	private int mFinalPC;
+	/** The number of instructions that reached WB. */
+	private long mRetired;
+	/** Set by EX when the program ended with an exit SYSCALL. */
+	private volatile boolean mExited;
+	/** The exit code passed to SYSCALL, written by EX. */
+	private volatile int mExitCode;
+
+	/** The exception registers and handlers, used by EX only. */
+	private final Coprocessor0 mCP0;
+	/** EX's copy of the registers. */
+	private final int[] mExRegisters;
+	/** The sequence number of the load in flight per register, 0 if none. Used by EX only. */
+	private final long[] mPendingLoad = new long[Computer.MAX_REGISTERS];
+	/** The number of loads EX has issued. */
+	private long mIssuedLoads;
+	/** The redirect epoch EX executes instructions of. */
+	private int mEpoch;
+	/** Set by EX once it sent the final halt marker; every instruction after it is dropped. */
+	private boolean mHalted;
+	/** Set by EX at every redirect, so that the governor's limits are checked once per basic block. */
+	private boolean mBlockEnded;
+	/** The target of the last redirect. */
+	private int mBlockTarget;
+	/** The target of the taken branch whose delay slot EX executes next, -1 if none. */
+	private int mSlotTarget;
+	/** Set by EX when the instruction budget ran out on a delay slot, so the run ends with it pending. */
+	private boolean mStoppedInSlot;
+
+	/**
+	 * Creates a pipeline. The arrays and the memory are used in place and hold the final state after run().
+	 * @param instructions the program
+	 * @param registers the initial register contents
+	 * @param memory the memory
+	 * @param bus the memory-mapped devices
+	 * @param cp0 the exception registers and handlers, updated in place
+	 * @param pc the PC to start at
+	 * @param delaySlots true if BEQ, J and JR have a delay slot
+	 * @param inSlot true if the instruction at pc is the delay slot of a branch that already executed
+	 * @param slotTarget the target of that branch if it was taken, -1 if not
+	 * @param governor the limits of the run, without a cycle budget
+	 * @param deadline the System.nanoTime() the run has to stop at, Long.MAX_VALUE if none
+	 * @param sampler the throughput sampler, null if throughput is not recorded
+	 */
+	ThreadedPipeline(int[] instructions, int[] registers, Memory memory, DeviceBus bus, Coprocessor0 cp0, int pc,
+			boolean delaySlots, boolean inSlot, int slotTarget, Governor governor, long deadline,
+			Telemetry.Sampler sampler) {
+		mInstructions = instructions;
+		mRegisters = registers;
+		mExRegisters = registers.clone();
+		mMemory = memory;
+		mBus = bus;
+		mCP0 = cp0;
+		mStartPC = pc;
+		mFinalPC = pc;
+		mDelaySlots = delaySlots;
+		mStartInSlot = inSlot;
+		mSlotTarget = slotTarget;
+		mGovernor = governor;
+		mDeadline = deadline;
+		mSampler = sampler;
+		mIfId = new LatchRingBuffer(RING_CAPACITY, this);
+		mIdEx = new LatchRingBuffer(RING_CAPACITY, this);
+		mExMem = new LatchRingBuffer(RING_CAPACITY, this);
+		mMemWb = new LatchRingBuffer(RING_CAPACITY, this);
+	}
+
+	/**
+	 * Runs the program with one thread per stage until it ends or the governor stops it. Either way, the
+	 * run ends precisely: every instruction before getFinalPC() has completed and none after it. The only
+	 * exceptions are a stage that throws and a stage that is still stuck well past the deadline, see
+	 * isWaitOver().
+	 * @return the number of instructions retired
+	 * @throws RuntimeException the first exception a stage threw, rethrown once every stage has returned
+	 */
+	long run() {
+		Thread[] stages = {
+				stage(this::instructionFetch, "IF"),
+				stage(this::instructionDecode, "ID"),
+				stage(this::execute, "EX"),
+				stage(this::memoryOp, "MEM"),
+				stage(this::writeBack, "WB")
+		};
+		for (Thread stage : stages)
+			stage.start();
+		try {
+			for (Thread stage : stages)
+				stage.join();
+		} catch (InterruptedException e) {
+			mStopped = true;
+			Thread.currentThread().interrupt();
+			throw new IllegalArgumentException("Interrupted");
+		}
+		Throwable failure = mFailure.get();
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure != null)
+			throw (RuntimeException) failure;
+		return mRetired;
+	}
+
+	/**
+	 * Private helper method. Creates the thread of a stage. The threads are daemons so that a stage stuck
+	 * in a device never keeps the JVM alive, and an exception in one of them stops the others.
+	 * @param body the stage loop
+	 * @param name the name of the stage
+	 * @return the thread, not yet started
+	 */
+	private Thread stage(Runnable body, String name) {
+		Thread thread = new Thread(() -> {
+			try {
+				body.run();
+			} catch (Throwable e) {
+				mFailure.compareAndSet(null, e);
+				mStopped = true;
+			}
+		}, name);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Returns why the governor stopped the run.
+	 * @return BUDGET_EXCEEDED or CANCELLED, or null if the program ended on its own
+	 */
+	RunOutcome.Status getStopStatus() {
+		return mStopStatus;
+	}
+
+	RunOutcome.Limit getLimit() {
+		return mLimit;
+	}
+
+	/**
+	 * Checks whether a waiting stage has to stop waiting: the run is stopped, or it has waited well past the
+	 * deadline of the governor. EX normally stops a run that reaches its deadline at the next redirect;
+	 * if a stage is still waiting ABANDON_GRACE_NANOS after it, the pipeline is stuck, and the run ends
+	 * over its wall-clock budget without a precise state.
+	 * @param spins the number of times the caller has waited so far, see LatchRingBuffer.backOff()
+	 * @return true if the caller has to return
+	 */
+	boolean isWaitOver(int spins) {
+		if (mStopped)
+			return true;
+		if (spins < LatchRingBuffer.SPINS_BEFORE_YIELD || mDeadline == Long.MAX_VALUE
+				|| System.nanoTime() - mDeadline < ABANDON_GRACE_NANOS)
+			return false;
+		if (mStopStatus == null) {
+			mLimit = RunOutcome.Limit.WALL_CLOCK;
+			mStopStatus = RunOutcome.Status.BUDGET_EXCEEDED;
+		}
+		mStopped = true;
+		return true;
+	}
+
+	int getFinalPC() {
+		return mFinalPC;
+	}
+
+	/**
+	 * Checks whether the run stopped between a branch and its delay slot, so that getFinalPC() is the
+	 * delay slot and the branch has already executed.
+	 * @return true if the delay slot is still to execute
+	 */
+	boolean isSlotPending() {
+		return mStoppedInSlot;
+	}
+
+	/**
+	 * Returns where the branch ahead of a pending delay slot goes once the slot has executed.
+	 * @return the target of the branch, -1 if it was not taken or no delay slot is pending
+	 */
+	int getSlotTarget() {
+		return mStoppedInSlot ? mSlotTarget : -1;
+	}
+
+	SimulationFault getFault() {
+		return mFault;
+	}
+
+	boolean hasExited() {
+		return mExited;
+	}
+
+	int getExitCode() {
+		return mExitCode;
+	}
+
+	/**
+	 * IF thread. Fetches sequentially until it reaches the end of the program, then sends a halt marker
+	 * and waits for either a redirect or the end of the run. A delay slot is always fetched; past the end
+	 * of the program it is a NOP.
+	 */
+	private void instructionFetch() {
+		int pc = mStartPC;
+		int epoch = 0;
+		boolean slot = mStartInSlot;
+		while (!mStopped) {
+			long redirect = mRedirect.get();
+			if ((int) (redirect >>> 32) != epoch) {
+				epoch = (int) (redirect >>> 32);
+				pc = (int) redirect;
+				slot = false;
+			}
+			Latch out = mIfId.claim();
+			if (out == null)
+				return;
+			int index = pc / 4;
+			out.epoch = epoch;
+			int word = index < mInstructions.length ? mInstructions[index] : 0;
+			if (word != 0 || slot) {
+				out.halt = false;
+				out.word = word;
+				out.slot = slot;
+				slot = mDelaySlots && !slot && isDelayedBranch(word);
+				pc += 4;
+				out.nextPC = pc;
+				mIfId.publish();
+			} else {
+				out.halt = true;
+				out.nextPC = pc;
+				mIfId.publish();
+				int spins = 0;
+				while ((int) (mRedirect.get() >>> 32) == epoch && !isWaitOver(spins))
+					spins = LatchRingBuffer.backOff(spins);
+			}
+		}
+	}
+
+	/**
+	 * ID thread. Splits each instruction into its fields.
+	 */
+	private void instructionDecode() {
+		while (true) {
+			Latch in = mIfId.peek();
+			if (in == null)
+				return;
+			Latch out = mIdEx.claim();
+			if (out == null)
+				return;
+			int word = in.word;
+			out.halt = in.halt;
+			out.word = word;
+			out.nextPC = in.nextPC;
+			out.epoch = in.epoch;
+			out.slot = in.slot;
+			out.op = word >>> 26;
+			out.rs = (word >>> 21) & 0x1F;
+			out.rt = (word >>> 16) & 0x1F;
+			out.rd = (word >>> 11) & 0x1F;
+			out.funct = word & 0x3F;
+			out.imm = (short) word;
+			mIdEx.publish();
+			mIfId.release();
+		}
+	}
+
+	/**
+	 * EX thread. Executes instructions of the current epoch and drops the rest. Keeps its own copy of the
+	 * registers, which is always up to date except for registers a load in flight is about to write.
+	 */
+	private void execute() {
+		long executed = 0;
+		while (true) {
+			Latch in = mIdEx.peek();
+			if (in == null)
+				return;
+			if (in.epoch != mEpoch || mHalted) {
+				mIdEx.release();
+				continue;
+			}
+			Latch out = mExMem.claim();
+			if (out == null)
+				return;
+			out.halt = in.halt;
+			out.nextPC = in.nextPC;
+			out.op = in.op;
+			out.target = -1;
+			if (in.halt) {
+				mExMem.publish();
+				mIdEx.release();
+				continue;
+			}
+			if (in.word == 0) {
+				// A NOP in a delay slot; all that is left is the branch ahead of it.
+				takeDelayedBranch();
+			} else if (++executed > mGovernor.getMaxInstructions()) {
+				// The branch ahead of a delay slot has already executed; the run ends with the slot pending.
+				mStoppedInSlot = in.slot;
+				stop(RunOutcome.Status.BUDGET_EXCEEDED, RunOutcome.Limit.INSTRUCTIONS, in.nextPC - 4);
+				mIdEx.release();
+				continue;
+			} else if (executeInstruction(in, out)) {
+				if (out.target >= 0 && !isLoad(in.op)) {
+					mExRegisters[out.target] = out.value;
+					mPendingLoad[out.target] = 0;
+				}
+				mExMem.publish();
+			}
+			if (mBlockEnded && !mHalted) {
+				mBlockEnded = false;
+				RunOutcome.Limit limit = mGovernor.exceeded(0, executed, mDeadline);
+				if (mGovernor.isCancelled())
+					stop(RunOutcome.Status.CANCELLED, null, mBlockTarget);
+				else if (limit != null)
+					stop(RunOutcome.Status.BUDGET_EXCEEDED, limit, mBlockTarget);
+				if (mSampler != null)
+					mSampler.sample(executed, 0);
+			}
+			mIdEx.release();
+		}
+	}
+
+	/**
+	 * Private helper method. Executes one instruction in EX.
+	 * @param in the instruction
+	 * @param out the latch claimed for it
+	 * @return true if out has to be published, false if the instruction trapped or ended the program
+	 */
+	private boolean executeInstruction(Latch in, Latch out) {
+		if (in.slot && (isDelayedBranch(in.word) || (in.op == COP0_OP && in.rs == CO_FORMAT && in.funct == ERET_FUNC)))
+			return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Branch in delay slot");
+		int redirect = -1;
+		int rsVal = readRegister(in.rs);
+		if (in.op == ADD_AND_JR_OP) {
+			int rtVal = readRegister(in.rt);
+			if (in.funct == ADD_FUNC) {
+				if (overflows(rsVal, rtVal))
+					return trap(in, out, SimulationFault.OVERFLOW, 0, "Overflow exception");
+				if (in.rd == 0)
+					return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+				out.target = in.rd;
+				out.value = rsVal + rtVal;
+			} else if (in.funct == AND_FUNC) {
+				if (in.rd == 0)
+					return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+				out.target = in.rd;
+				out.value = rsVal & rtVal;
+			} else if (in.funct == JR_FUNC) {
+				if (rsVal % 4 != 0)
+					return trap(in, out, SimulationFault.ADDRESS_LOAD, rsVal, "Address error exception, not aligned.");
+				redirect = rsVal;
+			} else if (in.funct == SYSCALL_FUNC) {
+				int service = readRegister(SYSCALL_SERVICE_REG);
+				int arg = readRegister(SYSCALL_ARG_REG);
+				if (service == PRINT_INT_SERVICE || service == PRINT_CHAR_SERVICE) {
+					out.op = PRINT_OP;
+					out.address = service;
+					out.value = arg;
+				} else if (service == EXIT_SERVICE || service == EXIT2_SERVICE) {
+					// Retire the SYSCALL, then end the run exactly like the end of the program.
+					mExitCode = service == EXIT2_SERVICE ? arg : 0;
+					mExited = true;
+					mExMem.publish();
+					halt(in.nextPC);
+					return false;
+				} else {
+					return trap(in, out, SimulationFault.SYSCALL, 0, "Undefined syscall");
+				}
+			} else {
+				return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Undefined function");
+			}
+		} else if (in.op == ADDI_OP) {
+			if (overflows(rsVal, in.imm))
+				return trap(in, out, SimulationFault.OVERFLOW, 0, "Overflow exception");
+			if (in.rt == 0)
+				return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+			out.target = in.rt;
+			out.value = rsVal + in.imm;
+		} else if (in.op == ANDI_OP) {
+			if (in.rt == 0)
+				return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+			out.target = in.rt;
+			out.value = rsVal & (in.word & 0xFFFF);
+		} else if (isLoad(in.op) || isStore(in.op)) {
+			boolean load = isLoad(in.op);
+			if (load && in.rt == 0)
+				return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Cannot write to 0 register @load");
+			if (overflows(rsVal, in.imm))
+				return trap(in, out, SimulationFault.OVERFLOW, 0, "Overflow exception");
+			int addr = rsVal + in.imm;
+			int size = accessSize(in.op);
+			int cause = load ? SimulationFault.ADDRESS_LOAD : SimulationFault.ADDRESS_STORE;
+			if (addr % size != 0)
+				return trap(in, out, cause, addr, "Address error exception, not aligned.");
+			if (addr > mMemory.size() - size || addr < 0) {
+				if (!mBus.claims(addr))
+					return trap(in, out, cause, addr, "Memory address exceeds limit.");
+				if (size != 4)
+					return trap(in, out, cause, addr, "Devices only take word accesses.");
+			}
+			out.address = addr;
+			if (load) {
+				out.target = in.rt;
+				out.loadSeq = ++mIssuedLoads;
+				mPendingLoad[in.rt] = mIssuedLoads;
+			} else {
+				out.value = readRegister(in.rt);
+			}
+		} else if (in.op == J_OP) {
+			redirect = (in.nextPC & 0xF0000000) | ((in.word & 0x3FFFFFF) << 2);
+		} else if (in.op == BEQ_OP) {
+			if (rsVal == readRegister(in.rt))
+				redirect = in.nextPC + 4 * in.imm;
+		} else if (in.op == COP0_OP) {
+			if (in.rs == MFC0_FORMAT) {
+				if (in.rt == 0)
+					return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Invalid register ($zero)");
+				out.target = in.rt;
+				out.value = mCP0.read(in.rd);
+			} else if (in.rs == MTC0_FORMAT) {
+				mCP0.write(in.rd, readRegister(in.rt));
+			} else if (in.rs == CO_FORMAT && in.funct == ERET_FUNC) {
+				redirect = mCP0.read(Coprocessor0.EPC);
+				if (redirect % 4 != 0)
+					return trap(in, out, SimulationFault.ADDRESS_LOAD, redirect, "Out of bounds jump target at instruction");
+			} else {
+				return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Undefined function");
+			}
+		} else {
+			return trap(in, out, SimulationFault.RESERVED_INSTRUCTION, 0, "Undefined opcode");
+		}
+
+		if (redirect != -1) {
+			if (redirect < 0 || redirect / 4 >= mInstructions.length)
+				return trap(in, out, SimulationFault.ADDRESS_LOAD, redirect, "Out of bounds jump target at instruction");
+			if (in.op == COP0_OP) {
+				mCP0.eret();
+				redirect(redirect);
+			} else if (mDelaySlots) {
+				mSlotTarget = redirect;
+			} else {
+				redirect(redirect);
+			}
+		}
+		if (in.slot)
+			takeDelayedBranch();
+		return true;
+	}
+
+	/**
+	 * Private helper method. Redirects to the target of the taken branch whose delay slot just executed.
+	 */
+	private void takeDelayedBranch() {
+		if (mSlotTarget != -1) {
+			redirect(mSlotTarget);
+			mSlotTarget = -1;
+		}
+	}
+
+	/**
+	 * Private helper method. Takes an exception for the instruction in EX, like Computer does: the
+	 * program continues at the guest handler in a new epoch, or ends at the faulting instruction with a
+	 * halt marker so that the older instructions still complete.
+	 * @param in the faulting instruction
+	 * @param out the latch claimed for it
+	 * @param cause the cause code, see SimulationFault
+	 * @param badVAddr the faulting address, 0 if the cause has none
+	 * @param message the description of the fault
+	 * @return false, so callers can return it directly
+	 */
+	private boolean trap(Latch in, Latch out, int cause, int badVAddr, String message) {
+		int pc = in.nextPC - 4;
+		mSlotTarget = -1;
+		int handler = mCP0.raise(cause, pc, badVAddr, in.slot);
+		if (handler >= 0) {
+			redirect(handler);
+		} else {
+			mFault = new SimulationFault(cause, pc, badVAddr, in.word, message);
+			halt(pc);
+		}
+		return false;
+	}
+
+	/**
+	 * Private helper method. Sends a halt marker to MEM and drops every instruction after it.
+	 * @param pc the PC the program ends at
+	 */
+	private void halt(int pc) {
+		mHalted = true;
+		Latch marker = mExMem.claim();
+		if (marker == null)
+			return;
+		marker.halt = true;
+		marker.nextPC = pc;
+		marker.target = -1;
+		mExMem.publish();
+	}
+
+	/**
+	 * Private helper method. Ends the run early on behalf of the governor.
+	 * @param status why the run ends
+	 * @param limit the budget that ran out, null if none did
+	 * @param pc the address of the first instruction not to execute
+	 */
+	private void stop(RunOutcome.Status status, RunOutcome.Limit limit, int pc) {
+		mStopStatus = status;
+		mLimit = limit;
+		halt(pc);
+	}
+
+	/**
+	 * Private helper method. Starts a new epoch fetching from the given address.
+	 * @param target the address IF continues at
+	 */
+	private void redirect(int target) {
+		mBlockEnded = true;
+		mBlockTarget = target;
+		mEpoch++;
+		mRedirect.set(((long) mEpoch << 32) | (target & 0xFFFFFFFFL));
+	}
+
+	/**
+	 * MEM thread. Performs loads and stores in program order and publishes completed loads to EX.
+	 */
+	private void memoryOp() {
+		long instructions = 0;
+		while (true) {
+			Latch in = mExMem.peek();
+			if (in == null)
+				return;
+			Latch out = mMemWb.claim();
+			if (out == null)
+				return;
+			out.halt = in.halt;
+			out.nextPC = in.nextPC;
+			out.target = in.target;
+			out.value = in.value;
+			if (!in.halt) {
+				instructions++;
+				if (isLoad(in.op)) {
+					boolean signed = in.op != LBU_OP && in.op != LHU_OP;
+					out.value = in.address >= mMemory.size() ? mBus.read(in.address, instructions)
+							: mMemory.load(in.address, accessSize(in.op), signed);
+					mLoadedValues[in.target] = out.value;
+					mCompletedLoads.lazySet(in.loadSeq);
+				} else if (isStore(in.op)) {
+					if (in.address >= mMemory.size())
+						mBus.write(in.address, in.value, instructions);
+					else
+						mMemory.store(in.address, accessSize(in.op), in.value);
+				} else if (in.op == PRINT_OP && mBus.getConsole() != null) {
+					if (in.address == PRINT_INT_SERVICE)
+						mBus.getConsole().print(Integer.toString(in.value));
+					else
+						mBus.getConsole().print((char) (in.value & 0xFF));
+				}
+			}
+			mMemWb.publish();
+			mExMem.release();
+		}
+	}
+
+	/**
+	 * WB thread. Writes results into the architectural registers and ends the run at the halt marker.
+	 */
+	private void writeBack() {
+		while (true) {
+			Latch in = mMemWb.peek();
+			if (in == null)
+				return;
+			if (in.halt) {
+				mFinalPC = in.nextPC;
+				mStopped = true;
+				return;
+			}
+			if (in.target >= 0)
+				mRegisters[in.target] = in.value;
+			mRetired++;
+			mMemWb.release();
+		}
+	}
+
+	/**
+	 * Private helper method. Reads a register in EX, waiting for MEM if a load into it is in flight.
+	 * @param register the register to read
+	 * @return the register value
+	 */
+	private int readRegister(int register) {
+		long seq = mPendingLoad[register];
+		if (seq != 0) {
+			int spins = 0;
+			while (mCompletedLoads.get() < seq) {
+				if (isWaitOver(spins))
+					return 0;
+				spins = LatchRingBuffer.backOff(spins);
+			}
+			mExRegisters[register] = mLoadedValues[register];
+			mPendingLoad[register] = 0;
+		}
+		return mExRegisters[register];
+	}
+}
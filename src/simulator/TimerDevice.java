@@ -0,0 +1,59 @@
+package simulator;
+
+/**
+ * TimerDevice is a memory-mapped cycle counter with a countdown timer. Programs poll it to measure
+ * how long a section took or to wait for a number of cycles.
+ * <ul>
+ *   <li>CYCLES_LO / CYCLES_HI (offsets 0 and 4): the low and high word of the current cycle.</li>
+ *   <li>COUNTDOWN (offset 8): a store starts a countdown of that many cycles; a load returns the
+ *   cycles left, 0 once expired.</li>
+ *   <li>STATUS (offset 12): a load returns 1 if the countdown has expired, 0 while it is running or
+ *   if none was started.</li>
+ * </ul>
+ * @author Egor Maksimenka
+ */
+public class TimerDevice implements Device {
+
+	/** Offset of the low word of the cycle counter. */
+	public static final int CYCLES_LO = 0;
+	/** Offset of the high word of the cycle counter. */
+	public static final int CYCLES_HI = 4;
+	/** Offset of the countdown register. */
+	public static final int COUNTDOWN = 8;
+	/** Offset of the status register. */
+	public static final int STATUS = 12;
+	/** The number of bytes the timer claims. */
+	private static final int SIZE = 16;
+
+	/** The cycle the countdown expires at, -1 if none was started. */
+	private long mDeadline = -1;
+
+	@Override
+	public int size() {
+		return SIZE;
+	}
+
+	@Override
+	public int read(int offset, long cycle) {
+		if (offset == CYCLES_LO)
+			return (int) cycle;
+		if (offset == CYCLES_HI)
+			return (int) (cycle >>> 32);
+		if (offset == COUNTDOWN)
+			return mDeadline < 0 ? 0 : (int) Math.max(0, mDeadline - cycle);
+		if (offset == STATUS)
+			return mDeadline >= 0 && cycle >= mDeadline ? 1 : 0;
+		return 0;
+	}
+
+	@Override
+	public void write(int offset, int value, long cycle) {
+		if (offset == COUNTDOWN)
+			mDeadline = cycle + Math.max(0, value);
+	}
+
+	@Override
+	public void reset() {
+		mDeadline = -1;
+	}
+}